@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.benchmarks;
+
+import com.schillingcoin.schillingcoinj.core.BloomFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserting into and querying a bloom filter sized for {@link #elements} elements, with items the size of a public
+ * key hash. Half of the queried items are in the filter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BloomFilterBenchmark {
+    @Param({"1000"})
+    public int elements;
+
+    private BloomFilter filter;
+    private byte[][] items;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        filter = new BloomFilter(elements, 0.0001, 1);
+        items = new byte[elements * 2][];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new byte[20];
+            random.nextBytes(items[i]);
+            if (i % 2 == 0)
+                filter.insert(items[i]);
+        }
+    }
+
+    private byte[] nextItem() {
+        byte[] item = items[next];
+        next = (next + 1) % items.length;
+        return item;
+    }
+
+    @Benchmark
+    public void insert() {
+        filter.insert(nextItem());
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return filter.contains(nextItem());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.benchmarks;
+
+import com.schillingcoin.schillingcoinj.core.ECKey;
+import com.schillingcoin.schillingcoinj.core.Sha256Hash;
+import com.schillingcoin.schillingcoinj.crypto.ChildNumber;
+import com.schillingcoin.schillingcoinj.crypto.DeterministicKey;
+import com.schillingcoin.schillingcoinj.crypto.HDKeyDerivation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing, ECDSA signing and verification, and BIP 32 key derivation. Keys and data are derived from a fixed seed so
+ * that every run does the same work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoBenchmark {
+    /** Size of the data hashed: a block header, and a typical transaction. */
+    @Param({"80", "250"})
+    public int hashedBytes;
+
+    private byte[] data;
+    private ECKey key;
+    private Sha256Hash sigHash;
+    private ECKey.ECDSASignature signature;
+    private DeterministicKey master, masterPub;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        data = new byte[hashedBytes];
+        random.nextBytes(data);
+        byte[] privKey = new byte[32];
+        random.nextBytes(privKey);
+        key = ECKey.fromPrivate(privKey);
+        sigHash = Sha256Hash.create(data);
+        signature = key.sign(sigHash);
+        byte[] seed = new byte[32];
+        random.nextBytes(seed);
+        master = HDKeyDerivation.createMasterPrivateKey(seed);
+        masterPub = master.getPubOnly();
+    }
+
+    @Benchmark
+    public Sha256Hash sha256Double() {
+        return Sha256Hash.createDouble(data);
+    }
+
+    @Benchmark
+    public ECKey.ECDSASignature sign() {
+        return key.sign(sigHash);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return key.verify(sigHash, signature);
+    }
+
+    @Benchmark
+    public DeterministicKey derivePrivateChild() {
+        return HDKeyDerivation.deriveChildKey(master, new ChildNumber(0, false));
+    }
+
+    @Benchmark
+    public DeterministicKey deriveHardenedChild() {
+        return HDKeyDerivation.deriveChildKey(master, new ChildNumber(0, true));
+    }
+
+    @Benchmark
+    public DeterministicKey derivePublicChild() {
+        return HDKeyDerivation.deriveChildKey(masterPub, new ChildNumber(0, false));
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.benchmarks;
+
+import com.subgraph.orchid.crypto.Curve25519;
+import com.subgraph.orchid.crypto.TorCurve25519;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scalar multiplications done for every ntor handshake with a Tor relay (one to create the onion skin and two to
+ * process the reply), comparing the 8 bit limb reference Curve25519 with the radix 2^25.5 TorCurve25519.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Curve25519Benchmark {
+    private byte[] secret;
+    private byte[] peerKey;
+    private byte[] out;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        secret = new byte[32];
+        peerKey = new byte[32];
+        out = new byte[32];
+        random.nextBytes(secret);
+        TorCurve25519.scalarMultBase(peerKey, secret);
+        random.nextBytes(secret);
+    }
+
+    @Benchmark
+    public byte[] reference() {
+        Curve25519.crypto_scalarmult_base(out, secret);
+        Curve25519.crypto_scalarmult(out, secret, peerKey);
+        Curve25519.crypto_scalarmult(out, secret, peerKey);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] optimized() {
+        TorCurve25519.scalarMultBase(out, secret);
+        TorCurve25519.scalarMult(out, secret, peerKey);
+        TorCurve25519.scalarMult(out, secret, peerKey);
+        return out;
+    }
+}
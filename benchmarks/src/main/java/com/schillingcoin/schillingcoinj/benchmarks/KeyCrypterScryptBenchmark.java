@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.benchmarks;
+
+import com.schillingcoin.schillingcoinj.crypto.EncryptedData;
+import com.schillingcoin.schillingcoinj.crypto.KeyCrypterScrypt;
+import com.schillingcoin.schillingcoinj.wallet.Protos;
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.*;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deriving a wallet encryption key from a password, and encrypting and decrypting a private key with it. The salt is
+ * fixed so that every run does the same work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyCrypterScryptBenchmark {
+    /** The scrypt N parameter: the wallet default, and the value suggested for mobile devices. */
+    @Param({"16384", "512"})
+    public int iterations;
+
+    private KeyCrypterScrypt crypter;
+    private KeyParameter aesKey;
+    private byte[] privateKey;
+    private EncryptedData encrypted;
+
+    @Setup
+    public void setup() {
+        Protos.ScryptParameters scryptParameters = Protos.ScryptParameters.newBuilder()
+                .setSalt(ByteString.copyFrom(new byte[KeyCrypterScrypt.SALT_LENGTH])).setN(iterations).build();
+        crypter = new KeyCrypterScrypt(scryptParameters);
+        aesKey = crypter.deriveKey("password");
+        privateKey = new byte[32];
+        encrypted = crypter.encrypt(privateKey, aesKey);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public KeyParameter deriveKey() {
+        return crypter.deriveKey("password");
+    }
+
+    @Benchmark
+    public EncryptedData encrypt() {
+        return crypter.encrypt(privateKey, aesKey);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return crypter.decrypt(encrypted, aesKey);
+    }
+}
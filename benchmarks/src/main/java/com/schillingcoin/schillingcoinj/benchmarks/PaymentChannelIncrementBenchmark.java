@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.benchmarks;
+
+import com.schillingcoin.schillingcoinj.core.*;
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import com.schillingcoin.schillingcoinj.protocols.channels.PaymentTransactionTemplate;
+import com.schillingcoin.schillingcoinj.script.Script;
+import com.schillingcoin.schillingcoinj.script.ScriptBuilder;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking the client's signature on one payment increment, comparing building the payment transaction, hashing it
+ * with hashForSignature and verifying against the encoded client key (as incrementPayment used to) with hashing a
+ * {@link PaymentTransactionTemplate} and verifying against the decoded key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentChannelIncrementBenchmark {
+    private static final int INCREMENTS = 1000;
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    private Script multisigScript;
+    private Transaction contract;
+    private TransactionOutput clientOutput;
+    private ECKey publicOnly;
+    private PaymentTransactionTemplate template;
+    private long time;
+    // One signature per increment, signing is not part of the measurement.
+    private Coin[] refunds;
+    private ECKey.ECDSASignature[] signatures;
+    private int next;
+
+    @Setup
+    public void setup() {
+        ECKey clientKey = new ECKey();
+        multisigScript = ScriptBuilder.createMultiSigOutputScript(2, ImmutableList.of(clientKey, new ECKey()));
+        contract = new Transaction(params);
+        contract.addOutput(Coin.COIN, multisigScript);
+        clientOutput = new Transaction(params).addOutput(Coin.COIN, clientKey.toAddress(params));
+        publicOnly = ECKey.fromPublicOnly(clientKey.getPubKey());
+        template = new PaymentTransactionTemplate(params, contract.getOutput(0), multisigScript, clientOutput);
+        time = Utils.currentTimeSeconds();
+        refunds = new Coin[INCREMENTS];
+        signatures = new ECKey.ECDSASignature[INCREMENTS];
+        for (int i = 0; i < INCREMENTS; i++) {
+            refunds[i] = Coin.COIN.subtract(Coin.valueOf(1000 * (i + 1)));
+            signatures[i] = clientKey.sign(template.hashForRefund(time, refunds[i]));
+        }
+    }
+
+    private int nextIncrement() {
+        next = (next + 1) % INCREMENTS;
+        return next;
+    }
+
+    @Benchmark
+    public boolean transaction() {
+        int i = nextIncrement();
+        Transaction tx = new Transaction(params);
+        tx.setTime(time);
+        clientOutput.setValue(refunds[i]);
+        tx.addOutput(clientOutput);
+        tx.addInput(contract.getOutput(0));
+        Sha256Hash hash = tx.hashForSignature(0, multisigScript, Transaction.SigHash.SINGLE, true);
+        return check(ECKey.verify(hash.getBytes(), signatures[i], publicOnly.getPubKey()));
+    }
+
+    @Benchmark
+    public boolean template() {
+        int i = nextIncrement();
+        return check(publicOnly.verify(template.hashForRefund(time, refunds[i]), signatures[i]));
+    }
+
+    private static boolean check(boolean verified) {
+        if (!verified)
+            throw new IllegalStateException("Signature did not verify");
+        return verified;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.benchmarks;
+
+import com.schillingcoin.schillingcoinj.core.Address;
+import com.schillingcoin.schillingcoinj.core.Coin;
+import com.schillingcoin.schillingcoinj.core.ECKey;
+import com.schillingcoin.schillingcoinj.core.NetworkParameters;
+import com.schillingcoin.schillingcoinj.params.MainNetParams;
+import com.schillingcoin.schillingcoinj.protocols.payments.PaymentProtocol;
+import com.schillingcoin.schillingcoinj.protocols.payments.PaymentProtocolException;
+import com.schillingcoin.schillingcoinj.protocols.payments.PkiVerificationCache;
+import com.schillingcoin.schillingcoinj.protocols.payments.Protos;
+import org.openjdk.jmh.annotations.*;
+import org.spongycastle.asn1.ASN1EncodableVector;
+import org.spongycastle.asn1.ASN1Encoding;
+import org.spongycastle.asn1.ASN1Integer;
+import org.spongycastle.asn1.DERBitString;
+import org.spongycastle.asn1.DERNull;
+import org.spongycastle.asn1.DERSequence;
+import org.spongycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.spongycastle.asn1.x500.X500Name;
+import org.spongycastle.asn1.x509.AlgorithmIdentifier;
+import org.spongycastle.asn1.x509.BasicConstraints;
+import org.spongycastle.asn1.x509.Extension;
+import org.spongycastle.asn1.x509.ExtensionsGenerator;
+import org.spongycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.spongycastle.asn1.x509.TBSCertificate;
+import org.spongycastle.asn1.x509.Time;
+import org.spongycastle.asn1.x509.V3TBSCertificateGenerator;
+
+import java.io.ByteArrayInputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifying signed payment requests from the same merchant, comparing
+ * {@link PaymentProtocol#verifyPaymentRequestPki(Protos.PaymentRequest, KeyStore)} with verifying through a
+ * {@link PkiVerificationCache}. The merchant certificate and the root that issued it are generated on setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentVerificationBenchmark {
+    private static final int REQUESTS = 1000;
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final NetworkParameters params = MainNetParams.get();
+
+    private KeyStore trustStore;
+    private PkiVerificationCache cache;
+    // Distinct requests from the same merchant, as a merchant backend would see them.
+    private Protos.PaymentRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair rootKeys = generator.generateKeyPair();
+        KeyPair merchantKeys = generator.generateKeyPair();
+        X509Certificate root = createCertificate("CN=Benchmark Root", rootKeys, "CN=Benchmark Root",
+                rootKeys.getPrivate(), true);
+        X509Certificate merchant = createCertificate("CN=merchant.example.com", merchantKeys, "CN=Benchmark Root",
+                rootKeys.getPrivate(), false);
+        trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("root", root);
+        cache = new PkiVerificationCache(trustStore);
+
+        Address address = new ECKey().toAddress(params);
+        requests = new Protos.PaymentRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            Protos.PaymentRequest.Builder builder = PaymentProtocol.createPaymentRequest(params,
+                    Coin.valueOf(i + 1), address, "order " + i, null, null);
+            PaymentProtocol.signPaymentRequest(builder, new X509Certificate[] { merchant }, merchantKeys.getPrivate());
+            requests[i] = builder.build();
+        }
+    }
+
+    // Issues a certificate valid from a day ago until a day from now.
+    private static X509Certificate createCertificate(String subject, KeyPair subjectKeys, String issuer,
+                                                     PrivateKey issuerKey, boolean ca) throws Exception {
+        AlgorithmIdentifier algorithm = new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption,
+                DERNull.INSTANCE);
+        long now = System.currentTimeMillis();
+        V3TBSCertificateGenerator generator = new V3TBSCertificateGenerator();
+        generator.setSerialNumber(new ASN1Integer(now));
+        generator.setIssuer(new X500Name(issuer));
+        generator.setSubject(new X500Name(subject));
+        generator.setStartDate(new Time(new Date(now - DAY_MILLIS)));
+        generator.setEndDate(new Time(new Date(now + DAY_MILLIS)));
+        generator.setSubjectPublicKeyInfo(SubjectPublicKeyInfo.getInstance(subjectKeys.getPublic().getEncoded()));
+        generator.setSignature(algorithm);
+        if (ca) {
+            ExtensionsGenerator extensions = new ExtensionsGenerator();
+            extensions.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+            generator.setExtensions(extensions.generate());
+        }
+        TBSCertificate tbs = generator.generateTBSCertificate();
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(issuerKey);
+        signature.update(tbs.getEncoded(ASN1Encoding.DER));
+        ASN1EncodableVector certificate = new ASN1EncodableVector();
+        certificate.add(tbs);
+        certificate.add(algorithm);
+        certificate.add(new DERBitString(signature.sign()));
+        byte[] encoded = new DERSequence(certificate).getEncoded(ASN1Encoding.DER);
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(encoded));
+    }
+
+    private Protos.PaymentRequest nextRequest() {
+        next = (next + 1) % REQUESTS;
+        return requests[next];
+    }
+
+    @Benchmark
+    public PaymentProtocol.PkiVerificationData keyStore() throws PaymentProtocolException {
+        return PaymentProtocol.verifyPaymentRequestPki(nextRequest(), trustStore);
+    }
+
+    @Benchmark
+    public PaymentProtocol.PkiVerificationData cache() throws PaymentProtocolException {
+        return PaymentProtocol.verifyPaymentRequestPki(nextRequest(), cache);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.benchmarks;
+
+import com.subgraph.orchid.crypto.TorMessageDigest;
+import com.subgraph.orchid.crypto.TorRunningDigest;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The running digest check done for every relay cell received by Tor, comparing TorMessageDigest (which clones the
+ * digest to peek at the value, then hashes the cell again) with TorRunningDigest (which hashes the cell once and could
+ * roll back the state if the cell is not recognized). TorRunningDigest is measured both with its own SHA-1, the
+ * default, and with the platform digest, which clones the digest to save the state and again to read the value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelayCellDigestBenchmark {
+    private static final int CELL_HEADER_LEN = 5;
+    private static final int CELL_PAYLOAD_LEN = 509;
+
+    private byte[] cell;
+    private byte[] out;
+    private TorMessageDigest messageDigest;
+    private TorRunningDigest runningDigest;
+    private TorRunningDigest platformRunningDigest;
+
+    @Setup
+    public void setup() {
+        cell = new byte[CELL_HEADER_LEN + CELL_PAYLOAD_LEN];
+        new Random(1).nextBytes(cell);
+        out = new byte[4];
+        messageDigest = new TorMessageDigest();
+        runningDigest = new TorRunningDigest();
+        platformRunningDigest = TorRunningDigest.createWithPlatformDigest();
+    }
+
+    @Benchmark
+    public byte[] messageDigest() {
+        byte[] peek = messageDigest.peekDigest(cell, CELL_HEADER_LEN, CELL_PAYLOAD_LEN);
+        messageDigest.update(cell, CELL_HEADER_LEN, CELL_PAYLOAD_LEN);
+        return peek;
+    }
+
+    @Benchmark
+    public byte[] runningDigest() {
+        runningDigest.saveState();
+        runningDigest.update(cell, CELL_HEADER_LEN, CELL_PAYLOAD_LEN);
+        runningDigest.getDigest(out, 0, out.length);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] platformRunningDigest() {
+        platformRunningDigest.saveState();
+        platformRunningDigest.update(cell, CELL_HEADER_LEN, CELL_PAYLOAD_LEN);
+        platformRunningDigest.getDigest(out, 0, out.length);
+        return out;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.benchmarks;
+
+import com.schillingcoin.schillingcoinj.core.*;
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import com.schillingcoin.schillingcoinj.script.Script;
+import com.schillingcoin.schillingcoinj.testing.FakeTxBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Checking that a signed pay-to-address input correctly spends its output, which includes verifying the signature. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptBenchmark {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    private Transaction spend;
+    private Script scriptSig, scriptPubKey;
+
+    @Setup
+    public void setup() {
+        ECKey key = new ECKey();
+        Transaction funding = FakeTxBuilder.createFakeTx(params, Coin.COIN, key.toAddress(params));
+        TransactionOutput output = funding.getOutput(0);
+        spend = new Transaction(params);
+        spend.addOutput(Coin.CENT, new ECKey().toAddress(params));
+        spend.addSignedInput(output, key);
+        scriptSig = spend.getInput(0).getScriptSig();
+        scriptPubKey = output.getScriptPubKey();
+    }
+
+    @Benchmark
+    public void correctlySpends() {
+        scriptSig.correctlySpends(spend, 0, scriptPubKey);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.benchmarks;
+
+import com.schillingcoin.schillingcoinj.core.*;
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import com.schillingcoin.schillingcoinj.store.MemoryBlockStore;
+import com.schillingcoin.schillingcoinj.testing.FakeTxBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and serializing of transactions and blocks, and computing the merkle root of a block. The block holds
+ * {@link #transactions} transactions of the same shape as {@link #tx}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    @Param({"100"})
+    public int transactions;
+
+    private byte[] txBytes, blockBytes;
+    private Transaction tx;
+    private Block block;
+
+    @Setup
+    public void setup() throws Exception {
+        Address to = new ECKey().toAddress(params);
+        Transaction[] txns = new Transaction[transactions];
+        for (int i = 0; i < transactions; i++)
+            txns[i] = FakeTxBuilder.createFakeTx(params, Coin.valueOf(i + 1), to);
+        Block solved = FakeTxBuilder.createFakeBlock(new MemoryBlockStore(params), txns).block;
+        // Work on parsed copies, as if they had been read from the network.
+        txBytes = txns[0].serialize();
+        tx = new Transaction(params, txBytes);
+        blockBytes = solved.serialize();
+        block = new Block(params, blockBytes);
+    }
+
+    @Benchmark
+    public Transaction parseTransaction() {
+        return new Transaction(params, txBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeTransaction() {
+        return tx.serialize();
+    }
+
+    @Benchmark
+    public Block parseBlock() {
+        return new Block(params, blockBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeBlock() {
+        return block.serialize();
+    }
+
+    /** A freshly parsed block, so that no transaction hashes are cached yet. */
+    @State(Scope.Thread)
+    public static class ParsedBlock {
+        Block block;
+
+        @Setup(Level.Invocation)
+        public void parse(SerializationBenchmark benchmark) {
+            block = new Block(params, benchmark.blockBytes);
+        }
+    }
+
+    /** Hashes every transaction and builds the merkle tree, as the chain does for blocks with relevant transactions. */
+    @Benchmark
+    public void merkleRoot(ParsedBlock parsed) {
+        parsed.block.verifyTransactions();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.benchmarks;
+
+import com.schillingcoin.schillingcoinj.core.*;
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import com.schillingcoin.schillingcoinj.store.BlockStore;
+import com.schillingcoin.schillingcoinj.store.MemoryBlockStore;
+import com.schillingcoin.schillingcoinj.store.WalletProtobufSerializer;
+import com.schillingcoin.schillingcoinj.testing.FakeTxBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receiving a transaction in a block, and writing and reading a wallet holding {@link #transactions} received
+ * transactions with the protobuf serializer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WalletBenchmark {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    @Param({"100"})
+    public int transactions;
+
+    private Wallet wallet;
+    private byte[] walletBytes;
+    private final WalletProtobufSerializer serializer = new WalletProtobufSerializer();
+
+    @Setup
+    public void setup() throws Exception {
+        wallet = new Wallet(params);
+        BlockStore blockStore = new MemoryBlockStore(params);
+        for (int i = 0; i < transactions; i++) {
+            Transaction tx = FakeTxBuilder.createFakeTx(params, Coin.COIN, wallet.currentReceiveAddress());
+            FakeTxBuilder.BlockPair pair = FakeTxBuilder.createFakeBlock(blockStore, tx);
+            wallet.receiveFromBlock(tx, pair.storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+            wallet.notifyNewBestBlock(pair.storedBlock);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        serializer.writeWallet(wallet, output);
+        walletBytes = output.toByteArray();
+    }
+
+    /** A new transaction paying an empty wallet, and the block it appears in. */
+    @State(Scope.Thread)
+    public static class NewTransaction {
+        Wallet wallet;
+        Transaction tx;
+        FakeTxBuilder.BlockPair pair;
+
+        @Setup(Level.Invocation)
+        public void create() {
+            wallet = new Wallet(params);
+            tx = FakeTxBuilder.createFakeTx(params, Coin.COIN, wallet.currentReceiveAddress());
+            pair = FakeTxBuilder.createFakeBlock(new MemoryBlockStore(params), tx);
+        }
+    }
+
+    @Benchmark
+    public void receiveFromBlock(NewTransaction state) {
+        state.wallet.receiveFromBlock(state.tx, state.pair.storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+    }
+
+    @Benchmark
+    public byte[] writeWallet() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(walletBytes.length);
+        serializer.writeWallet(wallet, output);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public Wallet readWallet() throws Exception {
+        return serializer.readWallet(new ByteArrayInputStream(walletBytes));
+    }
+}
@@ -21,6 +21,7 @@ import com.schillingcoin.schillingcoinj.store.BlockStore;
 import com.schillingcoin.schillingcoinj.store.BlockStoreException;
 import com.schillingcoin.schillingcoinj.store.ValidHashStore;
 import com.schillingcoin.schillingcoinj.utils.ListenerRegistration;
+import com.schillingcoin.schillingcoinj.utils.Metrics;
 import com.schillingcoin.schillingcoinj.utils.Threading;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
@@ -84,6 +85,10 @@ import static com.google.common.base.Preconditions.*;
  */
 public abstract class AbstractBlockChain {
     private static final Logger log = LoggerFactory.getLogger(AbstractBlockChain.class);
+
+    private static final Metrics.Histogram ADD_MICROS = Metrics.histogram("chain.addMicros");
+    private static final Metrics.Counter ORPHAN_BLOCKS = Metrics.counter("chain.orphanBlocks");
+
     protected final ReentrantLock lock = Threading.lock("blockchain");
 
     /** Keeps a map of block hashes to StoredBlocks. */
@@ -353,6 +358,8 @@ public abstract class AbstractBlockChain {
     private boolean add(Block block, boolean tryConnecting,
                         @Nullable List<Sha256Hash> filteredTxHashList, @Nullable Map<Sha256Hash, Transaction> filteredTxn)
             throws BlockStoreException, VerificationException, PrunedException {
+        // Orphans connected from within an add are part of its time.
+        long start = tryConnecting ? Metrics.startTimer() : 0;
         lock.lock();
         try {
             // TODO: Use read/write locks to ensure that during chain download properties are still low latency.
@@ -414,6 +421,7 @@ public abstract class AbstractBlockChain {
                 checkState(tryConnecting, "bug in tryConnectingOrphans");
                 log.warn("Block does not connect: {} prev {}", block.getHashAsString(), block.getPrevBlockHash());
                 orphanBlocks.put(block.getHash(), new OrphanBlock(block, filteredTxHashList, filteredTxn));
+                ORPHAN_BLOCKS.increment();
                 return false;
             } else {
                 // It connects to somewhere on the chain. Not necessarily the top of the best known chain.
@@ -440,6 +448,7 @@ public abstract class AbstractBlockChain {
             return true;
         } finally {
             lock.unlock();
+            ADD_MICROS.recordSince(start);
         }
     }
 
@@ -22,6 +22,7 @@ import com.schillingcoin.schillingcoinj.script.Script.VerifyFlag;
 import com.schillingcoin.schillingcoinj.store.BlockStoreException;
 import com.schillingcoin.schillingcoinj.store.FullPrunedBlockStore;
 import com.schillingcoin.schillingcoinj.store.ValidHashStore;
+import com.schillingcoin.schillingcoinj.utils.Metrics;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +48,9 @@ import static com.google.common.base.Preconditions.checkState;
  */
 public class FullPrunedBlockChain extends AbstractBlockChain {    
     private static final Logger log = LoggerFactory.getLogger(FullPrunedBlockChain.class);
+
+    // Time taken to verify the input scripts of one transaction.
+    private static final Metrics.Histogram SCRIPT_VERIFICATION_MICROS = Metrics.histogram("fullChain.scriptVerificationMicros");
     
     /** Keeps a map of block hashes to StoredBlocks. */
     protected final FullPrunedBlockStore blockStore;
@@ -138,6 +142,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         @Nullable
         @Override
         public VerificationException call() throws Exception {
+            long start = Metrics.startTimer();
             try{
                 ListIterator<Script> prevOutIt = prevOutScripts.listIterator();
                 for (int index = 0; index < tx.getInputs().size(); index++) {
@@ -145,6 +150,8 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                 }
             } catch (VerificationException e) {
                 return e;
+            } finally {
+                SCRIPT_VERIFICATION_MICROS.recordSince(start);
             }
             return null;
         }
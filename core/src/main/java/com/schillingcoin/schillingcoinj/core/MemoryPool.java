@@ -17,6 +17,11 @@
 package com.schillingcoin.schillingcoinj.core;
 
 import com.schillingcoin.schillingcoinj.utils.Threading;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.primitives.Longs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,12 +29,19 @@ import javax.annotation.Nullable;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -43,10 +55,16 @@ import static com.google.common.base.Preconditions.checkState;
  *
  * <p>It is <b>not</b> at this time directly equivalent to the Satoshi clients memory pool, which tracks
  * all transactions not currently included in the best chain - it's simply a cache.</p>
+ *
+ * <p>The pool is bounded both by number of entries and by the serialized size of the transactions it tracks. When
+ * either limit is exceeded, hashes we only saw announced are dropped first (oldest first), followed by transactions
+ * with the lowest fee per kilobyte. The outpoints spent by tracked transactions are indexed, so conflicting
+ * transactions (double spends) can be looked up with {@link #getConflicts(Transaction)}. Lookups, and announcements
+ * of transactions the pool already knows about, only take a read lock and can proceed concurrently.</p>
  */
 public class MemoryPool {
     private static final Logger log = LoggerFactory.getLogger(MemoryPool.class);
-    protected ReentrantLock lock = Threading.lock("mempool");
+    private final ReentrantReadWriteLock lock = Threading.readWriteLock("mempool");
 
     // For each transaction we may have seen:
     //   - only its hash in an inv packet
@@ -64,15 +82,58 @@ public class MemoryPool {
         }
     }
     private static class Entry {
-        // Invariants: one of the two fields must be null, to indicate which is used.
+        final Sha256Hash hash;
+        // Insertion order, used to break ties in the eviction order.
+        final long sequence;
+        // Invariants: one of the two fields must be null, to indicate which is used. Both are only swapped with the
+        // write lock held, but peers may be added to the set of addresses with just the read lock.
         Set<PeerAddress> addresses;
         // We keep a weak reference to the transaction. This means that if no other bit of code finds the transaction
         // worth keeping around it will drop out of memory and we will, at some point, forget about it, which means
         // both addresses and tx.get() will be null. When this happens the WeakTransactionReference appears in the queue
         // allowing us to delete the associated entry (the tx itself has already gone away).
         WeakTransactionReference tx;
+        // Size we account this entry for: the serialized size of the transaction if we have it.
+        int bytes = HASH_ONLY_ENTRY_BYTES;
+        // Fee per kilobyte of the transaction, or UNKNOWN_FEE_RATE. Hash-only entries rank below everything.
+        long feePerKb = HASH_ONLY_FEE_RATE;
+        // Detached copies of the outpoints spent by the transaction, so the index doesn't keep the tx reachable.
+        List<TransactionOutPoint> spends = ImmutableList.of();
+
+        Entry(Sha256Hash hash, long sequence) {
+            this.hash = hash;
+            this.sequence = sequence;
+        }
     }
-    private LinkedHashMap<Sha256Hash, Entry> memoryPool;
+
+    private static final int HASH_ONLY_ENTRY_BYTES = 100;
+    private static final long HASH_ONLY_FEE_RATE = Long.MIN_VALUE;
+    private static final long UNKNOWN_FEE_RATE = -1;
+
+    // Orders entries from first to last evicted.
+    private static final Comparator<Entry> EVICTION_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            int result = Longs.compare(a.feePerKb, b.feePerKb);
+            if (result == 0)
+                result = Longs.compare(a.sequence, b.sequence);
+            return result;
+        }
+    };
+
+    private final Map<Sha256Hash, Entry> memoryPool;
+    private final TreeSet<Entry> evictionQueue;
+    // The transactions spending each outpoint, in the order they were added. There is more than one if we tracked a
+    // double spend.
+    private final SetMultimap<TransactionOutPoint, Sha256Hash> spentOutpoints;
+    private final int maxEntries;
+    private final long maxBytes;
+    private long nextSequence;
+    private long totalBytes;
+    private long evictions;
+    // Exponentially decaying evictions per minute.
+    private double evictionRate;
+    private long evictionRateUpdatedMillis;
 
     // This ReferenceQueue gets entries added to it when they are only weakly reachable, ie, the MemoryPool is the
     // only thing that is tracking the transaction anymore. We check it from time to time and delete memoryPool entries
@@ -84,21 +145,34 @@ public class MemoryPool {
     /** The max size of a memory pool created with the no-args constructor. */
     public static final int MAX_SIZE = 1000;
 
+    /** The max number of transaction bytes tracked by a memory pool created without an explicit byte limit. */
+    public static final long MAX_BYTES = 5 * 1000 * 1000;
+
     /**
      * Creates a memory pool that will track at most the given number of transactions (allowing you to bound memory
-     * usage).
+     * usage), and at most {@link MemoryPool#MAX_BYTES} of serialized transactions.
      * @param size Max number of transactions to track. The pool will fill up to this size then stop growing.
      */
     public MemoryPool(final int size) {
-        memoryPool = new LinkedHashMap<Sha256Hash, Entry>() {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Entry> entry) {
-                // An arbitrary choice to stop the memory used by tracked transactions getting too huge in the event
-                // of some kind of DoS attack.
-                return size() > size;
-            }
-        };
+        this(size, MAX_BYTES);
+    }
+
+    /**
+     * Creates a memory pool that will track at most the given number of transactions and the given number of
+     * serialized transaction bytes. Hashes that were only announced count as a small fixed number of bytes.
+     * @param maxEntries Max number of transactions to track.
+     * @param maxBytes Max total size of the tracked transactions.
+     */
+    public MemoryPool(int maxEntries, long maxBytes) {
+        checkArgument(maxEntries > 0);
+        checkArgument(maxBytes > 0);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        memoryPool = new HashMap<Sha256Hash, Entry>();
+        evictionQueue = new TreeSet<Entry>(EVICTION_ORDER);
+        spentOutpoints = LinkedHashMultimap.create();
         referenceQueue = new ReferenceQueue<Transaction>();
+        evictionRateUpdatedMillis = Utils.currentTimeMillis();
     }
 
     /**
@@ -116,17 +190,15 @@ public class MemoryPool {
      * are relevant to any of our wallets.
      */
     private void cleanPool() {
-        lock.lock();
-        try {
-            Reference<? extends Transaction> ref;
-            while ((ref = referenceQueue.poll()) != null) {
-                // Find which transaction got deleted by the GC.
-                WeakTransactionReference txRef = (WeakTransactionReference) ref;
-                // And remove the associated map entry so the other bits of memory can also be reclaimed.
-                memoryPool.remove(txRef.hash);
-            }
-        } finally {
-            lock.unlock();
+        checkState(lock.isWriteLockedByCurrentThread());
+        Reference<? extends Transaction> ref;
+        while ((ref = referenceQueue.poll()) != null) {
+            // Find which transaction got deleted by the GC.
+            WeakTransactionReference txRef = (WeakTransactionReference) ref;
+            // And remove the associated map entry so the other bits of memory can also be reclaimed.
+            Entry entry = memoryPool.get(txRef.hash);
+            if (entry != null && entry.tx == txRef)
+                removeEntry(entry);
         }
     }
 
@@ -134,9 +206,8 @@ public class MemoryPool {
      * Returns the number of peers that have seen the given hash recently.
      */
     public int numBroadcastPeers(Sha256Hash txHash) {
-        lock.lock();
+        lock.readLock().lock();
         try {
-            cleanPool();
             Entry entry = memoryPool.get(txHash);
             if (entry == null) {
                 // No such TX known.
@@ -149,9 +220,8 @@ public class MemoryPool {
                 final Transaction tx = entry.tx.get();
                 if (tx == null) {
                     // We previously downloaded this transaction, but nothing cared about it so the garbage collector threw
-                    // it away. We also deleted the set that tracked which peers had seen it. Treat this case as a zero and
-                    // just delete it from the map.
-                    memoryPool.remove(txHash);
+                    // it away. We also deleted the set that tracked which peers had seen it. Treat this case as a zero,
+                    // the entry will be deleted by the next write.
                     return 0;
                 } else {
                     checkState(entry.addresses == null);
@@ -159,7 +229,7 @@ public class MemoryPool {
                 }
             }
         } finally {
-            lock.unlock();
+            lock.readLock().unlock();
         }
     }
 
@@ -169,7 +239,7 @@ public class MemoryPool {
      * not mark it as such.
      */
     public Transaction intern(Transaction tx) {
-        lock.lock();
+        lock.writeLock().lock();
         try {
             cleanPool();
             Entry entry = memoryPool.get(tx.getHash());
@@ -189,7 +259,11 @@ public class MemoryPool {
                 } else {
                     // We received a transaction that we have previously seen announced but not downloaded until now.
                     checkNotNull(entry.addresses);
-                    entry.tx = new WeakTransactionReference(tx, referenceQueue);
+                    evictionQueue.remove(entry);
+                    totalBytes -= entry.bytes;
+                    attachTransaction(entry, tx);
+                    totalBytes += entry.bytes;
+                    evictionQueue.add(entry);
                     Set<PeerAddress> addrs = entry.addresses;
                     entry.addresses = null;
                     TransactionConfidence confidence = tx.getConfidence();
@@ -198,19 +272,20 @@ public class MemoryPool {
                     for (PeerAddress a : addrs) {
                         markBroadcast(a, tx);
                     }
+                    maybeEvict(entry);
                     return tx;
                 }
             } else {
                 // This often happens when we are downloading a Bloom filtered chain, or recursively downloading
                 // dependencies of a relevant transaction (see Peer.downloadDependencies).
                 log.debug("Provided with a downloaded transaction we didn't see announced yet: {}", tx.getHashAsString());
-                entry = new Entry();
-                entry.tx = new WeakTransactionReference(tx, referenceQueue);
-                memoryPool.put(tx.getHash(), entry);
+                entry = new Entry(tx.getHash(), nextSequence++);
+                attachTransaction(entry, tx);
+                addEntry(entry);
                 return tx;
             }
         } finally {
-            lock.unlock();
+            lock.writeLock().unlock();
         }
     }
 
@@ -221,13 +296,25 @@ public class MemoryPool {
      * @return An object that is semantically the same TX but may be a different object instance.
      */
     public Transaction seen(Transaction tx, PeerAddress byPeer) {
-        lock.lock();
+        // Most of the time the transaction was downloaded before and only needs marking, which the read lock allows.
+        lock.readLock().lock();
+        try {
+            Entry entry = memoryPool.get(tx.getHash());
+            Transaction interned = entry == null || entry.tx == null ? null : entry.tx.get();
+            if (interned != null) {
+                markBroadcast(byPeer, interned);
+                return interned;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
         try {
             final Transaction interned = intern(tx);
             markBroadcast(byPeer, interned);
             return interned;
         } finally {
-            lock.unlock();
+            lock.writeLock().unlock();
         }
     }
 
@@ -236,50 +323,188 @@ public class MemoryPool {
      * confidence of the pre-existing transaction or will just keep a record of the address for future usage.
      */
     public void seen(Sha256Hash hash, PeerAddress byPeer) {
-        lock.lock();
+        seenAll(Collections.singletonList(hash), byPeer);
+    }
+
+    /**
+     * Equivalent to calling {@link #seen(Sha256Hash, PeerAddress)} for each hash, but takes the lock only once for the
+     * whole batch. Peers use this to process the transactions of an inv message in one go. Hashes the pool already
+     * knows about are handled with only the read lock held, the write lock is taken only if some are new.
+     *
+     * @return the subset of the given hashes that were not known to the pool before this call.
+     */
+    public Set<Sha256Hash> seenAll(List<Sha256Hash> hashes, PeerAddress byPeer) {
+        List<Sha256Hash> unknown = null;
+        lock.readLock().lock();
+        try {
+            for (Sha256Hash hash : hashes) {
+                Entry entry = memoryPool.get(hash);
+                if (entry != null) {
+                    seenEntry(entry, byPeer);
+                } else {
+                    if (unknown == null)
+                        unknown = new ArrayList<Sha256Hash>();
+                    unknown.add(hash);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (unknown == null)
+            return Collections.emptySet();
+        Set<Sha256Hash> fresh = new HashSet<Sha256Hash>();
+        lock.writeLock().lock();
         try {
             cleanPool();
-            Entry entry = memoryPool.get(hash);
-            if (entry != null) {
-                // This TX or its hash have been previously announced.
-                if (entry.tx != null) {
-                    checkState(entry.addresses == null);
-                    Transaction tx = entry.tx.get();
-                    if (tx != null) {
-                        markBroadcast(byPeer, tx);
-                        log.debug("{}: Peer announced transaction we have seen before [{}] {}",
-                                byPeer, tx.getConfidence().numBroadcastPeers(), tx.getHashAsString());
-                    } else {
-                        // The inv is telling us about a transaction that we previously downloaded, and threw away
-                        // because nothing found it interesting enough to keep around. So do nothing.
-                    }
+            // Another peer may have announced some of them in the meantime.
+            for (Sha256Hash hash : unknown) {
+                Entry entry = memoryPool.get(hash);
+                if (entry != null) {
+                    seenEntry(entry, byPeer);
                 } else {
-                    checkNotNull(entry.addresses);
+                    // This TX has never been seen before.
+                    entry = new Entry(hash, nextSequence++);
+                    entry.addresses = new CopyOnWriteArraySet<PeerAddress>();
                     entry.addresses.add(byPeer);
-                    log.debug("{}: Peer announced transaction we have seen announced before [{}] {}",
-                            byPeer, entry.addresses.size(), hash);
+                    addEntry(entry);
+                    log.info("{}: Peer announced new transaction [1] {}", byPeer, hash);
+                    fresh.add(hash);
                 }
-            } else {
-                // This TX has never been seen before.
-                entry = new Entry();
-                // TODO: Using hashsets here is inefficient compared to just having an array.
-                entry.addresses = new HashSet<PeerAddress>();
-                entry.addresses.add(byPeer);
-                memoryPool.put(hash, entry);
-                log.info("{}: Peer announced new transaction [1] {}", byPeer, hash);
             }
         } finally {
-            lock.unlock();
+            lock.writeLock().unlock();
+        }
+        return fresh;
+    }
+
+    // Records that a peer announced an entry we already have. Only needs the read lock.
+    private void seenEntry(Entry entry, PeerAddress byPeer) {
+        checkState(isLockedByCurrentThread());
+        final Sha256Hash hash = entry.hash;
+        // This TX or its hash have been previously announced.
+        if (entry.tx != null) {
+            checkState(entry.addresses == null);
+            Transaction tx = entry.tx.get();
+            if (tx != null) {
+                markBroadcast(byPeer, tx);
+                log.debug("{}: Peer announced transaction we have seen before [{}] {}",
+                        byPeer, tx.getConfidence().numBroadcastPeers(), tx.getHashAsString());
+            } else {
+                // The inv is telling us about a transaction that we previously downloaded, and threw away
+                // because nothing found it interesting enough to keep around. So do nothing.
+            }
+        } else {
+            checkNotNull(entry.addresses);
+            entry.addresses.add(byPeer);
+            log.debug("{}: Peer announced transaction we have seen announced before [{}] {}",
+                    byPeer, entry.addresses.size(), hash);
         }
     }
 
+    private boolean isLockedByCurrentThread() {
+        return lock.isWriteLockedByCurrentThread() || lock.getReadHoldCount() > 0;
+    }
+
+    // Confidences are thread safe, so marking only needs the read lock.
     private void markBroadcast(PeerAddress byPeer, Transaction tx) {
-        checkState(lock.isHeldByCurrentThread());
+        checkState(isLockedByCurrentThread());
         final TransactionConfidence confidence = tx.getConfidence();
         if (confidence.markBroadcastBy(byPeer))
             confidence.queueListeners(TransactionConfidence.Listener.ChangeReason.SEEN_PEERS);
     }
 
+    // Fills out the size, fee and spent outpoints of an entry from its transaction. Must not be called whilst the
+    // entry is in the eviction queue, as it changes the ordering. The caller is responsible for the byte accounting.
+    private void attachTransaction(Entry entry, Transaction tx) {
+        checkState(lock.isWriteLockedByCurrentThread());
+        entry.tx = new WeakTransactionReference(tx, referenceQueue);
+        entry.bytes = tx.getMessageSize();
+        Coin fee = calculateFee(tx);
+        entry.feePerKb = fee == null ? UNKNOWN_FEE_RATE : Math.max(0, fee.value * 1000 / Math.max(1, entry.bytes));
+        ImmutableList.Builder<TransactionOutPoint> spends = ImmutableList.builder();
+        for (TransactionInput input : tx.getInputs()) {
+            if (input.isCoinBase())
+                continue;
+            TransactionOutPoint outpoint = input.getOutpoint();
+            TransactionOutPoint detached = new TransactionOutPoint(tx.getParams(), outpoint.getIndex(), outpoint.getHash());
+            Set<Sha256Hash> spenders = spentOutpoints.get(detached);
+            if (!spenders.isEmpty() && !spenders.contains(entry.hash))
+                log.warn("Transaction {} double spends {} which is also spent by {}", entry.hash, detached, spenders);
+            spentOutpoints.put(detached, entry.hash);
+            spends.add(detached);
+        }
+        entry.spends = spends.build();
+    }
+
+    // Works out the fee of the given transaction, using the values of any parents we are tracking if the inputs
+    // don't carry them. Returns null if any input value is unknown.
+    @Nullable
+    private Coin calculateFee(Transaction tx) {
+        Coin fee = Coin.ZERO;
+        for (TransactionInput input : tx.getInputs()) {
+            Coin value = input.getValue();
+            if (value == null) {
+                Entry parent = memoryPool.get(input.getOutpoint().getHash());
+                Transaction parentTx = parent == null || parent.tx == null ? null : parent.tx.get();
+                long index = input.getOutpoint().getIndex();
+                if (parentTx == null || index >= parentTx.getOutputs().size())
+                    return null;
+                value = parentTx.getOutput((int) index).getValue();
+            }
+            fee = fee.add(value);
+        }
+        for (TransactionOutput output : tx.getOutputs())
+            fee = fee.subtract(output.getValue());
+        return fee;
+    }
+
+    private void addEntry(Entry entry) {
+        checkState(lock.isWriteLockedByCurrentThread());
+        memoryPool.put(entry.hash, entry);
+        evictionQueue.add(entry);
+        totalBytes += entry.bytes;
+        maybeEvict(entry);
+    }
+
+    private void removeEntry(Entry entry) {
+        checkState(lock.isWriteLockedByCurrentThread());
+        memoryPool.remove(entry.hash);
+        evictionQueue.remove(entry);
+        totalBytes -= entry.bytes;
+        for (TransactionOutPoint outpoint : entry.spends)
+            spentOutpoints.remove(outpoint, entry.hash);
+    }
+
+    // An arbitrary choice to stop the memory used by tracked transactions getting too huge in the event of some kind
+    // of DoS attack. The entry that was just added or updated is never evicted straight away.
+    private void maybeEvict(Entry keep) {
+        while ((memoryPool.size() > maxEntries || totalBytes > maxBytes) && memoryPool.size() > 1) {
+            Entry victim = evictionQueue.first();
+            if (victim == keep)
+                victim = evictionQueue.higher(keep);
+            if (victim == null)
+                break;
+            log.debug("Evicting {} from the memory pool, fee rate {}", victim.hash, victim.feePerKb);
+            removeEntry(victim);
+            recordEviction();
+        }
+    }
+
+    private void recordEviction() {
+        decayEvictionRate();
+        evictions++;
+        evictionRate += 1.0;
+    }
+
+    private void decayEvictionRate() {
+        long now = Utils.currentTimeMillis();
+        long elapsed = now - evictionRateUpdatedMillis;
+        if (elapsed > 0) {
+            evictionRate *= Math.exp(-elapsed / 60000.0);
+            evictionRateUpdatedMillis = now;
+        }
+    }
+
     /**
      * Returns the {@link Transaction} for the given hash if we have downloaded it, or null if that hash is unknown or
      * we only saw advertisements for it yet or it has been downloaded but garbage collected due to nowhere else
@@ -287,17 +512,14 @@ public class MemoryPool {
      */
     @Nullable
     public Transaction get(Sha256Hash hash) {
-        lock.lock();
+        lock.readLock().lock();
         try {
             Entry entry = memoryPool.get(hash);
             if (entry == null) return null;  // Unknown.
             if (entry.tx == null) return null;  // Seen but only in advertisements.
-            if (entry.tx.get() == null) return null;  // Was downloaded but garbage collected.
-            Transaction tx = entry.tx.get();
-            checkNotNull(tx);
-            return tx;
+            return entry.tx.get();  // Null if downloaded but garbage collected.
         } finally {
-            lock.unlock();
+            lock.readLock().unlock();
         }
     }
 
@@ -307,12 +529,90 @@ public class MemoryPool {
      * collector and wasSeen() will return false - it does not keep a permanent record of every hash ever broadcast.
      */
     public boolean maybeWasSeen(Sha256Hash hash) {
-        lock.lock();
+        lock.readLock().lock();
         try {
             Entry entry = memoryPool.get(hash);
             return entry != null;
         } finally {
-            lock.unlock();
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the hash of the tracked transaction that spends the given outpoint, or null if there is none. If several
+     * tracked transactions spend it, the one that was added first is returned.
+     */
+    @Nullable
+    public Sha256Hash getSpender(TransactionOutPoint outpoint) {
+        lock.readLock().lock();
+        try {
+            return Iterables.getFirst(spentOutpoints.get(outpoint), null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the hashes of tracked transactions other than the given one that spend any of the same outputs, ie,
+     * transactions that double spend it. The result is empty if no conflicts are known.
+     */
+    public Set<Sha256Hash> getConflicts(Transaction tx) {
+        Set<Sha256Hash> conflicts = new HashSet<Sha256Hash>();
+        final Sha256Hash hash = tx.getHash();
+        lock.readLock().lock();
+        try {
+            for (TransactionInput input : tx.getInputs())
+                conflicts.addAll(spentOutpoints.get(input.getOutpoint()));
+            conflicts.remove(hash);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return conflicts;
+    }
+
+    /** Returns a snapshot of the size and eviction statistics of this pool. */
+    public Stats getStats() {
+        lock.writeLock().lock();
+        try {
+            cleanPool();
+            decayEvictionRate();
+            int transactions = 0;
+            for (Entry entry : memoryPool.values()) {
+                if (entry.tx != null)
+                    transactions++;
+            }
+            return new Stats(memoryPool.size(), transactions, totalBytes, maxBytes, evictions, evictionRate);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Size and eviction statistics of a {@link MemoryPool}, as returned by {@link MemoryPool#getStats()}. */
+    public static class Stats {
+        /** Number of tracked hashes, whether or not the transaction was downloaded. */
+        public final int entries;
+        /** Number of entries for which the transaction was downloaded. */
+        public final int transactions;
+        /** Bytes accounted for by the pool, and the limit. */
+        public final long bytes, maxBytes;
+        /** Total number of entries evicted to stay within the limits. */
+        public final long evictions;
+        /** Evictions per minute, exponentially averaged over roughly the last minute. */
+        public final double evictionsPerMinute;
+
+        public Stats(int entries, int transactions, long bytes, long maxBytes, long evictions, double evictionsPerMinute) {
+            this.entries = entries;
+            this.transactions = transactions;
+            this.bytes = bytes;
+            this.maxBytes = maxBytes;
+            this.evictions = evictions;
+            this.evictionsPerMinute = evictionsPerMinute;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d entries (%d transactions), %d/%d bytes, %d evictions (%.1f/min)",
+                    entries, transactions, bytes, maxBytes, evictions, evictionsPerMinute);
         }
     }
 }
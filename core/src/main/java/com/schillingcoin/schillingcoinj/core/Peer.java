@@ -31,6 +31,7 @@ import com.schillingcoin.schillingcoinj.net.AbstractTimeoutHandler;
 import com.schillingcoin.schillingcoinj.store.BlockStore;
 import com.schillingcoin.schillingcoinj.store.BlockStoreException;
 import com.schillingcoin.schillingcoinj.utils.ListenerRegistration;
+import com.schillingcoin.schillingcoinj.utils.SerialExecutor;
 import com.schillingcoin.schillingcoinj.utils.Threading;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -124,6 +125,24 @@ public class Peer extends PeerSocketHandler {
     // It is important to avoid a nasty edge case where we can end up with parallel chain downloads proceeding
     // simultaneously if we were to receive a newly solved block whilst parts of the chain are streaming to us.
     private final HashSet<Sha256Hash> pendingBlockDownloads = new HashSet<Sha256Hash>();
+    // Transaction getdata requests and inv announcements waiting for the next PeerGroup trickle, so that everything
+    // queued within one trickle interval goes out as a single message. See PeerGroup#setTrickleIntervalMsec.
+    @GuardedBy("lock") private final List<InventoryItem> pendingTxGetData = new ArrayList<InventoryItem>();
+    @GuardedBy("lock") private final List<InventoryItem> pendingInvAnnouncements = new ArrayList<InventoryItem>();
+    // Transactions this peer was asked for, or will be at the next trickle, which the PeerGroup's RecentInventorySet
+    // therefore stops other peers from being asked for. If this peer disconnects before sending them they are released.
+    @GuardedBy("lock") private final Set<Sha256Hash> pendingTxDownloads = new HashSet<Sha256Hash>();
+    // Headers-first catch up is pipelined: as soon as a full "headers" message arrives, the next getheaders is sent with
+    // a locator predicted from the headers just received, and the headers are handed to a validation stage that
+    // connects them to the chain while the next batch is on the wire. The epoch is bumped whenever the pipeline is
+    // abandoned (switching to block bodies, losing download peer status, verification failure) so that batches queued
+    // before then are dropped, as is the answer to a getheaders sent before then.
+    private static final int MAX_PENDING_HEADER_BATCHES = 4;
+    private volatile Executor vHeaderValidationExecutor = new SerialExecutor(Threading.THREAD_POOL);
+    @GuardedBy("lock") private int headersEpoch;
+    @GuardedBy("lock") private int pendingHeaderBatches;
+    @GuardedBy("lock") private boolean headersRequestOutstanding;
+    @GuardedBy("lock") private int headersRequestEpoch;
     // The lowest version number we're willing to accept. Lower than this will result in an immediate disconnect.
     private volatile int vMinProtocolVersion = Pong.MIN_PROTOCOL_VERSION;
     // When an API user explicitly requests a block or transaction from a peer, the InventoryItem is put here
@@ -287,6 +306,7 @@ public class Peer extends PeerSocketHandler {
 
     @Override
     public void connectionClosed() {
+        releasePendingTxDownloads();
         for (final PeerListenerRegistration registration : eventListeners) {
             if (registration.callOnDisconnect)
                 registration.executor.execute(new Runnable() {
@@ -461,6 +481,18 @@ public class Peer extends PeerSocketHandler {
         // in the chain).
         //
         // We go through and cancel the pending getdata futures for the items we were told weren't found.
+        if (peerGroup != null) {
+            // Let another peer that announces these be asked for them instead.
+            lock.lock();
+            try {
+                for (InventoryItem item : m.getItems())
+                    pendingTxDownloads.remove(item.hash);
+            } finally {
+                lock.unlock();
+            }
+            for (InventoryItem item : m.getItems())
+                peerGroup.getRecentInventory().remove(item.hash);
+        }
         for (GetDataRequest req : getDataFutures) {
             for (InventoryItem item : m.getItems()) {
                 if (item.hash.equals(req.hash)) {
@@ -492,12 +524,11 @@ public class Peer extends PeerSocketHandler {
         // Runs in network loop thread for this peer.
         //
         // This method can run if a peer just randomly sends us a "headers" message (should never happen), or more
-        // likely when we've requested them as part of chain download using fast catchup. We need to add each block to
-        // the chain if it pre-dates the fast catchup time. If we go past it, we can stop processing the headers and
-        // request the full blocks from that point on instead.
-        boolean downloadBlockBodies;
-        long fastCatchupTimeSecs;
-
+        // likely when we've requested them as part of chain download using fast catchup. If the batch is full and
+        // pre-dates the fast catchup time we immediately ask for the next one, then hand the headers over to the
+        // validation stage which adds them to the chain (see connectHeaders).
+        final List<Block> headers = m.getBlockHeaders();
+        final int epoch;
         lock.lock();
         try {
             if (blockChain == null) {
@@ -505,16 +536,65 @@ public class Peer extends PeerSocketHandler {
                 log.warn("Received headers when Peer is not configured with a chain.");
                 return;
             }
+            if (downloadBlockBodies && headersRequestOutstanding) {
+                // Answer to a getheaders we pipelined before the validation stage passed the fast catchup time.
+                log.debug("{}: Discarding {} pipelined headers", this, headers.size());
+                headersRequestOutstanding = false;
+                return;
+            }
+            checkState(!downloadBlockBodies, toString());
+            if (headersRequestOutstanding && headersRequestEpoch != headersEpoch) {
+                // Answer to a getheaders sent before the pipeline was abandoned: don't let it restart the pipeline.
+                log.debug("{}: Discarding {} headers from an abandoned pipeline", this, headers.size());
+                headersRequestOutstanding = false;
+                return;
+            }
+            headersRequestOutstanding = false;
+            if (headers.isEmpty())
+                return;
+            if (!vDownloadData) {
+                log.info("Lost download peer status, throwing away downloaded headers.");
+                headersEpoch++;
+                pendingHeaderBatches = 0;
+                return;
+            }
+            epoch = headersEpoch;
+            pendingHeaderBatches++;
+            if (headers.size() >= HeadersMessage.MAX_HEADERS && pendingHeaderBatches < MAX_PENDING_HEADER_BATCHES) {
+                Block last = headers.get(headers.size() - 1);
+                int predictedHeight = blockChain.getBestChainHeight() + pendingHeaderBatches * HeadersMessage.MAX_HEADERS;
+                if (last.getTimeSeconds() < fastCatchupTimeSecs && predictedHeight < vPeerVersionMessage.bestHeight)
+                    requestPredictedHeadersLocked(headers);
+            }
+        } finally {
+            lock.unlock();
+        }
+        vHeaderValidationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                connectHeaders(headers, epoch);
+            }
+        });
+    }
+
+    private void connectHeaders(List<Block> headers, int epoch) {
+        // Runs on the header validation stage, in the order the headers messages were received.
+        //
+        // We need to add each block to the chain if it pre-dates the fast catchup time. If we go past it, we can stop
+        // processing the headers and request the full blocks from that point on instead.
+        long fastCatchupTimeSecs;
+        lock.lock();
+        try {
+            if (epoch != headersEpoch)
+                return;
             fastCatchupTimeSecs = this.fastCatchupTimeSecs;
-            downloadBlockBodies = this.downloadBlockBodies;
         } finally {
             lock.unlock();
         }
 
         try {
-            checkState(!downloadBlockBodies, toString());
-            for (int i = 0; i < m.getBlockHeaders().size(); i++) {
-                Block header = m.getBlockHeaders().get(i);
+            for (int i = 0; i < headers.size(); i++) {
+                Block header = headers.get(i);
                 // Process headers until we pass the fast catchup time, or are about to catch up with the head
                 // of the chain - always process the last block as a full/filtered block to kick us out of the
                 // fast catchup mode (in which we ignore new blocks).
@@ -524,22 +604,33 @@ public class Peer extends PeerSocketHandler {
                     if (!vDownloadData) {
                         // Not download peer anymore, some other peer probably became better.
                         log.info("Lost download peer status, throwing away downloaded headers.");
+                        abandonHeadersPipeline();
                         return;
                     }
-                    if (blockChain.add(header)) {
+                    // Checked before adding, as the chain can only keep an unconnected block as an orphan if it has
+                    // its transactions.
+                    if (blockChain.getStoredBlockInCurrentScope(header.getPrevBlockHash()) != null
+                            && blockChain.add(header)) {
                         // The block was successfully linked into the chain. Notify the user of our progress.
                         invokeOnBlocksDownloaded(header);
                     } else {
                         // This block is unconnected - we don't know how to get from it back to the genesis block yet.
                         // That must mean that the peer is buggy or malicious because we specifically requested for
                         // headers that are part of the best chain.
-                        throw new ProtocolException("Got unconnected header from peer: " + header.getHashAsString());
+                        log.warn("{}: Got unconnected header from peer: {}", this, header.getHashAsString());
+                        abandonHeadersPipeline();
+                        close();
+                        return;
                     }
                 } else {
                     lock.lock();
                     try {
+                        if (epoch != headersEpoch)
+                            return;
                         log.info("Passed the fast catchup time, discarding {} headers and requesting full blocks",
-                                m.getBlockHeaders().size() - i);
+                                headers.size() - i);
+                        headersEpoch++;
+                        pendingHeaderBatches = 0;
                         this.downloadBlockBodies = true;
                         // Prevent this request being seen as a duplicate.
                         this.lastGetBlocksBegin = Sha256Hash.ZERO_HASH;
@@ -550,24 +641,68 @@ public class Peer extends PeerSocketHandler {
                     return;
                 }
             }
-            // We added all headers in the message to the chain. Request some more if we got up to the limit, otherwise
-            // we are at the end of the chain.
-            if (m.getBlockHeaders().size() >= HeadersMessage.MAX_HEADERS) {
-                lock.lock();
-                try {
+            // We added all headers in the message to the chain. If we got up to the limit there are more to come: they
+            // are normally already requested or queued behind us, otherwise the pipeline was full so ask for them now.
+            lock.lock();
+            try {
+                if (epoch != headersEpoch)
+                    return;
+                pendingHeaderBatches--;
+                if (headers.size() >= HeadersMessage.MAX_HEADERS && !headersRequestOutstanding && pendingHeaderBatches == 0)
                     blockChainDownloadLocked(Sha256Hash.ZERO_HASH);
-                } finally {
-                    lock.unlock();
-                }
+            } finally {
+                lock.unlock();
             }
         } catch (VerificationException e) {
             log.warn("Block header verification failed", e);
+            abandonHeadersPipeline();
+        } catch (BlockStoreException e) {
+            log.error("Failed to read from the block store", e);
+            abandonHeadersPipeline();
         } catch (PrunedException e) {
             // Unreachable when in SPV mode.
             throw new RuntimeException(e);
         }
     }
 
+    private void abandonHeadersPipeline() {
+        lock.lock();
+        try {
+            headersEpoch++;
+            pendingHeaderBatches = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void requestPredictedHeadersLocked(List<Block> headers) {
+        // The headers have not been connected yet, but we can already tell the peer where we will be once they are:
+        // the locator starts with the last received header, then falls back to where this batch started and finally
+        // to our current chain in case the peer re-organizes in the meantime.
+        Sha256Hash predictedHead = headers.get(headers.size() - 1).getHash();
+        List<Sha256Hash> locator = new ArrayList<Sha256Hash>(103);
+        locator.add(predictedHead);
+        locator.add(headers.get(0).getPrevBlockHash());
+        locator.addAll(buildBlockLocatorLocked());
+        lastGetBlocksBegin = predictedHead;
+        lastGetBlocksEnd = Sha256Hash.ZERO_HASH;
+        headersRequestOutstanding = true;
+        headersRequestEpoch = headersEpoch;
+        blockResponseTimeout.setSocketTimeout(false);
+        sendMessage(new GetHeadersMessage(params, locator, Sha256Hash.ZERO_HASH));
+    }
+
+    /**
+     * Sets the executor that connects block headers received during fast catchup to the chain. By default this is done
+     * on a shared thread pool, so the next batch of headers is downloaded whilst the previous one is being connected.
+     * Tasks must be run one at a time and in order, so any multi-threaded executor given here must be wrapped in a
+     * {@link SerialExecutor}. Use {@link Threading#SAME_THREAD} to connect headers on the network thread.
+     */
+    public void setHeaderValidationExecutor(Executor executor) {
+        vHeaderValidationExecutor = checkNotNull(executor);
+    }
+
     private void processGetData(GetDataMessage getdata) {
         log.info("{}: Received getdata message: {}", getAddress(), getdata.toString());
         ArrayList<Message> items = new ArrayList<Message>();
@@ -593,6 +728,7 @@ public class Peer extends PeerSocketHandler {
         lock.lock();
         try {
             log.debug("{}: Received tx {}", getAddress(), tx.getHashAsString());
+            pendingTxDownloads.remove(tx.getHash());
             if (memoryPool != null) {
                 // We may get back a different transaction object.
                 tx = memoryPool.seen(tx, getAddress());
@@ -1063,6 +1199,7 @@ public class Peer extends PeerSocketHandler {
         }
 
         final boolean downloadData = this.vDownloadData;
+        final RecentInventorySet recentInventory = peerGroup != null ? peerGroup.getRecentInventory() : null;
 
         if (transactions.size() == 0 && blocks.size() == 1) {
             // Single block announcement. If we're downloading the chain this is just a tickle to make us continue
@@ -1080,14 +1217,12 @@ public class Peer extends PeerSocketHandler {
 
         GetDataMessage getdata = new GetDataMessage(params);
 
-        Iterator<InventoryItem> it = transactions.iterator();
-        while (it.hasNext()) {
-            InventoryItem item = it.next();
+        List<InventoryItem> txRequests = new ArrayList<InventoryItem>(transactions.size());
+        if (!transactions.isEmpty()) {
+            List<InventoryItem> candidates;
             if (memoryPool == null) {
-                if (downloadData) {
-                    // If there's no memory pool only download transactions if we're configured to.
-                    getdata.addItem(item);
-                }
+                // If there's no memory pool only download transactions if we're configured to.
+                candidates = downloadData ? transactions : Collections.<InventoryItem>emptyList();
             } else {
                 // Only download the transaction if we are the first peer that saw it be advertised. Other peers will also
                 // see it be advertised in inv packets asynchronously, they co-ordinate via the memory pool. We could
@@ -1095,24 +1230,47 @@ public class Peer extends PeerSocketHandler {
                 // peers run at different speeds. However to conserve bandwidth on mobile devices we try to only download a
                 // transaction once. This means we can miss broadcasts if the peer disconnects between sending us an inv and
                 // sending us the transaction: currently we'll never try to re-fetch after a timeout.
-                if (memoryPool.maybeWasSeen(item.hash)) {
-                    // Some other peer already announced this so don't download.
-                    it.remove();
-                } else {
-                    log.debug("{}: getdata on tx {}", getAddress(), item.hash);
-                    getdata.addItem(item);
+                //
+                // The whole inv is handed to the memory pool in one go so its lock is taken once per message rather than
+                // twice per item. This can trigger transaction confidence listeners.
+                List<Sha256Hash> hashes = new ArrayList<Sha256Hash>(transactions.size());
+                for (InventoryItem item : transactions)
+                    hashes.add(item.hash);
+                Set<Sha256Hash> fresh = memoryPool.seenAll(hashes, this.getAddress());
+                candidates = new ArrayList<InventoryItem>(fresh.size());
+                for (InventoryItem item : transactions) {
+                    // Skip anything some other peer already announced.
+                    if (fresh.contains(item.hash))
+                        candidates.add(item);
                 }
-                // This can trigger transaction confidence listeners.
-                memoryPool.seen(item.hash, this.getAddress());
+            }
+            // The memory pool is bounded and may have forgotten about a hash that another peer is still busy sending
+            // us, so also check with the set of recent requests shared across the PeerGroup.
+            for (InventoryItem item : candidates) {
+                if (recentInventory != null && !recentInventory.add(item.hash))
+                    continue;
+                log.debug("{}: getdata on tx {}", getAddress(), item.hash);
+                txRequests.add(item);
             }
         }
-
         // If we are requesting filteredblocks we have to send a ping after the getdata so that we have a clear
         // end to the final FilteredBlock's transactions (in the form of a pong) sent to us
         boolean pingAfterGetData = false;
 
         lock.lock();
         try {
+            if (recentInventory != null) {
+                for (InventoryItem item : txRequests)
+                    pendingTxDownloads.add(item.hash);
+            }
+            // Checked with the lock held, so that once the PeerGroup has stopped trickling and flushed this peer
+            // nothing more is queued.
+            if (peerGroup != null && peerGroup.isTrickling()) {
+                pendingTxGetData.addAll(txRequests);
+            } else {
+                for (InventoryItem item : txRequests)
+                    getdata.addItem(item);
+            }
             if (blocks.size() > 0 && downloadData && blockChain != null) {
                 // Ideally, we'd only ask for the data here if we actually needed it. However that can imply a lot of
                 // disk IO to figure out what we've got. Normally peers will not send us inv for things we already have
@@ -1166,6 +1324,77 @@ public class Peer extends PeerSocketHandler {
             sendMessage(new Ping((long) (Math.random() * Long.MAX_VALUE)));
     }
 
+    /**
+     * Queues an inv announcement of the given transaction to this peer. If the peer belongs to a running
+     * {@link PeerGroup} with a trickle interval, announcements are coalesced and sent by {@link #flushTrickle()},
+     * otherwise the inv is sent immediately.
+     */
+    public void announceTransaction(Sha256Hash txHash) {
+        InventoryItem item = new InventoryItem(InventoryItem.Type.Transaction, txHash);
+        lock.lock();
+        try {
+            if (peerGroup != null && peerGroup.isTrickling()) {
+                pendingInvAnnouncements.add(item);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        InventoryMessage inv = new InventoryMessage(params);
+        inv.addItem(item);
+        sendMessage(inv);
+    }
+
+    /**
+     * Sends the transaction getdata requests and inv announcements queued since the last call, as at most one
+     * message of each kind. Called periodically by the {@link PeerGroup}.
+     */
+    void flushTrickle() {
+        List<InventoryItem> getDataItems, invItems;
+        lock.lock();
+        try {
+            if (pendingTxGetData.isEmpty() && pendingInvAnnouncements.isEmpty())
+                return;
+            getDataItems = new ArrayList<InventoryItem>(pendingTxGetData);
+            pendingTxGetData.clear();
+            invItems = new ArrayList<InventoryItem>(pendingInvAnnouncements);
+            pendingInvAnnouncements.clear();
+        } finally {
+            lock.unlock();
+        }
+        if (!getDataItems.isEmpty()) {
+            GetDataMessage getdata = new GetDataMessage(params);
+            for (InventoryItem item : getDataItems)
+                getdata.addItem(item);
+            sendMessage(getdata);
+        }
+        for (List<InventoryItem> chunk : Lists.partition(invItems, InventoryMessage.MAX_INV_SIZE)) {
+            InventoryMessage inv = new InventoryMessage(params);
+            for (InventoryItem item : chunk)
+                inv.addItem(item);
+            sendMessage(inv);
+        }
+    }
+
+    // Lets other peers be asked for the transactions this one was asked for but never sent, and drops the getdata
+    // requests still queued for it.
+    private void releasePendingTxDownloads() {
+        List<Sha256Hash> released;
+        lock.lock();
+        try {
+            pendingTxGetData.clear();
+            released = new ArrayList<Sha256Hash>(pendingTxDownloads);
+            pendingTxDownloads.clear();
+        } finally {
+            lock.unlock();
+        }
+        if (peerGroup != null && !released.isEmpty()) {
+            log.debug("{}: Disconnected with {} transactions outstanding, releasing them", this, released.size());
+            for (Sha256Hash hash : released)
+                peerGroup.getRecentInventory().remove(hash);
+        }
+    }
+
     /**
      * Asks the connected peer for the block of the given hash, and returns a future representing the answer.
      * If you want the block right away and don't mind waiting for it, just call .get() on the result. Your thread
@@ -1230,6 +1459,9 @@ public class Peer extends PeerSocketHandler {
             if (secondsSinceEpoch == 0) {
                 fastCatchupTimeSecs = params.getGenesisBlock().getTimeSeconds();
                 downloadBlockBodies = true;
+                // Drop any headers still waiting to be connected.
+                headersEpoch++;
+                pendingHeaderBatches = 0;
             } else {
                 fastCatchupTimeSecs = secondsSinceEpoch;
                 // If the given time is before the current chains head block time, then this has no effect (we already
@@ -1355,17 +1587,7 @@ public class Peer extends PeerSocketHandler {
         // headers and then request the blocks from that point onwards. "getheaders" does not send us an inv, it just
         // sends us the data we requested in a "headers" message.
 
-        // TODO: Block locators should be abstracted out rather than special cased here.
-        List<Sha256Hash> blockLocator = new ArrayList<Sha256Hash>(51);
-        // For now we don't do the exponential thinning as suggested here:
-        //
-        //   https://en.bitcoin.it/wiki/Protocol_specification#getblocks
-        //
-        // This is because it requires scanning all the block chain headers, which is very slow. Instead we add the top
-        // 100 block headers. If there is a re-org deeper than that, we'll end up downloading the entire chain. We
-        // must always put the genesis block as the first entry.
-        BlockStore store = checkNotNull(blockChain).getBlockStore();
-        StoredBlock chainHead = blockChain.getChainHead();
+        StoredBlock chainHead = checkNotNull(blockChain).getChainHead();
         Sha256Hash chainHeadHash = chainHead.getHeader().getHash();
         // Did we already make this request? If so, don't do it again.
         if (Objects.equal(lastGetBlocksBegin, chainHeadHash) && Objects.equal(lastGetBlocksEnd, toHash)) {
@@ -1375,19 +1597,7 @@ public class Peer extends PeerSocketHandler {
         if (log.isDebugEnabled())
             log.debug("{}: blockChainDownloadLocked({}) current head = {}",
                     toString(), toHash.toString(), chainHead.getHeader().getHashAsString());
-        StoredBlock cursor = chainHead;
-        for (int i = 100; cursor != null && i > 0; i--) {
-            blockLocator.add(cursor.getHeader().getHash());
-            try {
-                cursor = cursor.getPrev(store);
-            } catch (BlockStoreException e) {
-                log.error("Failed to walk the block chain whilst constructing a locator");
-                throw new RuntimeException(e);
-            }
-        }
-        // Only add the locator if we didn't already do so. If the chain is < 50 blocks we already reached it.
-        if (cursor != null)
-            blockLocator.add(params.getGenesisBlock().getHash());
+        List<Sha256Hash> blockLocator = buildBlockLocatorLocked();
 
         // Record that we requested this range of blocks so we can filter out duplicate requests in the event of a
         // block being solved during chain download.
@@ -1400,12 +1610,42 @@ public class Peer extends PeerSocketHandler {
             sendMessage(message);
         } else {
             // Downloading headers for a while instead of full blocks.
+            headersRequestOutstanding = true;
+            headersRequestEpoch = headersEpoch;
             GetHeadersMessage message = new GetHeadersMessage(params, blockLocator, toHash);
 	    blockResponseTimeout.setSocketTimeout(false);
             sendMessage(message);
         }
     }
 
+    @GuardedBy("lock")
+    private List<Sha256Hash> buildBlockLocatorLocked() {
+        // TODO: Block locators should be abstracted out rather than special cased here.
+        List<Sha256Hash> blockLocator = new ArrayList<Sha256Hash>(101);
+        // For now we don't do the exponential thinning as suggested here:
+        //
+        //   https://en.bitcoin.it/wiki/Protocol_specification#getblocks
+        //
+        // This is because it requires scanning all the block chain headers, which is very slow. Instead we add the top
+        // 100 block headers. If there is a re-org deeper than that, we'll end up downloading the entire chain. We
+        // must always put the genesis block as the first entry.
+        BlockStore store = checkNotNull(blockChain).getBlockStore();
+        StoredBlock cursor = blockChain.getChainHead();
+        for (int i = 100; cursor != null && i > 0; i--) {
+            blockLocator.add(cursor.getHeader().getHash());
+            try {
+                cursor = cursor.getPrev(store);
+            } catch (BlockStoreException e) {
+                log.error("Failed to walk the block chain whilst constructing a locator");
+                throw new RuntimeException(e);
+            }
+        }
+        // Only add the locator if we didn't already do so. If the chain is < 50 blocks we already reached it.
+        if (cursor != null)
+            blockLocator.add(params.getGenesisBlock().getHash());
+        return blockLocator;
+    }
+
     /**
      * Starts an asynchronous download of the block chain. The chain download is deemed to be complete once we've
      * downloaded the same number of blocks that the peer advertised having in its version handshake message.
@@ -28,6 +28,7 @@ import com.schillingcoin.schillingcoinj.net.discovery.TorDiscovery;
 import com.schillingcoin.schillingcoinj.script.Script;
 import com.schillingcoin.schillingcoinj.utils.ExponentialBackoff;
 import com.schillingcoin.schillingcoinj.utils.ListenerRegistration;
+import com.schillingcoin.schillingcoinj.utils.Metrics;
 import com.schillingcoin.schillingcoinj.utils.Threading;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -82,6 +83,12 @@ import static com.google.common.base.Preconditions.*;
  */
 public class PeerGroup extends AbstractExecutionThreadService implements TransactionBroadcaster {
     private static final Logger log = LoggerFactory.getLogger(PeerGroup.class);
+
+    private static final Metrics.Counter CONNECTION_ATTEMPTS = Metrics.counter("peerGroup.connectionAttempts");
+    private static final Metrics.Counter CONNECTION_FAILURES = Metrics.counter("peerGroup.connectionFailures");
+    private static final Metrics.Counter PEERS_CONNECTED = Metrics.counter("peerGroup.peersConnected");
+    private static final Metrics.Counter PEERS_DISCONNECTED = Metrics.counter("peerGroup.peersDisconnected");
+    private static final Metrics.Gauge CONNECTED_PEERS = Metrics.gauge("peerGroup.connectedPeers");
     private static final int DEFAULT_CONNECTIONS = 12;
     private static final int TOR_TIMEOUT_SECONDS = 60;
 
@@ -99,6 +106,8 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
     // Currently connecting peers.
     private final CopyOnWriteArrayList<Peer> pendingPeers;
     private final ClientConnectionManager channels;
+    // If set, new peers process the messages they receive on this executor rather than on their network thread.
+    @Nullable private volatile Executor vPeerMessageExecutor;
     @Nullable private final TorClient torClient;
 
     // The peer that has been selected for the purposes of downloading announced data.
@@ -117,6 +126,9 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
     // A class that tracks recent transactions that have been broadcast across the network, counts how many
     // peers announced them and updates the transaction confidence data. It is passed to each Peer.
     private final MemoryPool memoryPool;
+    // Hashes of transactions that some peer was recently asked for, so that other peers announcing the same
+    // transaction don't trigger duplicate getdata requests.
+    private final RecentInventorySet recentInventory;
     // How many connections we want to have open at the current time. If we lose connections, we'll try opening more
     // until we reach this count.
     @GuardedBy("lock") private int maxConnections;
@@ -130,6 +142,18 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
     public static final long DEFAULT_PING_INTERVAL_MSEC = 2000;
     private long pingIntervalMsec = DEFAULT_PING_INTERVAL_MSEC;
 
+    /**
+     * How many milliseconds transaction getdata requests and inv announcements are held back so they can be batched
+     * into a single message per peer.
+     */
+    public static final long DEFAULT_TRICKLE_INTERVAL_MSEC = 100;
+    private volatile long vTrickleIntervalMsec = DEFAULT_TRICKLE_INTERVAL_MSEC;
+    // The trickle interval the flush timer was started with, or zero if the PeerGroup isn't running or sends
+    // everything immediately. Peers only queue inventory whilst this is set, so nothing is left without a flush.
+    private volatile long vActiveTrickleIntervalMsec;
+    // Held whilst flushing queued inventory, so that the final flush on shutdown waits for a timer flush in progress.
+    private final ReentrantLock trickleFlushLock = new ReentrantLock();
+
     @GuardedBy("lock") private boolean useLocalhostPeerWhenPossible = true;
     @GuardedBy("lock") private boolean ipv6Unreachable = false;
 
@@ -368,6 +392,7 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
         downloadTxDependencies = true;
 
         memoryPool = new MemoryPool();
+        recentInventory = new RecentInventorySet();
 
         inactives = new PriorityQueue<PeerAddress>(1, new Comparator<PeerAddress>() {
             @Override
@@ -888,6 +913,16 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
             log.warn("Starting up with no attached block chain. Did you forget to pass one to the constructor?");
         }
         vPingTimer = new Timer("Peer pinging thread", true);
+        final long trickleInterval = vTrickleIntervalMsec;
+        if (trickleInterval > 0) {
+            vActiveTrickleIntervalMsec = trickleInterval;
+            vPingTimer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    flushTrickles();
+                }
+            }, trickleInterval, trickleInterval);
+        }
         if (torClient != null) {
             log.info("Starting Tor/Orchid ...");
             torClient.start();
@@ -903,6 +938,10 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
     protected void shutDown() throws Exception {
         // This is run on a separate thread by the Service implementation.
         vPingTimer.cancel();
+        // Stop queueing inventory and send whatever is still queued whilst the sockets are open. Peers check whether
+        // to queue with their lock held, which flushing takes, so nothing can be queued after this.
+        vActiveTrickleIntervalMsec = 0;
+        flushTrickles();
         // Blocking close of all sockets.
         channels.stopAsync();
         channels.awaitTerminated();
@@ -914,6 +953,21 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
         }
     }
 
+    private void flushTrickles() {
+        trickleFlushLock.lock();
+        try {
+            for (Peer peer : peers) {
+                try {
+                    peer.flushTrickle();
+                } catch (Exception e) {
+                    log.warn("{}: Exception whilst flushing queued inventory: {}", peer, e.toString());
+                }
+            }
+        } finally {
+            trickleFlushLock.unlock();
+        }
+    }
+
     @Override
     protected void triggerShutdown() {
         // Force the thread to wake up.
@@ -1124,7 +1178,9 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
         Peer peer = new Peer(params, ver, address, chain, memoryPool, downloadTxDependencies, this);
         peer.addEventListener(startupListener, Threading.SAME_THREAD);
         peer.setMinProtocolVersion(vMinRequiredProtocolVersion);
+        peer.setMessageProcessingExecutor(vPeerMessageExecutor);
         pendingPeers.add(peer);
+        CONNECTION_ATTEMPTS.increment();
 
         try {
             channels.openConnection(address.toSocketAddress(), peer);
@@ -1216,6 +1272,8 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
             pendingPeers.remove(peer);
             peers.add(peer);
             newSize = peers.size();
+            PEERS_CONNECTED.increment();
+            CONNECTED_PEERS.set(newSize);
             // Give the peer a filter that can be used to probabilistically drop transactions that
             // aren't relevant to our wallet. We may still receive some false positives, which is
             // OK because it helps improve wallet privacy. Old nodes will just ignore the message.
@@ -1350,6 +1408,35 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
         return memoryPool;
     }
 
+    /**
+     * Returns the set of transaction hashes that connected peers have recently been asked for. It is shared by all
+     * peers so that a transaction announced by many of them is only downloaded once.
+     */
+    public RecentInventorySet getRecentInventory() {
+        return recentInventory;
+    }
+
+    /**
+     * <p>Announces the given transaction to all connected peers with an inv message, letting them request it with a
+     * getdata if they don't have it yet. The transaction is interned into the memory pool so those requests can be
+     * answered.</p>
+     *
+     * <p>Announcements are queued per peer and coalesced with others made within the trickle interval, see
+     * {@link #setTrickleIntervalMsec(long)}. Unlike {@link #broadcastTransaction(Transaction)}, this does not wait
+     * for the network to accept the transaction.</p>
+     */
+    public void announceTransaction(Transaction tx) {
+        final Transaction interned = memoryPool.intern(tx);
+        // Don't ask peers that just told us about it ourselves.
+        recentInventory.add(interned.getHash());
+        for (Peer peer : peers) {
+            PeerAddress address = peer.getAddress();
+            if (address != null && interned.getConfidence().wasBroadcastBy(address))
+                continue;
+            peer.announceTransaction(interned.getHash());
+        }
+    }
+
     /**
      * Tells the PeerGroup to download only block headers before a certain time and bodies after that. Call this
      * before starting block chain download.
@@ -1392,8 +1479,12 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
         int numConnectedPeers = 0;
         lock.lock();
         try {
-            pendingPeers.remove(peer);
-            peers.remove(peer);
+            if (pendingPeers.remove(peer))
+                CONNECTION_FAILURES.increment();
+            if (peers.remove(peer)) {
+                PEERS_DISCONNECTED.increment();
+                CONNECTED_PEERS.set(peers.size());
+            }
 
             PeerAddress address = peer.getAddress();
 
@@ -1655,6 +1746,45 @@ public class PeerGroup extends AbstractExecutionThreadService implements Transac
         }
     }
 
+    /**
+     * <p>Makes newly connected peers process the messages they receive on the given executor instead of on the network
+     * thread, see {@link Peer#setMessageProcessingExecutor(java.util.concurrent.Executor)}. Each peer still processes
+     * its own messages one at a time and in order, but different peers can be processed in parallel. Reading from a
+     * peer is paused whilst too many of its messages are waiting, see {@link Peer#setMaxPendingMessages(int)}.</p>
+     *
+     * <p>This is mostly useful with the default {@link NioClientManager}, where a single selector thread otherwise
+     * reads and processes the messages of every peer. A good choice is
+     * {@link Threading#newVirtualThreadPerTaskExecutor(String)}. Pass null to go back to processing messages on the
+     * network thread.</p>
+     */
+    public void setPeerMessageExecutor(@Nullable Executor executor) {
+        this.vPeerMessageExecutor = executor;
+    }
+
+    /**
+     * Returns how long transaction getdata requests and inv announcements are queued by each peer before being sent
+     * as a single message.
+     */
+    public long getTrickleIntervalMsec() {
+        return vTrickleIntervalMsec;
+    }
+
+    /**
+     * Sets how long transaction getdata requests and inv announcements are queued by each peer before being sent as
+     * a single message. Batching reduces the number of messages sent and memory pool lock acquisitions when many
+     * peers relay the same transactions. It defaults to {@link PeerGroup#DEFAULT_TRICKLE_INTERVAL_MSEC}. Setting the
+     * value to be <= 0 sends everything immediately. Only takes effect the next time the PeerGroup is started, until
+     * then the interval it was started with stays in use.
+     */
+    public void setTrickleIntervalMsec(long trickleIntervalMsec) {
+        this.vTrickleIntervalMsec = trickleIntervalMsec;
+    }
+
+    /** Returns true if peers should queue inventory for the trickle timer rather than sending it immediately. */
+    boolean isTrickling() {
+        return vActiveTrickleIntervalMsec > 0;
+    }
+
     /**
      * If a peer is connected to that claims to speak a protocol version lower than the given version, it will
      * be disconnected and another one will be tried instead.
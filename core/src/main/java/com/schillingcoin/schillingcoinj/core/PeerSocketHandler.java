@@ -18,12 +18,17 @@ package com.schillingcoin.schillingcoinj.core;
 
 import com.schillingcoin.schillingcoinj.net.AbstractTimeoutHandler;
 import com.schillingcoin.schillingcoinj.net.MessageWriteTarget;
+import com.schillingcoin.schillingcoinj.net.PausableWriteTarget;
 import com.schillingcoin.schillingcoinj.net.StreamParser;
+import com.schillingcoin.schillingcoinj.utils.Metrics;
+import com.schillingcoin.schillingcoinj.utils.SerialExecutor;
 import com.schillingcoin.schillingcoinj.utils.Threading;
 import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.ConnectException;
@@ -31,6 +36,9 @@ import java.net.InetSocketAddress;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.NotYetConnectedException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 
 import static com.google.common.base.Preconditions.*;
@@ -42,6 +50,15 @@ import static com.google.common.base.Preconditions.*;
 public abstract class PeerSocketHandler extends AbstractTimeoutHandler implements StreamParser {
     private static final Logger log = LoggerFactory.getLogger(PeerSocketHandler.class);
 
+    /** The default for {@link #setMaxPendingMessages(int)}. */
+    public static final int DEFAULT_MAX_PENDING_MESSAGES = 32;
+
+    // Totals over all peers.
+    private static final Metrics.Counter BYTES_RECEIVED = Metrics.counter("peer.bytesReceived");
+    private static final Metrics.Counter BYTES_SENT = Metrics.counter("peer.bytesSent");
+    private static final Metrics.Counter MESSAGES_RECEIVED = Metrics.counter("peer.messagesReceived");
+    private static final Metrics.Counter MESSAGES_SENT = Metrics.counter("peer.messagesSent");
+
     private final SchillingcoinSerializer serializer;
     protected PeerGroup peerGroup = null;
     protected PeerAddress peerAddress;
@@ -59,6 +76,17 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
 
     private Lock lock = Threading.lock("PeerSocketHandler");
 
+    // If set, deserialized messages are processed on this executor, in order, instead of on the network thread.
+    @Nullable private volatile SerialExecutor vMessageExecutor;
+    private volatile int vMaxPendingMessages = DEFAULT_MAX_PENDING_MESSAGES;
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+    private final Object flowControlLock = new Object();
+    @GuardedBy("flowControlLock") private boolean readingPaused;
+
+    // Traffic of this peer, kept whether or not metrics are enabled.
+    private final AtomicLong bytesReceived = new AtomicLong(), bytesSent = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong(), messagesSent = new AtomicLong();
+
     public PeerSocketHandler(NetworkParameters params, InetSocketAddress remoteIp) {
         serializer = new SchillingcoinSerializer(checkNotNull(params));
         this.peerAddress = new PeerAddress(remoteIp);
@@ -88,6 +116,10 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
         try {
             serializer.serialize(message, out);
             writeTarget.writeBytes(out.toByteArray());
+            bytesSent.addAndGet(out.size());
+            messagesSent.incrementAndGet();
+            BYTES_SENT.add(out.size());
+            MESSAGES_SENT.increment();
         } catch (IOException e) {
             exceptionCaught(e);
         }
@@ -125,8 +157,95 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
      */
     protected abstract void processMessage(Message m) throws Exception;
 
+    /**
+     * <p>Makes messages be processed on the given executor rather than on the network thread that read them. Messages
+     * are still processed one at a time and in the order they arrived. This is useful with a
+     * {@link com.schillingcoin.schillingcoinj.net.NioClientManager}, where one selector thread reads from every
+     * connection, so that a slow message (eg a block that has to be connected to the chain) for one peer doesn't hold
+     * up reading from all the others.</p>
+     *
+     * <p>Reading from the peer is paused whilst {@link #setMaxPendingMessages(int)} or more of its messages are
+     * waiting, so that a peer sending faster than its messages can be processed is slowed down by TCP flow control
+     * rather than filling the heap. This needs a connection which supports it, see {@link PausableWriteTarget}.</p>
+     *
+     * <p>Must be called before the connection is opened. Pass null to process messages on the network thread, which
+     * is the default.</p>
+     */
+    public void setMessageProcessingExecutor(@Nullable Executor executor) {
+        vMessageExecutor = executor == null ? null : new SerialExecutor(executor);
+    }
+
+    /**
+     * Sets how many received messages may wait for the executor set by
+     * {@link #setMessageProcessingExecutor(Executor)} before reading from the peer is paused. Reading resumes once half
+     * of them have been processed. Defaults to {@link #DEFAULT_MAX_PENDING_MESSAGES}.
+     */
+    public void setMaxPendingMessages(int maxPendingMessages) {
+        checkArgument(maxPendingMessages > 0);
+        vMaxPendingMessages = maxPendingMessages;
+    }
+
+    /** Returns how many received messages are waiting to be processed, always zero unless an executor is set. */
+    public int getPendingMessageCount() {
+        return pendingMessages.get();
+    }
+
+    private void dispatchMessage(final Message message) throws Exception {
+        messagesReceived.incrementAndGet();
+        MESSAGES_RECEIVED.increment();
+        SerialExecutor executor = vMessageExecutor;
+        if (executor == null) {
+            processMessage(message);
+            return;
+        }
+        pendingMessages.incrementAndGet();
+        updateReadingPaused();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    processMessage(message);
+                } catch (Exception e) {
+                    exceptionCaught(e);
+                } finally {
+                    pendingMessages.decrementAndGet();
+                    updateReadingPaused();
+                }
+            }
+        });
+    }
+
+    // Pauses reading from the peer whilst too many of its messages are waiting to be processed, and resumes it once
+    // half of them have been.
+    private void updateReadingPaused() {
+        MessageWriteTarget target = writeTarget;
+        if (!(target instanceof PausableWriteTarget))
+            return;
+        synchronized (flowControlLock) {
+            int pending = pendingMessages.get();
+            int max = vMaxPendingMessages;
+            if (!readingPaused && pending >= max) {
+                ((PausableWriteTarget) target).setReadingPaused(true);
+                readingPaused = true;
+                log.debug("{}: {} messages waiting to be processed, pausing reads", getAddress(), pending);
+            } else if (readingPaused && pending <= max / 2) {
+                ((PausableWriteTarget) target).setReadingPaused(false);
+                readingPaused = false;
+            }
+        }
+    }
+
     @Override
     public int receiveBytes(ByteBuffer buff) {
+        int read = parseBytes(buff);
+        if (read > 0) {
+            bytesReceived.addAndGet(read);
+            BYTES_RECEIVED.add(read);
+        }
+        return read;
+    }
+
+    private int parseBytes(ByteBuffer buff) {
         checkArgument(buff.position() == 0 &&
                 buff.capacity() >= SchillingcoinSerializer.SchillingcoinPacketHeader.HEADER_LENGTH + 4);
         try {
@@ -143,7 +262,7 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
                     // Check the largeReadBuffer's status
                     if (largeReadBufferPos == largeReadBuffer.length) {
                         // ...processing a message if one is available
-                        processMessage(serializer.deserializePayload(header, ByteBuffer.wrap(largeReadBuffer)));
+                        dispatchMessage(serializer.deserializePayload(header, ByteBuffer.wrap(largeReadBuffer)));
                         largeReadBuffer = null;
                         header = null;
                     } else // ...or just returning if we don't have enough bytes yet
@@ -182,7 +301,7 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
                     return buff.position();
                 }
                 // Process our freshly deserialized message
-                processMessage(message);
+                dispatchMessage(message);
             }
         } catch (Exception e) {
             exceptionCaught(e);
@@ -216,6 +335,26 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
         return Message.MAX_SIZE;
     }
 
+    /** Returns the number of bytes read from this peer. */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /** Returns the number of bytes written to this peer. */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /** Returns the number of messages received from this peer. */
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    /** Returns the number of messages sent to this peer. */
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
     /**
      * @return the IP address and port of peer.
      */
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.core;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A set of recently announced inventory hashes that is shared by all peers of a {@link PeerGroup}. It is used to
+ * make sure we only request a given transaction once, no matter how many peers announce it to us at the same time.</p>
+ *
+ * <p>Hashes are stored in a ring of time buckets. Every time a bucket interval elapses the oldest bucket is dropped,
+ * so a hash is remembered for between {@code (numBuckets - 1) * bucketMillis} and {@code numBuckets * bucketMillis}
+ * milliseconds. Unlike the {@link MemoryPool}, lookups do not take any lock: a short synchronized section is only
+ * entered when the buckets have to be rotated.</p>
+ */
+public class RecentInventorySet {
+    /** By default hashes are remembered for around two minutes. */
+    public static final long DEFAULT_BUCKET_MILLIS = 20 * 1000;
+    public static final int DEFAULT_NUM_BUCKETS = 6;
+
+    private final long bucketMillis;
+    private final AtomicReferenceArray<Set<Sha256Hash>> buckets;
+    private volatile int head;
+    private volatile long nextRotationMillis;
+
+    public RecentInventorySet() {
+        this(DEFAULT_BUCKET_MILLIS, DEFAULT_NUM_BUCKETS);
+    }
+
+    public RecentInventorySet(long bucketMillis, int numBuckets) {
+        checkArgument(bucketMillis > 0);
+        checkArgument(numBuckets > 1);
+        this.bucketMillis = bucketMillis;
+        this.buckets = new AtomicReferenceArray<Set<Sha256Hash>>(numBuckets);
+        for (int i = 0; i < numBuckets; i++)
+            buckets.set(i, newBucket());
+        this.nextRotationMillis = Utils.currentTimeMillis() + bucketMillis;
+    }
+
+    private static Set<Sha256Hash> newBucket() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<Sha256Hash, Boolean>());
+    }
+
+    /**
+     * Records the given hash. Returns true if it was not recorded already, ie, the caller is the first one to see it
+     * within the retention window and should go ahead and request the data.
+     */
+    public boolean add(Sha256Hash hash) {
+        maybeRotate();
+        final int current = head;
+        for (int i = 0; i < buckets.length(); i++) {
+            if (i != current && buckets.get(i).contains(hash))
+                return false;
+        }
+        return buckets.get(current).add(hash);
+    }
+
+    /** Returns true if the hash was recorded within the retention window. */
+    public boolean contains(Sha256Hash hash) {
+        maybeRotate();
+        for (int i = 0; i < buckets.length(); i++) {
+            if (buckets.get(i).contains(hash))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the given hash, for instance because the peer we asked for it disconnected or told us it was not found,
+     * so it can be requested again from another peer.
+     */
+    public void remove(Sha256Hash hash) {
+        for (int i = 0; i < buckets.length(); i++)
+            buckets.get(i).remove(hash);
+    }
+
+    /** Returns the number of hashes currently remembered. */
+    public int size() {
+        maybeRotate();
+        int size = 0;
+        for (int i = 0; i < buckets.length(); i++)
+            size += buckets.get(i).size();
+        return size;
+    }
+
+    private void maybeRotate() {
+        final long now = Utils.currentTimeMillis();
+        if (now < nextRotationMillis)
+            return;
+        synchronized (this) {
+            // Rotate once per elapsed interval, but never more than once around the ring.
+            for (int i = 0; i < buckets.length() && now >= nextRotationMillis; i++) {
+                final int next = (head + 1) % buckets.length();
+                buckets.set(next, newBucket());
+                head = next;
+                nextRotationMillis += bucketMillis;
+            }
+            if (now >= nextRotationMillis)
+                nextRotationMillis = now + bucketMillis;
+        }
+    }
+}
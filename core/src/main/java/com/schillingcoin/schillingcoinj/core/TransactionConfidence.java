@@ -24,7 +24,11 @@ import com.google.common.util.concurrent.SettableFuture;
 import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 
@@ -407,6 +411,53 @@ public class TransactionConfidence implements Serializable {
         }
     }
 
+    /**
+     * Like {@link #queueListeners(Listener.ChangeReason)} for the confidences of many transactions at once, but the
+     * listeners that share an executor are all run by a single task, in the order of the given map. When a block
+     * changes the depth of thousands of transactions this queues one task per executor rather than one per listener
+     * per transaction.
+     */
+    public static void queueListeners(Map<Transaction, Listener.ChangeReason> changes) {
+        Map<Executor, List<Runnable>> batches = new LinkedHashMap<Executor, List<Runnable>>();
+        for (Map.Entry<Transaction, Listener.ChangeReason> entry : changes.entrySet()) {
+            final Transaction tx = entry.getKey();
+            final Listener.ChangeReason reason = entry.getValue();
+            for (final ListenerRegistration<Listener> registration : tx.getConfidence().listeners) {
+                Runnable runnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        registration.listener.onConfidenceChanged(tx, reason);
+                    }
+                };
+                if (registration.executor == Threading.SAME_THREAD) {
+                    runnable.run();
+                    continue;
+                }
+                List<Runnable> batch = batches.get(registration.executor);
+                if (batch == null) {
+                    batch = new ArrayList<Runnable>();
+                    batches.put(registration.executor, batch);
+                }
+                batch.add(runnable);
+            }
+        }
+        for (Map.Entry<Executor, List<Runnable>> entry : batches.entrySet()) {
+            final List<Runnable> batch = entry.getValue();
+            entry.getKey().execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Runnable runnable : batch)
+                        runnable.run();
+                }
+
+                @Override
+                public String toString() {
+                    return batch.size() + " confidence listener calls";
+                }
+            });
+        }
+    }
+
     /**
      * The source of a transaction tries to identify where it came from originally. For instance, did we download it
      * from the peer to peer network, or make it ourselves, or receive it via Bluetooth, or import it from another app,
@@ -110,6 +110,7 @@ public class Wallet extends BaseTaggableObject implements Serializable, BlockCha
 
     // Ordering: lock > keychainLock. Keychain is protected separately to allow fast querying of current receive address
     // even if the wallet itself is busy e.g. saving or processing a big reorg. Useful for reducing UI latency.
+    // When metrics are enabled, how long the lock is held is recorded in "wallet.lockHoldMicros".
     protected final ReentrantLock lock = Threading.lock("wallet");
     protected final ReentrantLock keychainLock = Threading.lock("wallet-keychain");
 
@@ -279,7 +280,7 @@ public class Wallet extends BaseTaggableObject implements Serializable, BlockCha
                     lock.lock();
                     try {
                         checkBalanceFuturesLocked(null);
-                        queueOnTransactionConfidenceChanged(tx);
+                        queueOnTransactionConfidencesChanged(ImmutableMap.of(tx, reason));
                         maybeQueueOnWalletChanged();
                     } finally {
                         lock.unlock();
@@ -1761,12 +1762,14 @@ public class Wallet extends BaseTaggableObject implements Serializable, BlockCha
     private void informConfidenceListenersIfNotReorganizing() {
         if (insideReorg)
             return;
-        for (Map.Entry<Transaction, TransactionConfidence.Listener.ChangeReason> entry : confidenceChanged.entrySet()) {
-            final Transaction tx = entry.getKey();
-            tx.getConfidence().queueListeners(entry.getValue());
-            queueOnTransactionConfidenceChanged(tx);
-        }
+        if (confidenceChanged.isEmpty())
+            return;
+        // Delivered as one batch per executor or listener rather than one task per transaction, as a new block
+        // changes the depth of every transaction in the wallet.
+        Map<Transaction, TransactionConfidence.Listener.ChangeReason> changes = ImmutableMap.copyOf(confidenceChanged);
         confidenceChanged.clear();
+        TransactionConfidence.queueListeners(changes);
+        queueOnTransactionConfidencesChanged(changes);
     }
 
     /**
@@ -2126,22 +2129,38 @@ public class Wallet extends BaseTaggableObject implements Serializable, BlockCha
         return ListenerRegistration.removeFromList(listener, eventListeners);
     }
 
-    private void queueOnTransactionConfidenceChanged(final Transaction tx) {
+    private void queueOnTransactionConfidencesChanged(
+            final Map<Transaction, TransactionConfidence.Listener.ChangeReason> changes) {
         checkState(lock.isHeldByCurrentThread());
         for (final ListenerRegistration<WalletEventListener> registration : eventListeners) {
             if (registration.executor == Threading.SAME_THREAD) {
-                registration.listener.onTransactionConfidenceChanged(this, tx);
+                informConfidencesChanged(registration.listener, changes);
             } else {
                 registration.executor.execute(new Runnable() {
                     @Override
                     public void run() {
-                        registration.listener.onTransactionConfidenceChanged(Wallet.this, tx);
+                        informConfidencesChanged(registration.listener, changes);
+                    }
+
+                    @Override
+                    public String toString() {
+                        return changes.size() + " wallet confidence changes";
                     }
                 });
             }
         }
     }
 
+    private void informConfidencesChanged(WalletEventListener listener,
+                                          Map<Transaction, TransactionConfidence.Listener.ChangeReason> changes) {
+        if (listener instanceof WalletConfidenceBatchListener) {
+            ((WalletConfidenceBatchListener) listener).onTransactionConfidencesChanged(this, changes);
+        } else {
+            for (Transaction tx : changes.keySet())
+                listener.onTransactionConfidenceChanged(this, tx);
+        }
+    }
+
     protected void maybeQueueOnWalletChanged() {
         // Don't invoke the callback in some circumstances, eg, whilst we are re-organizing or fiddling with
         // transactions due to a new block arriving. It will be called later instead.
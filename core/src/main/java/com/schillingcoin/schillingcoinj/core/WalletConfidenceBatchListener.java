@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.core;
+
+import java.util.Map;
+
+/**
+ * <p>Can be implemented by a {@link WalletEventListener} to receive confidence changes in batches. A new block changes
+ * the depth of every transaction in the wallet, so with a large wallet calling
+ * {@link WalletEventListener#onTransactionConfidenceChanged(Wallet, Transaction)} once per transaction means a lot of
+ * calls for each block, and a long queue on the user thread while syncing. Listeners implementing this interface are
+ * instead called once with all the transactions that changed together.</p>
+ *
+ * <p>Listeners implementing this interface don't have onTransactionConfidenceChanged called by the wallet. Other
+ * listeners get the same batches, delivered as one call to onTransactionConfidenceChanged per transaction.</p>
+ */
+public interface WalletConfidenceBatchListener {
+    /**
+     * Called with the transactions whose confidence changed together, for example because of a new block, and why
+     * each one changed, in the order they changed in. The map can't be modified.
+     */
+    void onTransactionConfidencesChanged(Wallet wallet, Map<Transaction, TransactionConfidence.Listener.ChangeReason> changes);
+}
@@ -93,7 +93,8 @@ public interface WalletEventListener extends KeyChainEventListener {
      *
      * <p>Note that this callback will be invoked for every transaction in the wallet, for every new block that is
      * received (because the depth has changed). <b>If you want to update a UI view from the contents of the wallet
-     * it is more efficient to use onWalletChanged instead.</b></p>
+     * it is more efficient to use onWalletChanged instead.</b> To get the transactions changed by a block in one
+     * call instead, implement {@link WalletConfidenceBatchListener} as well.</p>
      */
     void onTransactionConfidenceChanged(Wallet wallet, Transaction tx);
 
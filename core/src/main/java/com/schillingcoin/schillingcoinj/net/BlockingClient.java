@@ -16,9 +16,11 @@
 
 package com.schillingcoin.schillingcoinj.net;
 
+import com.schillingcoin.schillingcoinj.utils.Threading;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.net.SocketFactory;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,6 +30,9 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -37,8 +42,11 @@ import static com.google.common.base.Preconditions.checkState;
  * <p>Generally, using {@link NioClient} and {@link NioClientManager} should be preferred over {@link BlockingClient}
  * and {@link BlockingClientManager}, unless you wish to connect over a proxy or use some other network settings that
  * cannot be set using NIO.</p>
+ *
+ * <p>Reading can be paused with {@link #setReadingPaused(boolean)}, in which case the read loop waits before its next
+ * read from the socket until reading is resumed or the connection is closed.</p>
  */
-public class BlockingClient implements MessageWriteTarget {
+public class BlockingClient implements PausableWriteTarget {
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(BlockingClient.class);
 
     private static final int BUFFER_SIZE_LOWER_BOUND = 4096;
@@ -48,6 +56,21 @@ public class BlockingClient implements MessageWriteTarget {
     private Socket socket;
     private volatile boolean vCloseRequested = false;
 
+    // A lock rather than a monitor, so that a read loop waiting on a virtual thread doesn't pin its carrier thread.
+    private final ReentrantLock pauseLock = Threading.lock("blockingclient");
+    private final Condition resumed = pauseLock.newCondition();
+    @GuardedBy("pauseLock") private boolean readingPaused;
+
+    // Creates the platform threads used by the constructor that doesn't take a ThreadFactory.
+    private static final ThreadFactory DEFAULT_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
     /**
      * <p>Creates a new client to the given server address using the given {@link StreamParser} to decode the data.
      * The given parser <b>MUST</b> be unique to this object. This does not block while waiting for the connection to
@@ -62,12 +85,33 @@ public class BlockingClient implements MessageWriteTarget {
      */
     public BlockingClient(final SocketAddress serverAddress, final StreamParser parser,
                           final int connectTimeoutMillis, final SocketFactory socketFactory, @Nullable final Set<BlockingClient> clientSet) throws IOException {
+        this(serverAddress, parser, connectTimeoutMillis, socketFactory, clientSet, DEFAULT_THREAD_FACTORY);
+    }
+
+    /**
+     * <p>Creates a new client to the given server address using the given {@link StreamParser} to decode the data.
+     * The given parser <b>MUST</b> be unique to this object. The connect and read loop runs on a thread obtained from
+     * the given factory, which is where the {@link StreamParser#connectionOpened()},
+     * {@link StreamParser#connectionClosed()} and {@link StreamParser#receiveBytes(java.nio.ByteBuffer)} callbacks
+     * happen. Use {@link com.schillingcoin.schillingcoinj.utils.Threading#virtualThreadFactory(String)} to run each
+     * connection on its own virtual thread.</p>
+     *
+     * @param connectTimeoutMillis The connect timeout set on the connection (in milliseconds). 0 is interpreted as no
+     *                             timeout.
+     * @param socketFactory An object that creates {@link Socket} objects on demand, which may be customised to control
+     *                      how this client connects to the internet. If not sure, use SocketFactory.getDefault()
+     * @param clientSet A set which this object will add itself to after initialization, and then remove itself from
+     * @param threadFactory Creates the thread that services this connection.
+     */
+    public BlockingClient(final SocketAddress serverAddress, final StreamParser parser,
+                          final int connectTimeoutMillis, final SocketFactory socketFactory,
+                          @Nullable final Set<BlockingClient> clientSet, ThreadFactory threadFactory) throws IOException {
         // Try to fit at least one message in the network buffer, but place an upper and lower limit on its size to make
         // sure it doesnt get too large or have to call read too often.
         dbuf = ByteBuffer.allocateDirect(Math.min(Math.max(parser.getMaxMessageSize(), BUFFER_SIZE_LOWER_BOUND), BUFFER_SIZE_UPPER_BOUND));
         parser.setWriteTarget(this);
         socket = socketFactory.createSocket();
-        Thread t = new Thread() {
+        Runnable readLoop = new Runnable() {
             @Override
             public void run() {
                 if (clientSet != null)
@@ -80,6 +124,9 @@ public class BlockingClient implements MessageWriteTarget {
                     byte[] readBuff = new byte[dbuf.capacity()];
 
                     while (true) {
+                        awaitReadingResumed();
+                        if (vCloseRequested)
+                            return;
                         // TODO Kill the message duplication here
                         checkState(dbuf.remaining() > 0 && dbuf.remaining() <= readBuff.length);
                         int read = stream.read(readBuff, 0, Math.max(1, Math.min(dbuf.remaining(), stream.available())));
@@ -111,11 +158,21 @@ public class BlockingClient implements MessageWriteTarget {
                 }
             }
         };
+        Thread t = threadFactory.newThread(readLoop);
         t.setName("BlockingClient network thread for " + serverAddress);
-        t.setDaemon(true);
         t.start();
     }
 
+    private void awaitReadingResumed() throws InterruptedException {
+        pauseLock.lock();
+        try {
+            while (readingPaused && !vCloseRequested)
+                resumed.await();
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
     /**
      * Closes the connection to the server, triggering the {@link StreamParser#connectionClosed()}
      * event on the network-handling thread where all callbacks occur.
@@ -125,12 +182,34 @@ public class BlockingClient implements MessageWriteTarget {
         // Closes the channel, triggering an exception in the network-handling thread triggering connectionClosed()
         try {
             vCloseRequested = true;
+            wakeReadLoop();
             socket.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    @Override
+    public void setReadingPaused(boolean paused) {
+        pauseLock.lock();
+        try {
+            readingPaused = paused;
+            if (!paused)
+                resumed.signalAll();
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    private void wakeReadLoop() {
+        pauseLock.lock();
+        try {
+            resumed.signalAll();
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
     @Override
     public synchronized void writeBytes(byte[] message) throws IOException {
         try {
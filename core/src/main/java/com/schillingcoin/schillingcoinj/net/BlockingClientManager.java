@@ -16,8 +16,12 @@
 
 package com.schillingcoin.schillingcoinj.net;
 
+import com.schillingcoin.schillingcoinj.utils.Threading;
 import com.google.common.util.concurrent.AbstractIdleService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.net.SocketFactory;
 import java.io.IOException;
 import java.net.SocketAddress;
@@ -25,6 +29,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -34,15 +39,23 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * <p>Generally, using {@link NioClient} and {@link NioClientManager} should be preferred over {@link BlockingClient}
  * and {@link BlockingClientManager} as they scale significantly better, unless you wish to connect over a proxy or use
  * some other network settings that cannot be set using NIO.</p>
+ *
+ * <p>Each connection is serviced by its own thread, which runs the blocking read loop and processes the messages it
+ * reads. By default these are platform threads, which limits how many connections can be open at once. Use
+ * {@link #newWithVirtualThreads(javax.net.SocketFactory)} on Java 21 or later to run each connection on a virtual
+ * thread instead, making hundreds of connections cheap.</p>
  */
 public class BlockingClientManager extends AbstractIdleService implements ClientConnectionManager {
+    private static final Logger log = LoggerFactory.getLogger(BlockingClientManager.class);
+
     private final SocketFactory socketFactory;
+    @Nullable private final ThreadFactory threadFactory;
     private final Set<BlockingClient> clients = Collections.synchronizedSet(new HashSet<BlockingClient>());
 
     private int connectTimeoutMillis = 1000;
 
     public BlockingClientManager() {
-        socketFactory = SocketFactory.getDefault();
+        this(SocketFactory.getDefault());
     }
 
     /**
@@ -51,6 +64,26 @@ public class BlockingClientManager extends AbstractIdleService implements Client
      */
     public BlockingClientManager(SocketFactory socketFactory) {
         this.socketFactory = checkNotNull(socketFactory);
+        this.threadFactory = null;
+    }
+
+    /**
+     * Creates a blocking client manager that will obtain sockets from the given factory and service each connection
+     * on a thread created by the given thread factory.
+     */
+    public BlockingClientManager(SocketFactory socketFactory, ThreadFactory threadFactory) {
+        this.socketFactory = checkNotNull(socketFactory);
+        this.threadFactory = checkNotNull(threadFactory);
+    }
+
+    /**
+     * Creates a blocking client manager that services each connection on its own virtual thread. On JVMs without
+     * virtual thread support this falls back to daemon platform threads, ie, the same as the other constructors.
+     */
+    public static BlockingClientManager newWithVirtualThreads(SocketFactory socketFactory) {
+        if (!Threading.isVirtualThreadSupported())
+            log.info("Virtual threads are not available, falling back to platform threads");
+        return new BlockingClientManager(socketFactory, Threading.virtualThreadFactory("BlockingClient-"));
     }
 
     @Override
@@ -58,7 +91,10 @@ public class BlockingClientManager extends AbstractIdleService implements Client
         if (!isRunning())
             throw new IllegalStateException();
         try {
-            new BlockingClient(serverAddress, parser, connectTimeoutMillis, socketFactory, clients);
+            if (threadFactory == null)
+                new BlockingClient(serverAddress, parser, connectTimeoutMillis, socketFactory, clients);
+            else
+                new BlockingClient(serverAddress, parser, connectTimeoutMillis, socketFactory, clients, threadFactory);
         } catch (IOException e) {
             throw new RuntimeException(e); // This should only happen if we are, eg, out of system resources
         }
@@ -41,7 +41,7 @@ import static com.google.common.base.Preconditions.checkState;
  * A simple NIO MessageWriteTarget which handles all the business logic of a connection (reading+writing bytes).
  * Used only by the NioClient and NioServer classes
  */
-class ConnectionHandler implements MessageWriteTarget {
+class ConnectionHandler implements PausableWriteTarget {
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(ConnectionHandler.class);
 
     private static final int BUFFER_SIZE_LOWER_BOUND = 4096;
@@ -163,6 +163,33 @@ class ConnectionHandler implements MessageWriteTarget {
         lock.unlock();
     }
 
+    @Override
+    public void setReadingPaused(boolean paused) {
+        lock.lock();
+        try {
+            if (paused) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            } else {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                key.selector().wakeup();
+            }
+        } catch (CancelledKeyException e) {
+            // The connection is closing anyway.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the number of bytes waiting to be written to the socket.
+    long getOutboundBytesQueued() {
+        lock.lock();
+        try {
+            return bytesToWriteRemaining;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     // May NOT be called with lock held
     public void closeConnection() {
@@ -189,27 +216,28 @@ class ConnectionHandler implements MessageWriteTarget {
         }
     }
 
-    // Handle a SelectionKey which was selected
+    // Handle a SelectionKey which was selected, returning the number of bytes read from the socket
     // Runs unlocked as the caller is single-threaded (or if not, should enforce that handleKey is only called
     // atomically for a given ConnectionHandler)
-    public static void handleKey(SelectionKey key) {
+    public static int handleKey(SelectionKey key) {
         ConnectionHandler handler = ((ConnectionHandler)key.attachment());
+        int read = 0;
         try {
             if (handler == null)
-                return;
+                return 0;
             if (!key.isValid()) {
                 handler.closeConnection(); // Key has been cancelled, make sure the socket gets closed
-                return;
+                return 0;
             }
             if (key.isReadable()) {
                 // Do a socket read and invoke the parser's receiveBytes message
-                int read = handler.channel.read(handler.readBuff);
+                read = handler.channel.read(handler.readBuff);
                 if (read == 0)
-                    return; // Was probably waiting on a write
+                    return 0; // Was probably waiting on a write
                 else if (read == -1) { // Socket was closed
                     key.cancel();
                     handler.closeConnection();
-                    return;
+                    return 0;
                 }
                 // "flip" the buffer - setting the limit to the current position and setting position to 0
                 handler.readBuff.flip();
@@ -228,5 +256,6 @@ class ConnectionHandler implements MessageWriteTarget {
             log.error("Error handling SelectionKey: {}", Throwables.getRootCause(e).getMessage());
             handler.closeConnection();
         }
+        return Math.max(read, 0);
     }
 }
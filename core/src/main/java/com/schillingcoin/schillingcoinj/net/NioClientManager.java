@@ -20,12 +20,14 @@ import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.channels.*;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.*;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class which manages a set of client connections. Uses Java NIO to select network events and processes them in a
@@ -46,6 +48,12 @@ public class NioClientManager extends AbstractExecutionThreadService implements
     // Added to/removed from by the individual ConnectionHandler's, thus must by synchronized on its own.
     private final Set<ConnectionHandler> connectedHandlers = Collections.synchronizedSet(new HashSet<ConnectionHandler>());
 
+    @Nullable private final String name;
+    // Counters for getStats(), only written by the selector thread.
+    private final AtomicLong wakeups = new AtomicLong();
+    private final AtomicLong keysHandled = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+
     // Handle a SelectionKey which was selected
     private void handleKey(SelectionKey key) throws IOException {
         // We could have a !isValid() key here if the connection is already closed at this point
@@ -72,7 +80,7 @@ public class NioClientManager extends AbstractExecutionThreadService implements
                 handler.closeConnection();
             }
         } else // Process bytes read
-            ConnectionHandler.handleKey(key);
+            bytesRead.addAndGet(ConnectionHandler.handleKey(key));
     }
 
     /**
@@ -80,6 +88,15 @@ public class NioClientManager extends AbstractExecutionThreadService implements
      * calls.
      */
     public NioClientManager() {
+        this(null);
+    }
+
+    /**
+     * Creates a new client manager which uses Java NIO for socket management, with a name that is used for its
+     * network thread. Used by {@link ShardedNioClientManager} to tell its event loops apart.
+     */
+    public NioClientManager(@Nullable String name) {
+        this.name = name;
         try {
             selector = SelectorProvider.provider().openSelector();
         } catch (IOException e) {
@@ -103,11 +120,13 @@ public class NioClientManager extends AbstractExecutionThreadService implements
                 }
 
                 selector.select();
+                wakeups.incrementAndGet();
 
                 Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
                 while (keyIterator.hasNext()) {
                     SelectionKey key = keyIterator.next();
                     keyIterator.remove();
+                    keysHandled.incrementAndGet();
                     handleKey(key);
                 }
             }
@@ -153,6 +172,56 @@ public class NioClientManager extends AbstractExecutionThreadService implements
         }
     }
 
+    @Override
+    protected String serviceName() {
+        return name != null ? name : super.serviceName();
+    }
+
+    /** Returns a snapshot of the counters of this manager's event loop. */
+    public Stats getStats() {
+        long outboundBytes = 0;
+        int connections;
+        synchronized (connectedHandlers) {
+            connections = connectedHandlers.size();
+            for (ConnectionHandler handler : connectedHandlers)
+                outboundBytes += handler.getOutboundBytesQueued();
+        }
+        return new Stats(serviceName(), connections, wakeups.get(), keysHandled.get(), bytesRead.get(),
+                newConnectionChannels.size(), outboundBytes);
+    }
+
+    /** Counters of a single selector event loop, as returned by {@link NioClientManager#getStats()}. */
+    public static class Stats {
+        public final String name;
+        /** Number of open connections serviced by the loop. */
+        public final int connections;
+        /** Number of times the selector returned, and the number of selected keys handled. */
+        public final long wakeups, keysHandled;
+        /** Total bytes read from all connections of the loop. */
+        public final long bytesRead;
+        /** New connections waiting to be registered with the selector. */
+        public final int pendingRegistrations;
+        /** Bytes waiting to be written to the sockets of the loop. */
+        public final long outboundBytesQueued;
+
+        public Stats(String name, int connections, long wakeups, long keysHandled, long bytesRead,
+                     int pendingRegistrations, long outboundBytesQueued) {
+            this.name = name;
+            this.connections = connections;
+            this.wakeups = wakeups;
+            this.keysHandled = keysHandled;
+            this.bytesRead = bytesRead;
+            this.pendingRegistrations = pendingRegistrations;
+            this.outboundBytesQueued = outboundBytesQueued;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d connections, %d wakeups, %d keys, %d bytes read, %d pending registrations, %d bytes queued",
+                    name, connections, wakeups, keysHandled, bytesRead, pendingRegistrations, outboundBytesQueued);
+        }
+    }
+
     @Override
     public void triggerShutdown() {
         selector.wakeup();
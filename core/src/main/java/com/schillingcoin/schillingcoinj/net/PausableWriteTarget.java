@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.net;
+
+/**
+ * A {@link MessageWriteTarget} which can stop reading from its connection. A {@link StreamParser} which falls behind
+ * the data it is given can pause reading, so that the remote side is slowed down by TCP flow control rather than the
+ * parser buffering without limit. Implemented by the connections of {@link NioServer} and {@link NioClientManager},
+ * and by {@link BlockingClient}.
+ */
+public interface PausableWriteTarget extends MessageWriteTarget {
+    /**
+     * Stops or resumes reading from the connection. Bytes which were already read are still passed to the parser.
+     * May be called from any thread.
+     */
+    void setReadingPaused(boolean paused);
+}
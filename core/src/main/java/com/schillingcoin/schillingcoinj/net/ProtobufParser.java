@@ -114,6 +114,19 @@ public class ProtobufParser<MessageType extends MessageLite> extends AbstractTim
         this.writeTarget.get().closeConnection();
     }
 
+    /**
+     * Stops or resumes reading from the connection, so that a listener which can't keep up with incoming messages can
+     * slow the remote side down. Messages which were already read are still delivered. Returns false, and does
+     * nothing, if the connection doesn't support it (see {@link PausableWriteTarget}).
+     */
+    public boolean setReadingPaused(boolean paused) {
+        MessageWriteTarget target = writeTarget.get();
+        if (!(target instanceof PausableWriteTarget))
+            return false;
+        ((PausableWriteTarget) target).setReadingPaused(paused);
+        return true;
+    }
+
     @Override
     protected void timeoutOccurred() {
         log.warn("Timeout occurred for " + handler);
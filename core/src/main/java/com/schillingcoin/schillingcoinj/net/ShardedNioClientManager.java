@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.net;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractIdleService;
+
+import java.net.SocketAddress;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A {@link ClientConnectionManager} that spreads connections over several {@link NioClientManager}s, each running
+ * its own selector on its own thread. Connections are assigned to an event loop by hashing the remote address, so
+ * reading, message parsing and (unless the peers are given a separate executor) message processing for a large number
+ * of connections is spread across cores instead of being serialized on one thread.</p>
+ *
+ * <p>By default there is one event loop per available processor. Counters for each loop are available from
+ * {@link #getLoopStats()}.</p>
+ */
+public class ShardedNioClientManager extends AbstractIdleService implements ClientConnectionManager {
+    private final ImmutableList<NioClientManager> loops;
+
+    /** Creates a manager with one event loop per available processor. */
+    public ShardedNioClientManager() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Creates a manager with the given number of event loops. */
+    public ShardedNioClientManager(int numLoops) {
+        checkArgument(numLoops > 0);
+        ImmutableList.Builder<NioClientManager> builder = ImmutableList.builder();
+        for (int i = 0; i < numLoops; i++)
+            builder.add(new NioClientManager("NioClientManager loop " + i));
+        loops = builder.build();
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        for (NioClientManager loop : loops)
+            loop.startAsync();
+        for (NioClientManager loop : loops)
+            loop.awaitRunning();
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        for (NioClientManager loop : loops)
+            loop.stopAsync();
+        for (NioClientManager loop : loops)
+            loop.awaitTerminated();
+    }
+
+    @Override
+    public void openConnection(SocketAddress serverAddress, StreamParser parser) {
+        if (!isRunning())
+            throw new IllegalStateException();
+        loopFor(serverAddress).openConnection(serverAddress, parser);
+    }
+
+    private NioClientManager loopFor(SocketAddress address) {
+        // Spread the bits of the hash a little, as socket address hashes of nearby addresses differ in low bits only.
+        int hash = address.hashCode();
+        hash ^= (hash >>> 16);
+        return loops.get((hash & Integer.MAX_VALUE) % loops.size());
+    }
+
+    @Override
+    public int getConnectedClientCount() {
+        int count = 0;
+        for (NioClientManager loop : loops)
+            count += loop.getConnectedClientCount();
+        return count;
+    }
+
+    @Override
+    public void closeConnections(int n) {
+        if (!isRunning())
+            throw new IllegalStateException();
+        // Close connections on the busiest loops first, to keep the load even.
+        while (n-- > 0) {
+            NioClientManager busiest = null;
+            for (NioClientManager loop : loops) {
+                if (busiest == null || loop.getConnectedClientCount() > busiest.getConnectedClientCount())
+                    busiest = loop;
+            }
+            if (busiest == null || busiest.getConnectedClientCount() == 0)
+                return;
+            busiest.closeConnections(1);
+        }
+    }
+
+    /** Returns the number of event loops. */
+    public int getNumLoops() {
+        return loops.size();
+    }
+
+    /** Returns a snapshot of the counters of every event loop. */
+    public List<NioClientManager.Stats> getLoopStats() {
+        ImmutableList.Builder<NioClientManager.Stats> stats = ImmutableList.builder();
+        for (NioClientManager loop : loops)
+            stats.add(loop.getStats());
+        return stats.build();
+    }
+}
@@ -16,17 +16,15 @@
 
 package com.schillingcoin.schillingcoinj.net.discovery;
 
-import static com.google.common.base.Preconditions.checkArgument;
 import com.schillingcoin.schillingcoinj.core.NetworkParameters;
+import com.schillingcoin.schillingcoinj.core.Utils;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.subgraph.orchid.Circuit;
+import com.subgraph.orchid.CircuitManager;
 import com.subgraph.orchid.RelayCell;
 import com.subgraph.orchid.Router;
 import com.subgraph.orchid.TorClient;
@@ -37,26 +35,34 @@ import com.subgraph.orchid.data.exitpolicy.ExitTarget;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import static java.util.Collections.singleton;
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * <p>Supports peer discovery through Tor.</p>
  *
+ * <p>DNS seeds are resolved by exit nodes over internal circuits. Each exit node is handled independently on a
+ * bounded thread pool: its circuit is built and the seeds are tried in turn until one resolves, so a slow seed or
+ * exit node only holds up its own lookup. getPeers() returns as soon as enough exit nodes have answered, lookups
+ * still in progress complete in the background and are cached for later calls. Circuits are kept open and
+ * reused, results are cached for the TTL of the DNS reply.</p>
+ *
  * <p>Failure to obtain at least four different peers through different exit nodes will cause
  * a PeerDiscoveryException will be thrown during getPeers().
  * </p>
@@ -75,12 +81,23 @@ public class TorDiscovery implements PeerDiscovery {
     public static final int RESOLVE_ERROR = 0xf0;
     public static final int RESOLVE_IPV4 = 0x04;
     public static final int RESOLVE_IPV6 = 0x06;
+    /** Bounds on how long a lookup result is cached, whatever TTL the seed returned. */
+    public static final int MIN_CACHE_TTL_SECONDS = 60;
+    public static final int MAX_CACHE_TTL_SECONDS = 30 * 60;
 
     private final String[] hostNames;
     private final NetworkParameters netParams;
     private final CircuitPathChooser pathChooser;
-    private final TorClient torClient;
-    private ListeningExecutorService threadPool;
+    private final CircuitManager circuitManager;
+
+    // Most recent unexpired lookup for each exit node.
+    @GuardedBy("this") private final Map<HexDigest, Lookup> cache = Maps.newHashMap();
+    // Open circuits to exit nodes, reused across calls to getPeers().
+    @GuardedBy("this") private final Map<HexDigest, Circuit> circuits = Maps.newHashMap();
+    // Exit nodes for which a lookup task is queued or running.
+    @GuardedBy("this") private final Set<HexDigest> pending = Sets.newHashSet();
+    @GuardedBy("this") private ExecutorService threadPool;
+    @GuardedBy("this") private int requiredResultCount = MINIMUM_ROUTER_LOOKUP_COUNT;
 
     /**
      * Supports finding peers through Tor. Community run DNS entry points will be used.
@@ -99,164 +116,199 @@ public class TorDiscovery implements PeerDiscovery {
      * @param torClient an already-started Tor client.
      */
     public TorDiscovery(String[] hostNames, NetworkParameters netParams, TorClient torClient) {
+        this(hostNames, netParams, torClient.getCircuitManager(),
+                CircuitPathChooser.create(torClient.getConfig(), torClient.getDirectory()));
+    }
+
+    @VisibleForTesting
+    TorDiscovery(String[] hostNames, NetworkParameters netParams, CircuitManager circuitManager,
+                 @Nullable CircuitPathChooser pathChooser) {
         this.hostNames = hostNames;
         this.netParams = netParams;
-
-        this.torClient = torClient;
-        this.pathChooser = CircuitPathChooser.create(torClient.getConfig(), torClient.getDirectory());
+        this.circuitManager = circuitManager;
+        this.pathChooser = pathChooser;
     }
 
     private static class Lookup {
         final Router router;
         final InetAddress address;
+        final long expiryTimeMillis;
 
-        Lookup(Router router, InetAddress address) {
+        Lookup(Router router, InetAddress address, long expiryTimeMillis) {
             this.router = router;
             this.address = address;
+            this.expiryTimeMillis = expiryTimeMillis;
         }
     }
 
+    /**
+     * Sets how many exit nodes must have answered before {@link #getPeers(long, TimeUnit)} returns without waiting
+     * for the remaining lookups. Defaults to {@link #MINIMUM_ROUTER_LOOKUP_COUNT}.
+     */
+    public synchronized void setRequiredResultCount(int count) {
+        checkArgument(count >= MINIMUM_ROUTER_COUNT && count <= ROUTER_LOOKUP_COUNT,
+                "Required result count %s must be between %s and %s", count, MINIMUM_ROUTER_COUNT, ROUTER_LOOKUP_COUNT);
+        requiredResultCount = count;
+    }
+
     @Override
     public InetSocketAddress[] getPeers(long timeoutValue, TimeUnit timeoutUnit) throws PeerDiscoveryException {
-        if (hostNames == null)
+        if (hostNames == null || hostNames.length == 0)
             throw new PeerDiscoveryException("Unable to find any peers via DNS");
 
-        Set<Router> routers = Sets.newHashSet();
-        ArrayList<ExitTarget> dummyTargets = Lists.newArrayList();
-
-        // Collect exit nodes until we have enough
-        while (routers.size() < ROUTER_LOOKUP_COUNT) {
-            Router router = pathChooser.chooseExitNodeForTargets(dummyTargets);
-            routers.add(router);
+        long deadline = Utils.currentTimeMillis() + timeoutUnit.toMillis(timeoutValue);
+        List<Lookup> lookups;
+        synchronized (this) {
+            removeExpired();
+            startLookups();
+            try {
+                // Return as soon as enough exit nodes have answered, or when nothing more is going to arrive.
+                while (cache.size() < requiredResultCount && !pending.isEmpty()) {
+                    long remaining = deadline - Utils.currentTimeMillis();
+                    if (remaining <= 0)
+                        break;
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                throw new PeerDiscoveryException(e);
+            }
+            if (!pending.isEmpty())
+                log.info("Returning {} lookups, {} still in progress", cache.size(), pending.size());
+            lookups = new ArrayList<Lookup>(cache.values());
         }
 
-        try {
-            List<Circuit> circuits =
-                getCircuits(torClient.getConfig().getCircuitBuildTimeout(), TimeUnit.MILLISECONDS, routers);
-            if (circuits.isEmpty())
-                throw new PeerDiscoveryException("Failed to open any circuit within " +
-                                                 String.valueOf(timeoutValue) + " " + timeoutUnit);
-
-            Collection<InetSocketAddress> addresses = lookupAddresses(timeoutValue, timeoutUnit, circuits);
+        // The map enforces one result per exit node, but several may have resolved to the same peer.
+        Set<InetSocketAddress> addresses = Sets.newHashSet();
+        for (Lookup lookup : lookups)
+            addresses.add(new InetSocketAddress(lookup.address, netParams.getPort()));
+        if (addresses.size() < MINIMUM_ROUTER_COUNT)
+            throw new PeerDiscoveryException("Unable to find enough peers via Tor - got " + addresses.size());
+        ArrayList<InetSocketAddress> addressList = Lists.newArrayList(addresses);
+        Collections.shuffle(addressList);
+        return addressList.toArray(new InetSocketAddress[addressList.size()]);
+    }
 
-            if (addresses.size() < MINIMUM_ROUTER_COUNT)
-                throw new PeerDiscoveryException("Unable to find enough peers via Tor - got " + addresses.size());
-            ArrayList<InetSocketAddress> addressList = Lists.newArrayList();
-            addressList.addAll(addresses);
-            Collections.shuffle(addressList);
-            return addressList.toArray(new InetSocketAddress[addressList.size()]);
-        } catch (InterruptedException e) {
-            throw new PeerDiscoveryException(e);
+    @GuardedBy("this")
+    private void removeExpired() {
+        long now = Utils.currentTimeMillis();
+        for (Iterator<Lookup> it = cache.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiryTimeMillis <= now)
+                it.remove();
+        }
+        for (Iterator<Circuit> it = circuits.values().iterator(); it.hasNext(); ) {
+            if (it.next().isMarkedForClose())
+                it.remove();
         }
     }
 
-    private List<Circuit> getCircuits(long timeoutValue, TimeUnit timeoutUnit, Set<Router> routers) throws InterruptedException {
-        checkArgument(routers.size() >= MINIMUM_ROUTER_LOOKUP_COUNT, "Set of {} routers is smaller than required minimum {}",
-                      routers.size(), MINIMUM_ROUTER_LOOKUP_COUNT);
-        createThreadPool(routers.size());
-
-        try {
-            List<ListenableFuture<Circuit>> circuitFutures = Lists.newArrayList();
-            final CountDownLatch doneSignal = new CountDownLatch(MINIMUM_ROUTER_LOOKUP_COUNT);
-            for (final Router router : routers) {
-                ListenableFuture<Circuit> openCircuit = threadPool.submit(new Callable<Circuit>() {
+    /** Starts lookups until the cached and pending exit nodes add up to {@link #ROUTER_LOOKUP_COUNT}. */
+    @GuardedBy("this")
+    private void startLookups() {
+        if (threadPool == null) {
+            threadPool = Executors.newFixedThreadPool(ROUTER_LOOKUP_COUNT, new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("TorDiscovery lookup %d")
+                    .build());
+        }
+        int wanted = ROUTER_LOOKUP_COUNT - cache.size() - pending.size();
+        if (wanted <= 0)
+            return;
+        // Exit nodes we already have a circuit to come first, their lookups don't have to wait for a circuit build.
+        List<Router> routers = Lists.newArrayList();
+        for (Circuit circuit : circuits.values()) {
+            Router router = circuit.getFinalCircuitNode().getRouter();
+            if (routers.size() < wanted && isIdle(router))
+                routers.add(router);
+        }
+        ArrayList<ExitTarget> dummyTargets = Lists.newArrayList();
+        int attempts = 0;
+        while (routers.size() < wanted && attempts++ < ROUTER_LOOKUP_COUNT * 4) {
+            Router router = chooseExitNode(dummyTargets);
+            if (router != null && isIdle(router) && !routers.contains(router))
+                routers.add(router);
+        }
+        for (final Router router : routers) {
+            pending.add(router.getIdentityHash());
+            try {
+                threadPool.execute(new Runnable() {
                     @Override
-                    public Circuit call() throws Exception {
-                        return torClient.getCircuitManager().openInternalCircuitTo(Lists.newArrayList(router));
+                    public void run() {
+                        lookupVia(router);
                     }
                 });
-                Futures.addCallback(openCircuit, new FutureCallback<Circuit>() {
-                    public void onSuccess(Circuit circuit) {
-                        doneSignal.countDown();
-                    }
-                    public void onFailure(Throwable thrown) {
-                        doneSignal.countDown();
-                    }
-                });
-                circuitFutures.add(openCircuit);
+            } catch (RejectedExecutionException e) {
+                pending.remove(router.getIdentityHash());
             }
-
-            boolean countedDown = doneSignal.await(timeoutValue, timeoutUnit);
-
-            try {
-                List<Circuit> circuits = new ArrayList<Circuit>(Futures.successfulAsList(circuitFutures).get());
-                // Any failures will result in null entries.  Remove them.
-                circuits.removeAll(singleton(null));
-                int failures = routers.size() - circuits.size();
-                if (failures > 0) log.warn("{} failures " + (countedDown ? "" : "(including timeout) ") +
-                                           "opening DNS lookup circuits", failures);
-                return circuits;
-            } catch (ExecutionException e) {
-                // Cannot happen, successfulAsList accepts failures
-                throw new RuntimeException(e);
-            }
-        } finally {
-            shutdownThreadPool();
         }
     }
 
-    private Collection<InetSocketAddress> lookupAddresses(long timeoutValue, TimeUnit timeoutUnit, List<Circuit> circuits) throws InterruptedException {
-        createThreadPool(circuits.size() * hostNames.length);
-
-        try {
-            List<ListenableFuture<Lookup>> lookupFutures = Lists.newArrayList();
-            for (final Circuit circuit : circuits) {
-                for (final String seed : hostNames) {
-                    lookupFutures.add(threadPool.submit(new Callable<Lookup>() {
-                        @Override
-                        public Lookup call() throws Exception {
-                            return new Lookup(circuit.getFinalCircuitNode().getRouter(), lookup(circuit, seed));
-                        }
-                    }));
-                }
-            }
-
-            threadPool.awaitTermination(timeoutValue, timeoutUnit);
-            int timeouts = 0;
-            for (ListenableFuture<Lookup> future : lookupFutures) {
-                if (!future.isDone()) {
-                    timeouts++;
-                    future.cancel(true);
-                }
-            }
-            if (timeouts > 0)
-                log.warn("{} DNS lookups timed out", timeouts);
-
-            try {
-                List<Lookup> lookups = new ArrayList<Lookup>(Futures.successfulAsList(lookupFutures).get());
-                // Any failures will result in null entries.  Remove them.
-                lookups.removeAll(singleton(null));
+    @VisibleForTesting @Nullable
+    Router chooseExitNode(List<ExitTarget> targets) {
+        return pathChooser.chooseExitNodeForTargets(targets);
+    }
 
-                // Use a map to enforce one result per exit node
-                // TODO: randomize result selection better
-                Map<HexDigest, InetSocketAddress> lookupMap = Maps.newHashMap();
+    @GuardedBy("this")
+    private boolean isIdle(Router router) {
+        HexDigest id = router.getIdentityHash();
+        return !cache.containsKey(id) && !pending.contains(id);
+    }
 
-                for (Lookup lookup : lookups) {
-                    InetSocketAddress address = new InetSocketAddress(lookup.address, netParams.getPort());
-                    lookupMap.put(lookup.router.getIdentityHash(), address);
+    /** Runs on the thread pool: resolves one of the seeds through the given exit node and caches the result. */
+    private void lookupVia(Router router) {
+        HexDigest id = router.getIdentityHash();
+        Lookup result = null;
+        try {
+            Circuit circuit = getCircuit(router);
+            // Spread the load over the seeds, and don't let one unresponsive seed fail every exit node.
+            List<String> seeds = Lists.newArrayList(Arrays.asList(hostNames));
+            Collections.shuffle(seeds);
+            for (String seed : seeds) {
+                try {
+                    result = lookup(circuit, router, seed);
+                    if (result != null)
+                        break;
+                    // No reply in time. A late reply would be taken as the answer to the next lookup, so give up on
+                    // this circuit.
+                    circuit.markForClose();
+                    break;
+                } catch (UnknownHostException e) {
+                    log.debug("Lookup of {} via {} failed: {}", seed, router.getNickname(), e.getMessage());
                 }
-
-                return lookupMap.values();
-            } catch (ExecutionException e) {
-                // Cannot happen, successfulAsList accepts failures
-                throw new RuntimeException(e);
             }
+        } catch (Exception e) {
+            log.debug("DNS lookup via {} failed: {}", router.getNickname(), e.toString());
         } finally {
-            shutdownThreadPool();
+            synchronized (this) {
+                pending.remove(id);
+                if (result != null && threadPool != null)
+                    cache.put(id, result);
+                notifyAll();
+            }
         }
     }
 
-    private synchronized void shutdownThreadPool() {
-        threadPool.shutdownNow();
-        threadPool = null;
-    }
-
-    private synchronized void createThreadPool(int size) {
-        threadPool =
-                MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(size));
+    private Circuit getCircuit(Router router) throws Exception {
+        HexDigest id = router.getIdentityHash();
+        synchronized (this) {
+            Circuit circuit = circuits.get(id);
+            if (circuit != null && !circuit.isMarkedForClose())
+                return circuit;
+        }
+        Circuit circuit = circuitManager.openInternalCircuitTo(Lists.newArrayList(router));
+        synchronized (this) {
+            if (threadPool == null) {
+                // Shut down while the circuit was being built.
+                circuit.markForClose();
+                throw new PeerDiscoveryException("Shut down");
+            }
+            circuits.put(id, circuit);
+        }
+        return circuit;
     }
 
-    private InetAddress lookup(Circuit circuit, String seed) throws UnknownHostException {
+    /** Returns null if there was no reply in time. Lookups must not overlap on the same circuit. */
+    @Nullable
+    private Lookup lookup(Circuit circuit, Router router, String seed) throws UnknownHostException {
         // Send a resolve cell to the exit node
         RelayCell cell = circuit.createRelayCell(RelayCell.RELAY_RESOLVE, RESOLVE_STREAM_ID, circuit.getFinalCircuitNode());
         cell.putString(seed);
@@ -275,22 +327,30 @@ public class TorDiscovery implements PeerDiscovery {
 
                     if (type == RESOLVE_CNAME || type >= RESOLVE_ERROR) {
                         // TODO handle .onion CNAME replies
-                        throw new RuntimeException(new String(value));
+                        throw new UnknownHostException(seed + ": " + new String(value));
                     } else if (type == RESOLVE_IPV4 || type == RESOLVE_IPV6) {
-                        return InetAddress.getByAddress(value);
+                        long ttlSeconds = Math.max(MIN_CACHE_TTL_SECONDS, Math.min(MAX_CACHE_TTL_SECONDS, ttl & 0xFFFFFFFFL));
+                        return new Lookup(router, InetAddress.getByAddress(value),
+                                Utils.currentTimeMillis() + ttlSeconds * 1000);
                     }
                 }
-                break;
+                throw new UnknownHostException("No address in reply for " + seed);
             }
         }
-        throw new RuntimeException("Could not look up " + seed);
+        return null;
     }
 
     @Override
     public synchronized void shutdown() {
         if (threadPool != null) {
-            shutdownThreadPool();
+            threadPool.shutdownNow();
+            threadPool = null;
         }
+        for (Circuit circuit : circuits.values())
+            circuit.markForClose();
+        circuits.clear();
+        cache.clear();
+        pending.clear();
+        notifyAll();
     }
 }
-
@@ -24,26 +24,43 @@ import com.schillingcoin.schillingcoinj.core.Wallet;
 import com.schillingcoin.schillingcoinj.net.NioServer;
 import com.schillingcoin.schillingcoinj.net.ProtobufParser;
 import com.schillingcoin.schillingcoinj.net.StreamParserFactory;
+import com.schillingcoin.schillingcoinj.utils.SerialExecutor;
 
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
 import com.schillingcoin.schillingcoinj.paymentchannel.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Implements a listening TCP server that can accept connections from payment channel clients, and invokes the provided
- * event listeners when new channels are opened or payments arrive. This is the highest level class in the payment
- * channels API. Internally, sends protobuf messages to/from a newly created {@link PaymentChannelServer}.
+ * <p>Implements a listening TCP server that can accept connections from payment channel clients, and invokes the
+ * provided event listeners when new channels are opened or payments arrive. This is the highest level class in the
+ * payment channels API. Internally, sends protobuf messages to/from a newly created {@link PaymentChannelServer}.</p>
+ *
+ * <p>By default messages are processed on the network thread, which serves every connection. Use
+ * {@link #setMessageProcessingExecutor(Executor)} to process them on a pool of worker threads instead.</p>
  */
 public class PaymentChannelServerListener {
+    private static final Logger log = LoggerFactory.getLogger(PaymentChannelServerListener.class);
+
+    /** The default for {@link #setMaxPendingMessages(int)}. */
+    public static final int DEFAULT_MAX_PENDING_MESSAGES = 16;
+
     // The wallet and peergroup which are used to complete/broadcast transactions
     private final Wallet wallet;
     private final TransactionBroadcaster broadcaster;
@@ -55,6 +72,16 @@ public class PaymentChannelServerListener {
     private NioServer server;
     private final int timeoutSeconds;
 
+    // If set, client messages are processed on this executor instead of the network thread.
+    @Nullable private volatile Executor messageExecutor;
+    private volatile int maxPendingMessages = DEFAULT_MAX_PENDING_MESSAGES;
+
+    // Counters for getStats().
+    private final AtomicLong messagesProcessed = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong(), maxQueueNanos = new AtomicLong();
+    private final AtomicLong totalProcessingNanos = new AtomicLong(), maxProcessingNanos = new AtomicLong();
+    private final AtomicLong readPauses = new AtomicLong();
+
     /**
      * A factory which generates connection-specific event handlers.
      */
@@ -89,36 +116,103 @@ public class PaymentChannelServerListener {
                 }
             });
 
+            // Messages are decoded on the network thread and then processed by dispatch(), in order.
             protobufHandlerListener = new ProtobufParser.Listener<Protos.TwoWayChannelMessage>() {
                 @Override
-                public synchronized void messageReceived(ProtobufParser<Protos.TwoWayChannelMessage> handler, Protos.TwoWayChannelMessage msg) {
-                    paymentChannelManager.receiveMessage(msg);
+                public void messageReceived(ProtobufParser<Protos.TwoWayChannelMessage> handler, final Protos.TwoWayChannelMessage msg) {
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            paymentChannelManager.receiveMessage(msg);
+                        }
+                    }, true);
                 }
 
                 @Override
-                public synchronized void connectionClosed(ProtobufParser<Protos.TwoWayChannelMessage> handler) {
-                    paymentChannelManager.connectionClosed();
-                    if (closeReason != null)
-                        eventHandler.channelClosed(closeReason);
-                    else
-                        eventHandler.channelClosed(PaymentChannelCloseException.CloseReason.CONNECTION_CLOSED);
-                    eventHandler.setConnectionChannel(null);
+                public void connectionClosed(ProtobufParser<Protos.TwoWayChannelMessage> handler) {
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            paymentChannelManager.connectionClosed();
+                            if (closeReason != null)
+                                eventHandler.channelClosed(closeReason);
+                            else
+                                eventHandler.channelClosed(PaymentChannelCloseException.CloseReason.CONNECTION_CLOSED);
+                            eventHandler.setConnectionChannel(null);
+                        }
+                    }, false);
                 }
 
                 @Override
-                public synchronized void connectionOpen(ProtobufParser<Protos.TwoWayChannelMessage> handler) {
-                    ServerConnectionEventHandler eventHandler = eventHandlerFactory.onNewConnection(address);
-                    if (eventHandler == null)
-                        handler.closeConnection();
-                    else {
-                        ServerHandler.this.eventHandler = eventHandler;
-                        paymentChannelManager.connectionOpen();
-                    }
+                public void connectionOpen(final ProtobufParser<Protos.TwoWayChannelMessage> handler) {
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            ServerConnectionEventHandler eventHandler = eventHandlerFactory.onNewConnection(address);
+                            if (eventHandler == null)
+                                handler.closeConnection();
+                            else {
+                                ServerHandler.this.eventHandler = eventHandler;
+                                paymentChannelManager.connectionOpen();
+                            }
+                        }
+                    }, false);
                 }
             };
 
             socketProtobufHandler = new ProtobufParser<Protos.TwoWayChannelMessage>
                     (protobufHandlerListener, Protos.TwoWayChannelMessage.getDefaultInstance(), Short.MAX_VALUE, timeoutSeconds*1000);
+            Executor executor = messageExecutor;
+            this.executor = executor == null ? null : new SerialExecutor(executor);
+        }
+
+        // Runs the event on the network thread or, if an executor is set, queues it for a worker thread and pauses
+        // reading from the client whilst too many of its messages are waiting.
+        private void dispatch(final Runnable event, final boolean isMessage) {
+            final long queuedAt = System.nanoTime();
+            if (executor == null) {
+                process(event, isMessage, queuedAt);
+                return;
+            }
+            pendingEvents.incrementAndGet();
+            updateReadingPaused();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        process(event, isMessage, queuedAt);
+                    } catch (RuntimeException e) {
+                        // On the network thread this would close the connection, so do the same here.
+                        log.error("Error processing payment channel message, closing connection", e);
+                        socketProtobufHandler.closeConnection();
+                    } finally {
+                        pendingEvents.decrementAndGet();
+                        updateReadingPaused();
+                    }
+                }
+            });
+        }
+
+        private synchronized void process(Runnable event, boolean isMessage, long queuedAt) {
+            long startedAt = System.nanoTime();
+            event.run();
+            if (isMessage)
+                recordMessage(startedAt - queuedAt, System.nanoTime() - startedAt);
+        }
+
+        private void updateReadingPaused() {
+            synchronized (flowControlLock) {
+                int pending = pendingEvents.get();
+                if (!readingPaused && pending >= maxPendingMessages) {
+                    if (socketProtobufHandler.setReadingPaused(true)) {
+                        readingPaused = true;
+                        readPauses.incrementAndGet();
+                    }
+                } else if (readingPaused && pending <= maxPendingMessages / 2) {
+                    socketProtobufHandler.setReadingPaused(false);
+                    readingPaused = false;
+                }
+            }
         }
 
         private PaymentChannelCloseException.CloseReason closeReason;
@@ -134,6 +228,87 @@ public class PaymentChannelServerListener {
 
         // The listener which connects to socketProtobufHandler
         private final ProtobufParser.Listener<Protos.TwoWayChannelMessage> protobufHandlerListener;
+
+        // Processes this client's events in order on messageExecutor, or null to process them on the network thread
+        @Nullable private final SerialExecutor executor;
+        private final AtomicInteger pendingEvents = new AtomicInteger();
+        private final Object flowControlLock = new Object();
+        @GuardedBy("flowControlLock") private boolean readingPaused;
+    }
+
+    private void recordMessage(long queueNanos, long processingNanos) {
+        messagesProcessed.incrementAndGet();
+        totalQueueNanos.addAndGet(queueNanos);
+        totalProcessingNanos.addAndGet(processingNanos);
+        updateMax(maxQueueNanos, queueNanos);
+        updateMax(maxProcessingNanos, processingNanos);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while ((current = max.get()) < value && !max.compareAndSet(current, value)) ;
+    }
+
+    /**
+     * <p>Makes client messages be processed on the given executor rather than on the network thread which read them.
+     * Messages are still decoded on the network thread, and the messages of any one client are processed one at a
+     * time and in the order they arrived, but a client whose messages wait on the wallet or on a broadcast no longer
+     * holds up all the others. A fixed size pool bounds the number of threads however many clients connect.</p>
+     *
+     * <p>Reading from a client is paused whilst {@link #setMaxPendingMessages(int)} or more of its messages are
+     * waiting, so that a client sending faster than it can be served is slowed down by TCP flow control.</p>
+     *
+     * <p>Affects connections accepted afterwards. Pass null to process messages on the network thread, which is the
+     * default.</p>
+     */
+    public void setMessageProcessingExecutor(@Nullable Executor executor) {
+        this.messageExecutor = executor;
+    }
+
+    /**
+     * Sets how many messages of one client may wait for a worker thread before reading from that client is paused.
+     * Reading resumes once half of them have been processed. Only used with
+     * {@link #setMessageProcessingExecutor(Executor)}.
+     */
+    public void setMaxPendingMessages(int maxPendingMessages) {
+        checkArgument(maxPendingMessages > 0);
+        this.maxPendingMessages = maxPendingMessages;
+    }
+
+    /** Returns a snapshot of the message processing counters of this listener. */
+    public Stats getStats() {
+        return new Stats(messagesProcessed.get(), totalQueueNanos.get(), maxQueueNanos.get(),
+                totalProcessingNanos.get(), maxProcessingNanos.get(), readPauses.get());
+    }
+
+    /** Message processing counters, as returned by {@link PaymentChannelServerListener#getStats()}. */
+    public static class Stats {
+        /** Number of client messages processed. */
+        public final long messagesProcessed;
+        /** Total and longest time messages waited between being decoded and being processed, in microseconds. */
+        public final long totalQueueMicros, maxQueueMicros;
+        /** Total and longest time spent processing messages, in microseconds. */
+        public final long totalProcessingMicros, maxProcessingMicros;
+        /** Number of times reading from a client was paused because too many of its messages were waiting. */
+        public final long readPauses;
+
+        public Stats(long messagesProcessed, long totalQueueNanos, long maxQueueNanos, long totalProcessingNanos,
+                     long maxProcessingNanos, long readPauses) {
+            this.messagesProcessed = messagesProcessed;
+            this.totalQueueMicros = TimeUnit.NANOSECONDS.toMicros(totalQueueNanos);
+            this.maxQueueMicros = TimeUnit.NANOSECONDS.toMicros(maxQueueNanos);
+            this.totalProcessingMicros = TimeUnit.NANOSECONDS.toMicros(totalProcessingNanos);
+            this.maxProcessingMicros = TimeUnit.NANOSECONDS.toMicros(maxProcessingNanos);
+            this.readPauses = readPauses;
+        }
+
+        @Override
+        public String toString() {
+            long n = Math.max(messagesProcessed, 1);
+            return String.format("%d messages, queued %d us avg %d us max, processed %d us avg %d us max, %d read pauses",
+                    messagesProcessed, totalQueueMicros / n, maxQueueMicros, totalProcessingMicros / n,
+                    maxProcessingMicros, readPauses);
+        }
     }
 
     /**
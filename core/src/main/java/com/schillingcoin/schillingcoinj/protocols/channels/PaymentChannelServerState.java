@@ -112,6 +112,9 @@ public class PaymentChannelServerState {
 
     private StoredServerChannel storedServerChannel = null;
 
+    // Serialized payment transactions used to check the signatures of increments, created on the first increment.
+    private PaymentTransactionTemplate paymentTemplate;
+
     PaymentChannelServerState(StoredServerChannel storedServerChannel, Wallet wallet, TransactionBroadcaster broadcaster) throws VerificationException {
         synchronized (storedServerChannel) {
             this.wallet = checkNotNull(wallet);
@@ -323,14 +326,20 @@ public class PaymentChannelServerState {
         if (signature.sigHashMode() != mode || !signature.anyoneCanPay())
             throw new VerificationException("New payment signature was not signed with the right SIGHASH flags.");
 
-        Wallet.SendRequest req = makeUnsignedChannelContract(newValueToMe);
         // Now check the signature is correct.
         // Note that the client must sign with SIGHASH_{SINGLE/NONE} | SIGHASH_ANYONECANPAY to allow us to add additional
         // inputs (in case we need to add significant fee, or something...) and any outputs we want to pay to.
-        Sha256Hash sighash = req.tx.hashForSignature(0, multisigScript, mode, true);
+        // Rather than building the payment transaction, hash its signed form from a template, which gives the same
+        // hash as calling hashForSignature on the result of makeUnsignedChannelContract.
+        if (paymentTemplate == null)
+            paymentTemplate = new PaymentTransactionTemplate(wallet.getParams(), multisigContract.getOutput(0),
+                    multisigScript, clientOutput);
+        long txTimeSecs = Utils.currentTimeSeconds();
+        Sha256Hash sighash = fullyUsedUp ? paymentTemplate.hashForNoRefund(txTimeSecs)
+                : paymentTemplate.hashForRefund(txTimeSecs, refundSize);
 
         if (!clientKey.verify(sighash, signature))
-            throw new VerificationException("Signature does not verify on tx\n" + req.tx);
+            throw new VerificationException("Signature does not verify on tx\n" + makeUnsignedChannelContract(newValueToMe).tx);
         bestValueToMe = newValueToMe;
         bestValueSignature = signatureBytes;
         updateChannelInWallet();
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.protocols.channels;
+
+import com.schillingcoin.schillingcoinj.core.*;
+import com.schillingcoin.schillingcoinj.crypto.TransactionSignature;
+import com.schillingcoin.schillingcoinj.script.Script;
+import com.schillingcoin.schillingcoinj.script.ScriptOpCodes;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>Computes the signature hashes of the payment transactions a {@link PaymentChannelServerState} receives signatures
+ * for, without building the transactions.</p>
+ *
+ * <p>A payment transaction spends the multisig contract and, unless the channel is fully used up, has a single output
+ * refunding the client. The client signs it with SIGHASH_SINGLE or SIGHASH_NONE and ANYONECANPAY, so the signed form
+ * only differs between increments in the transaction time and the refund value. The signed form is serialized once for
+ * each mode and those two fields are patched in before hashing. The result is the same as calling
+ * {@link Transaction#hashForSignature(int, Script, Transaction.SigHash, boolean)} on the transaction the server would
+ * otherwise build.</p>
+ *
+ * <p>Instances are not thread safe. The class is only public so that the benchmarks can measure it, it is not part of
+ * the API.</p>
+ */
+@VisibleForTesting
+public class PaymentTransactionTemplate {
+    // The transaction time directly follows the version.
+    private static final int TIME_OFFSET = 4;
+
+    // Signed form for SIGHASH_SINGLE|ANYONECANPAY, with the client's output.
+    private final byte[] singleTemplate;
+    private final int refundValueOffset;
+    // Signed form for SIGHASH_NONE|ANYONECANPAY, without outputs.
+    private final byte[] noneTemplate;
+
+    private final MessageDigest digest;
+
+    public PaymentTransactionTemplate(NetworkParameters params, TransactionOutput multisigOutput, Script multisigScript,
+                                      TransactionOutput clientOutput) {
+        byte[] connectedScript = Script.removeAllInstancesOfOp(multisigScript.getProgram(), ScriptOpCodes.OP_CODESEPARATOR);
+        byte[] clientScript = clientOutput.getScriptBytes();
+
+        Transaction tx = new Transaction(params);
+        tx.addInput(new TransactionInput(params, tx, connectedScript,
+                new TransactionOutPoint(params, multisigOutput.getIndex(), multisigOutput.getParentTransaction())));
+        noneTemplate = withSigHashType(tx.serialize(), Transaction.SigHash.NONE);
+        tx.addOutput(new TransactionOutput(params, tx, Coin.ZERO, clientScript));
+        singleTemplate = withSigHashType(tx.serialize(), Transaction.SigHash.SINGLE);
+        // The refund value precedes the output script and its length, the lock time and the sighash type.
+        refundValueOffset = singleTemplate.length - 4 - 4 - clientScript.length - VarInt.sizeOf(clientScript.length) - 8;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    private static byte[] withSigHashType(byte[] serialized, Transaction.SigHash mode) {
+        byte[] result = new byte[serialized.length + 4];
+        System.arraycopy(serialized, 0, result, 0, serialized.length);
+        // SIGHASH_ANYONECANPAY_VALUE is a negative byte, so the flags sign extend. Only the low byte is hashed.
+        Utils.uint32ToByteArrayLE(0x000000ff & TransactionSignature.calcSigHashValue(mode, true), result, serialized.length);
+        return result;
+    }
+
+    /**
+     * Returns the hash the client signs with SIGHASH_SINGLE|ANYONECANPAY when refunding itself <code>refundSize</code>.
+     */
+    public Sha256Hash hashForRefund(long txTimeSecs, Coin refundSize) {
+        Utils.uint64ToByteArrayLE(refundSize.value, singleTemplate, refundValueOffset);
+        return hash(singleTemplate, txTimeSecs);
+    }
+
+    /**
+     * Returns the hash the client signs with SIGHASH_NONE|ANYONECANPAY when the channel is fully used up.
+     */
+    public Sha256Hash hashForNoRefund(long txTimeSecs) {
+        return hash(noneTemplate, txTimeSecs);
+    }
+
+    private Sha256Hash hash(byte[] template, long txTimeSecs) {
+        Utils.uint32ToByteArrayLE(txTimeSecs, template, TIME_OFFSET);
+        digest.reset();
+        digest.update(template);
+        byte[] first = digest.digest();
+        return new Sha256Hash(digest.digest(first));
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.protocols.channels;
+
+import com.schillingcoin.schillingcoinj.core.Transaction;
+import com.schillingcoin.schillingcoinj.core.TransactionBroadcaster;
+import com.schillingcoin.schillingcoinj.utils.Threading;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.jcip.annotations.GuardedBy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>A {@link TransactionBroadcaster} which queues the transactions given to it and passes them on to another
+ * broadcaster in batches, at most one batch per interval. Pass one to
+ * {@link StoredPaymentChannelServerStates#setTransactionBroadcaster(TransactionBroadcaster)} so that when many channels
+ * expire together their payment transactions are spread out over time instead of all being handed to the
+ * {@link com.schillingcoin.schillingcoinj.core.PeerGroup} at once.</p>
+ *
+ * <p>The returned futures complete when the underlying broadcast does. Batches are sent from a daemon thread which is
+ * started with the first broadcast and stopped by {@link #shutdown()}.</p>
+ */
+public class SettlementQueue implements TransactionBroadcaster {
+    private static final Logger log = LoggerFactory.getLogger(SettlementQueue.class);
+
+    /** The default maximum number of transactions broadcast per batch. */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    /** The default minimum time between batches. */
+    public static final long DEFAULT_BATCH_INTERVAL_MILLIS = 500;
+
+    private final TransactionBroadcaster broadcaster;
+    private final int batchSize;
+    private final long batchIntervalMillis;
+
+    private final ReentrantLock lock = Threading.lock("SettlementQueue");
+    @GuardedBy("lock") private final LinkedList<Settlement> queue = new LinkedList<Settlement>();
+    @GuardedBy("lock") private ScheduledExecutorService executor;
+    @GuardedBy("lock") private boolean batchScheduled;
+    @GuardedBy("lock") private long nextBatchTimeMillis;
+    @GuardedBy("lock") private boolean shutdown;
+
+    private final AtomicLong broadcastCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private static class Settlement {
+        final Transaction tx;
+        final SettableFuture<Transaction> future = SettableFuture.create();
+
+        Settlement(Transaction tx) {
+            this.tx = tx;
+        }
+    }
+
+    private final Runnable sendBatch = new Runnable() {
+        @Override
+        public void run() {
+            List<Settlement> batch = new ArrayList<Settlement>(batchSize);
+            int remaining;
+            lock.lock();
+            try {
+                while (batch.size() < batchSize && !queue.isEmpty())
+                    batch.add(queue.poll());
+                remaining = queue.size();
+                nextBatchTimeMillis = System.currentTimeMillis() + batchIntervalMillis;
+                if (remaining > 0 && !shutdown)
+                    executor.schedule(this, batchIntervalMillis, TimeUnit.MILLISECONDS);
+                else
+                    batchScheduled = false;
+            } finally {
+                lock.unlock();
+            }
+            log.info("Broadcasting {} settlement transactions, {} still queued", batch.size(), remaining);
+            for (Settlement settlement : batch)
+                broadcast(settlement);
+        }
+    };
+
+    /** Creates a queue with {@link #DEFAULT_BATCH_SIZE} and {@link #DEFAULT_BATCH_INTERVAL_MILLIS}. */
+    public SettlementQueue(TransactionBroadcaster broadcaster) {
+        this(broadcaster, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param broadcaster The broadcaster, usually a PeerGroup, which transactions are passed on to.
+     * @param batchSize The maximum number of transactions passed on at once.
+     * @param batchIntervalMillis The minimum time between two batches.
+     */
+    public SettlementQueue(TransactionBroadcaster broadcaster, int batchSize, long batchIntervalMillis) {
+        checkArgument(batchSize > 0);
+        checkArgument(batchIntervalMillis >= 0);
+        this.broadcaster = checkNotNull(broadcaster);
+        this.batchSize = batchSize;
+        this.batchIntervalMillis = batchIntervalMillis;
+    }
+
+    @Override
+    public ListenableFuture<Transaction> broadcastTransaction(Transaction tx) {
+        Settlement settlement = new Settlement(checkNotNull(tx));
+        lock.lock();
+        try {
+            if (shutdown)
+                return Futures.immediateFailedFuture(new IllegalStateException("SettlementQueue is shut down"));
+            queue.add(settlement);
+            if (!batchScheduled) {
+                if (executor == null)
+                    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                            .setNameFormat("SettlementQueue").setDaemon(true).build());
+                long delay = Math.max(0, nextBatchTimeMillis - System.currentTimeMillis());
+                executor.schedule(sendBatch, delay, TimeUnit.MILLISECONDS);
+                batchScheduled = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return settlement.future;
+    }
+
+    private void broadcast(final Settlement settlement) {
+        broadcastCount.incrementAndGet();
+        ListenableFuture<Transaction> future;
+        try {
+            future = broadcaster.broadcastTransaction(settlement.tx);
+        } catch (RuntimeException e) {
+            failureCount.incrementAndGet();
+            settlement.future.setException(e);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<Transaction>() {
+            @Override
+            public void onSuccess(Transaction result) {
+                settlement.future.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                failureCount.incrementAndGet();
+                settlement.future.setException(t);
+            }
+        });
+    }
+
+    /**
+     * Stops the batch thread. Transactions which have not been passed on yet are dropped and their futures fail with an
+     * {@link IllegalStateException}, as do later broadcasts. Broadcasts already passed on are unaffected.
+     */
+    public void shutdown() {
+        List<Settlement> dropped;
+        lock.lock();
+        try {
+            if (shutdown)
+                return;
+            shutdown = true;
+            if (executor != null)
+                executor.shutdownNow();
+            dropped = new ArrayList<Settlement>(queue);
+            queue.clear();
+        } finally {
+            lock.unlock();
+        }
+        if (!dropped.isEmpty())
+            log.warn("Shut down with {} settlement transactions still queued", dropped.size());
+        for (Settlement settlement : dropped)
+            settlement.future.setException(new IllegalStateException("SettlementQueue was shut down"));
+    }
+
+    /** Returns the number of transactions which have not been passed on yet. */
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of transactions which have been passed on to the underlying broadcaster. */
+    public long getBroadcastCount() {
+        return broadcastCount.get();
+    }
+
+    /** Returns the number of broadcasts which failed. */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+}
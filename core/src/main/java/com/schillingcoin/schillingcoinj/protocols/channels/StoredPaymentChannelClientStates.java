@@ -17,6 +17,7 @@
 package com.schillingcoin.schillingcoinj.protocols.channels;
 
 import com.schillingcoin.schillingcoinj.core.*;
+import com.schillingcoin.schillingcoinj.utils.HashedTimerWheel;
 import com.schillingcoin.schillingcoinj.utils.Threading;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.HashMultimap;
@@ -29,8 +30,6 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import java.util.Date;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -49,7 +48,8 @@ public class StoredPaymentChannelClientStates implements WalletExtension {
     static final int MAX_SECONDS_TO_WAIT_FOR_BROADCASTER_TO_BE_SET = 10;
 
     @GuardedBy("lock") @VisibleForTesting final HashMultimap<Sha256Hash, StoredClientChannel> mapChannels = HashMultimap.create();
-    @VisibleForTesting final Timer channelTimeoutHandler = new Timer(true);
+    @VisibleForTesting final HashedTimerWheel channelTimeoutHandler =
+            new HashedTimerWheel("StoredPaymentChannelClientStates expiry", 1000, 1024);
 
     private Wallet containingWallet;
     private final SettableFuture<TransactionBroadcaster> announcePeerGroupFuture = SettableFuture.create();
@@ -192,7 +192,7 @@ public class StoredPaymentChannelClientStates implements WalletExtension {
         lock.lock();
         try {
             mapChannels.put(channel.id, channel);
-            channelTimeoutHandler.schedule(new TimerTask() {
+            channelTimeoutHandler.schedule(new Runnable() {
                 @Override
                 public void run() {
                     TransactionBroadcaster announcePeerGroup = getAnnouncePeerGroup();
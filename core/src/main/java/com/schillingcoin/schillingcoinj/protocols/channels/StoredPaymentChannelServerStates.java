@@ -17,25 +17,37 @@
 package com.schillingcoin.schillingcoinj.protocols.channels;
 
 import com.schillingcoin.schillingcoinj.core.*;
-import com.schillingcoin.schillingcoinj.utils.Threading;
+import com.schillingcoin.schillingcoinj.utils.HashedTimerWheel;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.ByteString;
-import net.jcip.annotations.GuardedBy;
+import com.google.protobuf.CodedOutputStream;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.base.Preconditions.*;
 
 /**
- * Keeps track of a set of {@link StoredServerChannel}s and expires them 2 hours before their refund transactions
- * unlock.
+ * <p>Keeps track of a set of {@link StoredServerChannel}s and expires them 2 hours before their refund transactions
+ * unlock.</p>
+ *
+ * <p>Channels are kept in a concurrent map, so looking up, adding and closing channels does not contend on a single
+ * lock, and their expiry is scheduled on a {@link HashedTimerWheel}. Each channel keeps its own serialized form until
+ * it is next updated, so saving the wallet only serializes the channels which changed. Together these keep a server
+ * with hundreds of thousands of open channels manageable.</p>
+ *
+ * <p>Channels which expire at around the same time are closed together, with a single update of the wallet
+ * afterwards. To have their payment transactions reach the network in paced batches, give this a
+ * {@link SettlementQueue} as its broadcaster.</p>
  */
 public class StoredPaymentChannelServerStates implements WalletExtension {
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(StoredPaymentChannelServerStates.class);
@@ -43,13 +55,22 @@ public class StoredPaymentChannelServerStates implements WalletExtension {
     static final String EXTENSION_ID = StoredPaymentChannelServerStates.class.getName();
     static final int MAX_SECONDS_TO_WAIT_FOR_BROADCASTER_TO_BE_SET = 10;
 
-    @GuardedBy("lock") @VisibleForTesting final Map<Sha256Hash, StoredServerChannel> mapChannels = new HashMap<Sha256Hash, StoredServerChannel>();
-    private Wallet wallet;
+    @VisibleForTesting final ConcurrentHashMap<Sha256Hash, StoredServerChannel> mapChannels = new ConcurrentHashMap<Sha256Hash, StoredServerChannel>();
+    private volatile Wallet wallet;
     private final SettableFuture<TransactionBroadcaster> broadcasterFuture = SettableFuture.create();
 
-    private final Timer channelTimeoutHandler = new Timer(true);
-
-    private final ReentrantLock lock = Threading.lock("StoredPaymentChannelServerStates");
+    // Channels expire hours or days after they are opened, so one second ticks are plenty.
+    @VisibleForTesting final HashedTimerWheel channelTimeoutHandler =
+            new HashedTimerWheel("StoredPaymentChannelServerStates expiry", 1000, 4096);
+    // Channels whose expiry fired and which are waiting to be closed by closeExpiredChannels.
+    private final ConcurrentLinkedQueue<StoredServerChannel> expiredChannels = new ConcurrentLinkedQueue<StoredServerChannel>();
+    private final AtomicBoolean closeExpiredScheduled = new AtomicBoolean();
+    private final Runnable closeExpiredChannels = new Runnable() {
+        @Override
+        public void run() {
+            closeExpiredChannels();
+        }
+    };
 
     /**
      * The offset between the refund transaction's lock time and the time channels will be automatically closed.
@@ -82,7 +103,9 @@ public class StoredPaymentChannelServerStates implements WalletExtension {
      * Use this setter if the broadcaster is not available during instantiation and you're not using WalletAppKit.
      * This setter will let you delay the setting of the broadcaster until the Bitcoin network is ready.
      *
-     * @param broadcaster Used when the payment channels are closed
+     * @param broadcaster Used when the payment channels are closed. Payment transactions are passed to it as soon as
+     *                    their channels close. To spread out the broadcasts when many channels expire together, wrap
+     *                    it in a {@link SettlementQueue}, and shut the queue down when done with it.
      */
     public void setTransactionBroadcaster(TransactionBroadcaster broadcaster) {
         this.broadcasterFuture.set(checkNotNull(broadcaster));
@@ -97,14 +120,17 @@ public class StoredPaymentChannelServerStates implements WalletExtension {
      * this wallet extension.</p>
      */
     public void closeChannel(StoredServerChannel channel) {
-        lock.lock();
-        try {
-            if (mapChannels.remove(channel.contract.getHash()) == null)
-                return;
-        } finally {
-            lock.unlock();
-        }
+        if (settleChannel(channel))
+            wallet.addOrUpdateExtension(this);
+    }
+
+    // Closes the channel without updating the wallet, returning false if it was already closed.
+    private boolean settleChannel(StoredServerChannel channel) {
+        if (mapChannels.remove(channel.contract.getHash()) == null)
+            return false;
         synchronized (channel) {
+            if (channel.expiryTimeout != null)
+                channel.expiryTimeout.cancel();
             channel.closeConnectedHandler();
             try {
                 TransactionBroadcaster broadcaster = getBroadcaster();
@@ -116,7 +142,28 @@ public class StoredPaymentChannelServerStates implements WalletExtension {
             }
             channel.state = null;
         }
-        wallet.addOrUpdateExtension(this);
+        return true;
+    }
+
+    // Closes every channel which expired since the last call, then saves the wallet once for all of them. Runs on
+    // the timer wheel thread, so channels expiring in the same tick are always handled together.
+    private void closeExpiredChannels() {
+        closeExpiredScheduled.set(false);
+        int closed = 0;
+        StoredServerChannel channel;
+        while ((channel = expiredChannels.poll()) != null) {
+            log.info("Auto-closing channel: {}", channel);
+            try {
+                if (settleChannel(channel))
+                    closed++;
+            } catch (RuntimeException e) {
+                log.error("Failed to auto-close channel " + channel.contract.getHash(), e);
+            }
+        }
+        if (closed > 0) {
+            log.info("Auto-closed {} expired channels", closed);
+            wallet.addOrUpdateExtension(this);
+        }
     }
 
     /**
@@ -141,12 +188,7 @@ public class StoredPaymentChannelServerStates implements WalletExtension {
      * Gets the {@link StoredServerChannel} with the given channel id (ie contract transaction hash).
      */
     public StoredServerChannel getChannel(Sha256Hash id) {
-        lock.lock();
-        try {
-            return mapChannels.get(id);
-        } finally {
-            lock.unlock();
-        }
+        return mapChannels.get(id);
     }
 
     /**
@@ -157,22 +199,21 @@ public class StoredPaymentChannelServerStates implements WalletExtension {
      * channel is already present in the set of channels.</p>
      */
     public void putChannel(final StoredServerChannel channel) {
-        lock.lock();
-        try {
-            checkArgument(mapChannels.put(channel.contract.getHash(), checkNotNull(channel)) == null);
-            // Add the difference between real time and Utils.now() so that test-cases can use a mock clock.
-            Date autocloseTime = new Date((channel.refundTransactionUnlockTimeSecs + CHANNEL_EXPIRE_OFFSET) * 1000L
-                    + (System.currentTimeMillis() - Utils.currentTimeMillis()));
-            log.info("Scheduling channel for automatic closure at {}: {}", autocloseTime, channel);
-            channelTimeoutHandler.schedule(new TimerTask() {
+        checkArgument(mapChannels.putIfAbsent(channel.contract.getHash(), checkNotNull(channel)) == null);
+        // Add the difference between real time and Utils.now() so that test-cases can use a mock clock.
+        Date autocloseTime = new Date((channel.refundTransactionUnlockTimeSecs + CHANNEL_EXPIRE_OFFSET) * 1000L
+                + (System.currentTimeMillis() - Utils.currentTimeMillis()));
+        log.debug("Scheduling channel for automatic closure at {}: {}", autocloseTime, channel);
+        synchronized (channel) {
+            channel.expiryTimeout = channelTimeoutHandler.schedule(new Runnable() {
                 @Override
                 public void run() {
-                    log.info("Auto-closing channel: {}", channel);
-                    closeChannel(channel);
+                    expiredChannels.add(channel);
+                    // Closing waits for the next tick, by which time every channel expiring in this one is queued.
+                    if (closeExpiredScheduled.compareAndSet(false, true))
+                        channelTimeoutHandler.schedule(closeExpiredChannels, 0);
                 }
             }, autocloseTime);
-        } finally {
-            lock.unlock();
         }
     }
 
@@ -188,63 +229,50 @@ public class StoredPaymentChannelServerStates implements WalletExtension {
 
     @Override
     public byte[] serializeWalletExtension() {
-        lock.lock();
+        // Channels which haven't changed since the last save reuse their serialized form. An embedded message is
+        // written exactly like a bytes field with the same number, so the entries are copied in as they are.
+        List<ByteString> entries = new ArrayList<ByteString>(mapChannels.size());
+        int size = 0;
+        for (StoredServerChannel channel : mapChannels.values()) {
+            ByteString entry = channel.getSerializedEntry();
+            entries.add(entry);
+            size += CodedOutputStream.computeBytesSize(ServerState.StoredServerPaymentChannels.CHANNELS_FIELD_NUMBER, entry);
+        }
+        byte[] result = new byte[size];
+        CodedOutputStream output = CodedOutputStream.newInstance(result);
         try {
-            ServerState.StoredServerPaymentChannels.Builder builder = ServerState.StoredServerPaymentChannels.newBuilder();
-            for (StoredServerChannel channel : mapChannels.values()) {
-                // First a few asserts to make sure things won't break
-                checkState(channel.bestValueToMe.signum() >= 0 && channel.bestValueToMe.compareTo(NetworkParameters.MAX_MONEY) < 0);
-                checkState(channel.refundTransactionUnlockTimeSecs > 0);
-                checkNotNull(channel.myKey.getPrivKeyBytes());
-                ServerState.StoredServerPaymentChannel.Builder channelBuilder = ServerState.StoredServerPaymentChannel.newBuilder()
-                        .setBestValueToMe(channel.bestValueToMe.value)
-                        .setRefundTransactionUnlockTimeSecs(channel.refundTransactionUnlockTimeSecs)
-                        .setContractTransaction(ByteString.copyFrom(channel.contract.serialize()))
-                        .setClientOutput(ByteString.copyFrom(channel.clientOutput.serialize()))
-                        .setMyKey(ByteString.copyFrom(channel.myKey.getPrivKeyBytes()));
-                if (channel.bestValueSignature != null)
-                    channelBuilder.setBestValueSignature(ByteString.copyFrom(channel.bestValueSignature));
-                builder.addChannels(channelBuilder);
-            }
-            return builder.build().toByteArray();
-        } finally {
-            lock.unlock();
+            for (ByteString entry : entries)
+                output.writeBytes(ServerState.StoredServerPaymentChannels.CHANNELS_FIELD_NUMBER, entry);
+            output.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
         }
+        return result;
     }
 
     @Override
     public void deserializeWalletExtension(Wallet containingWallet, byte[] data) throws Exception {
-        lock.lock();
-        try {
-            this.wallet = containingWallet;
-            ServerState.StoredServerPaymentChannels states = ServerState.StoredServerPaymentChannels.parseFrom(data);
-            NetworkParameters params = containingWallet.getParams();
-            for (ServerState.StoredServerPaymentChannel storedState : states.getChannelsList()) {
-                StoredServerChannel channel = new StoredServerChannel(null,
-                        new Transaction(params, storedState.getContractTransaction().toByteArray()),
-                        new TransactionOutput(params, null, storedState.getClientOutput().toByteArray(), 0),
-                        storedState.getRefundTransactionUnlockTimeSecs(),
-                        ECKey.fromPrivate(storedState.getMyKey().toByteArray()),
-                        Coin.valueOf(storedState.getBestValueToMe()),
-                        storedState.hasBestValueSignature() ? storedState.getBestValueSignature().toByteArray() : null);
-                putChannel(channel);
-            }
-        } finally {
-            lock.unlock();
+        this.wallet = containingWallet;
+        ServerState.StoredServerPaymentChannels states = ServerState.StoredServerPaymentChannels.parseFrom(data);
+        NetworkParameters params = containingWallet.getParams();
+        for (ServerState.StoredServerPaymentChannel storedState : states.getChannelsList()) {
+            StoredServerChannel channel = new StoredServerChannel(null,
+                    new Transaction(params, storedState.getContractTransaction().toByteArray()),
+                    new TransactionOutput(params, null, storedState.getClientOutput().toByteArray(), 0),
+                    storedState.getRefundTransactionUnlockTimeSecs(),
+                    ECKey.fromPrivate(storedState.getMyKey().toByteArray()),
+                    Coin.valueOf(storedState.getBestValueToMe()),
+                    storedState.hasBestValueSignature() ? storedState.getBestValueSignature().toByteArray() : null);
+            putChannel(channel);
         }
     }
 
     @Override
     public String toString() {
-        lock.lock();
-        try {
-            StringBuilder buf = new StringBuilder();
-            for (StoredServerChannel stored : mapChannels.values()) {
-                buf.append(stored);
-            }
-            return buf.toString();
-        } finally {
-            lock.unlock();
+        StringBuilder buf = new StringBuilder();
+        for (StoredServerChannel stored : mapChannels.values()) {
+            buf.append(stored);
         }
+        return buf.toString();
     }
 }
@@ -17,11 +17,13 @@
 package com.schillingcoin.schillingcoinj.protocols.channels;
 
 import com.schillingcoin.schillingcoinj.core.*;
+import com.schillingcoin.schillingcoinj.utils.HashedTimerWheel;
+import com.google.protobuf.ByteString;
 
 import javax.annotation.Nullable;
 import java.util.Date;
 
-import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.*;
 
 /**
  * Represents the state of a channel once it has been opened in such a way that it can be stored and used to resume a
@@ -40,6 +42,10 @@ public class StoredServerChannel {
     // Used as a flag to prevent duplicate connections and to disconnect the channel if its expire time approaches.
     private PaymentChannelServer connectedHandler = null;
     PaymentChannelServerState state = null;
+    // The automatic closure scheduled by StoredPaymentChannelServerStates.
+    HashedTimerWheel.Timeout expiryTimeout = null;
+    // This channel as a StoredServerPaymentChannel message, or null if it changed since it was last serialized.
+    private ByteString serialized = null;
 
     StoredServerChannel(@Nullable PaymentChannelServerState state, Transaction contract, TransactionOutput clientOutput,
                         long refundTransactionUnlockTimeSecs, ECKey myKey, Coin bestValueToMe, @Nullable byte[] bestValueSignature) {
@@ -59,6 +65,30 @@ public class StoredServerChannel {
     synchronized void updateValueToMe(Coin newValue, byte[] newSignature) {
         this.bestValueToMe = newValue;
         this.bestValueSignature = newSignature;
+        this.serialized = null;
+    }
+
+    /**
+     * Returns this channel as a serialized {@link ServerState.StoredServerPaymentChannel}. The result is kept until the
+     * channel next changes, so a wallet holding many idle channels only serializes the ones which were updated.
+     */
+    synchronized ByteString getSerializedEntry() {
+        if (serialized == null) {
+            // First a few asserts to make sure things won't break
+            checkState(bestValueToMe.signum() >= 0 && bestValueToMe.compareTo(NetworkParameters.MAX_MONEY) < 0);
+            checkState(refundTransactionUnlockTimeSecs > 0);
+            checkNotNull(myKey.getPrivKeyBytes());
+            ServerState.StoredServerPaymentChannel.Builder builder = ServerState.StoredServerPaymentChannel.newBuilder()
+                    .setBestValueToMe(bestValueToMe.value)
+                    .setRefundTransactionUnlockTimeSecs(refundTransactionUnlockTimeSecs)
+                    .setContractTransaction(ByteString.copyFrom(contract.serialize()))
+                    .setClientOutput(ByteString.copyFrom(clientOutput.serialize()))
+                    .setMyKey(ByteString.copyFrom(myKey.getPrivKeyBytes()));
+            if (bestValueSignature != null)
+                builder.setBestValueSignature(ByteString.copyFrom(bestValueSignature));
+            serialized = builder.build().toByteString();
+        }
+        return serialized;
     }
 
     /**
@@ -34,6 +34,8 @@ import java.security.cert.Certificate;
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * <p>Utility methods and constants for working with <a href="https://github.com/peercoin/bips/blob/master/bip-0070.mediawiki">
  * BIP 70 aka the payment protocol</a>. These are low level wrappers around the protocol buffers. If you're implementing
@@ -160,6 +162,28 @@ public class PaymentProtocol {
      */
     public static @Nullable PkiVerificationData verifyPaymentRequestPki(Protos.PaymentRequest paymentRequest, KeyStore trustStore)
             throws PaymentProtocolException {
+        return verifyPaymentRequestPki(paymentRequest, checkNotNull(trustStore), null);
+    }
+
+    /**
+     * Uses the provided PKI method to find the corresponding public key and verify the provided signature, like
+     * {@link #verifyPaymentRequestPki(Protos.PaymentRequest, KeyStore)}, but only validates a certificate chain the
+     * given cache hasn't seen recently. Use this to verify many payment requests from the same merchants.
+     *
+     * @param paymentRequest Payment request to verify.
+     * @param cache Trusted root certificate authorities and recently validated certificate chains.
+     * @return verification data, or null if no PKI method was specified in the {@link Protos.PaymentRequest}.
+     * @throws PaymentProtocolException if payment request could not be verified.
+     */
+    public static @Nullable PkiVerificationData verifyPaymentRequestPki(Protos.PaymentRequest paymentRequest,
+                                                                        PkiVerificationCache cache)
+            throws PaymentProtocolException {
+        return verifyPaymentRequestPki(paymentRequest, null, checkNotNull(cache));
+    }
+
+    // Exactly one of trustStore and cache is set.
+    private static @Nullable PkiVerificationData verifyPaymentRequestPki(Protos.PaymentRequest paymentRequest,
+            @Nullable KeyStore trustStore, @Nullable PkiVerificationCache cache) throws PaymentProtocolException {
         List<X509Certificate> certs = null;
         try {
             final String pkiType = paymentRequest.getPkiType();
@@ -175,28 +199,42 @@ public class PaymentProtocol {
             else
                 throw new PaymentProtocolException.InvalidPkiType("Unsupported PKI type: " + pkiType);
 
-            Protos.X509Certificates protoCerts = Protos.X509Certificates.parseFrom(paymentRequest.getPkiData());
-            if (protoCerts.getCertificateCount() == 0)
-                throw new PaymentProtocolException.InvalidPkiData("No certificates provided in message: server config error");
-
-            // Parse the certs and turn into a certificate chain object. Cert factories can parse both DER and base64.
-            // The ordering of certificates is defined by the payment protocol spec to be the same as what the Java
-            // crypto API requires - convenient!
-            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
-            certs = Lists.newArrayList();
-            for (ByteString bytes : protoCerts.getCertificateList())
-                certs.add((X509Certificate) certificateFactory.generateCertificate(bytes.newInput()));
-            CertPath path = certificateFactory.generateCertPath(certs);
-
-            // Retrieves the most-trusted CAs from keystore.
-            PKIXParameters params = new PKIXParameters(trustStore);
-            // Revocation not supported in the current version.
-            params.setRevocationEnabled(false);
-
-            // Now verify the certificate chain is correct and trusted. This let's us get an identity linked pubkey.
-            CertPathValidator validator = CertPathValidator.getInstance("PKIX");
-            PKIXCertPathValidatorResult result = (PKIXCertPathValidatorResult) validator.validate(path, params);
-            PublicKey publicKey = result.getPublicKey();
+            // A chain the cache validated recently is trusted without parsing it again.
+            Sha256Hash fingerprint = null;
+            PkiVerificationData cached = null;
+            if (cache != null) {
+                fingerprint = PkiVerificationCache.fingerprint(paymentRequest.getPkiData());
+                cached = cache.get(fingerprint);
+            }
+
+            PKIXCertPathValidatorResult result = null;
+            PublicKey publicKey;
+            if (cached != null) {
+                publicKey = cached.merchantSigningKey;
+            } else {
+                Protos.X509Certificates protoCerts = Protos.X509Certificates.parseFrom(paymentRequest.getPkiData());
+                if (protoCerts.getCertificateCount() == 0)
+                    throw new PaymentProtocolException.InvalidPkiData("No certificates provided in message: server config error");
+
+                // Parse the certs and turn into a certificate chain object. Cert factories can parse both DER and base64.
+                // The ordering of certificates is defined by the payment protocol spec to be the same as what the Java
+                // crypto API requires - convenient!
+                CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+                certs = Lists.newArrayList();
+                for (ByteString bytes : protoCerts.getCertificateList())
+                    certs.add((X509Certificate) certificateFactory.generateCertificate(bytes.newInput()));
+                CertPath path = certificateFactory.generateCertPath(certs);
+
+                // Retrieves the most-trusted CAs from keystore, or the ones which could have issued this chain.
+                PKIXParameters params = cache != null ? cache.createParameters(certs) : new PKIXParameters(trustStore);
+                // Revocation not supported in the current version.
+                params.setRevocationEnabled(false);
+
+                // Now verify the certificate chain is correct and trusted. This let's us get an identity linked pubkey.
+                CertPathValidator validator = CertPathValidator.getInstance("PKIX");
+                result = (PKIXCertPathValidatorResult) validator.validate(path, params);
+                publicKey = result.getPublicKey();
+            }
             // OK, we got an identity, now check it was used to sign this message.
             Signature signature = Signature.getInstance(algorithm);
             // Note that we don't use signature.initVerify(certs.get(0)) here despite it being the most obvious
@@ -208,6 +246,8 @@ public class PaymentProtocol {
             signature.update(reqToCheck.build().toByteArray());
             if (!signature.verify(paymentRequest.getSignature().toByteArray()))
                 throw new PaymentProtocolException.PkiVerificationException("Invalid signature, this payment request is not valid.");
+            if (cached != null)
+                return cached;
 
             // Signature verifies, get the names from the identity we just verified for presentation to the user.
             final X509Certificate cert = certs.get(0);
@@ -215,7 +255,10 @@ public class PaymentProtocol {
             if (displayName == null)
                 throw new PaymentProtocolException.PkiVerificationException("Could not extract name from certificate");
             // Everything is peachy. Return some useful data to the caller.
-            return new PkiVerificationData(displayName, publicKey, result.getTrustAnchor());
+            PkiVerificationData data = new PkiVerificationData(displayName, publicKey, result.getTrustAnchor());
+            if (cache != null)
+                cache.put(fingerprint, certs, data);
+            return data;
         } catch (InvalidProtocolBufferException e) {
             // Data structures are malformed.
             throw new PaymentProtocolException.InvalidPkiData(e);
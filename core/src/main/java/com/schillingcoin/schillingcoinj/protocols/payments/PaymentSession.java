@@ -67,7 +67,7 @@ import java.util.concurrent.Callable;
 public class PaymentSession {
     private static ListeningExecutorService executor = Threading.THREAD_POOL;
     private NetworkParameters params;
-    private final TrustStoreLoader trustStoreLoader;
+    @Nullable private final TrustStoreLoader trustStoreLoader;
     private Protos.PaymentRequest paymentRequest;
     private Protos.PaymentDetails paymentDetails;
     private Coin totalValue = Coin.ZERO;
@@ -217,6 +217,17 @@ public class PaymentSession {
         }
     }
 
+    /**
+     * Creates a PaymentSession from the provided {@link Protos.PaymentRequest} and validates the signature with the
+     * given cache, throwing an exception if it fails. Sharing one cache between sessions avoids loading the trust store
+     * and validating the same certificate chain again for every payment request from the same merchant.
+     */
+    public PaymentSession(Protos.PaymentRequest request, PkiVerificationCache pkiVerificationCache) throws PaymentProtocolException {
+        this.trustStoreLoader = null;
+        parsePaymentRequest(request);
+        pkiVerificationData = PaymentProtocol.verifyPaymentRequestPki(request, pkiVerificationCache);
+    }
+
     /**
      * Returns the outputs of the payment request.
      */
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.protocols.payments;
+
+import com.schillingcoin.schillingcoinj.core.Sha256Hash;
+import com.schillingcoin.schillingcoinj.core.Utils;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.ByteString;
+
+import javax.annotation.Nullable;
+import javax.security.auth.x500.X500Principal;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Speeds up verifying many payment requests signed by the same merchants, see
+ * {@link PaymentProtocol#verifyPaymentRequestPki(Protos.PaymentRequest, PkiVerificationCache)}.</p>
+ *
+ * <p>The trusted certificates are read from the key store once, into an immutable set of trust anchors indexed by
+ * subject, so that a certificate chain is only checked against the roots which could have issued it. The result of
+ * validating a chain is remembered, keyed by the SHA-256 hash of the encoded chain, until the time to live passes or a
+ * certificate in the chain expires. The signature of every payment request is still checked.</p>
+ *
+ * <p>Instances are thread safe. Changes to the key store after the cache was created are not seen.</p>
+ */
+public class PkiVerificationCache {
+    /** The default time for which a validated certificate chain is remembered. */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    /** The default maximum number of certificate chains remembered. */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final ImmutableSet<TrustAnchor> trustAnchors;
+    private final ImmutableListMultimap<X500Principal, TrustAnchor> trustAnchorsBySubject;
+    private final Cache<Sha256Hash, Entry> chains;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    // Ages entries by the same clock as the certificate expiry check, so the mock clock can be used in tests.
+    private static final Ticker CLOCK = new Ticker() {
+        @Override
+        public long read() {
+            return TimeUnit.MILLISECONDS.toNanos(Utils.currentTimeMillis());
+        }
+    };
+
+    private static class Entry {
+        final PaymentProtocol.PkiVerificationData data;
+        final long validUntilMillis;
+
+        Entry(PaymentProtocol.PkiVerificationData data, long validUntilMillis) {
+            this.data = data;
+            this.validUntilMillis = validUntilMillis;
+        }
+    }
+
+    /** Creates a cache with {@link #DEFAULT_TTL_MILLIS} and {@link #DEFAULT_MAX_ENTRIES}. */
+    public PkiVerificationCache(KeyStore trustStore) throws KeyStoreException {
+        this(trustStore, DEFAULT_TTL_MILLIS, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param trustStore KeyStore of trusted root certificate authorities.
+     * @param ttlMillis How long a validated certificate chain is remembered.
+     * @param maxEntries The maximum number of certificate chains remembered.
+     * @throws KeyStoreException If the key store can't be read or holds no trusted certificates.
+     */
+    public PkiVerificationCache(KeyStore trustStore, long ttlMillis, int maxEntries) throws KeyStoreException {
+        checkArgument(ttlMillis >= 0);
+        checkArgument(maxEntries >= 0);
+        ImmutableSet.Builder<TrustAnchor> anchors = ImmutableSet.builder();
+        ImmutableListMultimap.Builder<X500Principal, TrustAnchor> anchorsBySubject = ImmutableListMultimap.builder();
+        // The same certificates PKIXParameters(KeyStore) would use.
+        Enumeration<String> aliases = trustStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (!trustStore.isCertificateEntry(alias))
+                continue;
+            Certificate cert = trustStore.getCertificate(alias);
+            if (!(cert instanceof X509Certificate))
+                continue;
+            X509Certificate x509 = (X509Certificate) cert;
+            TrustAnchor anchor = new TrustAnchor(x509, null);
+            anchors.add(anchor);
+            anchorsBySubject.put(x509.getSubjectX500Principal(), anchor);
+        }
+        this.trustAnchors = anchors.build();
+        if (trustAnchors.isEmpty())
+            throw new KeyStoreException("Trust store contains no trusted certificates");
+        this.trustAnchorsBySubject = anchorsBySubject.build();
+        this.chains = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .ticker(CLOCK)
+                .build();
+    }
+
+    /** Returns the key under which the validation of the given encoded certificate chain is remembered. */
+    static Sha256Hash fingerprint(ByteString pkiData) {
+        return Sha256Hash.create(pkiData.toByteArray());
+    }
+
+    /** Returns the remembered result of validating the chain with the given fingerprint, or null. */
+    @Nullable
+    PaymentProtocol.PkiVerificationData get(Sha256Hash fingerprint) {
+        Entry entry = chains.getIfPresent(fingerprint);
+        if (entry != null && entry.validUntilMillis < Utils.currentTimeMillis()) {
+            chains.invalidate(fingerprint);
+            entry = null;
+        }
+        (entry == null ? misses : hits).incrementAndGet();
+        return entry == null ? null : entry.data;
+    }
+
+    /** Remembers the result of validating the given chain until a certificate in it expires, at the latest. */
+    void put(Sha256Hash fingerprint, List<X509Certificate> certs, PaymentProtocol.PkiVerificationData data) {
+        long validUntilMillis = Long.MAX_VALUE;
+        for (X509Certificate cert : certs)
+            validUntilMillis = Math.min(validUntilMillis, cert.getNotAfter().getTime());
+        chains.put(fingerprint, new Entry(data, validUntilMillis));
+    }
+
+    /**
+     * Returns validation parameters for the given chain, which trust only the roots that could have issued its last
+     * certificate, or all roots if none of them match by name.
+     */
+    PKIXParameters createParameters(List<X509Certificate> certs) throws InvalidAlgorithmParameterException {
+        X500Principal issuer = certs.get(certs.size() - 1).getIssuerX500Principal();
+        List<TrustAnchor> candidates = trustAnchorsBySubject.get(issuer);
+        Set<TrustAnchor> anchors = candidates.isEmpty() ? trustAnchors : ImmutableSet.copyOf(candidates);
+        return new PKIXParameters(anchors);
+    }
+
+    /** Returns the number of trusted root certificates. */
+    public int getTrustAnchorCount() {
+        return trustAnchors.size();
+    }
+
+    /** Returns how many lookups found a validated certificate chain. */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Returns how many lookups had to validate the certificate chain. */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Forgets all validated certificate chains. */
+    public void invalidateAll() {
+        chains.invalidateAll();
+    }
+}
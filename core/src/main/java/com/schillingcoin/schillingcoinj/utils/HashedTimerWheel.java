@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import net.jcip.annotations.GuardedBy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Runs tasks at coarse deadlines on a single daemon thread. Each task is put in the bucket for the tick its deadline
+ * falls in, so scheduling and cancelling take constant time however many tasks are pending, and each tick only looks
+ * at the tasks of one bucket. This suits large numbers of long running timeouts, such as payment channel expiry,
+ * better than {@link java.util.Timer}, which keeps every task in one heap.</p>
+ *
+ * <p>Tasks run up to one tick after their deadline, in no particular order within a tick. Exceptions thrown by tasks
+ * are logged and passed to {@link Threading#uncaughtExceptionHandler}, they do not stop the wheel. The thread is
+ * started when the first task is scheduled and sleeps whilst no tasks are pending. If it is interrupted it exits, and
+ * a new one is started when the next task is scheduled.</p>
+ */
+public class HashedTimerWheel {
+    private static final Logger log = LoggerFactory.getLogger(HashedTimerWheel.class);
+
+    private final String name;
+    private final long tickMillis;
+    private final List<Set<Timeout>> buckets;
+
+    private final ReentrantLock lock = Threading.lock("HashedTimerWheel");
+    private final Condition pendingChanged = lock.newCondition();
+    // The last tick whose bucket has been processed.
+    @GuardedBy("lock") private long lastTick;
+    @GuardedBy("lock") private int pendingCount;
+    @GuardedBy("lock") private Thread thread;
+
+    /** A task scheduled on a {@link HashedTimerWheel}. */
+    public final class Timeout {
+        private final Runnable task;
+        private final long deadlineMillis;
+        private final long tick;
+        @GuardedBy("HashedTimerWheel.this.lock") private boolean done;
+
+        private Timeout(Runnable task, long deadlineMillis, long tick) {
+            this.task = task;
+            this.deadlineMillis = deadlineMillis;
+            this.tick = tick;
+        }
+
+        /** Returns the time, in milliseconds since the epoch, after which the task will run. */
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        /**
+         * Stops the task from running. Returns false if it has already run, is running or was already cancelled.
+         */
+        public boolean cancel() {
+            lock.lock();
+            try {
+                if (done)
+                    return false;
+                done = true;
+                bucketFor(tick).remove(this);
+                pendingCount--;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param name The name of the wheel thread.
+     * @param tickMillis The resolution of deadlines, in milliseconds.
+     * @param bucketCount The number of buckets, a power of two. Tasks more than <code>tickMillis * bucketCount</code>
+     *                    milliseconds away share a bucket with nearer tasks, so this should be large enough to spread
+     *                    the expected number of pending tasks thinly.
+     */
+    public HashedTimerWheel(String name, long tickMillis, int bucketCount) {
+        checkArgument(tickMillis > 0);
+        checkArgument(bucketCount > 0 && Integer.bitCount(bucketCount) == 1, "bucketCount must be a power of two");
+        this.name = checkNotNull(name);
+        this.tickMillis = tickMillis;
+        this.buckets = new ArrayList<Set<Timeout>>(bucketCount);
+        for (int i = 0; i < bucketCount; i++)
+            buckets.add(new HashSet<Timeout>());
+        this.lastTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    /** Schedules the task to run at the given time, or as soon as possible if the time has already passed. */
+    public Timeout schedule(Runnable task, Date time) {
+        return schedule(task, time.getTime());
+    }
+
+    /**
+     * Schedules the task to run at the given time in milliseconds since the epoch, or as soon as possible if the time
+     * has already passed.
+     */
+    public Timeout schedule(Runnable task, long deadlineMillis) {
+        checkNotNull(task);
+        lock.lock();
+        try {
+            // Round up, so a tick only runs tasks whose deadline has passed.
+            long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, lastTick + 1);
+            Timeout timeout = new Timeout(task, deadlineMillis, tick);
+            bucketFor(tick).add(timeout);
+            pendingCount++;
+            if (thread == null) {
+                thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        HashedTimerWheel.this.run();
+                    }
+                }, name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            pendingChanged.signal();
+            return timeout;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of tasks which have neither run nor been cancelled. */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pendingCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Set<Timeout> bucketFor(long tick) {
+        return buckets.get((int) (tick & (buckets.size() - 1)));
+    }
+
+    private void run() {
+        List<Timeout> expired = new ArrayList<Timeout>();
+        while (true) {
+            lock.lock();
+            try {
+                while (pendingCount == 0)
+                    pendingChanged.await();
+                long now = System.currentTimeMillis();
+                long currentTick = now / tickMillis;
+                if (currentTick <= lastTick) {
+                    pendingChanged.await((lastTick + 1) * tickMillis - now, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                // If we fell more than a whole turn behind, every bucket is visited once.
+                for (long tick = Math.max(lastTick + 1, currentTick - buckets.size() + 1); tick <= currentTick; tick++) {
+                    Iterator<Timeout> it = bucketFor(tick).iterator();
+                    while (it.hasNext()) {
+                        Timeout timeout = it.next();
+                        if (timeout.tick <= currentTick) {
+                            it.remove();
+                            timeout.done = true;
+                            pendingCount--;
+                            expired.add(timeout);
+                        }
+                    }
+                }
+                lastTick = currentTick;
+            } catch (InterruptedException e) {
+                // The next call to schedule starts a new thread, which also runs the tasks still pending.
+                log.warn("{} interrupted, pending tasks wait until another task is scheduled", name);
+                thread = null;
+                return;
+            } finally {
+                lock.unlock();
+            }
+            for (Timeout timeout : expired) {
+                try {
+                    timeout.task.run();
+                } catch (Throwable throwable) {
+                    log.warn("Exception in timer wheel task", throwable);
+                    Thread.UncaughtExceptionHandler handler = Threading.uncaughtExceptionHandler;
+                    if (handler != null)
+                        handler.uncaughtException(Thread.currentThread(), throwable);
+                }
+            }
+            expired.clear();
+        }
+    }
+}
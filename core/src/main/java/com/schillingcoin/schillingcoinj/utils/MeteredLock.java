@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>A {@link ReentrantLock} which records how it is used in {@link Metrics}, as returned by
+ * {@link Threading#lock(String)} when lock profiling is on. All locks with the same name share these metrics:</p>
+ *
+ * <ul>
+ *     <li>"lock.<i>name</i>.acquisitions", how often the lock was taken, not counting reentrant acquisitions.</li>
+ *     <li>"lock.<i>name</i>.contended", how many of those had to wait for another thread.</li>
+ *     <li>"lock.<i>name</i>.waitMicros", how long it took to get the lock.</li>
+ *     <li>"lock.<i>name</i>.holdMicros", how long it was held, from the outermost lock to the matching unlock.</li>
+ * </ul>
+ *
+ * <p>Unlike the other locks returned by {@link Threading#lock(String)} it doesn't take part in lock cycle detection.
+ * Time spent waiting on a {@link java.util.concurrent.locks.Condition} of the lock counts as held.</p>
+ */
+public class MeteredLock extends ReentrantLock {
+    private final Metrics.Counter acquisitions, contended;
+    private final Metrics.Histogram waitMicros, holdMicros;
+    // Only accessed by the thread holding the lock.
+    private long lockedAtNanos;
+
+    public MeteredLock(String name) {
+        acquisitions = Metrics.counter("lock." + name + ".acquisitions");
+        contended = Metrics.counter("lock." + name + ".contended");
+        waitMicros = Metrics.histogram("lock." + name + ".waitMicros");
+        holdMicros = Metrics.histogram("lock." + name + ".holdMicros");
+    }
+
+    // Called with the lock held, with the result of Metrics.startTimer() from before trying to get it, or zero if
+    // the lock was free.
+    private void locked(long waitStartNanos) {
+        if (getHoldCount() != 1)
+            return;
+        lockedAtNanos = Metrics.startTimer();
+        acquisitions.increment();
+        if (waitStartNanos != 0) {
+            contended.increment();
+            waitMicros.recordSince(waitStartNanos);
+        } else {
+            waitMicros.record(0);
+        }
+    }
+
+    @Override
+    public void lock() {
+        if (super.tryLock()) {
+            locked(0);
+            return;
+        }
+        long start = Metrics.startTimer();
+        super.lock();
+        locked(start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (super.tryLock()) {
+            locked(0);
+            return;
+        }
+        long start = Metrics.startTimer();
+        super.lockInterruptibly();
+        locked(start);
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!super.tryLock())
+            return false;
+        locked(0);
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (super.tryLock()) {
+            locked(0);
+            return true;
+        }
+        long start = Metrics.startTimer();
+        if (!super.tryLock(timeout, unit))
+            return false;
+        locked(start);
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        if (getHoldCount() == 1)
+            holdMicros.recordSince(lockedAtNanos);
+        super.unlock();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>A {@link ReentrantReadWriteLock} which records how it is used in {@link Metrics}, as returned by
+ * {@link Threading#readWriteLock(String)} when lock profiling is on. The read and write locks are metered separately,
+ * under "lock.<i>name</i>.read" and "lock.<i>name</i>.write", with the same metrics as a {@link MeteredLock}:
+ * acquisitions, contended, waitMicros and holdMicros.</p>
+ *
+ * <p>Each thread's hold of the read lock is timed on its own, from its outermost lock to the matching unlock. Taking
+ * the read lock whilst holding the write lock counts as a read acquisition. Like {@link MeteredLock} it doesn't take
+ * part in lock cycle detection.</p>
+ */
+public class MeteredReadWriteLock extends ReentrantReadWriteLock {
+    private final ReadLock readLock;
+    private final WriteLock writeLock;
+
+    public MeteredReadWriteLock(String name) {
+        readLock = new MeteredReadLock(new Meter("lock." + name + ".read"));
+        writeLock = new MeteredWriteLock(new Meter("lock." + name + ".write"));
+    }
+
+    @Override
+    public ReadLock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public WriteLock writeLock() {
+        return writeLock;
+    }
+
+    // The metrics for one side of the lock.
+    private static class Meter {
+        private final Metrics.Counter acquisitions, contended;
+        private final Metrics.Histogram waitMicros, holdMicros;
+        // Readers hold the lock together, so each thread keeps the time it got it.
+        private final ThreadLocal<long[]> lockedAtNanos = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
+
+        Meter(String prefix) {
+            acquisitions = Metrics.counter(prefix + ".acquisitions");
+            contended = Metrics.counter(prefix + ".contended");
+            waitMicros = Metrics.histogram(prefix + ".waitMicros");
+            holdMicros = Metrics.histogram(prefix + ".holdMicros");
+        }
+
+        // Called once the lock is held, with the current thread's hold count and the result of Metrics.startTimer()
+        // from before trying to get it, or zero if the lock was free.
+        void locked(int holdCount, long waitStartNanos) {
+            if (holdCount != 1)
+                return;
+            lockedAtNanos.get()[0] = Metrics.startTimer();
+            acquisitions.increment();
+            if (waitStartNanos != 0) {
+                contended.increment();
+                waitMicros.recordSince(waitStartNanos);
+            } else {
+                waitMicros.record(0);
+            }
+        }
+
+        // Called before unlocking, with the current thread's hold count.
+        void unlocking(int holdCount) {
+            if (holdCount == 1)
+                holdMicros.recordSince(lockedAtNanos.get()[0]);
+        }
+    }
+
+    private class MeteredReadLock extends ReadLock {
+        private final Meter meter;
+
+        MeteredReadLock(Meter meter) {
+            super(MeteredReadWriteLock.this);
+            this.meter = meter;
+        }
+
+        @Override
+        public void lock() {
+            if (super.tryLock()) {
+                meter.locked(getReadHoldCount(), 0);
+                return;
+            }
+            long start = Metrics.startTimer();
+            super.lock();
+            meter.locked(getReadHoldCount(), start);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (super.tryLock()) {
+                meter.locked(getReadHoldCount(), 0);
+                return;
+            }
+            long start = Metrics.startTimer();
+            super.lockInterruptibly();
+            meter.locked(getReadHoldCount(), start);
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (!super.tryLock())
+                return false;
+            meter.locked(getReadHoldCount(), 0);
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            if (super.tryLock()) {
+                meter.locked(getReadHoldCount(), 0);
+                return true;
+            }
+            long start = Metrics.startTimer();
+            if (!super.tryLock(timeout, unit))
+                return false;
+            meter.locked(getReadHoldCount(), start);
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            meter.unlocking(getReadHoldCount());
+            super.unlock();
+        }
+    }
+
+    private class MeteredWriteLock extends WriteLock {
+        private final Meter meter;
+
+        MeteredWriteLock(Meter meter) {
+            super(MeteredReadWriteLock.this);
+            this.meter = meter;
+        }
+
+        @Override
+        public void lock() {
+            if (super.tryLock()) {
+                meter.locked(getWriteHoldCount(), 0);
+                return;
+            }
+            long start = Metrics.startTimer();
+            super.lock();
+            meter.locked(getWriteHoldCount(), start);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (super.tryLock()) {
+                meter.locked(getWriteHoldCount(), 0);
+                return;
+            }
+            long start = Metrics.startTimer();
+            super.lockInterruptibly();
+            meter.locked(getWriteHoldCount(), start);
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (!super.tryLock())
+                return false;
+            meter.locked(getWriteHoldCount(), 0);
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            if (super.tryLock()) {
+                meter.locked(getWriteHoldCount(), 0);
+                return true;
+            }
+            long start = Metrics.startTimer();
+            if (!super.tryLock(timeout, unit))
+                return false;
+            meter.locked(getWriteHoldCount(), start);
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            meter.unlocking(getWriteHoldCount());
+            super.unlock();
+        }
+    }
+}
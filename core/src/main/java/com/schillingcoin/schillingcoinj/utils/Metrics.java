@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>A registry of named counters, gauges and histograms which the library updates as it works, for example the bytes
+ * received from peers or how long it takes to add a block to the chain. Metrics are off by default: until
+ * {@link #setEnabled(boolean)} is called, recording a value costs a single volatile read.</p>
+ *
+ * <p>Classes look their metrics up once, usually into static fields, and update them from then on. The current values
+ * can be read with {@link #getMetrics()}, printed with {@link #dump()}, or exported over JMX with
+ * {@link MetricsMBean}. Applications can register metrics of their own in the same way.</p>
+ *
+ * <p>Times are recorded in microseconds, and the names of the histograms holding them end in "Micros".</p>
+ */
+public class Metrics {
+    private static volatile boolean enabled;
+    private static final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+    /** Turns recording of metrics on or off. Values recorded so far are kept. */
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Returns the counter with the given name, creating it if needed. */
+    public static Counter counter(String name) {
+        return register(name, new Counter());
+    }
+
+    /** Returns the settable gauge with the given name, creating it if needed. */
+    public static Gauge gauge(String name) {
+        return register(name, new Gauge());
+    }
+
+    /** Returns the histogram with the given name, creating it if needed. */
+    public static Histogram histogram(String name) {
+        return register(name, new Histogram());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Metric> T register(String name, T metric) {
+        Metric existing = metrics.putIfAbsent(checkNotNull(name), metric);
+        if (existing == null)
+            return metric;
+        checkArgument(existing.getClass() == metric.getClass(), "%s is already registered as a %s", name,
+                existing.getClass().getSimpleName());
+        return (T) existing;
+    }
+
+    /** Returns all registered metrics, sorted by name. */
+    public static ImmutableSortedMap<String, Metric> getMetrics() {
+        return ImmutableSortedMap.copyOf(metrics);
+    }
+
+    /** Resets every registered metric to zero. */
+    public static void reset() {
+        for (Metric metric : metrics.values())
+            metric.reset();
+    }
+
+    /** Returns the current value of every metric, one per line. */
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Metric> entry : getMetrics().entrySet())
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        return builder.toString();
+    }
+
+    /**
+     * Returns the current time to pass to {@link Histogram#recordSince(long)} when timing something, or zero if
+     * metrics are disabled, in which case nothing will be recorded.
+     */
+    public static long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** A named value, see {@link Counter}, {@link Gauge} and {@link Histogram}. */
+    public static abstract class Metric {
+        abstract void reset();
+    }
+
+    /** A count which only goes up, for example of messages received. */
+    public static class Counter extends Metric {
+        private final AtomicLong count = new AtomicLong();
+
+        public void increment() {
+            if (enabled)
+                count.incrementAndGet();
+        }
+
+        public void add(long n) {
+            if (enabled)
+                count.addAndGet(n);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        void reset() {
+            count.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(count.get());
+        }
+    }
+
+    /** A value which can go up and down, for example the number of connected peers. */
+    public static class Gauge extends Metric {
+        private final AtomicLong value = new AtomicLong();
+
+        public void set(long value) {
+            if (enabled)
+                this.value.set(value);
+        }
+
+        public void add(long delta) {
+            if (enabled)
+                value.addAndGet(delta);
+        }
+
+        public long getValue() {
+            return value.get();
+        }
+
+        @Override
+        void reset() {
+            value.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(value.get());
+        }
+    }
+
+    /**
+     * The distribution of a non-negative value, for example a latency. Values are counted in buckets which are powers
+     * of two wide, so percentiles are approximate: they are rounded up to the next power of two.
+     */
+    public static class Histogram extends Metric {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        // Bucket i counts values that need i bits, ie bucket 0 holds 0, bucket 1 holds 1, bucket 2 holds 2-3 etc.
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        public void record(long value) {
+            if (!enabled)
+                return;
+            value = Math.max(0, value);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) ;
+        }
+
+        /**
+         * Records the microseconds since the given {@link Metrics#startTimer()} result, unless metrics were disabled
+         * when the timer started.
+         */
+        public void recordSince(long startNanos) {
+            if (startNanos != 0)
+                record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : (double) sum.get() / n;
+        }
+
+        /** Returns an upper bound of the given percentile (between 0 and 100) of the recorded values. */
+        public long getPercentile(double percentile) {
+            checkArgument(percentile >= 0 && percentile <= 100);
+            long n = count.get();
+            if (n == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank)
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+            }
+            return max.get();
+        }
+
+        @Override
+        void reset() {
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+            for (int i = 0; i < buckets.length(); i++)
+                buckets.set(i, 0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d", getCount(), getMean(), getPercentile(50),
+                    getPercentile(99), getMax());
+        }
+    }
+}
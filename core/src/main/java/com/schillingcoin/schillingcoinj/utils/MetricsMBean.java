@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Exports {@link Metrics} over JMX, so they can be watched with jconsole, VisualVM or a JMX collector. Each counter
+ * and gauge is a read only attribute of the same name, and each histogram is exported as several attributes named
+ * after it: .count, .mean, .p50, .p99 and .max. Metrics registered after the bean are picked up as well.</p>
+ *
+ * <p>Call {@link #register()} once, usually along with {@link Metrics#setEnabled(boolean)}. JMX isn't available on
+ * Android, so this class is only loaded when it's used.</p>
+ */
+public class MetricsMBean implements DynamicMBean {
+    public static final String OBJECT_NAME = "com.schillingcoin.schillingcoinj:type=Metrics";
+
+    private static final String[] HISTOGRAM_SUFFIXES = {".count", ".mean", ".p50", ".p99", ".max"};
+
+    /** Registers a bean with the platform MBean server under {@link #OBJECT_NAME}. */
+    public static ObjectName register() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), name);
+        return name;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Map<String, Metrics.Metric> metrics = Metrics.getMetrics();
+        Metrics.Metric metric = metrics.get(attribute);
+        if (metric instanceof Metrics.Counter)
+            return ((Metrics.Counter) metric).getCount();
+        if (metric instanceof Metrics.Gauge)
+            return ((Metrics.Gauge) metric).getValue();
+        int dot = attribute.lastIndexOf('.');
+        if (dot > 0 && metrics.get(attribute.substring(0, dot)) instanceof Metrics.Histogram) {
+            Metrics.Histogram histogram = (Metrics.Histogram) metrics.get(attribute.substring(0, dot));
+            String suffix = attribute.substring(dot);
+            if (suffix.equals(".count"))
+                return histogram.getCount();
+            if (suffix.equals(".mean"))
+                return histogram.getMean();
+            if (suffix.equals(".p50"))
+                return histogram.getPercentile(50);
+            if (suffix.equals(".p99"))
+                return histogram.getPercentile(99);
+            if (suffix.equals(".max"))
+                return histogram.getMax();
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Left out of the list, as the interface expects.
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException,
+            ReflectionException {
+        if (actionName.equals("reset") && (params == null || params.length == 0)) {
+            Metrics.reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (Map.Entry<String, Metrics.Metric> entry : Metrics.getMetrics().entrySet()) {
+            String name = entry.getKey();
+            Metrics.Metric metric = entry.getValue();
+            if (metric instanceof Metrics.Histogram) {
+                for (String suffix : HISTOGRAM_SUFFIXES) {
+                    String type = suffix.equals(".mean") ? "double" : "long";
+                    attributes.add(new MBeanAttributeInfo(name + suffix, type, name + suffix, true, false, false));
+                }
+            } else {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Resets all metrics to zero",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "schillingcoinj metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                new MBeanOperationInfo[] {reset}, null);
+    }
+}
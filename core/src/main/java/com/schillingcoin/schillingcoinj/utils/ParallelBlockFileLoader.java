@@ -0,0 +1,318 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import com.schillingcoin.schillingcoinj.core.Block;
+import com.schillingcoin.schillingcoinj.core.NetworkParameters;
+import com.schillingcoin.schillingcoinj.core.ProtocolException;
+import com.schillingcoin.schillingcoinj.core.Transaction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Reads block files stored in the reference client format, like {@link BlockFileLoader}, but splits the work into a
+ * pipeline so that importing is bound by connecting blocks to the chain rather than by parsing them. Each file is
+ * memory mapped and scanned for block records by a reader thread. The records are parsed on a pool of worker threads,
+ * which also compute the block hash and the hashes of all transactions (the leaves of the merkle tree), and are then
+ * handed out by the iterator in the order they appear in the files.</p>
+ *
+ * <p>At most a fixed number of blocks are read ahead of the iterator. Records which can't be parsed are skipped, as
+ * with {@link BlockFileLoader}. Any other failure is thrown by the iterator, wrapped in a RuntimeException, in place of
+ * the blocks that could not be read. If the iterator isn't run to the end, call {@link #close()} to stop the
+ * threads.</p>
+ */
+public class ParallelBlockFileLoader implements Iterable<Block>, Iterator<Block>, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ParallelBlockFileLoader.class);
+
+    /** The default number of blocks read ahead of the iterator. */
+    public static final int DEFAULT_READ_AHEAD = 512;
+
+    // Marks the end of the records in the pending queue.
+    private static final Future<Block> END = Futures.immediateFuture(null);
+
+    private final NetworkParameters params;
+    private final List<File> files;
+    private final int threads;
+    private final BlockingQueue<Future<Block>> pending;
+
+    private ExecutorService workers;
+    private Thread reader;
+    private Block nextBlock;
+    private boolean finished;
+    private long startTimeMillis;
+
+    private final AtomicLong filesRead = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong blocksParsed = new AtomicLong();
+    private final AtomicLong recordsSkipped = new AtomicLong();
+    private long blocksReturned;
+
+    /** Creates a loader with one worker thread per processor and {@link #DEFAULT_READ_AHEAD}. */
+    public ParallelBlockFileLoader(NetworkParameters params, List<File> files) {
+        this(params, files, Runtime.getRuntime().availableProcessors(), DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * @param threads The number of threads parsing blocks.
+     * @param readAhead The maximum number of blocks read from the files but not yet returned by the iterator.
+     */
+    public ParallelBlockFileLoader(NetworkParameters params, List<File> files, int threads, int readAhead) {
+        checkArgument(threads > 0);
+        checkArgument(readAhead > 0);
+        this.params = params;
+        this.files = files;
+        this.threads = threads;
+        this.pending = new ArrayBlockingQueue<Future<Block>>(readAhead);
+    }
+
+    private void start() {
+        startTimeMillis = System.currentTimeMillis();
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("ParallelBlockFileLoader worker %d").setDaemon(true).build());
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (File file : files)
+                        readFile(file);
+                    pending.put(END);
+                } catch (InterruptedException e) {
+                    // close() was called.
+                } catch (RejectedExecutionException e) {
+                    // close() was called.
+                } catch (Throwable t) {
+                    // Hand the failure to the iterator, which would otherwise wait for the end of the records forever.
+                    log.error("Failed to read block files", t);
+                    try {
+                        pending.put(Futures.<Block>immediateFailedFuture(t));
+                        pending.put(END);
+                    } catch (InterruptedException e) {
+                        // close() was called.
+                    }
+                }
+            }
+        }, "ParallelBlockFileLoader reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // Finds the records in the given file and queues them for parsing, blocking while the read ahead is used up.
+    private void readFile(File file) throws InterruptedException {
+        MappedByteBuffer buffer;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                // The mapping stays valid after the channel is closed.
+                long size = Math.min(raf.length(), Integer.MAX_VALUE);
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            log.warn("Skipping block file " + file, e);
+            return;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        filesRead.incrementAndGet();
+        int magic = (int) params.getPacketMagic();
+        while (buffer.remaining() >= 8) {
+            // Scan for the magic bytes, which the reference client stores big endian, one byte at a time as the files
+            // may contain padding or partially written records.
+            if (buffer.getInt(buffer.position()) != Integer.reverseBytes(magic)) {
+                buffer.get();
+                continue;
+            }
+            buffer.position(buffer.position() + 4);
+            long size = buffer.getInt() & 0xffffffffL;
+            // We allow larger than MAX_BLOCK_SIZE because test code uses this as well.
+            if (size > Block.MAX_BLOCK_SIZE * 2 || size <= 0) {
+                recordsSkipped.incrementAndGet();
+                continue;
+            }
+            if (size > buffer.remaining()) {
+                log.warn("Truncated block in {}", file);
+                recordsSkipped.incrementAndGet();
+                return;
+            }
+            ByteBuffer record = buffer.slice();
+            record.limit((int) size);
+            buffer.position(buffer.position() + (int) size);
+            bytesRead.addAndGet(size);
+            pending.put(workers.submit(new ParseTask(record)));
+        }
+    }
+
+    private class ParseTask implements Callable<Block> {
+        private final ByteBuffer record;
+
+        ParseTask(ByteBuffer record) {
+            this.record = record;
+        }
+
+        @Override
+        public Block call() {
+            byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            Block block;
+            try {
+                block = new Block(params, bytes);
+            } catch (ProtocolException e) {
+                recordsSkipped.incrementAndGet();
+                return null;
+            }
+            // Both hashes are cached by the objects, so the chain doesn't have to compute them again.
+            block.getHash();
+            // A record holding just a header (and the trailing null byte) has no transactions.
+            if (bytes.length > Block.HEADER_SIZE + 1)
+                for (Transaction tx : block.getTransactions())
+                    tx.getHash();
+            blocksParsed.incrementAndGet();
+            return block;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextBlock == null && !finished)
+            loadNextBlock();
+        return nextBlock != null;
+    }
+
+    @Override
+    public Block next() throws NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Block next = nextBlock;
+        nextBlock = null;
+        blocksReturned++;
+        return next;
+    }
+
+    private void loadNextBlock() {
+        if (workers == null)
+            start();
+        try {
+            while (nextBlock == null) {
+                Future<Block> future = pending.take();
+                if (future == END) {
+                    finished = true;
+                    workers.shutdown();
+                    return;
+                }
+                nextBlock = future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Stops reading and parsing blocks. The iterator returns no more blocks afterwards. */
+    @Override
+    public void close() {
+        finished = true;
+        nextBlock = null;
+        if (workers == null)
+            return;
+        reader.interrupt();
+        workers.shutdownNow();
+        pending.clear();
+    }
+
+    @Override
+    public void remove() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<Block> iterator() {
+        return this;
+    }
+
+    /** Returns a snapshot of the progress of the loader. Must be called from the thread using the iterator. */
+    public Stats getStats() {
+        long elapsed = workers == null ? 0 : System.currentTimeMillis() - startTimeMillis;
+        return new Stats(filesRead.get(), bytesRead.get(), blocksParsed.get(), blocksReturned, recordsSkipped.get(),
+                pending.size(), elapsed);
+    }
+
+    /** Progress of a {@link ParallelBlockFileLoader}, as returned by {@link ParallelBlockFileLoader#getStats()}. */
+    public static class Stats {
+        /** Number of block files mapped so far. */
+        public final long files;
+        /** Total size of the block records found so far. */
+        public final long bytes;
+        /** Number of blocks parsed, and returned by the iterator. */
+        public final long blocksParsed, blocksReturned;
+        /** Number of records which could not be parsed. */
+        public final long recordsSkipped;
+        /** Number of blocks read ahead of the iterator. */
+        public final int readAhead;
+        /** Time since the first block was asked for. */
+        public final long elapsedMillis;
+
+        public Stats(long files, long bytes, long blocksParsed, long blocksReturned, long recordsSkipped,
+                     int readAhead, long elapsedMillis) {
+            this.files = files;
+            this.bytes = bytes;
+            this.blocksParsed = blocksParsed;
+            this.blocksReturned = blocksReturned;
+            this.recordsSkipped = recordsSkipped;
+            this.readAhead = readAhead;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /** Returns the number of blocks returned by the iterator per second. */
+        public double getBlocksPerSecond() {
+            return elapsedMillis == 0 ? 0 : blocksReturned * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files, %d MB, %d blocks parsed, %d returned (%.0f/sec), %d skipped, %d read ahead",
+                    files, bytes / (1024 * 1024), blocksParsed, blocksReturned, getBlocksPerSecond(), recordsSkipped,
+                    readAhead);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>An executor that runs the tasks given to it one at a time, in submission order, on top of another (usually
+ * multi-threaded) executor. This lets work for many independent streams, such as the messages of many peers, share a
+ * pool of threads whilst the work for any one stream is never reordered or run concurrently.</p>
+ *
+ * <p>Exceptions thrown by tasks are logged and passed to {@link Threading#uncaughtExceptionHandler}, they do not stop
+ * subsequent tasks from running.</p>
+ */
+public class SerialExecutor implements Executor {
+    private static final Logger log = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Executor delegate;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            do {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    queued.decrementAndGet();
+                    try {
+                        task.run();
+                    } catch (Throwable throwable) {
+                        log.warn("Exception in serially executed task", throwable);
+                        Thread.UncaughtExceptionHandler handler = Threading.uncaughtExceptionHandler;
+                        if (handler != null)
+                            handler.uncaughtException(Thread.currentThread(), throwable);
+                    }
+                }
+                running.set(false);
+                // A task may have been added after we found the queue empty but before we cleared the flag.
+            } while (!tasks.isEmpty() && running.compareAndSet(false, true));
+        }
+    };
+
+    public SerialExecutor(Executor delegate) {
+        this.delegate = checkNotNull(delegate);
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable command) {
+        tasks.add(checkNotNull(command));
+        queued.incrementAndGet();
+        if (running.compareAndSet(false, true)) {
+            try {
+                delegate.execute(drain);
+            } catch (RuntimeException e) {
+                running.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /** Returns the number of tasks waiting to be run. */
+    public int getQueueSize() {
+        return queued.get();
+    }
+}
@@ -28,7 +28,12 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Various threading related utilities. Provides a wrapper around explicit lock creation that lets you control whether
@@ -86,12 +91,40 @@ public class Threading {
     @Nullable
     public static volatile Thread.UncaughtExceptionHandler uncaughtExceptionHandler;
 
+    /**
+     * <p>The thread behind {@link #USER_THREAD}. Its queue is bounded to give backpressure: once {@link #getCapacity()}
+     * tasks are waiting, other threads queueing more are made to wait until it catches up, so slow event listeners
+     * slow down the code producing the events rather than letting the queue grow without limit. Producers coalesce
+     * their events to keep the number of tasks down, see
+     * {@link com.schillingcoin.schillingcoinj.core.WalletConfidenceBatchListener}.</p>
+     *
+     * <p>Events are often queued with locks held which the listeners might need, so a thread is never made to wait
+     * longer than {@link #MAX_WAIT_MILLIS}. After that the task is queued anyway, a warning is logged, and no thread
+     * waits again until the queue has drained to half its capacity. Tasks queued by the user thread itself never
+     * wait.</p>
+     */
     public static class UserThread extends Thread implements Executor {
         private static final Logger log = LoggerFactory.getLogger(UserThread.class);
-        private LinkedBlockingQueue<Runnable> tasks;
+        public static final int DEFAULT_CAPACITY = 1000;
+        public static final long MAX_WAIT_MILLIS = 1000;
+
+        private final LinkedBlockingQueue<Runnable> tasks;
+        private final int capacity;
+        private final ReentrantLock spaceLock = new ReentrantLock();
+        private final Condition spaceAvailable = spaceLock.newCondition();
+        // Only changed with spaceLock held.
+        private volatile int waiters;
+        // Set when a wait timed out, until the queue drains to half its capacity.
+        private volatile boolean overflowing;
 
         public UserThread() {
+            this(DEFAULT_CAPACITY);
+        }
+
+        public UserThread(int capacity) {
             super("peercoinj user thread");
+            checkArgument(capacity > 0);
+            this.capacity = capacity;
             setDaemon(true);
             tasks = new LinkedBlockingQueue<Runnable>();
             start();
@@ -101,6 +134,18 @@ public class Threading {
         public void run() {
             while (true) {
                 Runnable task = Uninterruptibles.takeUninterruptibly(tasks);
+                if (overflowing && tasks.size() <= capacity / 2) {
+                    overflowing = false;
+                    log.info("User thread caught up, {} tasks waiting", tasks.size());
+                }
+                if (waiters > 0) {
+                    spaceLock.lock();
+                    try {
+                        spaceAvailable.signalAll();
+                    } finally {
+                        spaceLock.unlock();
+                    }
+                }
                 try {
                     task.run();
                 } catch (Throwable throwable) {
@@ -114,13 +159,57 @@ public class Threading {
 
         @Override
         public void execute(Runnable command) {
-            if (tasks.size() > 100) {
-                log.warn("User thread saturated, memory exhaustion may occur.");
-                log.warn("Check for deadlocked or slow event handlers. Sample tasks:");
-                for (Object task : tasks.toArray()) log.warn(task.toString());
-            }
+            if (tasks.size() >= capacity && !overflowing && Thread.currentThread() != this)
+                waitForSpace();
             Uninterruptibles.putUninterruptibly(tasks, command);
         }
+
+        private void waitForSpace() {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS);
+            boolean interrupted = false;
+            spaceLock.lock();
+            try {
+                waiters++;
+                while (tasks.size() >= capacity && !overflowing) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        overflowing = true;
+                        log.warn("User thread saturated with {} tasks, check for deadlocked or slow event handlers. " +
+                                "Next task: {}", tasks.size(), tasks.peek());
+                        break;
+                    }
+                    try {
+                        spaceAvailable.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        break;
+                    }
+                }
+            } finally {
+                waiters--;
+                spaceLock.unlock();
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        /** Returns how many tasks can be queued before other threads are made to wait. */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /** Returns the number of tasks waiting to be run. */
+        public int getQueueSize() {
+            return tasks.size();
+        }
+
+        /**
+         * Returns true from when a thread gave up waiting for space until the queue has drained to half its capacity.
+         * Threads queueing tasks meanwhile don't wait.
+         */
+        public boolean isOverflowing() {
+            return overflowing;
+        }
     }
 
     static {
@@ -146,11 +235,20 @@ public class Threading {
 
     private static CycleDetectingLockFactory.Policy policy;
     public static CycleDetectingLockFactory factory;
+    private static volatile boolean profileLocks;
 
     public static ReentrantLock lock(String name) {
+        if (profileLocks)
+            return new MeteredLock(name);
         return factory.newReentrantLock(name);
     }
 
+    public static ReentrantReadWriteLock readWriteLock(String name) {
+        if (profileLocks)
+            return new MeteredReadWriteLock(name);
+        return factory.newReentrantReadWriteLock(name);
+    }
+
     public static void warnOnLockCycles() {
         setPolicy(CycleDetectingLockFactory.Policies.WARN);
     }
@@ -172,12 +270,79 @@ public class Threading {
         return policy;
     }
 
+    /**
+     * Turns lock contention profiling on or off. While it's on, {@link #lock(String)} returns a {@link MeteredLock}
+     * and {@link #readWriteLock(String)} a {@link MeteredReadWriteLock}. These record how often each named lock is
+     * taken, how long threads wait for it and how long it is held in {@link Metrics}. Turning it on also turns metrics
+     * on. This only affects locks created afterwards, so call it before creating wallets, memory pools, peer groups
+     * and the like. Profiled locks don't take part in lock cycle detection.
+     */
+    public static void setLockProfiling(boolean enabled) {
+        profileLocks = enabled;
+        if (enabled)
+            Metrics.setEnabled(true);
+    }
+
+    public static boolean isLockProfiling() {
+        return profileLocks;
+    }
+
     /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     //
     // Generic worker pool.
     //
     /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Returns a thread factory that creates virtual threads if the JVM supports them (Java 21 and later), or daemon
+     * platform threads otherwise. Threads are named with the given prefix followed by a counter. Virtual threads are
+     * cheap enough to dedicate one to each blocking network connection.
+     */
+    public static ThreadFactory virtualThreadFactory(final String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Throwable e) {
+            // Older JDK, or virtual threads are still a preview feature that wasn't enabled.
+            return new ThreadFactory() {
+                private final AtomicLong counter = new AtomicLong();
+
+                @Override
+                public Thread newThread(@Nonnull Runnable r) {
+                    Thread t = new Thread(r, namePrefix + counter.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+        }
+    }
+
+    /** Returns true if {@link #virtualThreadFactory(String)} creates virtual threads on this JVM. */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual").invoke(null);
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns an executor that runs every task on a new virtual thread if the JVM supports them, falling back to a
+     * cached pool of daemon threads otherwise.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory factory = virtualThreadFactory(namePrefix);
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (Throwable e) {
+            return Executors.newCachedThreadPool(factory);
+        }
+    }
+
     /** A caching thread pool that creates daemon threads, which won't keep the JVM alive waiting for more work. */
     public static ListeningExecutorService THREAD_POOL = MoreExecutors.listeningDecorator(
             Executors.newCachedThreadPool(new ThreadFactory() {
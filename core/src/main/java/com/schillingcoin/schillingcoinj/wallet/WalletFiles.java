@@ -18,6 +18,7 @@
 package com.schillingcoin.schillingcoinj.wallet;
 
 import com.schillingcoin.schillingcoinj.core.Wallet;
+import com.schillingcoin.schillingcoinj.utils.Metrics;
 import com.schillingcoin.schillingcoinj.utils.Threading;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
@@ -40,6 +41,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class WalletFiles {
     private static final Logger log = LoggerFactory.getLogger(WalletFiles.class);
 
+    private static final Metrics.Histogram SAVE_MICROS = Metrics.histogram("walletFiles.saveMicros");
+
     private final Wallet wallet;
     private final ScheduledThreadPoolExecutor executor;
     private final File file;
@@ -116,6 +119,7 @@ public class WalletFiles {
     }
 
     private void saveNowInternal() throws IOException {
+        long start = Metrics.startTimer();
         long now = System.currentTimeMillis();
         File directory = file.getAbsoluteFile().getParentFile();
         File temp = File.createTempFile("wallet", null, directory);
@@ -126,6 +130,7 @@ public class WalletFiles {
         if (listener != null)
             listener.onAfterAutoSave(file);
         log.info("Save completed in {}msec", System.currentTimeMillis() - now);
+        SAVE_MICROS.recordSince(start);
     }
 
     /** Queues up a save in the background. Useful for not very important wallet changes. */
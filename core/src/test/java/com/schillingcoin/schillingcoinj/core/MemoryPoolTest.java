@@ -23,9 +23,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
 
 import static com.schillingcoin.schillingcoinj.core.Coin.COIN;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class MemoryPoolTest {
@@ -76,4 +80,60 @@ public class MemoryPoolTest {
         assertEquals(3, t.getConfidence().numBroadcastPeers());
         assertEquals(3, pool.numBroadcastPeers(tx1.getHash()));
     }
+
+    @Test
+    public void seenAllReturnsFreshHashes() throws Exception {
+        MemoryPool pool = new MemoryPool();
+        Transaction tx3 = FakeTxBuilder.createFakeTx(params, COIN, new ECKey().toAddress(params));
+        pool.seen(tx1.getHash(), address1);
+        Set<Sha256Hash> fresh = pool.seenAll(Arrays.asList(tx1.getHash(), tx3.getHash()), address2);
+        assertEquals(Collections.singleton(tx3.getHash()), fresh);
+        assertEquals(2, pool.numBroadcastPeers(tx1.getHash()));
+        assertEquals(1, pool.numBroadcastPeers(tx3.getHash()));
+    }
+
+    @Test
+    public void doubleSpendsAreIndexed() throws Exception {
+        MemoryPool pool = new MemoryPool();
+        FakeTxBuilder.DoubleSpends spends = FakeTxBuilder.createFakeDoubleSpendTxns(params, new ECKey().toAddress(params));
+        pool.intern(spends.t1);
+        assertEquals(Collections.singleton(spends.t1.getHash()), pool.getConflicts(spends.t2));
+        assertEquals(spends.t1.getHash(), pool.getSpender(spends.t2.getInput(0).getOutpoint()));
+        assertTrue(pool.getConflicts(spends.t1).isEmpty());
+    }
+
+    @Test
+    public void doubleSpendKeepsFirstSpender() throws Exception {
+        MemoryPool pool = new MemoryPool(2, MemoryPool.MAX_BYTES);
+        FakeTxBuilder.DoubleSpends spends = FakeTxBuilder.createFakeDoubleSpendTxns(params, new ECKey().toAddress(params));
+        TransactionOutPoint outpoint = spends.t1.getInput(0).getOutpoint();
+        pool.intern(spends.t1);
+        pool.intern(spends.t2);
+        assertEquals(spends.t1.getHash(), pool.getSpender(outpoint));
+        assertEquals(Collections.singleton(spends.t1.getHash()), pool.getConflicts(spends.t2));
+        assertEquals(Collections.singleton(spends.t2.getHash()), pool.getConflicts(spends.t1));
+
+        // Once the first spender is evicted, the double spend is still indexed.
+        pool.intern(tx1);
+        assertFalse(pool.maybeWasSeen(spends.t1.getHash()));
+        assertEquals(spends.t2.getHash(), pool.getSpender(outpoint));
+        assertTrue(pool.getConflicts(spends.t2).isEmpty());
+    }
+
+    @Test
+    public void evictsAnnouncementsBeforeTransactions() throws Exception {
+        MemoryPool pool = new MemoryPool(2, MemoryPool.MAX_BYTES);
+        Sha256Hash hash1 = Sha256Hash.create(new byte[] { 1 });
+        Sha256Hash hash2 = Sha256Hash.create(new byte[] { 2 });
+        pool.intern(tx1);
+        assertEquals(tx1.getMessageSize(), pool.getStats().bytes);
+        pool.seen(hash1, address1);
+        pool.seen(hash2, address1);
+        assertTrue(pool.maybeWasSeen(tx1.getHash()));
+        assertFalse(pool.maybeWasSeen(hash1));
+        assertTrue(pool.maybeWasSeen(hash2));
+        MemoryPool.Stats stats = pool.getStats();
+        assertEquals(2, stats.entries);
+        assertEquals(1, stats.evictions);
+    }
 }
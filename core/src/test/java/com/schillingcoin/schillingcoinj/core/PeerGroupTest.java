@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.core;
+
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import com.schillingcoin.schillingcoinj.testing.FakeTxBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class PeerGroupTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    private PeerGroup peerGroup;
+    private int nextPort = 2000;
+
+    @After
+    public void tearDown() {
+        if (peerGroup != null && peerGroup.isRunning())
+            peerGroup.stopAsync().awaitTerminated();
+    }
+
+    private void startPeerGroup(long trickleIntervalMsec) {
+        peerGroup = new PeerGroup(params);
+        peerGroup.setPingIntervalMsec(0);
+        peerGroup.setTrickleIntervalMsec(trickleIntervalMsec);
+        peerGroup.startAsync().awaitRunning();
+    }
+
+    // Connects a peer to the group. Without a memory pool, only the set of recent requests stops it downloading what
+    // other peers were already asked for.
+    private RecordingWriteTarget connectPeer(@Nullable MemoryPool mempool) throws Exception {
+        PeerAddress address = new PeerAddress(InetAddress.getByName("127.0.0.1"), nextPort++);
+        Peer peer = new Peer(params, new VersionMessage(params, 0), address, null, mempool, peerGroup);
+        RecordingWriteTarget target = RecordingWriteTarget.connect(params, peer, 0);
+        peerGroup.handleNewPeer(peer);
+        peer.setDownloadData(true);
+        return target;
+    }
+
+    private static InventoryMessage inv(Sha256Hash... hashes) {
+        InventoryMessage inv = new InventoryMessage(params);
+        for (Sha256Hash hash : hashes)
+            inv.addItem(new InventoryItem(InventoryItem.Type.Transaction, hash));
+        return inv;
+    }
+
+    private static Sha256Hash randomHash() {
+        return Sha256Hash.create(new ECKey().getPubKey());
+    }
+
+    @Test
+    public void tricklesTransactionRequestsAndAnnouncements() throws Exception {
+        startPeerGroup(500);
+        assertTrue(peerGroup.isTrickling());
+        RecordingWriteTarget target = connectPeer(peerGroup.getMemoryPool());
+        Sha256Hash hash1 = randomHash(), hash2 = randomHash();
+        target.getPeer().processMessage(inv(hash1));
+        target.getPeer().processMessage(inv(hash2));
+        assertNull(target.nextMessage());
+
+        // Both requests go out together once the trickle timer fires.
+        GetDataMessage getdata = (GetDataMessage) target.nextMessage(5000);
+        assertNotNull(getdata);
+        assertEquals(2, getdata.getItems().size());
+        assertEquals(hash1, getdata.getHashOf(0));
+        assertEquals(hash2, getdata.getHashOf(1));
+
+        Transaction tx1 = FakeTxBuilder.createFakeTx(params, Coin.COIN, new ECKey().toAddress(params));
+        Transaction tx2 = FakeTxBuilder.createFakeTx(params, Coin.CENT, new ECKey().toAddress(params));
+        peerGroup.announceTransaction(tx1);
+        peerGroup.announceTransaction(tx2);
+        InventoryMessage inv = (InventoryMessage) target.nextMessage(5000);
+        assertNotNull(inv);
+        assertEquals(2, inv.getItems().size());
+        assertEquals(tx1.getHash(), inv.getItems().get(0).hash);
+        assertEquals(tx2.getHash(), inv.getItems().get(1).hash);
+        assertNull(target.nextMessage());
+    }
+
+    @Test
+    public void requestsTransactionFromOnlyOnePeer() throws Exception {
+        startPeerGroup(100);
+        RecordingWriteTarget first = connectPeer(null);
+        RecordingWriteTarget second = connectPeer(null);
+        Sha256Hash hash = randomHash();
+        first.getPeer().processMessage(inv(hash));
+        second.getPeer().processMessage(inv(hash));
+
+        GetDataMessage getdata = (GetDataMessage) first.nextMessage(5000);
+        assertNotNull(getdata);
+        assertEquals(hash, getdata.getHashOf(0));
+        assertNull(second.nextMessage(500));
+    }
+
+    @Test
+    public void disconnectReleasesRequestedTransactions() throws Exception {
+        startPeerGroup(100);
+        RecordingWriteTarget first = connectPeer(null);
+        RecordingWriteTarget second = connectPeer(null);
+        Sha256Hash hash = randomHash();
+        first.getPeer().processMessage(inv(hash));
+        assertNotNull(first.nextMessage(5000));
+        second.getPeer().processMessage(inv(hash));
+        assertNull(second.nextMessage(500));
+
+        // The first peer goes away without sending the transaction, so the second one is asked for it instead.
+        first.closeConnection();
+        assertFalse(peerGroup.getRecentInventory().contains(hash));
+        second.getPeer().processMessage(inv(hash));
+        GetDataMessage getdata = (GetDataMessage) second.nextMessage(5000);
+        assertNotNull(getdata);
+        assertEquals(hash, getdata.getHashOf(0));
+    }
+
+    @Test
+    public void disconnectDropsQueuedRequests() throws Exception {
+        startPeerGroup(60 * 1000);
+        RecordingWriteTarget target = connectPeer(null);
+        Sha256Hash hash = randomHash();
+        target.getPeer().processMessage(inv(hash));
+        assertTrue(peerGroup.getRecentInventory().contains(hash));
+        target.closeConnection();
+        assertFalse(peerGroup.getRecentInventory().contains(hash));
+        target.getPeer().flushTrickle();
+        assertNull(target.nextMessage());
+    }
+
+    @Test
+    public void shutDownFlushesQueuedInventory() throws Exception {
+        // The timer would not fire before the end of the test.
+        startPeerGroup(60 * 1000);
+        RecordingWriteTarget target = connectPeer(peerGroup.getMemoryPool());
+        Sha256Hash hash = randomHash();
+        target.getPeer().processMessage(inv(hash));
+        Transaction tx = FakeTxBuilder.createFakeTx(params, Coin.COIN, new ECKey().toAddress(params));
+        peerGroup.announceTransaction(tx);
+        assertNull(target.nextMessage());
+
+        peerGroup.stopAsync().awaitTerminated();
+        assertFalse(peerGroup.isTrickling());
+        GetDataMessage getdata = (GetDataMessage) target.nextMessage();
+        assertNotNull(getdata);
+        assertEquals(hash, getdata.getHashOf(0));
+        InventoryMessage inv = (InventoryMessage) target.nextMessage();
+        assertNotNull(inv);
+        assertEquals(tx.getHash(), inv.getItems().get(0).hash);
+
+        // Once stopped, nothing is queued any more.
+        Sha256Hash late = randomHash();
+        target.getPeer().processMessage(inv(late));
+        getdata = (GetDataMessage) target.nextMessage();
+        assertNotNull(getdata);
+        assertEquals(late, getdata.getHashOf(0));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.core;
+
+import com.schillingcoin.schillingcoinj.net.PausableWriteTarget;
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class PeerSocketHandlerTest {
+    private final NetworkParameters params = UnitTestParams.get();
+    private final List<Message> processed = new ArrayList<Message>();
+    private final List<Runnable> scheduled = new ArrayList<Runnable>();
+    private final List<Boolean> pauses = new ArrayList<Boolean>();
+    private PeerSocketHandler handler;
+
+    @Before
+    public void setUp() {
+        handler = new PeerSocketHandler(params, new InetSocketAddress("127.0.0.1", 2000)) {
+            @Override
+            protected void processMessage(Message m) {
+                processed.add(m);
+            }
+
+            @Override
+            public void connectionOpened() {
+            }
+
+            @Override
+            public void connectionClosed() {
+            }
+        };
+        handler.setMessageProcessingExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                scheduled.add(command);
+            }
+        });
+        handler.setMaxPendingMessages(4);
+        handler.setWriteTarget(new PausableWriteTarget() {
+            @Override
+            public void setReadingPaused(boolean paused) {
+                pauses.add(paused);
+            }
+
+            @Override
+            public void writeBytes(byte[] message) {
+            }
+
+            @Override
+            public void closeConnection() {
+            }
+        });
+    }
+
+    private void receivePings(int count) throws Exception {
+        SchillingcoinSerializer serializer = new SchillingcoinSerializer(params);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++)
+            serializer.serialize(new Ping(i), out);
+        ByteBuffer buff = ByteBuffer.allocate(Math.max(out.size(), 1024));
+        buff.put(out.toByteArray());
+        buff.flip();
+        assertEquals(out.size(), handler.receiveBytes(buff));
+    }
+
+    private void runScheduled() {
+        while (!scheduled.isEmpty())
+            scheduled.remove(0).run();
+    }
+
+    @Test
+    public void pausesReadingWhilstTooManyMessagesWait() throws Exception {
+        receivePings(3);
+        assertEquals(3, handler.getPendingMessageCount());
+        assertTrue(pauses.isEmpty());
+        receivePings(2);
+        assertEquals(5, handler.getPendingMessageCount());
+        assertEquals(1, pauses.size());
+        assertTrue(pauses.get(0));
+        assertTrue(processed.isEmpty());
+
+        runScheduled();
+        assertEquals(5, processed.size());
+        assertEquals(0, handler.getPendingMessageCount());
+        assertEquals(2, pauses.size());
+        assertFalse(pauses.get(1));
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.core;
+
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import com.schillingcoin.schillingcoinj.store.MemoryBlockStore;
+import com.schillingcoin.schillingcoinj.utils.Threading;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class PeerTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+    // Enough headers for four full headers messages.
+    private static final int NUM_HEADERS = 4 * HeadersMessage.MAX_HEADERS;
+    private static final int REMOTE_HEIGHT = 100000;
+    private static final List<Block> headers = new ArrayList<Block>();
+
+    private BlockChain chain;
+    private Peer peer;
+    private RecordingWriteTarget target;
+    // Header validation tasks, which the tests run when they choose to.
+    private final List<Runnable> validations = new ArrayList<Runnable>();
+
+    @BeforeClass
+    public static void createHeaders() {
+        // The headers are a second apart from a genesis block created now, so let the clock run ahead of them.
+        Utils.setMockClock();
+        Utils.rollMockClock(24 * 60 * 60);
+        Block prev = params.getGenesisBlock();
+        for (int i = 0; i < NUM_HEADERS; i++) {
+            prev = prev.createNextBlock(null, 0).cloneAsHeader();
+            headers.add(prev);
+        }
+    }
+
+    @AfterClass
+    public static void resetClock() {
+        Utils.mockTime = null;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        chain = new BlockChain(params, new MemoryBlockStore(params), null);
+        PeerAddress address = new PeerAddress(InetAddress.getByName("127.0.0.1"), 2000);
+        peer = new Peer(params, new VersionMessage(params, 0), address, chain, null);
+        peer.setHeaderValidationExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                validations.add(command);
+            }
+        });
+        target = RecordingWriteTarget.connect(params, peer, REMOTE_HEIGHT);
+        // All the headers pre-date the fast catchup time, so only headers are downloaded.
+        peer.setDownloadParameters(Utils.currentTimeSeconds() + 24 * 60 * 60, false);
+    }
+
+    private void runValidations() {
+        while (!validations.isEmpty())
+            validations.remove(0).run();
+    }
+
+    // Returns the headers message answering a getheaders for the batch starting at the given index.
+    private static HeadersMessage batch(int from, int count) throws ProtocolException {
+        return new HeadersMessage(params, headers.subList(from, from + count).toArray(new Block[count]));
+    }
+
+    private GetHeadersMessage startDownload() {
+        peer.startBlockChainDownload();
+        GetHeadersMessage getheaders = (GetHeadersMessage) target.nextMessage();
+        assertNotNull(getheaders);
+        assertEquals(params.getGenesisBlock().getHash(), getheaders.getLocator().get(0));
+        return getheaders;
+    }
+
+    @Test
+    public void requestsNextHeadersWithPredictedLocator() throws Exception {
+        startDownload();
+        peer.processMessage(batch(0, HeadersMessage.MAX_HEADERS));
+
+        // The next batch is requested before this one is connected, starting from the last header received.
+        GetHeadersMessage getheaders = (GetHeadersMessage) target.nextMessage();
+        assertNotNull(getheaders);
+        List<Sha256Hash> locator = getheaders.getLocator();
+        assertEquals(headers.get(HeadersMessage.MAX_HEADERS - 1).getHash(), locator.get(0));
+        assertEquals(params.getGenesisBlock().getHash(), locator.get(1));
+        assertEquals(Sha256Hash.ZERO_HASH, getheaders.getStopHash());
+        assertEquals(0, chain.getBestChainHeight());
+        assertEquals(1, validations.size());
+
+        runValidations();
+        assertEquals(HeadersMessage.MAX_HEADERS, chain.getBestChainHeight());
+        // The next batch is already on its way, so nothing more is requested.
+        assertNull(target.nextMessage());
+    }
+
+    @Test
+    public void limitsPendingHeaderBatches() throws Exception {
+        startDownload();
+        for (int i = 0; i < 4; i++) {
+            peer.processMessage(batch(i * HeadersMessage.MAX_HEADERS, HeadersMessage.MAX_HEADERS));
+            GetHeadersMessage getheaders = (GetHeadersMessage) target.nextMessage();
+            if (i < 3) {
+                assertNotNull(getheaders);
+                assertEquals(headers.get((i + 1) * HeadersMessage.MAX_HEADERS - 1).getHash(), getheaders.getLocator().get(0));
+            } else {
+                // Four batches are waiting to be connected, so the pipeline is full.
+                assertNull(getheaders);
+            }
+        }
+        assertEquals(4, validations.size());
+
+        // Once all of them are connected the download carries on from the chain head.
+        runValidations();
+        assertEquals(NUM_HEADERS, chain.getBestChainHeight());
+        GetHeadersMessage getheaders = (GetHeadersMessage) target.nextMessage();
+        assertNotNull(getheaders);
+        assertEquals(headers.get(NUM_HEADERS - 1).getHash(), getheaders.getLocator().get(0));
+        assertNull(target.nextMessage());
+    }
+
+    @Test
+    public void discardsBatchesFromAbandonedPipeline() throws Exception {
+        startDownload();
+        peer.processMessage(batch(0, HeadersMessage.MAX_HEADERS));
+        assertNotNull(target.nextMessage());
+
+        // Another peer became the download peer whilst the next batch was on the wire.
+        peer.setDownloadData(false);
+        peer.processMessage(batch(HeadersMessage.MAX_HEADERS, HeadersMessage.MAX_HEADERS));
+        assertNull(target.nextMessage());
+        assertEquals(1, validations.size());
+        runValidations();
+        assertEquals(0, chain.getBestChainHeight());
+
+        // Becoming the download peer again starts over from the chain head, and the batch queued before is dropped.
+        peer.startBlockChainDownload();
+        GetHeadersMessage getheaders = (GetHeadersMessage) target.nextMessage();
+        assertNotNull(getheaders);
+        assertEquals(params.getGenesisBlock().getHash(), getheaders.getLocator().get(0));
+        peer.processMessage(batch(0, 10));
+        runValidations();
+        assertEquals(10, chain.getBestChainHeight());
+    }
+
+    @Test
+    public void discardsAnswerToRequestFromAbandonedPipeline() throws Exception {
+        startDownload();
+        peer.processMessage(batch(0, HeadersMessage.MAX_HEADERS));
+        assertNotNull(target.nextMessage());
+
+        // Download peer status is lost and regained whilst the first batch waits to be connected, which abandons it.
+        peer.setDownloadData(false);
+        runValidations();
+        peer.setDownloadData(true);
+        assertEquals(0, chain.getBestChainHeight());
+
+        // The answer to the getheaders sent before then doesn't restart the pipeline.
+        peer.processMessage(batch(HeadersMessage.MAX_HEADERS, HeadersMessage.MAX_HEADERS));
+        assertNull(target.nextMessage());
+        assertTrue(validations.isEmpty());
+    }
+
+    @Test
+    public void connectsHeadersOffNetworkThreadByDefault() throws Exception {
+        Peer peer = new Peer(params, new VersionMessage(params, 0),
+                new PeerAddress(InetAddress.getByName("127.0.0.1"), 2001), chain, null);
+        RecordingWriteTarget target = RecordingWriteTarget.connect(params, peer, REMOTE_HEIGHT);
+        peer.setDownloadParameters(Utils.currentTimeSeconds() + 24 * 60 * 60, false);
+        peer.startBlockChainDownload();
+        assertTrue(target.nextMessage() instanceof GetHeadersMessage);
+        peer.processMessage(batch(0, HeadersMessage.MAX_HEADERS));
+        assertTrue(target.nextMessage() instanceof GetHeadersMessage);
+        peer.processMessage(batch(HeadersMessage.MAX_HEADERS, 10));
+        for (int i = 0; i < 500 && chain.getBestChainHeight() < HeadersMessage.MAX_HEADERS + 10; i++)
+            Thread.sleep(10);
+        assertEquals(HeadersMessage.MAX_HEADERS + 10, chain.getBestChainHeight());
+    }
+
+    @Test
+    public void unconnectedHeaderClosesConnection() throws Exception {
+        peer.setHeaderValidationExecutor(Threading.SAME_THREAD);
+        startDownload();
+        // Skips the first header, so none of them connect to the chain. This is not a protocol violation we can detect
+        // when parsing, so the peer is disconnected rather than an exception thrown.
+        peer.processMessage(batch(1, 10));
+        assertTrue(target.isClosed());
+        assertEquals(0, chain.getBestChainHeight());
+    }
+}
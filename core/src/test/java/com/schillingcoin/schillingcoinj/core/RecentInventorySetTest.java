@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecentInventorySetTest {
+    private RecentInventorySet set;
+    private Sha256Hash hash1, hash2;
+
+    @Before
+    public void setUp() {
+        Utils.setMockClock();
+        set = new RecentInventorySet(1000, 3);
+        hash1 = Sha256Hash.create(new byte[] { 1 });
+        hash2 = Sha256Hash.create(new byte[] { 2 });
+    }
+
+    @Test
+    public void onlyFirstAddSucceeds() {
+        assertTrue(set.add(hash1));
+        assertFalse(set.add(hash1));
+        assertTrue(set.add(hash2));
+        assertTrue(set.contains(hash1));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void expiresAfterAllBucketsRotate() {
+        assertTrue(set.add(hash1));
+        Utils.rollMockClockMillis(1000);
+        // Still remembered from an older bucket.
+        assertFalse(set.add(hash1));
+        Utils.rollMockClockMillis(1000);
+        assertTrue(set.contains(hash1));
+        Utils.rollMockClockMillis(1000);
+        assertFalse(set.contains(hash1));
+        assertTrue(set.add(hash1));
+    }
+
+    @Test
+    public void longIdlePeriodClearsEverything() {
+        set.add(hash1);
+        set.add(hash2);
+        Utils.rollMockClockMillis(60 * 1000);
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void remove() {
+        set.add(hash1);
+        set.remove(hash1);
+        assertFalse(set.contains(hash1));
+        assertTrue(set.add(hash1));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.core;
+
+import com.schillingcoin.schillingcoinj.net.PausableWriteTarget;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A write target for driving a {@link Peer} without a socket: the messages the peer sends are parsed back and queued
+ * so a test can inspect them, and closing the connection tells the peer straight away.
+ */
+public class RecordingWriteTarget implements PausableWriteTarget {
+    private final SchillingcoinSerializer serializer;
+    private final Peer peer;
+    private final LinkedBlockingQueue<Message> sent = new LinkedBlockingQueue<Message>();
+    private volatile boolean closed, readingPaused;
+
+    public RecordingWriteTarget(NetworkParameters params, Peer peer) {
+        this.serializer = new SchillingcoinSerializer(params);
+        this.peer = peer;
+    }
+
+    /**
+     * Attaches to the peer and completes the version handshake with a remote node at the given height that serves
+     * the block chain. The messages the peer sent during the handshake are discarded.
+     */
+    public static RecordingWriteTarget connect(NetworkParameters params, Peer peer, int height) throws Exception {
+        RecordingWriteTarget target = new RecordingWriteTarget(params, peer);
+        peer.setWriteTarget(target);
+        peer.connectionOpened();
+        VersionMessage remote = new VersionMessage(params, height);
+        remote.localServices = VersionMessage.NODE_NETWORK;
+        peer.processMessage(remote);
+        peer.processMessage(new VersionAck());
+        target.sent.clear();
+        return target;
+    }
+
+    @Override
+    public void writeBytes(byte[] message) {
+        try {
+            sent.add(serializer.deserialize(ByteBuffer.wrap(message)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void closeConnection() {
+        if (closed)
+            return;
+        closed = true;
+        peer.connectionClosed();
+    }
+
+    @Override
+    public void setReadingPaused(boolean paused) {
+        readingPaused = paused;
+    }
+
+    /** Returns the next message the peer sent, or null if none is sent within the given time. */
+    @Nullable
+    public Message nextMessage(long timeoutMillis) throws InterruptedException {
+        return sent.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Returns the next message the peer sent, or null if it has not sent any more. */
+    @Nullable
+    public Message nextMessage() {
+        return sent.poll();
+    }
+
+    public Peer getPeer() {
+        return peer;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isReadingPaused() {
+        return readingPaused;
+    }
+}
@@ -35,6 +35,7 @@ import com.schillingcoin.schillingcoinj.utils.Threading;
 import com.schillingcoin.schillingcoinj.wallet.*;
 import com.schillingcoin.schillingcoinj.wallet.WalletTransaction.Pool;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
@@ -610,6 +611,36 @@ public class WalletTest extends TestWithWallet {
         assertEquals(3, confTxns.size());
     }
 
+    @Test
+    public void batchedConfidenceEvents() throws Exception {
+        Transaction tx1 = sendMoneyToWallet(COIN, AbstractBlockChain.NewBlockType.BEST_CHAIN);
+        Transaction tx2 = sendMoneyToWallet(COIN, AbstractBlockChain.NewBlockType.BEST_CHAIN);
+        Threading.waitForUserCode();
+        final List<Map<Transaction, TransactionConfidence.Listener.ChangeReason>> batches =
+                new ArrayList<Map<Transaction, TransactionConfidence.Listener.ChangeReason>>();
+        final int[] singleEvents = new int[1];
+        class BatchListener extends AbstractWalletEventListener implements WalletConfidenceBatchListener {
+            @Override
+            public void onTransactionConfidencesChanged(Wallet wallet,
+                    Map<Transaction, TransactionConfidence.Listener.ChangeReason> changes) {
+                batches.add(changes);
+            }
+
+            @Override
+            public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+                singleEvents[0]++;
+            }
+        }
+        wallet.addEventListener(new BatchListener());
+        wallet.notifyNewBestBlock(createFakeBlock(blockStore).storedBlock);
+        Threading.waitForUserCode();
+        // One call for the block, covering both transactions.
+        assertEquals(0, singleEvents[0]);
+        assertEquals(1, batches.size());
+        assertEquals(ImmutableSet.of(tx1, tx2), batches.get(0).keySet());
+        assertEquals(TransactionConfidence.Listener.ChangeReason.DEPTH, batches.get(0).get(tx1));
+    }
+
     @Test
     public void balances() throws Exception {
         Coin nanos = COIN;
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.net;
+
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.SocketFactory;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BlockingClientTest {
+    private ServerSocket server;
+    private Socket accepted;
+
+    // Counts the bytes it is given, and pauses reading as soon as it has been given any.
+    private static class PausingParser implements StreamParser {
+        final SettableFuture<Void> opened = SettableFuture.create();
+        final SettableFuture<Void> closed = SettableFuture.create();
+        final Semaphore bytesReceived = new Semaphore(0);
+        volatile PausableWriteTarget target;
+
+        @Override
+        public void connectionOpened() {
+            opened.set(null);
+        }
+
+        @Override
+        public void connectionClosed() {
+            closed.set(null);
+        }
+
+        @Override
+        public int receiveBytes(ByteBuffer buff) {
+            int read = buff.remaining();
+            buff.position(buff.limit());
+            target.setReadingPaused(true);
+            bytesReceived.release(read);
+            return read;
+        }
+
+        @Override
+        public void setWriteTarget(MessageWriteTarget writeTarget) {
+            target = (PausableWriteTarget) writeTarget;
+        }
+
+        @Override
+        public int getMaxMessageSize() {
+            return 1024;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (accepted != null)
+            accepted.close();
+        server.close();
+    }
+
+    private PausingParser connect() throws Exception {
+        PausingParser parser = new PausingParser();
+        new BlockingClient(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), server.getLocalPort()), parser,
+                1000, SocketFactory.getDefault(), null);
+        accepted = server.accept();
+        parser.opened.get(5, TimeUnit.SECONDS);
+        return parser;
+    }
+
+    private void send(int count) throws Exception {
+        OutputStream stream = accepted.getOutputStream();
+        stream.write(new byte[count]);
+        stream.flush();
+    }
+
+    @Test
+    public void pausedClientStopsReading() throws Exception {
+        PausingParser parser = connect();
+        send(1);
+        assertTrue(parser.bytesReceived.tryAcquire(1, 5, TimeUnit.SECONDS));
+
+        // The parser paused reading, so the next bytes stay in the socket.
+        send(10);
+        assertFalse(parser.bytesReceived.tryAcquire(1, 500, TimeUnit.MILLISECONDS));
+
+        parser.target.setReadingPaused(false);
+        assertTrue(parser.bytesReceived.tryAcquire(1, 5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closeWakesPausedClient() throws Exception {
+        PausingParser parser = connect();
+        send(1);
+        assertTrue(parser.bytesReceived.tryAcquire(1, 5, TimeUnit.SECONDS));
+        parser.target.closeConnection();
+        parser.closed.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.net;
+
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShardedNioClientManagerTest {
+    private static final int NUM_LOOPS = 4;
+    private static final int BASE_PORT = 4250;
+
+    private final List<NioServer> servers = new ArrayList<NioServer>();
+    private ShardedNioClientManager manager;
+
+    // Echoes whatever it receives, or on the client side, records what comes back.
+    private static class EchoParser implements StreamParser {
+        final boolean echo;
+        final SettableFuture<Void> opened = SettableFuture.create();
+        final SettableFuture<Void> closed = SettableFuture.create();
+        volatile SettableFuture<byte[]> received = SettableFuture.create();
+        MessageWriteTarget writeTarget;
+
+        EchoParser(boolean echo) {
+            this.echo = echo;
+        }
+
+        @Override
+        public void connectionOpened() {
+            opened.set(null);
+        }
+
+        @Override
+        public void connectionClosed() {
+            closed.set(null);
+        }
+
+        @Override
+        public int receiveBytes(ByteBuffer buff) throws Exception {
+            byte[] bytes = new byte[buff.remaining()];
+            buff.get(bytes);
+            if (echo)
+                writeTarget.writeBytes(bytes);
+            else
+                received.set(bytes);
+            return bytes.length;
+        }
+
+        @Override
+        public void setWriteTarget(MessageWriteTarget writeTarget) {
+            this.writeTarget = writeTarget;
+        }
+
+        @Override
+        public int getMaxMessageSize() {
+            return 1024;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < NUM_LOOPS; i++) {
+            NioServer server = new NioServer(new StreamParserFactory() {
+                @Override
+                public StreamParser getNewParser(InetAddress inetAddress, int port) {
+                    return new EchoParser(true);
+                }
+            }, new InetSocketAddress("localhost", BASE_PORT + i));
+            server.startAsync();
+            server.awaitRunning();
+            servers.add(server);
+        }
+        manager = new ShardedNioClientManager(NUM_LOOPS);
+        manager.startAsync();
+        manager.awaitRunning();
+    }
+
+    @After
+    public void tearDown() {
+        manager.stopAsync();
+        manager.awaitTerminated();
+        for (NioServer server : servers) {
+            server.stopAsync();
+            server.awaitTerminated();
+        }
+    }
+
+    private static void waitFor(ShardedNioClientManager manager, int connections) throws InterruptedException {
+        for (int i = 0; i < 100 && manager.getConnectedClientCount() != connections; i++)
+            Thread.sleep(50);
+        assertEquals(connections, manager.getConnectedClientCount());
+    }
+
+    private static long getBytesRead(ShardedNioClientManager manager) {
+        long bytesRead = 0;
+        for (NioClientManager.Stats stats : manager.getLoopStats())
+            bytesRead += stats.bytesRead;
+        return bytesRead;
+    }
+
+    private static void waitForBytesRead(ShardedNioClientManager manager, long bytesRead) throws InterruptedException {
+        for (int i = 0; i < 100 && getBytesRead(manager) != bytesRead; i++)
+            Thread.sleep(50);
+        assertEquals(bytesRead, getBytesRead(manager));
+    }
+
+    private static void assertEchoes(EchoParser client, byte value) throws Exception {
+        client.received = SettableFuture.create();
+        client.writeTarget.writeBytes(new byte[] { value });
+        assertArrayEquals(new byte[] { value }, client.received.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void connectionsAreSpreadOverLoops() throws Exception {
+        assertEquals(NUM_LOOPS, manager.getNumLoops());
+        List<EchoParser> clients = new ArrayList<EchoParser>();
+        // Consecutive ports on the same host hash to different loops.
+        for (int i = 0; i < NUM_LOOPS; i++) {
+            EchoParser client = new EchoParser(false);
+            manager.openConnection(new InetSocketAddress("localhost", BASE_PORT + i), client);
+            client.opened.get(5, TimeUnit.SECONDS);
+            clients.add(client);
+        }
+        waitFor(manager, NUM_LOOPS);
+        for (NioClientManager.Stats stats : manager.getLoopStats())
+            assertEquals(stats.toString(), 1, stats.connections);
+
+        for (int i = 0; i < clients.size(); i++)
+            assertEchoes(clients.get(i), (byte) i);
+        // A loop counts the bytes once the parser has returned, which may be after the test saw them.
+        waitForBytesRead(manager, NUM_LOOPS);
+        for (NioClientManager.Stats stats : manager.getLoopStats()) {
+            assertEquals(stats.toString(), 1, stats.bytesRead);
+            assertTrue(stats.toString(), stats.keysHandled > 0);
+            assertEquals(stats.toString(), 0, stats.pendingRegistrations);
+        }
+    }
+
+    @Test
+    public void closingOneConnectionLeavesOtherLoopsAlone() throws Exception {
+        List<EchoParser> clients = new ArrayList<EchoParser>();
+        for (int i = 0; i < NUM_LOOPS; i++) {
+            EchoParser client = new EchoParser(false);
+            manager.openConnection(new InetSocketAddress("localhost", BASE_PORT + i), client);
+            client.opened.get(5, TimeUnit.SECONDS);
+            clients.add(client);
+        }
+        waitFor(manager, NUM_LOOPS);
+
+        EchoParser closed = clients.remove(0);
+        closed.writeTarget.closeConnection();
+        closed.closed.get(5, TimeUnit.SECONDS);
+        waitFor(manager, NUM_LOOPS - 1);
+        int emptyLoops = 0;
+        for (NioClientManager.Stats stats : manager.getLoopStats()) {
+            if (stats.connections == 0)
+                emptyLoops++;
+            else
+                assertEquals(stats.toString(), 1, stats.connections);
+        }
+        assertEquals(1, emptyLoops);
+        for (EchoParser client : clients) {
+            assertFalse(client.closed.isDone());
+            assertEchoes(client, (byte) 42);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.net.discovery;
+
+import com.schillingcoin.schillingcoinj.core.Utils;
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import com.subgraph.orchid.CircuitManager;
+import com.subgraph.orchid.CircuitNode;
+import com.subgraph.orchid.InternalCircuit;
+import com.subgraph.orchid.RelayCell;
+import com.subgraph.orchid.Router;
+import com.subgraph.orchid.data.HexDigest;
+import com.subgraph.orchid.data.exitpolicy.ExitTarget;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TorDiscoveryTest {
+    private final List<FakeExit> exits = new ArrayList<FakeExit>();
+    private final AtomicInteger nextExit = new AtomicInteger();
+    private TorDiscovery discovery;
+
+    // An exit node which answers resolve requests with its own address, 10.0.0.<index>.
+    private static class FakeExit {
+        final int index;
+        final Router router;
+        final AtomicInteger circuitsOpened = new AtomicInteger();
+        final AtomicInteger resolves = new AtomicInteger();
+        volatile int ttlSeconds = 120;
+        // Lookups wait for this before replying, if set.
+        volatile CountDownLatch release;
+        // If set, no reply ever arrives.
+        volatile boolean silent;
+
+        FakeExit(final int index) {
+            this.index = index;
+            final byte[] id = new byte[20];
+            id[0] = (byte) index;
+            this.router = stub(Router.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("getIdentityHash"))
+                        return HexDigest.createFromDigestBytes(id);
+                    if (method.getName().equals("getNickname"))
+                        return "exit" + index;
+                    return null;
+                }
+            });
+        }
+
+        InetAddress getAddress() throws Exception {
+            return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) index });
+        }
+
+        InternalCircuit openCircuit() {
+            circuitsOpened.incrementAndGet();
+            final CircuitNode node = stub(CircuitNode.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return method.getName().equals("getRouter") ? router : null;
+                }
+            });
+            final boolean[] markedForClose = new boolean[1];
+            return stub(InternalCircuit.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+                    String name = method.getName();
+                    if (name.equals("isMarkedForClose"))
+                        return markedForClose[0];
+                    if (name.equals("markForClose"))
+                        markedForClose[0] = true;
+                    else if (name.equals("getFinalCircuitNode"))
+                        return node;
+                    else if (name.equals("createRelayCell"))
+                        return stub(RelayCell.class, null);
+                    else if (name.equals("sendRelayCell"))
+                        resolves.incrementAndGet();
+                    else if (name.equals("receiveRelayCell"))
+                        return receiveReply();
+                    return null;
+                }
+            });
+        }
+
+        RelayCell receiveReply() throws Exception {
+            if (silent)
+                return null;
+            CountDownLatch latch = release;
+            if (latch != null)
+                latch.await();
+            final ByteBuffer reply = ByteBuffer.allocate(10);
+            reply.put((byte) TorDiscovery.RESOLVE_IPV4).put((byte) 4).put(getAddress().getAddress()).putInt(ttlSeconds);
+            reply.flip();
+            return stub(RelayCell.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("cellBytesRemaining"))
+                        return reply.remaining();
+                    if (name.equals("getByte"))
+                        return reply.get() & 0xFF;
+                    if (name.equals("getInt"))
+                        return reply.getInt();
+                    if (name.equals("getByteArray"))
+                        reply.get((byte[]) args[0]);
+                    return null;
+                }
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, final InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("equals"))
+                    return proxy == args[0];
+                if (method.getName().equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                if (method.getName().equals("toString"))
+                    return "stub " + method.getDeclaringClass().getSimpleName();
+                Object result = handler == null ? null : handler.invoke(proxy, method, args);
+                if (result == null && method.getReturnType() == boolean.class)
+                    return false;
+                if (result == null && method.getReturnType() == int.class)
+                    return 0;
+                return result;
+            }
+        });
+    }
+
+    private FakeExit findExit(Router router) {
+        for (FakeExit exit : exits) {
+            if (exit.router == router)
+                return exit;
+        }
+        throw new IllegalArgumentException();
+    }
+
+    private void createExits(int count) {
+        for (int i = 0; i < count; i++)
+            exits.add(new FakeExit(i + 1));
+    }
+
+    @Before
+    public void setUp() {
+        Utils.setMockClock();
+        CircuitManager circuitManager = stub(CircuitManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (!method.getName().equals("openInternalCircuitTo"))
+                    return null;
+                return findExit((Router) ((List<?>) args[0]).get(0)).openCircuit();
+            }
+        });
+        discovery = new TorDiscovery(new String[] { "seed.example.com" }, UnitTestParams.get(), circuitManager, null) {
+            @Override
+            Router chooseExitNode(List<ExitTarget> targets) {
+                // Round robin, so every exit node that isn't in use is offered in turn.
+                return exits.get(nextExit.getAndIncrement() % exits.size()).router;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        discovery.shutdown();
+        Utils.mockTime = null;
+    }
+
+    private Set<InetAddress> getPeers() throws Exception {
+        Set<InetAddress> result = new HashSet<InetAddress>();
+        for (InetSocketAddress address : discovery.getPeers(10, TimeUnit.SECONDS)) {
+            assertEquals(UnitTestParams.get().getPort(), address.getPort());
+            result.add(address.getAddress());
+        }
+        return result;
+    }
+
+    @Test
+    public void lookupsCachedForTtlAndCircuitsReused() throws Exception {
+        createExits(TorDiscovery.ROUTER_LOOKUP_COUNT);
+        discovery.setRequiredResultCount(TorDiscovery.ROUTER_LOOKUP_COUNT);
+        for (FakeExit exit : exits)
+            exit.ttlSeconds = 1;
+        Set<InetAddress> expected = new HashSet<InetAddress>();
+        for (FakeExit exit : exits)
+            expected.add(exit.getAddress());
+        assertEquals(expected, getPeers());
+
+        // A one second TTL is cached for the minimum time instead.
+        Utils.rollMockClock(TorDiscovery.MIN_CACHE_TTL_SECONDS - 1);
+        assertEquals(expected, getPeers());
+        for (FakeExit exit : exits)
+            assertEquals(1, exit.resolves.get());
+
+        // Once expired, the seeds are resolved again over the same circuits.
+        Utils.rollMockClock(2);
+        assertEquals(expected, getPeers());
+        for (FakeExit exit : exits) {
+            assertEquals(2, exit.resolves.get());
+            assertEquals(1, exit.circuitsOpened.get());
+        }
+    }
+
+    @Test
+    public void pendingLookupIsNotStartedAgain() throws Exception {
+        createExits(TorDiscovery.ROUTER_LOOKUP_COUNT + 1);
+        FakeExit slow = exits.get(0);
+        slow.release = new CountDownLatch(1);
+        discovery.setRequiredResultCount(TorDiscovery.ROUTER_LOOKUP_COUNT - 1);
+        // Returns once enough exit nodes have answered, without waiting for the slow one.
+        assertEquals(TorDiscovery.ROUTER_LOOKUP_COUNT - 1, getPeers().size());
+        assertEquals(1, slow.resolves.get());
+
+        // Everything else expires and is looked up again, the slow exit node is still busy with its first lookup.
+        Utils.rollMockClock(TorDiscovery.MAX_CACHE_TTL_SECONDS + 1);
+        assertEquals(TorDiscovery.ROUTER_LOOKUP_COUNT - 1, getPeers().size());
+        assertEquals(1, slow.resolves.get());
+        assertEquals(1, slow.circuitsOpened.get());
+        slow.release.countDown();
+
+        // Its answer arrives late and is cached.
+        discovery.setRequiredResultCount(TorDiscovery.ROUTER_LOOKUP_COUNT);
+        assertTrue(getPeers().contains(slow.getAddress()));
+        assertEquals(1, slow.resolves.get());
+    }
+
+    @Test
+    public void silentCircuitIsReplaced() throws Exception {
+        createExits(TorDiscovery.ROUTER_LOOKUP_COUNT);
+        FakeExit silent = exits.get(0);
+        silent.silent = true;
+        discovery.setRequiredResultCount(TorDiscovery.ROUTER_LOOKUP_COUNT);
+        Set<InetAddress> peers = getPeers();
+        assertEquals(TorDiscovery.ROUTER_LOOKUP_COUNT - 1, peers.size());
+        assertFalse(peers.contains(silent.getAddress()));
+
+        // The circuit was closed, as a late reply would be mistaken for the answer to the next lookup.
+        silent.silent = false;
+        assertTrue(getPeers().contains(silent.getAddress()));
+        assertEquals(2, silent.circuitsOpened.get());
+        assertEquals(2, silent.resolves.get());
+        for (FakeExit exit : exits.subList(1, exits.size()))
+            assertEquals(1, exit.circuitsOpened.get());
+    }
+
+    @Test
+    public void tooFewPeers() throws Exception {
+        createExits(TorDiscovery.MINIMUM_ROUTER_COUNT - 1);
+        try {
+            discovery.getPeers(10, TimeUnit.SECONDS);
+            fail();
+        } catch (PeerDiscoveryException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("got " + (TorDiscovery.MINIMUM_ROUTER_COUNT - 1)));
+        }
+    }
+
+    @Test
+    public void requiredResultCountRange() {
+        try {
+            discovery.setRequiredResultCount(TorDiscovery.ROUTER_LOOKUP_COUNT + 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Required result count 11 must be between 4 and 10", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.protocols.channels;
+
+import com.schillingcoin.schillingcoinj.core.*;
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import com.schillingcoin.schillingcoinj.script.Script;
+import com.schillingcoin.schillingcoinj.script.ScriptBuilder;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PaymentTransactionTemplateTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    private ECKey clientKey;
+    private Transaction contract;
+    private Script multisigScript;
+    private TransactionOutput clientOutput;
+    private PaymentTransactionTemplate template;
+
+    @Before
+    public void setUp() {
+        clientKey = new ECKey();
+        ECKey serverKey = new ECKey();
+        multisigScript = ScriptBuilder.createMultiSigOutputScript(2, ImmutableList.of(clientKey, serverKey));
+        contract = new Transaction(params);
+        contract.addOutput(Coin.COIN, multisigScript);
+        Transaction refund = new Transaction(params);
+        clientOutput = refund.addOutput(Coin.COIN, clientKey.toAddress(params));
+        template = new PaymentTransactionTemplate(params, contract.getOutput(0), multisigScript, clientOutput);
+    }
+
+    // Builds the payment transaction the way PaymentChannelServerState did before using the template.
+    private Transaction makePaymentTransaction(long timeSecs, Coin refundSize) {
+        Transaction tx = new Transaction(params);
+        tx.setTime(timeSecs);
+        if (!refundSize.equals(Coin.ZERO))
+            tx.addOutput(new TransactionOutput(params, tx, refundSize, clientOutput.getScriptBytes()));
+        tx.addInput(contract.getOutput(0));
+        return tx;
+    }
+
+    @Test
+    public void refundHashMatchesTransaction() {
+        long time = 1400000000;
+        for (Coin refund : new Coin[] { Coin.COIN, Coin.CENT, Coin.valueOf(12345), Coin.COIN.subtract(Coin.SATOSHI) }) {
+            Sha256Hash expected = makePaymentTransaction(time, refund)
+                    .hashForSignature(0, multisigScript, Transaction.SigHash.SINGLE, true);
+            assertEquals(expected, template.hashForRefund(time, refund));
+            time++;
+        }
+    }
+
+    @Test
+    public void noRefundHashMatchesTransaction() {
+        long time = 1400000000;
+        Sha256Hash expected = makePaymentTransaction(time, Coin.ZERO)
+                .hashForSignature(0, multisigScript, Transaction.SigHash.NONE, true);
+        assertEquals(expected, template.hashForNoRefund(time));
+    }
+
+    @Test
+    public void verifiesWithDecodedKey() {
+        Sha256Hash hash = template.hashForRefund(1400000000, Coin.CENT);
+        ECKey.ECDSASignature signature = clientKey.sign(hash);
+        ECKey publicOnly = ECKey.fromPublicOnly(clientKey.getPubKey());
+        assertTrue(publicOnly.verify(hash, signature));
+        assertFalse(publicOnly.verify(template.hashForRefund(1400000000, Coin.COIN), signature));
+    }
+}
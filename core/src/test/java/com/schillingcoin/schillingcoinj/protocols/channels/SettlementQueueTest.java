@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.protocols.channels;
+
+import com.schillingcoin.schillingcoinj.core.NetworkParameters;
+import com.schillingcoin.schillingcoinj.core.Transaction;
+import com.schillingcoin.schillingcoinj.core.TransactionBroadcaster;
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SettlementQueueTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+    private static final long INTERVAL_MILLIS = 200;
+
+    // Records each transaction passed on, and when, and leaves completing the broadcast to the test.
+    private static class RecordingBroadcaster implements TransactionBroadcaster {
+        final LinkedBlockingQueue<Broadcast> broadcasts = new LinkedBlockingQueue<Broadcast>();
+
+        @Override
+        public ListenableFuture<Transaction> broadcastTransaction(Transaction tx) {
+            Broadcast broadcast = new Broadcast(tx);
+            broadcasts.add(broadcast);
+            return broadcast.future;
+        }
+
+        Broadcast take() throws InterruptedException {
+            Broadcast broadcast = broadcasts.poll(5, TimeUnit.SECONDS);
+            assertNotNull(broadcast);
+            return broadcast;
+        }
+    }
+
+    private static class Broadcast {
+        final Transaction tx;
+        final long timeMillis = System.currentTimeMillis();
+        final SettableFuture<Transaction> future = SettableFuture.create();
+
+        Broadcast(Transaction tx) {
+            this.tx = tx;
+        }
+    }
+
+    private final RecordingBroadcaster broadcaster = new RecordingBroadcaster();
+    private final SettlementQueue queue = new SettlementQueue(broadcaster, 3, INTERVAL_MILLIS);
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+    }
+
+    private List<ListenableFuture<Transaction>> broadcast(List<Transaction> txns) {
+        List<ListenableFuture<Transaction>> futures = new ArrayList<ListenableFuture<Transaction>>();
+        for (Transaction tx : txns)
+            futures.add(queue.broadcastTransaction(tx));
+        return futures;
+    }
+
+    private static List<Transaction> createTransactions(int count) {
+        List<Transaction> txns = new ArrayList<Transaction>();
+        for (int i = 0; i < count; i++) {
+            Transaction tx = new Transaction(params);
+            tx.setLockTime(i);
+            txns.add(tx);
+        }
+        return txns;
+    }
+
+    @Test
+    public void sendsPacedBatches() throws Exception {
+        // The first transaction goes out straight away, the rest queue up behind it until the interval has passed.
+        queue.broadcastTransaction(new Transaction(params));
+        Broadcast first = broadcaster.take();
+        List<Transaction> txns = createTransactions(7);
+        broadcast(txns);
+        List<Broadcast> sent = new ArrayList<Broadcast>();
+        for (int i = 0; i < txns.size(); i++)
+            sent.add(broadcaster.take());
+        for (int i = 0; i < txns.size(); i++)
+            assertSame(txns.get(i), sent.get(i).tx);
+        // Batches of 3, 3 and 1, at least an interval apart. Within a batch the transactions are passed on together.
+        assertTrue(sent.get(0).timeMillis - first.timeMillis >= INTERVAL_MILLIS - 20);
+        assertTrue(sent.get(2).timeMillis - sent.get(0).timeMillis < INTERVAL_MILLIS);
+        assertTrue(sent.get(3).timeMillis - sent.get(2).timeMillis >= INTERVAL_MILLIS - 20);
+        assertTrue(sent.get(6).timeMillis - sent.get(5).timeMillis >= INTERVAL_MILLIS - 20);
+        assertEquals(8, queue.getBroadcastCount());
+        assertEquals(0, queue.getQueueSize());
+        assertTrue(broadcaster.broadcasts.isEmpty());
+    }
+
+    @Test
+    public void futuresCompleteWithTheBroadcast() throws Exception {
+        List<Transaction> txns = createTransactions(2);
+        List<ListenableFuture<Transaction>> futures = broadcast(txns);
+        Broadcast succeeds = broadcaster.take();
+        Broadcast fails = broadcaster.take();
+        assertFalse(futures.get(0).isDone());
+        assertFalse(futures.get(1).isDone());
+
+        succeeds.future.set(succeeds.tx);
+        assertSame(txns.get(0), futures.get(0).get(1, TimeUnit.SECONDS));
+        RuntimeException failure = new RuntimeException("expected");
+        fails.future.setException(failure);
+        try {
+            futures.get(1).get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertEquals(1, queue.getFailureCount());
+    }
+
+    @Test
+    public void broadcasterExceptionFailsTheFuture() throws Exception {
+        final RuntimeException failure = new RuntimeException("expected");
+        SettlementQueue failing = new SettlementQueue(new TransactionBroadcaster() {
+            @Override
+            public ListenableFuture<Transaction> broadcastTransaction(Transaction tx) {
+                throw failure;
+            }
+        });
+        try {
+            failing.broadcastTransaction(new Transaction(params)).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        } finally {
+            failing.shutdown();
+        }
+        assertEquals(1, failing.getFailureCount());
+    }
+
+    @Test
+    public void shutdownFailsQueuedTransactions() throws Exception {
+        queue.broadcastTransaction(new Transaction(params));
+        broadcaster.take();
+        List<Transaction> txns = createTransactions(5);
+        List<ListenableFuture<Transaction>> futures = broadcast(txns);
+        for (int i = 0; i < 3; i++)
+            broadcaster.take();
+        // The next batch waits for the interval, so it is still queued.
+        queue.shutdown();
+        assertEquals(0, queue.getQueueSize());
+        for (ListenableFuture<Transaction> future : futures.subList(0, 3))
+            assertFalse(future.isDone());
+        for (ListenableFuture<Transaction> future : futures.subList(3, 5)) {
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        try {
+            queue.broadcastTransaction(new Transaction(params)).get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Thread.sleep(INTERVAL_MILLIS * 2);
+        assertTrue(broadcaster.broadcasts.isEmpty());
+        assertEquals(4, queue.getBroadcastCount());
+    }
+}
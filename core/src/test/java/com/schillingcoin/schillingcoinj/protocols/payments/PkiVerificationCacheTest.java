@@ -0,0 +1,238 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.protocols.payments;
+
+import com.schillingcoin.schillingcoinj.core.Address;
+import com.schillingcoin.schillingcoinj.core.Coin;
+import com.schillingcoin.schillingcoinj.core.ECKey;
+import com.schillingcoin.schillingcoinj.core.NetworkParameters;
+import com.schillingcoin.schillingcoinj.core.Utils;
+import com.schillingcoin.schillingcoinj.params.MainNetParams;
+import com.schillingcoin.schillingcoinj.protocols.payments.PaymentProtocol.PkiVerificationData;
+import com.schillingcoin.schillingcoinj.protocols.payments.PaymentProtocolException.PkiVerificationException;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spongycastle.asn1.ASN1Encoding;
+import org.spongycastle.asn1.ASN1EncodableVector;
+import org.spongycastle.asn1.ASN1Integer;
+import org.spongycastle.asn1.DERBitString;
+import org.spongycastle.asn1.DERNull;
+import org.spongycastle.asn1.DERSequence;
+import org.spongycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.spongycastle.asn1.x500.X500Name;
+import org.spongycastle.asn1.x509.AlgorithmIdentifier;
+import org.spongycastle.asn1.x509.BasicConstraints;
+import org.spongycastle.asn1.x509.Extension;
+import org.spongycastle.asn1.x509.ExtensionsGenerator;
+import org.spongycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.spongycastle.asn1.x509.TBSCertificate;
+import org.spongycastle.asn1.x509.Time;
+import org.spongycastle.asn1.x509.V3TBSCertificateGenerator;
+
+import java.io.ByteArrayInputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PkiVerificationCacheTest {
+    private static final NetworkParameters params = MainNetParams.get();
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static int serial;
+
+    private final Address address = new ECKey().toAddress(params);
+    private KeyPair rootKeys, merchantKeys;
+    private X509Certificate root, merchant;
+    private KeyStore trustStore;
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.setMockClock();
+        rootKeys = createKeyPair();
+        merchantKeys = createKeyPair();
+        root = createCertificate("CN=Test Root", rootKeys, "CN=Test Root", rootKeys.getPrivate(), true, 24 * HOUR_MILLIS);
+        merchant = createCertificate("CN=merchant.example.com", merchantKeys, "CN=Test Root", rootKeys.getPrivate(),
+                false, 24 * HOUR_MILLIS);
+        trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("root", root);
+    }
+
+    @After
+    public void tearDown() {
+        Utils.mockTime = null;
+    }
+
+    private static KeyPair createKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        return generator.generateKeyPair();
+    }
+
+    // Issues a certificate valid from a day ago until the given time from now.
+    private static X509Certificate createCertificate(String subject, KeyPair subjectKeys, String issuer,
+                                                     PrivateKey issuerKey, boolean ca, long validForMillis)
+            throws Exception {
+        AlgorithmIdentifier algorithm = new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption,
+                DERNull.INSTANCE);
+        long now = System.currentTimeMillis();
+        V3TBSCertificateGenerator generator = new V3TBSCertificateGenerator();
+        generator.setSerialNumber(new ASN1Integer(++serial));
+        generator.setIssuer(new X500Name(issuer));
+        generator.setSubject(new X500Name(subject));
+        generator.setStartDate(new Time(new Date(now - 24 * HOUR_MILLIS)));
+        generator.setEndDate(new Time(new Date(now + validForMillis)));
+        generator.setSubjectPublicKeyInfo(SubjectPublicKeyInfo.getInstance(subjectKeys.getPublic().getEncoded()));
+        generator.setSignature(algorithm);
+        if (ca) {
+            ExtensionsGenerator extensions = new ExtensionsGenerator();
+            extensions.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+            generator.setExtensions(extensions.generate());
+        }
+        TBSCertificate tbs = generator.generateTBSCertificate();
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(issuerKey);
+        signature.update(tbs.getEncoded(ASN1Encoding.DER));
+        ASN1EncodableVector certificate = new ASN1EncodableVector();
+        certificate.add(tbs);
+        certificate.add(algorithm);
+        certificate.add(new DERBitString(signature.sign()));
+        byte[] encoded = new DERSequence(certificate).getEncoded(ASN1Encoding.DER);
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(encoded));
+    }
+
+    private Protos.PaymentRequest createRequest(int amount, X509Certificate cert, PrivateKey key) {
+        Protos.PaymentRequest.Builder builder = PaymentProtocol.createPaymentRequest(params, Coin.valueOf(amount),
+                address, "order " + amount, null, null);
+        PaymentProtocol.signPaymentRequest(builder, new X509Certificate[] { cert }, key);
+        return builder.build();
+    }
+
+    private Protos.PaymentRequest createRequest(int amount) {
+        return createRequest(amount, merchant, merchantKeys.getPrivate());
+    }
+
+    @Test
+    public void hitsAndMisses() throws Exception {
+        PkiVerificationCache cache = new PkiVerificationCache(trustStore, TTL_MILLIS, 10);
+        assertEquals(1, cache.getTrustAnchorCount());
+        PkiVerificationData first = PaymentProtocol.verifyPaymentRequestPki(createRequest(1), cache);
+        assertEquals("merchant.example.com", first.displayName);
+        assertEquals(root, first.rootAuthority.getTrustedCert());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // A different request with the same certificate chain is answered from the cache.
+        assertSame(first, PaymentProtocol.verifyPaymentRequestPki(createRequest(2), cache));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.invalidateAll();
+        PkiVerificationData again = PaymentProtocol.verifyPaymentRequestPki(createRequest(3), cache);
+        assertNotSame(first, again);
+        assertEquals("merchant.example.com", again.displayName);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void chainExpiresAfterTtl() throws Exception {
+        PkiVerificationCache cache = new PkiVerificationCache(trustStore, TTL_MILLIS, 10);
+        PaymentProtocol.verifyPaymentRequestPki(createRequest(1), cache);
+        Utils.rollMockClockMillis(TTL_MILLIS - 1000);
+        PaymentProtocol.verifyPaymentRequestPki(createRequest(2), cache);
+        assertEquals(1, cache.getHitCount());
+
+        Utils.rollMockClockMillis(2000);
+        PaymentProtocol.verifyPaymentRequestPki(createRequest(3), cache);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void chainExpiresWithCertificate() throws Exception {
+        // The merchant certificate expires long before the time to live passes.
+        X509Certificate shortLived = createCertificate("CN=merchant.example.com", merchantKeys, "CN=Test Root",
+                rootKeys.getPrivate(), false, HOUR_MILLIS);
+        PkiVerificationCache cache = new PkiVerificationCache(trustStore, 24 * HOUR_MILLIS, 10);
+        Protos.PaymentRequest request = createRequest(1, shortLived, merchantKeys.getPrivate());
+        PaymentProtocol.verifyPaymentRequestPki(request, cache);
+        PaymentProtocol.verifyPaymentRequestPki(request, cache);
+        assertEquals(1, cache.getHitCount());
+
+        Utils.rollMockClockMillis(2 * HOUR_MILLIS);
+        assertNull(cache.get(PkiVerificationCache.fingerprint(request.getPkiData())));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void createParametersFallsBackToAllAnchors() throws Exception {
+        KeyPair otherKeys = createKeyPair();
+        X509Certificate otherRoot = createCertificate("CN=Other Root", otherKeys, "CN=Other Root",
+                otherKeys.getPrivate(), true, 24 * HOUR_MILLIS);
+        trustStore.setCertificateEntry("other", otherRoot);
+        PkiVerificationCache cache = new PkiVerificationCache(trustStore, TTL_MILLIS, 10);
+        assertEquals(2, cache.getTrustAnchorCount());
+
+        // Only the root named as issuer is trusted for a chain it could have issued.
+        PKIXParameters parameters = cache.createParameters(ImmutableList.of(merchant));
+        assertEquals(1, parameters.getTrustAnchors().size());
+        assertEquals(root, parameters.getTrustAnchors().iterator().next().getTrustedCert());
+
+        // Otherwise every root is tried.
+        X509Certificate unknownIssuer = createCertificate("CN=merchant.example.com", merchantKeys, "CN=Unknown Root",
+                otherKeys.getPrivate(), false, 24 * HOUR_MILLIS);
+        parameters = cache.createParameters(ImmutableList.of(unknownIssuer));
+        assertEquals(2, parameters.getTrustAnchors().size());
+        for (TrustAnchor anchor : parameters.getTrustAnchors())
+            assertTrue(anchor.getTrustedCert().equals(root) || anchor.getTrustedCert().equals(otherRoot));
+    }
+
+    @Test
+    public void tamperedRequestWithCachedChainFails() throws Exception {
+        PkiVerificationCache cache = new PkiVerificationCache(trustStore, TTL_MILLIS, 10);
+        Protos.PaymentRequest request = createRequest(1);
+        PaymentProtocol.verifyPaymentRequestPki(request, cache);
+
+        // The chain is trusted from the cache, but the signature must still cover the payment details.
+        Protos.PaymentRequest tampered = request.toBuilder()
+                .setSerializedPaymentDetails(createRequest(1000).getSerializedPaymentDetails())
+                .build();
+        try {
+            PaymentProtocol.verifyPaymentRequestPki(tampered, cache);
+            fail();
+        } catch (PkiVerificationException e) {
+            assertEquals("Invalid signature, this payment request is not valid.", e.getMessage());
+        }
+        assertEquals(1, cache.getHitCount());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class HashedTimerWheelTest {
+    @Test
+    public void runsTasksAfterTheirDeadline() throws Exception {
+        // Few buckets, so tasks share buckets with tasks due in later turns.
+        HashedTimerWheel wheel = new HashedTimerWheel("test wheel", 10, 4);
+        final CountDownLatch done = new CountDownLatch(50);
+        final AtomicLong early = new AtomicLong();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            final long deadline = now + i * 7;
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (System.currentTimeMillis() < deadline)
+                        early.incrementAndGet();
+                    done.countDown();
+                }
+            }, deadline);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, early.get());
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    @Test
+    public void cancelledTasksDoNotRun() throws Exception {
+        HashedTimerWheel wheel = new HashedTimerWheel("test wheel", 10, 16);
+        final CountDownLatch cancelledRan = new CountDownLatch(1);
+        final CountDownLatch laterRan = new CountDownLatch(1);
+        long now = System.currentTimeMillis();
+        HashedTimerWheel.Timeout timeout = wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancelledRan.countDown();
+            }
+        }, now + 50);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                laterRan.countDown();
+            }
+        }, now + 100);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(laterRan.await(10, TimeUnit.SECONDS));
+        assertEquals(1, cancelledRan.getCount());
+    }
+
+    @Test
+    public void exceptionDoesNotStopTheWheel() throws Exception {
+        HashedTimerWheel wheel = new HashedTimerWheel("test wheel", 10, 16);
+        final CountDownLatch done = new CountDownLatch(1);
+        long now = System.currentTimeMillis();
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("expected");
+            }
+        }, now);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        }, now + 30);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void interruptedThreadIsReplaced() throws Exception {
+        HashedTimerWheel wheel = new HashedTimerWheel("test wheel", 10, 16);
+        final AtomicReference<Thread> interrupted = new AtomicReference<Thread>();
+        final CountDownLatch interruptedRan = new CountDownLatch(1);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                interrupted.set(Thread.currentThread());
+                Thread.currentThread().interrupt();
+                interruptedRan.countDown();
+            }
+        }, System.currentTimeMillis());
+        assertTrue(interruptedRan.await(10, TimeUnit.SECONDS));
+        interrupted.get().join(10000);
+        assertFalse(interrupted.get().isAlive());
+
+        final AtomicReference<Thread> replacement = new AtomicReference<Thread>();
+        final CountDownLatch done = new CountDownLatch(1);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                replacement.set(Thread.currentThread());
+                done.countDown();
+            }
+        }, System.currentTimeMillis() + 20);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNotSame(interrupted.get(), replacement.get());
+        assertEquals(0, wheel.getPendingCount());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import com.schillingcoin.schillingcoinj.core.MemoryPool;
+import com.schillingcoin.schillingcoinj.core.PeerAddress;
+import com.schillingcoin.schillingcoinj.core.Sha256Hash;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+    @After
+    public void tearDown() {
+        Threading.setLockProfiling(false);
+        Metrics.setEnabled(false);
+    }
+
+    @Test
+    public void disabledRecordsNothing() {
+        Metrics.Counter counter = Metrics.counter("test.disabled");
+        counter.increment();
+        Metrics.histogram("test.disabledHistogram").recordSince(Metrics.startTimer());
+        assertEquals(0, counter.getCount());
+        assertEquals(0, Metrics.histogram("test.disabledHistogram").getCount());
+    }
+
+    @Test
+    public void counterAndGauge() {
+        Metrics.setEnabled(true);
+        Metrics.Counter counter = Metrics.counter("test.counter");
+        counter.reset();
+        counter.increment();
+        counter.add(2);
+        assertSame(counter, Metrics.counter("test.counter"));
+        assertEquals(3, counter.getCount());
+
+        Metrics.Gauge gauge = Metrics.gauge("test.gauge");
+        gauge.set(5);
+        gauge.add(-2);
+        assertEquals(3, gauge.getValue());
+        assertTrue(Metrics.dump().contains("test.gauge: 3\n"));
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        Metrics.setEnabled(true);
+        Metrics.Histogram histogram = Metrics.histogram("test.histogram");
+        histogram.reset();
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i);
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertEquals(100, histogram.getMax());
+        // Rounded up to the end of the power of two bucket.
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+        assertEquals(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void lockProfiling() {
+        Threading.setLockProfiling(true);
+        ReentrantLock lock = Threading.lock("test-profiled");
+        assertTrue(lock instanceof MeteredLock);
+        Metrics.reset();
+        lock.lock();
+        lock.lock();
+        lock.unlock();
+        lock.unlock();
+        assertTrue(lock.tryLock());
+        lock.unlock();
+        assertEquals(2, Metrics.counter("lock.test-profiled.acquisitions").getCount());
+        assertEquals(0, Metrics.counter("lock.test-profiled.contended").getCount());
+        assertEquals(2, Metrics.histogram("lock.test-profiled.waitMicros").getCount());
+        assertEquals(2, Metrics.histogram("lock.test-profiled.holdMicros").getCount());
+
+        Threading.setLockProfiling(false);
+        assertFalse(Threading.lock("test-unprofiled") instanceof MeteredLock);
+    }
+
+    @Test(timeout = 10000)
+    public void readWriteLockProfiling() throws Exception {
+        Threading.setLockProfiling(true);
+        final ReentrantReadWriteLock lock = Threading.readWriteLock("test-profiled-rw");
+        assertTrue(lock instanceof MeteredReadWriteLock);
+        Metrics.reset();
+        lock.readLock().lock();
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        lock.writeLock().unlock();
+        assertEquals(2, Metrics.counter("lock.test-profiled-rw.read.acquisitions").getCount());
+        assertEquals(2, Metrics.histogram("lock.test-profiled-rw.read.holdMicros").getCount());
+        assertEquals(1, Metrics.counter("lock.test-profiled-rw.write.acquisitions").getCount());
+        assertEquals(1, Metrics.histogram("lock.test-profiled-rw.write.holdMicros").getCount());
+
+        // A writer has to wait for the reader.
+        lock.readLock().lock();
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                waiting.countDown();
+                lock.writeLock().lock();
+                lock.writeLock().unlock();
+            }
+        };
+        writer.start();
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        while (!lock.hasQueuedThreads())
+            Thread.sleep(10);
+        lock.readLock().unlock();
+        writer.join();
+        assertEquals(2, Metrics.counter("lock.test-profiled-rw.write.acquisitions").getCount());
+        assertEquals(1, Metrics.counter("lock.test-profiled-rw.write.contended").getCount());
+        assertEquals(0, Metrics.counter("lock.test-profiled-rw.read.contended").getCount());
+
+        // The memory pool's lock is profiled too.
+        MemoryPool pool = new MemoryPool();
+        pool.seen(Sha256Hash.ZERO_HASH, new PeerAddress(InetAddress.getByName("127.0.0.1"), 2000));
+        assertTrue(pool.maybeWasSeen(Sha256Hash.ZERO_HASH));
+        assertTrue(Metrics.counter("lock.mempool.write.acquisitions").getCount() > 0);
+        assertTrue(Metrics.counter("lock.mempool.read.acquisitions").getCount() > 0);
+
+        Threading.setLockProfiling(false);
+        assertFalse(Threading.readWriteLock("test-unprofiled-rw") instanceof MeteredReadWriteLock);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nameClash() {
+        Metrics.counter("test.clash");
+        Metrics.histogram("test.clash");
+    }
+}
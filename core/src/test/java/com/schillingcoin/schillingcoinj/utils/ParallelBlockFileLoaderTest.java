@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import com.schillingcoin.schillingcoinj.core.Address;
+import com.schillingcoin.schillingcoinj.core.Block;
+import com.schillingcoin.schillingcoinj.core.ECKey;
+import com.schillingcoin.schillingcoinj.core.NetworkParameters;
+import com.schillingcoin.schillingcoinj.core.Utils;
+import com.schillingcoin.schillingcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ParallelBlockFileLoaderTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    // Writes the blocks in the reference client format, with some padding in front like a preallocated file.
+    private static File writeBlockFile(List<Block> blocks) throws IOException {
+        File file = File.createTempFile("blk", ".dat");
+        file.deleteOnExit();
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(new byte[7]);
+            for (Block block : blocks) {
+                byte[] bytes = block.serialize();
+                byte[] header = new byte[8];
+                Utils.uint32ToByteArrayBE(params.getPacketMagic(), header, 0);
+                Utils.uint32ToByteArrayLE(bytes.length, header, 4);
+                stream.write(header);
+                stream.write(bytes);
+            }
+        } finally {
+            stream.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void returnsBlocksInFileOrder() throws Exception {
+        Address to = new ECKey().toAddress(params);
+        List<Block> blocks = new ArrayList<Block>();
+        Block block = params.getGenesisBlock();
+        for (int i = 0; i < 100; i++) {
+            block = block.createNextBlock(to);
+            blocks.add(block);
+        }
+        List<File> files = Arrays.asList(writeBlockFile(blocks.subList(0, 60)), writeBlockFile(blocks.subList(60, 100)));
+
+        ParallelBlockFileLoader loader = new ParallelBlockFileLoader(params, files, 3, 4);
+        List<Block> loaded = new ArrayList<Block>();
+        for (Block b : loader)
+            loaded.add(b);
+        assertEquals(blocks, loaded);
+        assertEquals(2, loader.getStats().files);
+        assertEquals(100, loader.getStats().blocksReturned);
+        assertEquals(0, loader.getStats().recordsSkipped);
+
+        // Same result as the sequential loader.
+        List<Block> sequential = new ArrayList<Block>();
+        for (Block b : new BlockFileLoader(params, files))
+            sequential.add(b);
+        assertEquals(sequential, loaded);
+    }
+
+    @Test
+    public void close() throws Exception {
+        Address to = new ECKey().toAddress(params);
+        List<Block> blocks = new ArrayList<Block>();
+        Block block = params.getGenesisBlock();
+        for (int i = 0; i < 20; i++) {
+            block = block.createNextBlock(to);
+            blocks.add(block);
+        }
+        ParallelBlockFileLoader loader = new ParallelBlockFileLoader(params, Arrays.asList(writeBlockFile(blocks)), 2, 2);
+        assertEquals(blocks.get(0), loader.next());
+        loader.close();
+        assertFalse(loader.hasNext());
+    }
+
+    @Test(timeout = 10000)
+    public void readerFailureIsThrownByIterator() throws Exception {
+        Address to = new ECKey().toAddress(params);
+        List<Block> blocks = new ArrayList<Block>();
+        Block block = params.getGenesisBlock();
+        for (int i = 0; i < 5; i++) {
+            block = block.createNextBlock(to);
+            blocks.add(block);
+        }
+        // The reader fails on the second file, after queueing the blocks of the first.
+        ParallelBlockFileLoader loader = new ParallelBlockFileLoader(params, Arrays.asList(writeBlockFile(blocks), null),
+                2, 2);
+        for (Block b : blocks)
+            assertEquals(b, loader.next());
+        try {
+            loader.hasNext();
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+        assertFalse(loader.hasNext());
+    }
+}
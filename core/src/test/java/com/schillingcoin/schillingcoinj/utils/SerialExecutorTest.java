@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SerialExecutorTest {
+    @Test
+    public void runsTasksInOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SerialExecutor executor = new SerialExecutor(pool);
+            final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+            final CountDownLatch done = new CountDownLatch(1000);
+            for (int i = 0; i < 1000; i++) {
+                final int n = i;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        results.add(n);
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 1000; i++)
+                assertEquals(i, (int) results.get(i));
+            assertEquals(0, executor.getQueueSize());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void exceptionDoesNotStopLaterTasks() throws Exception {
+        SerialExecutor executor = new SerialExecutor(Threading.SAME_THREAD);
+        final boolean[] ran = new boolean[1];
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("expected");
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = true;
+            }
+        });
+        assertTrue(ran[0]);
+    }
+}
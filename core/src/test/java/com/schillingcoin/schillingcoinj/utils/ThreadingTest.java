@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 the schillingcoinj developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.schillingcoin.schillingcoinj.utils;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ThreadingTest {
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private static void waitForQueueSize(Threading.UserThread thread, int size) throws InterruptedException {
+        for (int i = 0; i < 100 && thread.getQueueSize() > size; i++)
+            Thread.sleep(50);
+        assertEquals(size, thread.getQueueSize());
+    }
+
+    // Queues a task which doesn't finish until the returned latch is counted down, and waits for it to start.
+    private static CountDownLatch block(Threading.UserThread thread) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        thread.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    @Test(timeout = 10000)
+    public void producerWaitsForSpace() throws Exception {
+        final Threading.UserThread thread = new Threading.UserThread(2);
+        CountDownLatch release = block(thread);
+        thread.execute(NOTHING);
+        thread.execute(NOTHING);
+        final CountDownLatch queued = new CountDownLatch(1);
+        new Thread() {
+            @Override
+            public void run() {
+                thread.execute(NOTHING);
+                queued.countDown();
+            }
+        }.start();
+        assertFalse(queued.await(Threading.UserThread.MAX_WAIT_MILLIS / 2, TimeUnit.MILLISECONDS));
+        assertEquals(2, thread.getQueueSize());
+
+        // Space is made well before the producer would give up.
+        release.countDown();
+        assertTrue(queued.await(Threading.UserThread.MAX_WAIT_MILLIS / 4, TimeUnit.MILLISECONDS));
+        waitForQueueSize(thread, 0);
+        assertFalse(thread.isOverflowing());
+    }
+
+    @Test(timeout = 10000)
+    public void producerGivesUpAfterMaxWait() throws Exception {
+        Threading.UserThread thread = new Threading.UserThread(4);
+        // A listener which is stuck, for example on a lock the producer holds.
+        CountDownLatch release = block(thread);
+        for (int i = 0; i < 4; i++)
+            thread.execute(NOTHING);
+        long start = System.nanoTime();
+        thread.execute(NOTHING);
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waitedMillis >= Threading.UserThread.MAX_WAIT_MILLIS - 50);
+        assertTrue(thread.isOverflowing());
+
+        // Nobody waits again until the queue has drained to half its capacity.
+        start = System.nanoTime();
+        for (int i = 0; i < 10; i++)
+            thread.execute(NOTHING);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < Threading.UserThread.MAX_WAIT_MILLIS / 2);
+        assertEquals(15, thread.getQueueSize());
+        release.countDown();
+        waitForQueueSize(thread, 0);
+        assertFalse(thread.isOverflowing());
+    }
+
+    @Test(timeout = 10000)
+    public void userThreadNeverWaitsForItself() throws Exception {
+        final Threading.UserThread thread = new Threading.UserThread(2);
+        final CountDownLatch done = new CountDownLatch(1);
+        final long[] tookMillis = new long[1];
+        thread.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                for (int i = 0; i < 10; i++)
+                    thread.execute(NOTHING);
+                tookMillis[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(tookMillis[0] < Threading.UserThread.MAX_WAIT_MILLIS / 2);
+        waitForQueueSize(thread, 0);
+        assertFalse(thread.isOverflowing());
+    }
+}
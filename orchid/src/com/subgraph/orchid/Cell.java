@@ -227,4 +227,11 @@ public interface Cell {
 	byte[] getCellBytes();
 
 	void putString(String string);
+
+	/**
+	 * Return the buffer holding this cell to the pool it was taken from, if any.  This should be called once the cell
+	 * has been completely consumed, after which the cell must not be used again.  Calling this method on a cell which
+	 * was not allocated from a pool, or more than once, has no effect.
+	 */
+	void release();
 }
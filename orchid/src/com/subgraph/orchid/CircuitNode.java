@@ -23,7 +23,9 @@ public interface CircuitNode {
 
 	/**
 	 * Return the current 'forward' running digest value for this 
-	 * node as an array of <code>TOR_DIGEST_SIZE</code> bytes.
+	 * node as an array of <code>TOR_DIGEST_SIZE</code> bytes.  The array
+	 * may be reused, so the value must be copied before the digest is
+	 * next updated.
 	 * 
 	 * @return The current 'forward' running digest value for this node.
 	 */
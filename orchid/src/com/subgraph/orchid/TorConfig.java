@@ -45,6 +45,10 @@ public interface TorConfig {
 	int getMaxClientCircuitsPending();
 	void setMaxClientCircuitsPending(int value);
 	
+	@ConfigVar(type=ConfigVarType.INTEGER, defaultValue="6")
+	int getMaxPredictedCircuitsPerPort();
+	void setMaxPredictedCircuitsPerPort(int value);
+	
 	@ConfigVar(type=ConfigVarType.BOOLEAN, defaultValue="true")
 	boolean getEnforceDistinctSubnets();
 	void setEnforceDistinctSubnets(boolean value);
@@ -118,6 +122,10 @@ public interface TorConfig {
 	boolean getHandshakeV2Enabled();
 	void setHandshakeV2Enabled(boolean value);
 	
+	@ConfigVar(type=ConfigVarType.BOOLEAN, defaultValue="false")
+	boolean getUseNioTransport();
+	void setUseNioTransport(boolean value);
+	
 	@ConfigVar(type=ConfigVarType.HS_AUTH)
 	HSDescriptorCookie getHidServAuth(String key);
 	void addHidServAuth(String key, String value);
@@ -1,6 +1,7 @@
 package com.subgraph.orchid.circuits;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -27,7 +28,6 @@ import com.subgraph.orchid.data.exitpolicy.ExitTarget;
 public class CircuitCreationTask implements Runnable {
 	private final static Logger logger = Logger.getLogger(CircuitCreationTask.class.getName());
 	private final static int MAX_CIRCUIT_DIRTINESS = 300; // seconds
-	private final static int MAX_PENDING_CIRCUITS = 4;
 
 	private final TorConfig config;
 	private final Directory directory;
@@ -141,7 +141,11 @@ public class CircuitCreationTask implements Runnable {
 		maybeBuildInternalCircuit();
 	}
 
-	private void buildCircuitIfNeeded() {
+	/*
+	 * Called from the scheduled task and from the build handler of failed circuits, synchronized so that both do not
+	 * launch circuits for the same shortfall.
+	 */
+	private synchronized void buildCircuitIfNeeded() {
 		if (connectionCache.isClosed()) {
 			logger.warning("Not building circuits, because connection cache is closed");
 			return;
@@ -155,12 +159,15 @@ public class CircuitCreationTask implements Runnable {
 				exitTargets.add(streamRequest);
 			}
 		}
+		// A predicted port appears once for every clean circuit missing to meet the recent demand for the port
+		final int maxPerPort = config.getMaxPredictedCircuitsPerPort();
 		for(PredictedPortTarget ppt: predictedPorts) {
-			if(countCircuitsSupportingTarget(ppt, true) < 2) {
+			final int missing = predictor.getPredictedCircuitCount(ppt.getPort(), maxPerPort) - countCircuitsSupportingTarget(ppt, true);
+			for(int i = 0; i < missing; i++) {
 				exitTargets.add(ppt);
 			}
 		}
-		buildCircuitToHandleExitTargets(exitTargets);
+		buildCircuitsToHandleExitTargets(exitTargets);
 	}
 
 	private void maybeBuildInternalCircuit() {
@@ -195,33 +202,98 @@ public class CircuitCreationTask implements Runnable {
 		return circuitManager.getCircuitsByFilter(filter).size();
 	}
 
-	private void buildCircuitToHandleExitTargets(List<ExitTarget> exitTargets) {
+	/*
+	 * Launch circuits until every target is handled by one of them, or the number of circuits being built
+	 * reaches MaxClientCircuitsPending.  The circuits are built concurrently on the worker pool.
+	 */
+	private void buildCircuitsToHandleExitTargets(List<ExitTarget> exitTargets) {
 		if(exitTargets.isEmpty()) {
 			return;
 		}
 		if(!directory.haveMinimumRouterInfo()) 
 			return;
-		if(circuitManager.getPendingCircuitCount() >= MAX_PENDING_CIRCUITS)
+		int available = config.getMaxClientCircuitsPending() - circuitManager.getPendingCircuitCount();
+		if(available <= 0)
 			return;
 
 		if(logger.isLoggable(Level.FINE)) { 
-			logger.fine("Building new circuit to handle "+ exitTargets.size() +" pending streams and predicted ports");
+			logger.fine("Building new circuits to handle "+ exitTargets.size() +" pending streams and predicted ports");
 		}
 
-		launchBuildTaskForTargets(exitTargets);
+		launchCircuitsForTargets(exitTargets, available, new ExitCircuitLauncher() {
+			public Router launchCircuitForTargets(List<ExitTarget> targets) {
+				return launchBuildTaskForTargets(targets);
+			}
+		});
+	}
+
+	interface ExitCircuitLauncher {
+		/** Launch a circuit for some of <code>targets</code> and return its exit router, or null if none was launched. */
+		Router launchCircuitForTargets(List<ExitTarget> targets);
+	}
+
+	/*
+	 * Launch at most <code>available</code> circuits, removing the targets each one will handle, and return the
+	 * number launched.  Stops early when no exit router is found or a circuit would not handle any remaining target.
+	 */
+	static int launchCircuitsForTargets(List<ExitTarget> exitTargets, int available, ExitCircuitLauncher launcher) {
+		int launched = 0;
+		while(!exitTargets.isEmpty() && launched < available) {
+			final Router exitRouter = launcher.launchCircuitForTargets(exitTargets);
+			if(exitRouter == null) {
+				break;
+			}
+			launched += 1;
+			if(!removeHandledTargets(exitTargets, exitRouter)) {
+				break;
+			}
+		}
+		return launched;
 	}
 
-	private void launchBuildTaskForTargets(List<ExitTarget> exitTargets) {
+	/*
+	 * Remove the targets a circuit to exitRouter will handle, only one entry for each predicted port since
+	 * predicted ports are listed once for every circuit needed.
+	 */
+	private static boolean removeHandledTargets(List<ExitTarget> exitTargets, Router exitRouter) {
+		final Set<Integer> predictedPortsHandled = new HashSet<Integer>();
+		boolean removed = false;
+		final Iterator<ExitTarget> it = exitTargets.iterator();
+		while(it.hasNext()) {
+			final ExitTarget target = it.next();
+			if(target instanceof PredictedPortTarget) {
+				if(exitRouter.exitPolicyAccepts(target.getPort()) && predictedPortsHandled.add(target.getPort())) {
+					it.remove();
+					removed = true;
+				}
+			} else if(routerHandlesTarget(exitRouter, target)) {
+				it.remove();
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	private static boolean routerHandlesTarget(Router router, ExitTarget target) {
+		if(target.isAddressTarget()) {
+			return router.exitPolicyAccepts(target.getAddress(), target.getPort());
+		} else {
+			return router.exitPolicyAccepts(target.getPort());
+		}
+	}
+
+	private Router launchBuildTaskForTargets(List<ExitTarget> exitTargets) {
 		final Router exitRouter = pathChooser.chooseExitNodeForTargets(exitTargets);
 		if(exitRouter == null) {
 			logger.warning("Failed to select suitable exit node for targets");
-			return;
+			return null;
 		}
 		
 		final Circuit circuit = circuitManager.createNewExitCircuit(exitRouter);
 		final CircuitCreationRequest request = new CircuitCreationRequest(pathChooser, circuit, buildHandler, false);
 		final CircuitBuildTask task = new  CircuitBuildTask(request, connectionCache, circuitManager.isNtorEnabled(), initializationTracker);
 		executor.execute(task);
+		return exitRouter;
 	}
 
 	private CircuitBuildHandler createCircuitBuildHandler() {
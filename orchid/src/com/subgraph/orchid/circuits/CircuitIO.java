@@ -21,6 +21,7 @@ import com.subgraph.orchid.RelayCell;
 import com.subgraph.orchid.Stream;
 import com.subgraph.orchid.Threading;
 import com.subgraph.orchid.TorException;
+import com.subgraph.orchid.circuits.cells.CellBufferPool;
 import com.subgraph.orchid.circuits.cells.CellImpl;
 import com.subgraph.orchid.circuits.cells.RelayCellImpl;
 import com.subgraph.orchid.dashboard.DashboardRenderable;
@@ -180,6 +181,8 @@ public class CircuitIO implements DashboardRenderable {
 			// will send a RELAY_END for this stream.
 			if(stream != null) {
 				stream.addInputCell(cell);
+			} else {
+				cell.release();
 			}
 		} finally {
 			streamLock.unlock();
@@ -187,6 +190,9 @@ public class CircuitIO implements DashboardRenderable {
 	}
 	
 	RelayCell createRelayCell(int relayCommand, int streamId, CircuitNode targetNode) {
+		if(relayCommand == RelayCell.RELAY_SENDME) {
+			return new RelayCellImpl(targetNode, circuitId, streamId, relayCommand, CellBufferPool.getDefault());
+		}
 		return new RelayCellImpl(targetNode, circuitId, streamId, relayCommand);
 	}
 
@@ -207,6 +213,8 @@ public class CircuitIO implements DashboardRenderable {
 			sendCell(cell);
 		} finally {
 			relaySendLock.unlock();
+			/* Cells are not used after sending, give pooled (RELAY_DATA, RELAY_SENDME) buffers back */
+			cell.release();
 		}
 	}
 	
@@ -286,6 +294,7 @@ public class CircuitIO implements DashboardRenderable {
 
 	private void processCircuitSendme(RelayCell cell) {
 		cell.getCircuitNode().incrementSendWindow();
+		cell.release();
 	}
 
 	void destroyCircuit() {
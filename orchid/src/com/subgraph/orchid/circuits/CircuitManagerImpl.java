@@ -14,6 +14,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.subgraph.orchid.Circuit;
@@ -66,6 +67,7 @@ public class CircuitManagerImpl implements CircuitManager, DashboardRenderable {
 	private final CircuitPathChooser pathChooser;
 	private final HiddenServiceManager hiddenServiceManager;
 	private final ReentrantLock lock = Threading.lock("circuitManager");
+	private final AtomicBoolean isCreationTaskQueued = new AtomicBoolean();
 
 	private boolean isBuilding = false;
 
@@ -77,7 +79,11 @@ public class CircuitManagerImpl implements CircuitManager, DashboardRenderable {
 		if(config.getUseEntryGuards() || config.getUseBridges()) {
 			this.pathChooser.enableEntryGuards(new EntryGuards(config, connectionCache, directoryDownloader, directory));
 		}
-		this.pendingExitStreams = new PendingExitStreams(config);
+		this.pendingExitStreams = new PendingExitStreams(config, new Runnable() {
+			public void run() {
+				queueCircuitCreationTask();
+			}
+		});
 		this.circuitCreationTask = new CircuitCreationTask(config, directory, connectionCache, pathChooser, this, initializationTracker);
 		this.activeCircuits = new HashSet<CircuitImpl>();
 		this.cleanInternalCircuits = new LinkedList<InternalCircuit>();
@@ -99,6 +105,27 @@ public class CircuitManagerImpl implements CircuitManager, DashboardRenderable {
 		}
 	}
 
+	/*
+	 * Run the circuit creation task as soon as possible rather than waiting for the next periodic run, so that circuits
+	 * for a burst of new stream requests are launched immediately.  Requests made while a run is queued share it.
+	 */
+	private void queueCircuitCreationTask() {
+		lock.lock();
+		try {
+			if(!isBuilding || !isCreationTaskQueued.compareAndSet(false, true)) {
+				return;
+			}
+			scheduledExecutor.execute(new Runnable() {
+				public void run() {
+					isCreationTaskQueued.set(false);
+					circuitCreationTask.run();
+				}
+			});
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	public void stopBuildingCircuits(boolean killCircuits) {
 		lock.lock();
 		try {
@@ -221,7 +248,21 @@ public class CircuitManagerImpl implements CircuitManager, DashboardRenderable {
 		}
 		validateHostname(hostname);
 		circuitCreationTask.predictPort(port);
-		return pendingExitStreams.openExitStream(hostname, port);
+		final long start = System.currentTimeMillis();
+		final Stream stream = pendingExitStreams.openExitStream(hostname, port);
+		recordStreamOpened(start);
+		return stream;
+	}
+
+	private void recordStreamOpened(long startTime) {
+		circuitCreationTask.getCircuitPredictor().recordStreamOpened(System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Return the predictor which tracks recent exit stream demand and the time taken to open exit streams.
+	 */
+	public CircuitPredictor getCircuitPredictor() {
+		return circuitCreationTask.getCircuitPredictor();
 	}
 
 	private void validateHostname(String hostname) throws OpenFailedException {
@@ -249,7 +290,10 @@ public class CircuitManagerImpl implements CircuitManager, DashboardRenderable {
 			throws InterruptedException, TimeoutException, OpenFailedException {
 		maybeRejectInternalAddress(address);
 		circuitCreationTask.predictPort(port);
-		return pendingExitStreams.openExitStream(address, port);
+		final long start = System.currentTimeMillis();
+		final Stream stream = pendingExitStreams.openExitStream(address, port);
+		recordStreamOpened(start);
+		return stream;
 	}
 
 	public List<StreamExitRequest> getPendingExitStreams() {
@@ -3,22 +3,29 @@ package com.subgraph.orchid.circuits;
 import com.subgraph.orchid.Cell;
 import com.subgraph.orchid.RelayCell;
 import com.subgraph.orchid.crypto.TorMessageDigest;
+import com.subgraph.orchid.crypto.TorRunningDigest;
 import com.subgraph.orchid.crypto.TorStreamCipher;
 import com.subgraph.orchid.data.HexDigest;
 
 public class CircuitNodeCryptoState {
 	public final static int KEY_MATERIAL_SIZE = TorMessageDigest.TOR_DIGEST_SIZE * 2 + TorStreamCipher.KEY_LEN * 2;
+	private final static int RELAY_DIGEST_LEN = 4;
 	
 	public static CircuitNodeCryptoState createFromKeyMaterial(byte[] keyMaterial, byte[] verifyDigest) {
 		return new CircuitNodeCryptoState(keyMaterial, verifyDigest);
 	}
 	
 	private final HexDigest checksumDigest;
-	private final TorMessageDigest forwardDigest;
-	private final TorMessageDigest backwardDigest;
+	private final TorRunningDigest forwardDigest;
+	private final TorRunningDigest backwardDigest;
 	private final TorStreamCipher forwardCipher;
 	private final TorStreamCipher backwardCipher;
 	
+	/* Forward digest is only read while holding the relaySendLock of the circuit, cells for the backward digest arrive on one thread */
+	private final byte[] forwardDigestBytes = new byte[TorMessageDigest.TOR_DIGEST_SIZE];
+	private final byte[] backwardDigestBytes = new byte[RELAY_DIGEST_LEN];
+	private final byte[] relayDigestBytes = new byte[RELAY_DIGEST_LEN];
+	
 	static private byte[] extractDigestBytes(byte[] keyMaterial, int offset) {
 		final byte[] digestBytes = new byte[TorMessageDigest.TOR_DIGEST_SIZE];
 		System.arraycopy(keyMaterial, offset, digestBytes, 0, TorMessageDigest.TOR_DIGEST_SIZE);
@@ -35,11 +42,11 @@ public class CircuitNodeCryptoState {
 		checksumDigest = HexDigest.createFromDigestBytes(verifyDigest);
 		int offset = 0;
 		
-		forwardDigest = new TorMessageDigest();
+		forwardDigest = new TorRunningDigest();
 		forwardDigest.update(extractDigestBytes(keyMaterial, offset));
 		offset += TorMessageDigest.TOR_DIGEST_SIZE;
 
-		backwardDigest = new TorMessageDigest();
+		backwardDigest = new TorRunningDigest();
 		backwardDigest.update(extractDigestBytes(keyMaterial, offset));
 		offset += TorMessageDigest.TOR_DIGEST_SIZE;
 		
@@ -66,37 +73,43 @@ public class CircuitNodeCryptoState {
 		forwardDigest.update(cell.getCellBytes(), Cell.CELL_HEADER_LEN, Cell.CELL_PAYLOAD_LEN);
 	}
 	
+	/* Returns an array which is overwritten by the next call */
 	byte[] getForwardDigestBytes() {
-		return forwardDigest.getDigestBytes();
+		forwardDigest.getDigest(forwardDigestBytes, 0, forwardDigestBytes.length);
+		return forwardDigestBytes;
 	}
 	
+	/*
+	 * The cell is added to the running digest speculatively and the digest state is rolled back if the cell is not
+	 * recognized, so that a recognized cell is only hashed once.
+	 */
 	private boolean isRecognizedCell(Cell cell) {
 		if(cell.getShortAt(RelayCell.RECOGNIZED_OFFSET) != 0) 
 			return false;
 	
-		final byte[] digest = extractRelayDigest(cell);
-		final byte[] peek = backwardDigest.peekDigest(cell.getCellBytes(), Cell.CELL_HEADER_LEN, Cell.CELL_PAYLOAD_LEN);
-		for(int i = 0; i < 4; i++) 
-			if(digest[i] != peek[i]) {
-				replaceRelayDigest(cell, digest);
+		extractRelayDigest(cell);
+		backwardDigest.saveState();
+		backwardDigest.update(cell.getCellBytes(), Cell.CELL_HEADER_LEN, Cell.CELL_PAYLOAD_LEN);
+		backwardDigest.getDigest(backwardDigestBytes, 0, RELAY_DIGEST_LEN);
+		for(int i = 0; i < RELAY_DIGEST_LEN; i++) 
+			if(relayDigestBytes[i] != backwardDigestBytes[i]) {
+				backwardDigest.restoreState();
+				replaceRelayDigest(cell);
 				return false;
 			}
-		backwardDigest.update(cell.getCellBytes(), Cell.CELL_HEADER_LEN, Cell.CELL_PAYLOAD_LEN);
-		replaceRelayDigest(cell, digest);
+		replaceRelayDigest(cell);
 		return true;		
 	}
 	
-	private byte[] extractRelayDigest(Cell cell) {
-		final byte[] digest = new byte[4];
-		for(int i = 0; i < 4; i++) {
-			digest[i] = (byte) cell.getByteAt(i + RelayCell.DIGEST_OFFSET);
+	private void extractRelayDigest(Cell cell) {
+		for(int i = 0; i < RELAY_DIGEST_LEN; i++) {
+			relayDigestBytes[i] = (byte) cell.getByteAt(i + RelayCell.DIGEST_OFFSET);
 			cell.putByteAt(i + RelayCell.DIGEST_OFFSET, 0);
 		}
-		return digest;
 	}
 	
-	private void replaceRelayDigest(Cell cell, byte[] digest) {
-		for(int i = 0; i < 4; i++)
-			cell.putByteAt(i + RelayCell.DIGEST_OFFSET, digest[i] & 0xFF);	
+	private void replaceRelayDigest(Cell cell) {
+		for(int i = 0; i < RELAY_DIGEST_LEN; i++)
+			cell.putByteAt(i + RelayCell.DIGEST_OFFSET, relayDigestBytes[i] & 0xFF);	
 	}
 }
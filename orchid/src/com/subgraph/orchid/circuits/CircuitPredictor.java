@@ -15,22 +15,64 @@ import java.util.concurrent.TimeUnit;
 import com.subgraph.orchid.dashboard.DashboardRenderable;
 import com.subgraph.orchid.dashboard.DashboardRenderer;
 
+/**
+ * Tracks the ports which exit streams have recently been requested for, and how many requests have been made
+ * for each port recently, so that enough clean circuits can be built ahead of demand.  Also keeps statistics on
+ * how long it takes to open exit streams.
+ */
 public class CircuitPredictor implements DashboardRenderable {
 
 	private final static Integer INTERNAL_CIRCUIT_PORT_VALUE = 0;
 	private final static long TIMEOUT_MS = 60 * 60 * 1000; // One hour
 	
-	private final Map<Integer, Long> portsSeen;
+	/* Recent request counts decay by a factor of e every minute */
+	private final static double DEMAND_DECAY_MS = 60 * 1000;
+	/* Recent requests for a port which one clean circuit is expected to absorb */
+	private final static int REQUESTS_PER_PREDICTED_CIRCUIT = 4;
+	private final static int MINIMUM_PREDICTED_CIRCUITS = 2;
+	/* Weight of the newest sample in the recent stream open time average */
+	private final static double RECENT_OPEN_TIME_WEIGHT = 0.2;
+	
+	private static class PortDemand {
+		private long lastSeen;
+		private double recentRequests;
+		
+		void addRequest(long now) {
+			recentRequests = getRecentRequests(now) + 1;
+			lastSeen = now;
+		}
+		
+		double getRecentRequests(long now) {
+			return recentRequests * Math.exp(-(now - lastSeen) / DEMAND_DECAY_MS);
+		}
+	}
+	
+	private final Map<Integer, PortDemand> portsSeen;
+	
+	private final Object streamStatisticsLock = new Object();
+	private long streamsOpenedCount;
+	private long totalStreamOpenMilliseconds;
+	private long maximumStreamOpenMilliseconds;
+	private double recentStreamOpenMilliseconds;
 		
 	public CircuitPredictor() {
-		portsSeen = new HashMap<Integer,Long>();
+		portsSeen = new HashMap<Integer,PortDemand>();
 		addExitPortRequest(80);
 		addInternalRequest();
 	}
 	
 	void addExitPortRequest(int port) {
+		addExitPortRequest(port, System.currentTimeMillis());
+	}
+
+	void addExitPortRequest(int port, long now) {
 		synchronized (portsSeen) {
-			portsSeen.put(port, System.currentTimeMillis());
+			PortDemand demand = portsSeen.get(port);
+			if(demand == null) {
+				demand = new PortDemand();
+				portsSeen.put(port, demand);
+			}
+			demand.addRequest(now);
 		}
 	}
 	
@@ -39,13 +81,13 @@ public class CircuitPredictor implements DashboardRenderable {
 	}
 	
 	
-	private boolean isEntryExpired(Entry<Integer, Long> e, long now) {
-		return (now - e.getValue()) > TIMEOUT_MS;
+	private boolean isEntryExpired(Entry<Integer, PortDemand> e, long now) {
+		return (now - e.getValue().lastSeen) > TIMEOUT_MS;
 	}
 	
 	private void removeExpiredPorts() {
 		final long now = System.currentTimeMillis();
-		final Iterator<Entry<Integer, Long>> it = portsSeen.entrySet().iterator();
+		final Iterator<Entry<Integer, PortDemand>> it = portsSeen.entrySet().iterator();
 		while(it.hasNext()) {
 			if(isEntryExpired(it.next(), now)) {
 				it.remove();
@@ -77,6 +119,71 @@ public class CircuitPredictor implements DashboardRenderable {
 		return targets;
 	}
 
+	/**
+	 * Return the number of clean circuits which should be available for exit streams to <code>port</code>, based on
+	 * the number of recent requests for the port.  The result is at least 2 for a predicted port and at most
+	 * <code>maximum</code>.
+	 */
+	int getPredictedCircuitCount(int port, int maximum) {
+		return getPredictedCircuitCount(port, maximum, System.currentTimeMillis());
+	}
+
+	int getPredictedCircuitCount(int port, int maximum, long now) {
+		final double recentRequests;
+		synchronized (portsSeen) {
+			final PortDemand demand = portsSeen.get(port);
+			if(demand == null) {
+				return 0;
+			}
+			recentRequests = demand.getRecentRequests(now);
+		}
+		final int count = (int) Math.ceil(recentRequests / REQUESTS_PER_PREDICTED_CIRCUIT);
+		return Math.min(maximum, Math.max(MINIMUM_PREDICTED_CIRCUITS, count));
+	}
+
+	void recordStreamOpened(long milliseconds) {
+		synchronized (streamStatisticsLock) {
+			if(streamsOpenedCount == 0) {
+				recentStreamOpenMilliseconds = milliseconds;
+			} else {
+				recentStreamOpenMilliseconds += RECENT_OPEN_TIME_WEIGHT * (milliseconds - recentStreamOpenMilliseconds);
+			}
+			streamsOpenedCount += 1;
+			totalStreamOpenMilliseconds += milliseconds;
+			if(milliseconds > maximumStreamOpenMilliseconds) {
+				maximumStreamOpenMilliseconds = milliseconds;
+			}
+		}
+	}
+
+	/** Return the number of exit streams which have been opened successfully. */
+	public long getStreamsOpenedCount() {
+		synchronized (streamStatisticsLock) {
+			return streamsOpenedCount;
+		}
+	}
+
+	/** Return the average time in milliseconds from requesting an exit stream until it was opened. */
+	public long getAverageStreamOpenMilliseconds() {
+		synchronized (streamStatisticsLock) {
+			return (streamsOpenedCount == 0) ? 0 : (totalStreamOpenMilliseconds / streamsOpenedCount);
+		}
+	}
+
+	/** Return a moving average of the time to open exit streams, weighted towards the most recent streams. */
+	public long getRecentStreamOpenMilliseconds() {
+		synchronized (streamStatisticsLock) {
+			return (long) recentStreamOpenMilliseconds;
+		}
+	}
+
+	/** Return the longest time in milliseconds it has taken to open an exit stream. */
+	public long getMaximumStreamOpenMilliseconds() {
+		synchronized (streamStatisticsLock) {
+			return maximumStreamOpenMilliseconds;
+		}
+	}
+
 	public void dashboardRender(DashboardRenderer renderer, PrintWriter writer, int flags)
 			throws IOException {
 		
@@ -84,16 +191,20 @@ public class CircuitPredictor implements DashboardRenderable {
 			return;
 		}
 		writer.println("[Predicted Ports] ");
-		for(int port : portsSeen.keySet()) {
-			writer.write(" "+ port);
-			Long lastSeen = portsSeen.get(port);
-			if(lastSeen != null) {
-				long now = System.currentTimeMillis();
-				long ms = now - lastSeen;
-				writer.write(" (last seen "+ TimeUnit.MINUTES.convert(ms, TimeUnit.MILLISECONDS) +" minutes ago)");
+		synchronized (portsSeen) {
+			final long now = System.currentTimeMillis();
+			for(Entry<Integer, PortDemand> e : portsSeen.entrySet()) {
+				writer.write(" "+ e.getKey());
+				long ms = now - e.getValue().lastSeen;
+				writer.write(" (last seen "+ TimeUnit.MINUTES.convert(ms, TimeUnit.MILLISECONDS) +" minutes ago, ");
+				writer.write(String.format("%.1f recent requests)", e.getValue().getRecentRequests(now)));
+				writer.println();
 			}
-			writer.println();
 		}
 		writer.println();
+		writer.println("[Exit Stream Open Time] ");
+		writer.println(" opened: "+ getStreamsOpenedCount() +" average: "+ getAverageStreamOpenMilliseconds() +
+				" ms recent: "+ getRecentStreamOpenMilliseconds() +" ms max: "+ getMaximumStreamOpenMilliseconds() +" ms");
+		writer.println();
 	}
 }
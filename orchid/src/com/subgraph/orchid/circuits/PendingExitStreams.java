@@ -17,9 +17,18 @@ public class PendingExitStreams {
 	private final Set<StreamExitRequest> pendingRequests;
 	private final Object lock = new Object();
 	private final TorConfig config;
+	private final Runnable newRequestListener;
 
 	PendingExitStreams(TorConfig config) {
+		this(config, null);
+	}
+
+	/**
+	 * @param newRequestListener If not <code>null</code>, run every time a new request is added.
+	 */
+	PendingExitStreams(TorConfig config, Runnable newRequestListener) {
 		this.config = config;
+		this.newRequestListener = newRequestListener;
 		pendingRequests = new HashSet<StreamExitRequest>();
 	}
 	
@@ -40,6 +49,12 @@ public class PendingExitStreams {
 		
 		synchronized(lock) {
 			pendingRequests.add(request);
+		}
+		// The listener takes the circuit manager lock, so it must not be run while holding this one.
+		if(newRequestListener != null) {
+			newRequestListener.run();
+		}
+		synchronized(lock) {
 			try {
 				return handleRequest(request);
 			} finally {
@@ -56,8 +56,10 @@ public class StreamImpl implements Stream, DashboardRenderable {
 	}
 
 	void addInputCell(RelayCell cell) {
-		if(isClosed)
+		if(isClosed) {
+			cell.release();
 			return;
+		}
 		if(cell.getRelayCommand() == RelayCell.RELAY_END) {
 			synchronized(waitConnectLock) {
 				relayEndReason = cell.getByte();
@@ -70,11 +72,13 @@ public class StreamImpl implements Stream, DashboardRenderable {
 				relayConnectedReceived = true;
 				waitConnectLock.notifyAll();
 			}
+			cell.release();
 		} else if(cell.getRelayCommand() == RelayCell.RELAY_SENDME) {
 			synchronized(windowLock) {
 				packageWindow += STREAMWINDOW_INCREMENT;
 				windowLock.notifyAll();
 			}
+			cell.release();
 		}
 		else {
 			inputStream.addInputCell(cell);
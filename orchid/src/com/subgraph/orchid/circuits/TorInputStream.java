@@ -34,6 +34,9 @@ public class TorInputStream extends InputStream {
 	/** Bytes of data from the RELAY_DATA cell currently being consumed */
 	@GuardedBy("lock") private ByteBuffer currentBuffer;
 	
+	/** The RELAY_DATA cell backing currentBuffer, released once the next cell is processed */
+	@GuardedBy("lock") private RelayCell currentCell;
+	
 	/** Set when a RELAY_END cell is received */
 	@GuardedBy("lock") private boolean isEOF;
 	
@@ -135,6 +138,11 @@ public class TorInputStream extends InputStream {
 			}
 			isClosed = true;
 			
+			releaseCurrentCell();
+			for(RelayCell cell: incomingCells) {
+				cell.release();
+			}
+			incomingCells.clear();
 			incomingCells.add(CLOSE_SENTINEL);
 			lock.notifyAll();
 		}
@@ -144,6 +152,7 @@ public class TorInputStream extends InputStream {
 	void addEndCell(RelayCell cell) {
 		synchronized (lock) {
 			if(isClosed) {
+				cell.release();
 				return;
 			}
 			incomingCells.add(cell);
@@ -154,6 +163,7 @@ public class TorInputStream extends InputStream {
 	void addInputCell(RelayCell cell) {
 		synchronized (lock) {
 			if(isClosed) {
+				cell.release();
 				return;
 			}
 			incomingCells.add(cell);
@@ -190,12 +200,14 @@ public class TorInputStream extends InputStream {
 			throw new IOException("Input stream closed");
 		}
 		
+		releaseCurrentCell();
 		switch(nextCell.getRelayCommand()) {
 		case RelayCell.RELAY_DATA:
 			currentBuffer = nextCell.getPayloadBuffer();
+			currentCell = nextCell;
 			break;
 		case RelayCell.RELAY_END:
-			currentBuffer = EMPTY_BUFFER;
+			nextCell.release();
 			isEOF = true;
 			break;
 		default:
@@ -203,6 +215,15 @@ public class TorInputStream extends InputStream {
 		}
 	}
 	
+	@GuardedBy("lock")
+	private void releaseCurrentCell() {
+		currentBuffer = EMPTY_BUFFER;
+		if(currentCell != null) {
+			currentCell.release();
+			currentCell = null;
+		}
+	}
+
 	@GuardedBy("lock")
 	private RelayCell getNextCell() throws IOException {
 		try {
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import com.subgraph.orchid.RelayCell;
+import com.subgraph.orchid.circuits.cells.CellBufferPool;
 import com.subgraph.orchid.circuits.cells.RelayCellImpl;
 
 public class TorOutputStream extends OutputStream {
@@ -21,12 +22,13 @@ public class TorOutputStream extends OutputStream {
 	private void flushCurrentOutputCell() {
 		if(currentOutputCell != null && currentOutputCell.cellBytesConsumed() > RelayCell.HEADER_SIZE) {
 			stream.waitForSendWindowAndDecrement();
-			stream.getCircuit().sendRelayCell(currentOutputCell);
 			bytesSent += (currentOutputCell.cellBytesConsumed() - RelayCell.HEADER_SIZE);
+			/* The cell buffer goes back to the pool once it has been sent */
+			stream.getCircuit().sendRelayCell(currentOutputCell);
 		}
 
 		currentOutputCell = new RelayCellImpl(stream.getTargetNode(), stream.getCircuit().getCircuitId(),
-				stream.getStreamId(), RelayCell.RELAY_DATA);
+				stream.getStreamId(), RelayCell.RELAY_DATA, CellBufferPool.getDefault());
 	}
 
 	long getBytesSent() {
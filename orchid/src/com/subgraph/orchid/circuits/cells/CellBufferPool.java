@@ -0,0 +1,86 @@
+package com.subgraph.orchid.circuits.cells;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.subgraph.orchid.Cell;
+import com.subgraph.orchid.misc.ThreadSafe;
+
+/**
+ * A pool of <code>CELL_LEN</code> byte arrays used as backing storage for fixed length cells.  Cells read from a
+ * connection and the RELAY_DATA and RELAY_SENDME cells created for sending take their buffer from a pool, and give
+ * it back with {@link Cell#release()} once the cell has been consumed, so that bulk transfers do not allocate a new
+ * array for every cell.
+ */
+@ThreadSafe
+public class CellBufferPool {
+	private final static int DEFAULT_MAX_POOLED_BUFFERS = 1024;
+	private final static CellBufferPool defaultPool = new CellBufferPool(DEFAULT_MAX_POOLED_BUFFERS);
+
+	public static CellBufferPool getDefault() {
+		return defaultPool;
+	}
+
+	private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+	private final AtomicInteger pooledCount = new AtomicInteger();
+	private final AtomicLong allocatedCount = new AtomicLong();
+	private final AtomicLong reusedCount = new AtomicLong();
+	private final int maxPooledBuffers;
+
+	public CellBufferPool(int maxPooledBuffers) {
+		this.maxPooledBuffers = maxPooledBuffers;
+	}
+
+	/**
+	 * Return a buffer of <code>CELL_LEN</code> bytes.  The content of the buffer is undefined.
+	 */
+	public byte[] allocate() {
+		final byte[] buffer = buffers.poll();
+		if(buffer == null) {
+			allocatedCount.incrementAndGet();
+			return new byte[Cell.CELL_LEN];
+		}
+		pooledCount.decrementAndGet();
+		reusedCount.incrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer of <code>CELL_LEN</code> bytes filled with zeros.
+	 */
+	public byte[] allocateZeroed() {
+		final byte[] buffer = allocate();
+		Arrays.fill(buffer, (byte) 0);
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer back to the pool.  The caller must not use the buffer afterwards.
+	 */
+	public void recycle(byte[] buffer) {
+		if(buffer.length != Cell.CELL_LEN || pooledCount.get() >= maxPooledBuffers) {
+			return;
+		}
+		pooledCount.incrementAndGet();
+		buffers.add(buffer);
+	}
+
+	public int getPooledBufferCount() {
+		return pooledCount.get();
+	}
+
+	public long getAllocatedBufferCount() {
+		return allocatedCount.get();
+	}
+
+	public long getReusedBufferCount() {
+		return reusedCount.get();
+	}
+
+	public String toString() {
+		return "CellBufferPool pooled="+ pooledCount.get() +" allocated="+ allocatedCount.get() +" reused="+ reusedCount.get();
+	}
+}
@@ -18,24 +18,63 @@ public class CellImpl implements Cell {
 	}
 
 	public static CellImpl readFromInputStream(InputStream input) throws IOException {
-		final ByteBuffer header = readHeaderFromInputStream(input);
-		final int circuitId = header.getShort() & 0xFFFF;
-		final int command = header.get() & 0xFF;
+		return readFromInputStream(input, null);
+	}
+
+	/**
+	 * Read a cell from <code>input</code>.  If <code>pool</code> is not null, fixed length cells are read into a
+	 * buffer taken from the pool which is returned to it when {@link #release()} is called.
+	 */
+	public static CellImpl readFromInputStream(InputStream input, CellBufferPool pool) throws IOException {
+		final byte[] buffer = (pool == null) ? (new byte[CELL_LEN]) : (pool.allocate());
+		readAll(input, buffer, 0, CELL_HEADER_LEN);
+		final int circuitId = ((buffer[0] & 0xFF) << 8) | (buffer[1] & 0xFF);
+		final int command = buffer[2] & 0xFF;
 		
 		if(command == VERSIONS || command > 127) {
+			if(pool != null) {
+				pool.recycle(buffer);
+			}
 			return readVarCell(circuitId, command, input);
 		}
 
-		final CellImpl cell = new CellImpl(circuitId, command);
-		readAll(input, cell.getCellBytes(), CELL_HEADER_LEN, CELL_PAYLOAD_LEN);
-
-		return cell;
+		readAll(input, buffer, CELL_HEADER_LEN, CELL_PAYLOAD_LEN);
+		return new CellImpl(buffer, pool);
 	}
 
-	private static ByteBuffer readHeaderFromInputStream(InputStream input) throws IOException {
-		final byte[] cellHeader = new byte[CELL_HEADER_LEN];
-		readAll(input, cellHeader);
-		return ByteBuffer.wrap(cellHeader);
+	/**
+	 * Read a cell from <code>buffer</code>, which must be ready for reading.  If the buffer does not contain a
+	 * complete cell, return null and leave the buffer position unchanged.  If <code>pool</code> is not null, fixed
+	 * length cells are copied into a buffer taken from the pool.
+	 */
+	public static CellImpl readFromBuffer(ByteBuffer buffer, CellBufferPool pool) {
+		final int start = buffer.position();
+		if(buffer.remaining() < CELL_HEADER_LEN) {
+			return null;
+		}
+		final int circuitId = buffer.getShort(start) & 0xFFFF;
+		final int command = buffer.get(start + 2) & 0xFF;
+		
+		if(command == VERSIONS || command > 127) {
+			if(buffer.remaining() < CELL_VAR_HEADER_LEN) {
+				return null;
+			}
+			final int length = buffer.getShort(start + CELL_HEADER_LEN) & 0xFFFF;
+			if(buffer.remaining() < CELL_VAR_HEADER_LEN + length) {
+				return null;
+			}
+			final CellImpl cell = new CellImpl(circuitId, command, length);
+			buffer.position(start + CELL_VAR_HEADER_LEN);
+			buffer.get(cell.getCellBytes(), CELL_VAR_HEADER_LEN, length);
+			return cell;
+		}
+
+		if(buffer.remaining() < CELL_LEN) {
+			return null;
+		}
+		final byte[] cellBytes = (pool == null) ? (new byte[CELL_LEN]) : (pool.allocate());
+		buffer.get(cellBytes);
+		return new CellImpl(cellBytes, pool);
 	}
 
 	private static CellImpl readVarCell(int circuitId, int command, InputStream input) throws IOException {
@@ -64,12 +103,16 @@ public class CellImpl implements Cell {
 	private final int circuitId;
 	private final int command;
 	protected final ByteBuffer cellBuffer;
+	/* Pool the backing array was taken from, or null if it was not pooled */
+	private final CellBufferPool bufferPool;
+	private boolean isReleased;
 
 	/* Variable length cell constructor (ie: VERSIONS cells only) */
 	private CellImpl(int circuitId, int command, int payloadLength) {
 		this.circuitId = circuitId;
 		this.command = command;
 		this.cellBuffer = ByteBuffer.wrap(new byte[CELL_VAR_HEADER_LEN + payloadLength]);
+		this.bufferPool = null;
 		cellBuffer.putShort((short)circuitId);
 		cellBuffer.put((byte)command);
 		cellBuffer.putShort((short) payloadLength);
@@ -78,16 +121,27 @@ public class CellImpl implements Cell {
 
 	/* Fixed length cell constructor */
 	protected CellImpl(int circuitId, int command) {
+		this(circuitId, command, (CellBufferPool) null);
+	}
+
+	/* Fixed length cell constructor, taking the cell buffer from pool if it is not null */
+	protected CellImpl(int circuitId, int command, CellBufferPool pool) {
 		this.circuitId = circuitId;
 		this.command = command;
-		this.cellBuffer = ByteBuffer.wrap(new byte[CELL_LEN]);
+		this.cellBuffer = ByteBuffer.wrap((pool == null) ? (new byte[CELL_LEN]) : (pool.allocateZeroed()));
+		this.bufferPool = pool;
 		cellBuffer.putShort((short) circuitId);
 		cellBuffer.put((byte) command);
 		cellBuffer.mark();
 	}
 
 	protected CellImpl(byte[] rawCell) {
+		this(rawCell, null);
+	}
+
+	protected CellImpl(byte[] rawCell, CellBufferPool pool) {
 		this.cellBuffer = ByteBuffer.wrap(rawCell);
+		this.bufferPool = pool;
 		this.circuitId = cellBuffer.getShort() & 0xFFFF;
 		this.command = cellBuffer.get() & 0xFF;
 		cellBuffer.mark();
@@ -176,6 +230,27 @@ public class CellImpl implements Cell {
 		return cellBuffer.array();
 	}
 
+	public synchronized void release() {
+		if(bufferPool == null || isReleased) {
+			return;
+		}
+		isReleased = true;
+		bufferPool.recycle(cellBuffer.array());
+	}
+
+	/*
+	 * Hand the pooled buffer over to another cell wrapping the same array.  Afterwards release() on this cell has no
+	 * effect, so the array is only given back to the pool once.  Returns null if the buffer was not pooled or has
+	 * already been released.
+	 */
+	synchronized CellBufferPool transferBuffer() {
+		if(bufferPool == null || isReleased) {
+			return null;
+		}
+		isReleased = true;
+		return bufferPool;
+	}
+
 	public String toString() {
 		return "Cell: circuit_id="+ circuitId +" command="+ command +" payload_len="+ cellBuffer.position();
 	}
@@ -1,7 +1,10 @@
 package com.subgraph.orchid.circuits.path;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import com.subgraph.orchid.ConsensusDocument;
@@ -9,16 +12,31 @@ import com.subgraph.orchid.Directory;
 import com.subgraph.orchid.Router;
 import com.subgraph.orchid.TorConfig;
 import com.subgraph.orchid.crypto.TorRandom;
+import com.subgraph.orchid.data.IPv4Address;
+import com.subgraph.orchid.misc.GuardedBy;
 
 public class CircuitNodeChooser {
 	private final static Logger logger = Logger.getLogger(CircuitNodeChooser.class.getName());
 	
 	public enum WeightRule { WEIGHT_FOR_DIR, WEIGHT_FOR_EXIT, WEIGHT_FOR_MID, WEIGHT_FOR_GUARD, NO_WEIGHTING};
+
+	/*
+	 * Number of routers drawn from a weighted table before giving up and choosing from the filtered
+	 * router list instead.  Only restrictive filters (such as an unusual exit port) use up the attempts.
+	 */
+	private final static int MAX_TABLE_ATTEMPTS = 64;
+
 	private final Directory directory;
 	private final TorRandom random = new TorRandom();
 	
 	private final TorConfigNodeFilter configNodeFilter;
 
+	/* Weighted tables and the /16 index are rebuilt when the consensus changes */
+	private final Object tableLock = new Object();
+	@GuardedBy("tableLock") private ConsensusDocument tableConsensus;
+	@GuardedBy("tableLock") private final Map<WeightRule, WeightedRouterTable> tables = new EnumMap<WeightRule, WeightedRouterTable>(WeightRule.class);
+	@GuardedBy("tableLock") private Map<Integer, List<Router>> routersBySlash16;
+
 	
 	public CircuitNodeChooser(TorConfig config, Directory directory) {
 		this.directory = directory;
@@ -41,8 +59,11 @@ public class CircuitNodeChooser {
 				return router.getDirectoryPort() != 0;
 			}
 		};
-		final List<Router> candidates = getFilteredRouters(filter, false);
-		final Router choice = chooseByBandwidth(candidates, WeightRule.WEIGHT_FOR_DIR);
+		Router choice = chooseFromTable(WeightRule.WEIGHT_FOR_DIR, filter, false);
+		if(choice == null) {
+			final List<Router> candidates = getFilteredRouters(filter, false);
+			choice = chooseByBandwidth(candidates, WeightRule.WEIGHT_FOR_DIR);
+		}
 		if(choice == null) {
 			return directory.getRandomDirectoryAuthority();
 		} else {
@@ -57,6 +78,10 @@ public class CircuitNodeChooser {
 	 * @return The chosen router or 'null' if no suitable router is available.
 	 */
 	public Router chooseRandomNode(WeightRule rule, RouterFilter routerFilter) {
+		final Router fromTable = chooseFromTable(rule, routerFilter, true);
+		if(fromTable != null) {
+			return fromTable;
+		}
 		final List<Router> candidates = getFilteredRouters(routerFilter, true);
 		final Router choice = chooseByBandwidth(candidates, rule);
 		if(choice == null) {
@@ -66,6 +91,123 @@ public class CircuitNodeChooser {
 		return choice;
 	}
 	
+	/**
+	 * Choose an exit router accepted by <code>exitFilter</code> and the configured exit node restrictions
+	 * without examining every router.
+	 * 
+	 * @param exitFilter
+	 * @return The chosen exit router or 'null' if none was found quickly, in which case the caller should
+	 *         fall back to {@link #chooseExitNode(List)}.
+	 */
+	Router chooseExitNodeFromTable(final RouterFilter exitFilter) {
+		return chooseFromTable(WeightRule.WEIGHT_FOR_EXIT, new RouterFilter() {
+			public boolean filter(Router router) {
+				return exitFilter.filter(router) && configNodeFilter.isExitNodeIncluded(router);
+			}
+		}, true);
+	}
+
+	/**
+	 * Return all routers in the current consensus with an address in the same /16 network as <code>address</code>.
+	 */
+	List<Router> getRoutersInSameSlash16(IPv4Address address) {
+		synchronized(tableLock) {
+			if(!updateTableConsensus()) {
+				final List<Router> result = new ArrayList<Router>();
+				for(Router r: directory.getAllRouters()) {
+					if(getSlash16(r.getAddress()) == getSlash16(address)) {
+						result.add(r);
+					}
+				}
+				return result;
+			}
+			if(routersBySlash16 == null) {
+				routersBySlash16 = new HashMap<Integer, List<Router>>();
+				for(Router r: directory.getAllRouters()) {
+					final Integer key = getSlash16(r.getAddress());
+					List<Router> list = routersBySlash16.get(key);
+					if(list == null) {
+						list = new ArrayList<Router>();
+						routersBySlash16.put(key, list);
+					}
+					list.add(r);
+				}
+			}
+			final List<Router> routers = routersBySlash16.get(getSlash16(address));
+			return (routers == null) ? new ArrayList<Router>() : new ArrayList<Router>(routers);
+		}
+	}
+
+	private static int getSlash16(IPv4Address address) {
+		return address.getAddressData() & 0xFFFF0000;
+	}
+
+	/*
+	 * Draw routers from the precomputed table for <code>rule</code> until one is usable and accepted by
+	 * <code>routerFilter</code>.  Rejecting routers from a table weighted over all candidates chooses among the
+	 * accepted routers in proportion to the same weights, so this matches chooseNodeByBandwidthWeights() on
+	 * the filtered list.  Returns null if there is no table or no router was accepted within MAX_TABLE_ATTEMPTS.
+	 */
+	private Router chooseFromTable(WeightRule rule, RouterFilter routerFilter, boolean needDescriptor) {
+		final WeightedRouterTable table = getTable(rule);
+		if(table == null || table.getRouterCount() == 0) {
+			return null;
+		}
+		for(int i = 0; i < MAX_TABLE_ATTEMPTS; i++) {
+			final Router r = table.chooseRandomRouter(random);
+			if(isUsableRouter(r, needDescriptor) && routerFilter.filter(r)) {
+				return r;
+			}
+		}
+		return null;
+	}
+
+	private WeightedRouterTable getTable(WeightRule rule) {
+		synchronized(tableLock) {
+			if(!updateTableConsensus()) {
+				return null;
+			}
+			if(!tables.containsKey(rule)) {
+				tables.put(rule, createTable(tableConsensus, rule));
+			}
+			return tables.get(rule);
+		}
+	}
+
+	/* Discard tables built for an older consensus.  Returns false if there is no consensus. */
+	@GuardedBy("tableLock")
+	private boolean updateTableConsensus() {
+		final ConsensusDocument consensus = directory.getCurrentConsensusDocument();
+		if(consensus == null) {
+			return false;
+		}
+		if(consensus != tableConsensus) {
+			tables.clear();
+			routersBySlash16 = null;
+			tableConsensus = consensus;
+		}
+		return true;
+	}
+
+	/* Returns null if the consensus bandwidth weights are not valid */
+	private WeightedRouterTable createTable(ConsensusDocument consensus, WeightRule rule) {
+		final CircuitNodeChooserWeightParameters wp = CircuitNodeChooserWeightParameters.create(consensus, rule);
+		if(!wp.isValid()) {
+			return null;
+		}
+		final List<Router> routers = new ArrayList<Router>();
+		for(Router r: directory.getAllRouters()) {
+			if(r.isRunning() && r.isValid()) {
+				routers.add(r);
+			}
+		}
+		final double[] weights = new double[routers.size()];
+		for(int i = 0; i < weights.length; i++) {
+			weights[i] = wp.calculateWeightedBandwidth(routers.get(i));
+		}
+		return new WeightedRouterTable(routers, weights);
+	}
+
 	private List<Router> getFilteredRouters(RouterFilter rf, boolean needDescriptor) {
 		final List<Router> routers = new ArrayList<Router>();
 		for(Router r: getUsableRouters(needDescriptor)) {
@@ -79,11 +221,7 @@ public class CircuitNodeChooser {
 	List<Router> getUsableRouters(boolean needDescriptor) {
 		final List<Router> routers = new ArrayList<Router>();
 		for(Router r: directory.getAllRouters()) {
-			if(r.isRunning() && 
-					r.isValid() && 
-					!r.isHibernating() && 
-					!(needDescriptor && r.getCurrentDescriptor() == null)) {
-				
+			if(isUsableRouter(r, needDescriptor)) {
 				routers.add(r);
 			}
 		}
@@ -91,6 +229,13 @@ public class CircuitNodeChooser {
 		return routers;
 	}
 
+	private static boolean isUsableRouter(Router r, boolean needDescriptor) {
+		return r.isRunning() && 
+				r.isValid() && 
+				!r.isHibernating() && 
+				!(needDescriptor && r.getCurrentDescriptor() == null);
+	}
+
 	private Router chooseByBandwidth(List<Router> candidates, WeightRule rule) {
 		final Router choice = chooseNodeByBandwidthWeights(candidates, rule);
 		if(choice != null) {
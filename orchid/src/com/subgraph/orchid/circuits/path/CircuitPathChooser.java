@@ -13,7 +13,6 @@ import com.subgraph.orchid.Router;
 import com.subgraph.orchid.TorConfig;
 import com.subgraph.orchid.circuits.guards.EntryGuards;
 import com.subgraph.orchid.circuits.path.CircuitNodeChooser.WeightRule;
-import com.subgraph.orchid.data.IPv4Address;
 import com.subgraph.orchid.data.exitpolicy.ExitTarget;
 
 public class CircuitPathChooser {
@@ -100,7 +99,19 @@ public class CircuitPathChooser {
 		});
 	}
 
-	public Router chooseExitNodeForTargets(List<ExitTarget> targets) {
+	public Router chooseExitNodeForTargets(final List<ExitTarget> targets) {
+		/*
+		 * When some exit supports every target only those exits are candidates, so try the weighted table
+		 * first and only count the support of every exit router if that fails.
+		 */
+		final Router exit = nodeChooser.chooseExitNodeFromTable(new RouterFilter() {
+			public boolean filter(Router router) {
+				return router.isExit() && !router.isBadExit() && countTargetSupport(router, targets) == targets.size();
+			}
+		});
+		if(exit != null) {
+			return exit;
+		}
 		final List<Router> routers = filterForExitTargets(
 				getUsableExitRouters(), targets);
 		return nodeChooser.chooseExitNode(routers);
@@ -118,11 +129,7 @@ public class CircuitPathChooser {
 
 	private void excludeChosenRouterAndRelated(Router router, Set<Router> excludedRouters) {
 		excludedRouters.add(router);
-		for(Router r: directory.getAllRouters()) {
-			if(areInSameSlash16(router, r)) {
-				excludedRouters.add(r);
-			}
-		}
+		excludedRouters.addAll(nodeChooser.getRoutersInSameSlash16(router.getAddress()));
 		
 		for(String s: router.getFamilyMembers()) {
 			Router r = directory.getRouterByName(s);
@@ -145,14 +152,6 @@ public class CircuitPathChooser {
 		return false;
 	}
 
-	// Are routers r1 and r2 in the same /16 network
-	private boolean areInSameSlash16(Router r1, Router r2) {
-		final IPv4Address a1 = r1.getAddress();
-		final IPv4Address a2 = r2.getAddress();
-		final int mask = 0xFFFF0000;
-		return (a1.getAddressData() & mask) == (a2.getAddressData() & mask);
-	}
-	
 	private List<Router> filterForExitTargets(List<Router> routers, List<ExitTarget> exitTargets) {
 		int bestSupport = 0;
 		if(exitTargets.isEmpty()) {
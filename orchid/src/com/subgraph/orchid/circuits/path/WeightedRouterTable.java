@@ -0,0 +1,118 @@
+package com.subgraph.orchid.circuits.path;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.subgraph.orchid.Router;
+import com.subgraph.orchid.crypto.TorRandom;
+
+/**
+ * An immutable alias method (Walker/Vose) table for choosing a router with probability proportional to its
+ * weight in constant time.
+ *
+ * Weights are scaled to integers so that building the table is exact, each of the <code>n</code> columns holds
+ * <code>total</code> units of weight, split between the router of the column and at most one alias.
+ */
+class WeightedRouterTable {
+	private final static long MAX_SCALE = Long.MAX_VALUE / 4;
+
+	private final List<Router> routers;
+	private final long[] probability;
+	private final int[] alias;
+	private final long total;
+
+	WeightedRouterTable(List<Router> routers, double[] weights) {
+		this.routers = new ArrayList<Router>(routers);
+		final int n = routers.size();
+		this.probability = new long[n];
+		this.alias = new int[n];
+		final long[] scaled = scaleWeights(weights, n);
+		long sum = 0;
+		for(long w: scaled) {
+			sum += w;
+		}
+		if(sum == 0) {
+			/* Uniform choice */
+			for(int i = 0; i < n; i++) {
+				scaled[i] = 1;
+			}
+			sum = n;
+		}
+		this.total = sum;
+		buildColumns(scaled);
+	}
+
+	private static long[] scaleWeights(double[] weights, int n) {
+		final long[] scaled = new long[n];
+		double weightedTotal = 0.0;
+		for(int i = 0; i < n; i++) {
+			weightedTotal += weights[i];
+		}
+		if(n == 0 || weightedTotal <= 0.0) {
+			return scaled;
+		}
+		/* Columns are filled with weight * n, which must not overflow */
+		final double scaleFactor = (MAX_SCALE / n) / weightedTotal;
+		for(int i = 0; i < n; i++) {
+			scaled[i] = (weights[i] > 0.0) ? Math.round(weights[i] * scaleFactor) : 0;
+		}
+		return scaled;
+	}
+
+	private void buildColumns(long[] scaled) {
+		final int n = scaled.length;
+		final long[] remaining = new long[n];
+		final int[] small = new int[n];
+		final int[] large = new int[n];
+		int smallCount = 0;
+		int largeCount = 0;
+		for(int i = 0; i < n; i++) {
+			remaining[i] = scaled[i] * n;
+			if(remaining[i] < total) {
+				small[smallCount++] = i;
+			} else {
+				large[largeCount++] = i;
+			}
+		}
+		while(smallCount > 0 && largeCount > 0) {
+			final int s = small[--smallCount];
+			final int l = large[--largeCount];
+			probability[s] = remaining[s];
+			alias[s] = l;
+			remaining[l] -= (total - remaining[s]);
+			if(remaining[l] < total) {
+				small[smallCount++] = l;
+			} else {
+				large[largeCount++] = l;
+			}
+		}
+		/* Whatever is left fills its own column exactly */
+		while(largeCount > 0) {
+			final int l = large[--largeCount];
+			probability[l] = total;
+			alias[l] = l;
+		}
+		while(smallCount > 0) {
+			final int s = small[--smallCount];
+			probability[s] = total;
+			alias[s] = s;
+		}
+	}
+
+	int getRouterCount() {
+		return routers.size();
+	}
+
+	/**
+	 * @return A router chosen by weight, or <code>null</code> if the table is empty.
+	 */
+	Router chooseRandomRouter(TorRandom random) {
+		final int n = routers.size();
+		if(n == 0) {
+			return null;
+		}
+		final int column = random.nextInt(n);
+		final int idx = (random.nextLong(total) < probability[column]) ? column : alias[column];
+		return routers.get(idx);
+	}
+}
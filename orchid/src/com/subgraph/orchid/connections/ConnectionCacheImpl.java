@@ -43,8 +43,13 @@ public class ConnectionCacheImpl implements ConnectionCache, DashboardRenderable
 		}
 
 		public ConnectionImpl call() throws Exception {
-			final SSLSocket socket = factory.createSocket();
-			final ConnectionImpl conn = new ConnectionImpl(config, socket, router, initializationTracker, isDirectoryConnection);
+			final ConnectionImpl conn;
+			if(config.getUseNioTransport()) {
+				conn = new ConnectionImpl(config, getNioTransport(), factory, router, initializationTracker, isDirectoryConnection);
+			} else {
+				final SSLSocket socket = factory.createSocket();
+				conn = new ConnectionImpl(config, socket, router, initializationTracker, isDirectoryConnection);
+			}
 			conn.connect();
 			return conn;
 		}
@@ -70,6 +75,8 @@ public class ConnectionCacheImpl implements ConnectionCache, DashboardRenderable
 	private final TorConfig config;
 	private final TorInitializationTracker initializationTracker;
 	private volatile boolean isClosed;
+	/* Created when the first connection is opened with UseNioTransport enabled */
+	private NioCellTransport nioTransport;
 
 	
 	public ConnectionCacheImpl(TorConfig config, TorInitializationTracker tracker) {
@@ -78,11 +85,23 @@ public class ConnectionCacheImpl implements ConnectionCache, DashboardRenderable
 		scheduledExecutor.scheduleAtFixedRate(new CloseIdleConnectionCheckTask(), 5000, 5000, TimeUnit.MILLISECONDS);
 	}
 
+	private synchronized NioCellTransport getNioTransport() {
+		if(nioTransport == null) {
+			nioTransport = new NioCellTransport();
+		}
+		return nioTransport;
+	}
+
 	public void close() {
 		if(isClosed) {
 			return;
 		}
 		isClosed = true;
+		synchronized(this) {
+			if(nioTransport != null) {
+				nioTransport.close();
+			}
+		}
 		for(Future<ConnectionImpl> f: activeConnections.values()) {
 			if(f.isDone()) {
 				try {
@@ -9,6 +9,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
@@ -33,10 +34,12 @@ import com.subgraph.orchid.Tor;
 import com.subgraph.orchid.TorConfig;
 import com.subgraph.orchid.TorException;
 import com.subgraph.orchid.circuits.TorInitializationTracker;
+import com.subgraph.orchid.circuits.cells.CellBufferPool;
 import com.subgraph.orchid.circuits.cells.CellImpl;
 import com.subgraph.orchid.crypto.TorRandom;
 import com.subgraph.orchid.dashboard.DashboardRenderable;
 import com.subgraph.orchid.dashboard.DashboardRenderer;
+import com.subgraph.orchid.sockets.sslengine.SSLEngineSSLSocket;
 
 /**
  * This class represents a transport link between two onion routers or
@@ -50,7 +53,11 @@ public class ConnectionImpl implements Connection, DashboardRenderable {
 	private final static Cell connectionClosedSentinel = CellImpl.createCell(0, 0);
 
 	private final TorConfig config;
-	private final SSLSocket socket;
+	private SSLSocket socket;
+	/* Non-null if this connection is to be handed over to the NIO transport after the TLS handshake */
+	private final NioCellTransport transport;
+	private final ConnectionSocketFactory socketFactory;
+	private volatile NioCellChannel cellChannel;
 	private InputStream input;
 	private OutputStream output;
 	private final Router router;
@@ -62,7 +69,7 @@ public class ConnectionImpl implements Connection, DashboardRenderable {
 	private int currentId = 1;
 	private boolean isConnected;
 	private volatile boolean isClosed;
-	private final Thread readCellsThread;
+	private Thread readCellsThread;
 	private final ReentrantLock connectLock = Threading.lock("connect");
 	private final ReentrantLock circuitsLock = Threading.lock("circuits");
 	private final ReentrantLock outputLock = Threading.lock("output");
@@ -70,12 +77,20 @@ public class ConnectionImpl implements Connection, DashboardRenderable {
 
 
 	public ConnectionImpl(TorConfig config, SSLSocket socket, Router router, TorInitializationTracker tracker, boolean isDirectoryConnection) {
+		this(config, socket, null, null, router, tracker, isDirectoryConnection);
+	}
+
+	ConnectionImpl(TorConfig config, NioCellTransport transport, ConnectionSocketFactory socketFactory, Router router, TorInitializationTracker tracker, boolean isDirectoryConnection) {
+		this(config, null, transport, socketFactory, router, tracker, isDirectoryConnection);
+	}
+
+	private ConnectionImpl(TorConfig config, SSLSocket socket, NioCellTransport transport, ConnectionSocketFactory socketFactory, Router router, TorInitializationTracker tracker, boolean isDirectoryConnection) {
 		this.config = config;
 		this.socket = socket;
+		this.transport = transport;
+		this.socketFactory = socketFactory;
 		this.router = router;
 		this.circuitMap = new HashMap<Integer, Circuit>();
-		this.readCellsThread = new Thread(createReadCellsRunnable());
-		this.readCellsThread.setDaemon(true);
 		this.connectionControlCells = new LinkedBlockingQueue<Cell>();
 		this.initializationTracker = tracker;
 		this.isDirectoryConnection = isDirectoryConnection;
@@ -142,31 +157,96 @@ public class ConnectionImpl implements Connection, DashboardRenderable {
 	}
 
 	private void doConnect() throws IOException, InterruptedException, ConnectionIOException {
+		if(transport != null) {
+			doConnectNio();
+			return;
+		}
 		connectSocket();
 		final ConnectionHandshake handshake = ConnectionHandshake.createHandshake(config, this, socket);
-		input = socket.getInputStream();
-		output = socket.getOutputStream();
-		readCellsThread.start();
+		startReadCellsThread();
 		handshake.runHandshake();
 		updateLastActivity();
 	}
-	
-	private void connectSocket() throws IOException {
-		if(initializationTracker != null) {
-			if(isDirectoryConnection) {
-				initializationTracker.notifyEvent(Tor.BOOTSTRAP_STATUS_CONN_DIR);
+
+	/*
+	 * The TCP connection and TLS handshake are performed in blocking mode on an SSLEngine backed socket, then the
+	 * channel is handed over to the NIO transport which delivers cells from a shared selector thread.  Connections
+	 * which can only use the V2 handshake (which renegotiates over the socket) keep a reader thread as usual.
+	 */
+	private void doConnectNio() throws IOException, InterruptedException, ConnectionIOException {
+		final SocketChannel channel = SocketChannel.open();
+		boolean success = false;
+		try {
+			notifyBootstrapEvent(Tor.BOOTSTRAP_STATUS_CONN_DIR, Tor.BOOTSTRAP_STATUS_CONN_OR);
+			channel.socket().connect(routerToSocketAddress(router), DEFAULT_CONNECT_TIMEOUT);
+			notifyBootstrapEvent(Tor.BOOTSTRAP_STATUS_HANDSHAKE_DIR, Tor.BOOTSTRAP_STATUS_HANDSHAKE_OR);
+			final SSLEngineSSLSocket engineSocket = socketFactory.createEngineSocket(channel.socket());
+			socket = engineSocket;
+			engineSocket.startHandshake();
+			final ConnectionHandshake handshake = ConnectionHandshake.createHandshake(config, this, engineSocket);
+			if(handshake instanceof ConnectionHandshakeV3) {
+				cellChannel = transport.register(channel, engineSocket.getEngine(), engineSocket.getPendingNetworkData(),
+						engineSocket.getPendingApplicationData(), createCellHandler());
 			} else {
-				initializationTracker.notifyEvent(Tor.BOOTSTRAP_STATUS_CONN_OR);
+				startReadCellsThread();
 			}
+			handshake.runHandshake();
+			updateLastActivity();
+			success = true;
+		} finally {
+			if(!success) {
+				closeChannel(channel);
+			}
+		}
+	}
+
+	private void closeChannel(SocketChannel channel) {
+		final NioCellChannel c = cellChannel;
+		if(c != null) {
+			c.close();
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.fine("Error closing channel: "+ e.getMessage());
 		}
+	}
+
+	private NioCellTransport.CellHandler createCellHandler() {
+		return new NioCellTransport.CellHandler() {
+			public void cellReceived(Cell cell) {
+				processCell(cell);
+			}
+
+			public void channelClosed() {
+				isClosed = true;
+				connectionControlCells.add(connectionClosedSentinel);
+				notifyCircuitsLinkClosed();
+			}
+		};
+	}
 
+	private void startReadCellsThread() throws IOException {
+		input = socket.getInputStream();
+		output = socket.getOutputStream();
+		readCellsThread = new Thread(createReadCellsRunnable());
+		readCellsThread.setDaemon(true);
+		readCellsThread.start();
+	}
+	
+	private void connectSocket() throws IOException {
+		notifyBootstrapEvent(Tor.BOOTSTRAP_STATUS_CONN_DIR, Tor.BOOTSTRAP_STATUS_CONN_OR);
 		socket.connect(routerToSocketAddress(router), DEFAULT_CONNECT_TIMEOUT);
-		
+		notifyBootstrapEvent(Tor.BOOTSTRAP_STATUS_HANDSHAKE_DIR, Tor.BOOTSTRAP_STATUS_HANDSHAKE_OR);
+	}
+
+	private void notifyBootstrapEvent(int directoryEvent, int routerEvent) {
 		if(initializationTracker != null) {
 			if(isDirectoryConnection) {
-				initializationTracker.notifyEvent(Tor.BOOTSTRAP_STATUS_HANDSHAKE_DIR);
+				initializationTracker.notifyEvent(directoryEvent);
 			} else {
-				initializationTracker.notifyEvent(Tor.BOOTSTRAP_STATUS_HANDSHAKE_OR);
+				initializationTracker.notifyEvent(routerEvent);
 			}
 		}
 	}
@@ -177,6 +257,11 @@ public class ConnectionImpl implements Connection, DashboardRenderable {
 	}
 
 	public void sendCell(Cell cell) throws ConnectionIOException  {
+		final NioCellChannel c = cellChannel;
+		if(c != null) {
+			sendCellNio(c, cell);
+			return;
+		}
 		if(!socket.isConnected()) {
 			throw new ConnectionIOException("Cannot send cell because connection is not connected");
 		}
@@ -195,9 +280,23 @@ public class ConnectionImpl implements Connection, DashboardRenderable {
 		}
 	}
 
+	private void sendCellNio(NioCellChannel c, Cell cell) throws ConnectionIOException {
+		if(c.isClosed()) {
+			throw new ConnectionIOException("Cannot send cell because connection is not connected");
+		}
+		updateLastActivity();
+		try {
+			c.sendCell(cell);
+		} catch (IOException e) {
+			logger.fine("IOException writing cell to connection "+ e.getMessage());
+			closeSocket();
+			throw new ConnectionIOException(e.getClass().getName() + " : "+ e.getMessage());
+		}
+	}
+
 	private Cell recvCell() throws ConnectionIOException {
 		try {
-			return CellImpl.readFromInputStream(input);
+			return CellImpl.readFromInputStream(input, CellBufferPool.getDefault());
 		} catch(EOFException e) {
 			closeSocket();
 			throw new ConnectionIOException();
@@ -211,6 +310,14 @@ public class ConnectionImpl implements Connection, DashboardRenderable {
 	}
 
 	void closeSocket() {
+		final NioCellChannel c = cellChannel;
+		if(c != null) {
+			logger.fine("Closing connection to "+ this);
+			isClosed = true;
+			c.close();
+			isConnected = false;
+			return;
+		}
 		try {
 			logger.fine("Closing connection to "+ this);
 			isClosed = true;
@@ -284,6 +391,7 @@ public class ConnectionImpl implements Connection, DashboardRenderable {
 			break;
 		default:
 			// Ignore everything else
+			cell.release();
 			break;
 		}
 	}
@@ -295,6 +403,7 @@ public class ConnectionImpl implements Connection, DashboardRenderable {
 			circuit = circuitMap.get(cell.getCircuitId());
 			if(circuit == null) {
 				logger.warning("Could not deliver relay cell for circuit id = "+ cell.getCircuitId() +" on connection "+ this +". Circuit not found");
+				cell.release();
 				return;
 			}
 		} finally {
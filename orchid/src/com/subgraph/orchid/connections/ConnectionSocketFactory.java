@@ -1,6 +1,7 @@
 package com.subgraph.orchid.connections;
 
 import java.io.IOException;
+import java.net.Socket;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
@@ -13,6 +14,7 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import com.subgraph.orchid.TorException;
+import com.subgraph.orchid.sockets.sslengine.SSLEngineSSLSocket;
 
 public class ConnectionSocketFactory {
 	static final String[] V1_CIPHERS_ONLY = {
@@ -57,10 +59,12 @@ public class ConnectionSocketFactory {
 		}
 	}
 	
+	private final SSLContext sslContext;
 	private final SSLSocketFactory socketFactory;
 	
 	ConnectionSocketFactory() {
-		socketFactory = createSSLContext().getSocketFactory();
+		sslContext = createSSLContext();
+		socketFactory = sslContext.getSocketFactory();
 	}
 	
 	SSLSocket createSocket() {
@@ -73,4 +77,15 @@ public class ConnectionSocketFactory {
 			throw new TorException(e);
 		}
 	}
+
+	/**
+	 * Create a TLS socket over an already connected plain socket, implemented with an SSLEngine so that the
+	 * connection can be handed over to the {@link NioCellTransport} once the handshake is complete.
+	 */
+	SSLEngineSSLSocket createEngineSocket(Socket socket) throws IOException {
+		final SSLEngineSSLSocket sslSocket = new SSLEngineSSLSocket(socket, sslContext);
+		sslSocket.setEnabledCipherSuites(MANDATORY_CIPHERS);
+		sslSocket.setUseClientMode(true);
+		return sslSocket;
+	}
 }
@@ -0,0 +1,340 @@
+package com.subgraph.orchid.connections;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+import javax.net.ssl.SSLException;
+
+import com.subgraph.orchid.Cell;
+import com.subgraph.orchid.Threading;
+import com.subgraph.orchid.TorException;
+import com.subgraph.orchid.circuits.cells.CellBufferPool;
+import com.subgraph.orchid.circuits.cells.CellImpl;
+import com.subgraph.orchid.connections.NioCellTransport.CellHandler;
+import com.subgraph.orchid.misc.GuardedBy;
+
+/**
+ * One TLS connection registered with a {@link NioCellTransport}.  Input is read, unwrapped and split into cells
+ * on the selector thread.  Output is wrapped by the sending thread and written directly to the channel, the
+ * selector thread only finishes writing data which did not fit into the socket buffer.
+ */
+class NioCellChannel {
+	private final static Logger logger = Logger.getLogger(NioCellChannel.class.getName());
+
+	/* Senders wait once this much encrypted data is waiting to be written to the socket */
+	private final static int MAX_QUEUED_OUTPUT = 256 * 1024;
+	private final static long OUTPUT_WAIT_MILLISECONDS = 10;
+	private final static ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+	private final SocketChannel channel;
+	private final SSLEngine engine;
+	private final CellHandler handler;
+	private final CellBufferPool cellBufferPool = CellBufferPool.getDefault();
+
+	/* Only used by the selector thread once registered */
+	private ByteBuffer networkInput;
+	private ByteBuffer applicationInput;
+	private volatile SelectionKey key;
+	private volatile Thread selectorThread;
+
+	private final ReentrantLock outputLock = Threading.lock("nioOutput");
+	private final Condition outputDrained = outputLock.newCondition();
+	@GuardedBy("outputLock") private ByteBuffer networkOutput;
+	@GuardedBy("outputLock") private boolean writeInterest;
+
+	private volatile boolean isClosed;
+
+	NioCellChannel(SocketChannel channel, SSLEngine engine, CellHandler handler) {
+		this.channel = channel;
+		this.engine = engine;
+		this.handler = handler;
+		final int packetSize = engine.getSession().getPacketBufferSize();
+		this.networkInput = ByteBuffer.allocate(packetSize);
+		this.applicationInput = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize() + Cell.CELL_LEN);
+		this.networkOutput = ByteBuffer.allocate(packetSize);
+	}
+
+	void addPendingData(ByteBuffer pendingNetworkData, ByteBuffer pendingApplicationData) {
+		networkInput = ensureCapacity(networkInput, pendingNetworkData.remaining());
+		networkInput.put(pendingNetworkData);
+		applicationInput = ensureCapacity(applicationInput, pendingApplicationData.remaining());
+		applicationInput.put(pendingApplicationData);
+	}
+
+	boolean isClosed() {
+		return isClosed;
+	}
+
+	/* Called on the selector thread */
+	void registerWith(Selector selector) {
+		selectorThread = Thread.currentThread();
+		outputLock.lock();
+		try {
+			if(isClosed) {
+				return;
+			}
+			key = channel.register(selector, interestOps(), this);
+		} catch (ClosedChannelException e) {
+			close();
+			return;
+		} finally {
+			outputLock.unlock();
+		}
+		if(networkInput.position() > 0 || applicationInput.position() > 0) {
+			try {
+				processInput();
+			} catch (IOException e) {
+				logger.fine("IOException processing input on "+ this +" : "+ e.getMessage());
+				close();
+			}
+		}
+	}
+
+	/* Called on the selector thread */
+	void handleKey(SelectionKey key) {
+		try {
+			if(!key.isValid()) {
+				close();
+				return;
+			}
+			if(key.isReadable()) {
+				readInput();
+			}
+			if(key.isValid() && key.isWritable()) {
+				finishWriting();
+			}
+		} catch (IOException e) {
+			logger.fine("IOException on "+ this +" : "+ e.getMessage());
+			close();
+		} catch (CancelledKeyException e) {
+			close();
+		}
+	}
+
+	private void readInput() throws IOException {
+		if(channel.read(networkInput) == -1) {
+			close();
+			return;
+		}
+		processInput();
+	}
+
+	private void processInput() throws IOException {
+		networkInput.flip();
+		try {
+			while(networkInput.hasRemaining()) {
+				final SSLEngineResult result = engine.unwrap(networkInput, applicationInput);
+				if(result.getStatus() == Status.BUFFER_OVERFLOW) {
+					dispatchCells();
+					applicationInput = ensureCapacity(applicationInput, engine.getSession().getApplicationBufferSize());
+					continue;
+				} else if(result.getStatus() == Status.BUFFER_UNDERFLOW) {
+					break;
+				} else if(result.getStatus() == Status.CLOSED) {
+					close();
+					return;
+				}
+				processHandshakeStatus(result.getHandshakeStatus());
+				if(result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+					break;
+				}
+			}
+		} finally {
+			networkInput.compact();
+		}
+		networkInput = ensureCapacity(networkInput, engine.getSession().getPacketBufferSize() - networkInput.position());
+		dispatchCells();
+	}
+
+	private void dispatchCells() {
+		applicationInput.flip();
+		try {
+			CellImpl cell;
+			while(!isClosed && (cell = CellImpl.readFromBuffer(applicationInput, cellBufferPool)) != null) {
+				try {
+					handler.cellReceived(cell);
+				} catch (TorException e) {
+					logger.log(Level.WARNING, "Unhandled Tor exception processing cells: "+ e.getMessage(), e);
+				}
+			}
+		} finally {
+			applicationInput.compact();
+		}
+	}
+
+	/* The remote side may renegotiate at any time */
+	private void processHandshakeStatus(HandshakeStatus status) throws IOException {
+		while(true) {
+			if(status == HandshakeStatus.NEED_TASK) {
+				Runnable task;
+				while((task = engine.getDelegatedTask()) != null) {
+					task.run();
+				}
+			} else if(status == HandshakeStatus.NEED_WRAP) {
+				outputLock.lock();
+				try {
+					if(wrapLocked(EMPTY_BUFFER).bytesProduced() == 0) {
+						return;
+					}
+					flushLocked();
+				} finally {
+					outputLock.unlock();
+				}
+			} else {
+				return;
+			}
+			status = engine.getHandshakeStatus();
+		}
+	}
+
+	void sendCell(Cell cell) throws IOException {
+		outputLock.lock();
+		try {
+			final ByteBuffer source = ByteBuffer.wrap(cell.getCellBytes());
+			while(source.hasRemaining()) {
+				waitForOutputSpaceLocked();
+				final SSLEngineResult result = wrapLocked(source);
+				processHandshakeStatus(result.getHandshakeStatus());
+			}
+			flushLocked();
+		} finally {
+			outputLock.unlock();
+		}
+	}
+
+	@GuardedBy("outputLock")
+	private SSLEngineResult wrapLocked(ByteBuffer source) throws IOException {
+		final int packetSize = engine.getSession().getPacketBufferSize();
+		if(networkOutput.remaining() < packetSize) {
+			flushLocked();
+			networkOutput = ensureCapacity(networkOutput, packetSize);
+		}
+		final SSLEngineResult result = engine.wrap(source, networkOutput);
+		if(result.getStatus() == Status.CLOSED) {
+			throw new SSLException("SSLEngine is closed");
+		}
+		return result;
+	}
+
+	@GuardedBy("outputLock")
+	private void waitForOutputSpaceLocked() throws IOException {
+		// Cells delivered on the selector thread may cause cells to be sent (eg: SENDME), the selector thread must
+		// never wait for itself to drain the output.
+		final boolean isSelectorThread = (Thread.currentThread() == selectorThread);
+		while(!isClosed && networkOutput.position() >= MAX_QUEUED_OUTPUT && !isSelectorThread) {
+			flushLocked();
+			if(networkOutput.position() < MAX_QUEUED_OUTPUT) {
+				break;
+			}
+			try {
+				outputDrained.await(OUTPUT_WAIT_MILLISECONDS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		if(isClosed) {
+			throw new IOException("Connection closed");
+		}
+	}
+
+	@GuardedBy("outputLock")
+	private void flushLocked() throws IOException {
+		if(networkOutput.position() == 0) {
+			return;
+		}
+		networkOutput.flip();
+		try {
+			channel.write(networkOutput);
+		} finally {
+			networkOutput.compact();
+		}
+		setWriteInterestLocked(networkOutput.position() > 0);
+	}
+
+	/* Called on the selector thread */
+	private void finishWriting() throws IOException {
+		outputLock.lock();
+		try {
+			flushLocked();
+			if(networkOutput.position() < MAX_QUEUED_OUTPUT) {
+				outputDrained.signalAll();
+			}
+		} finally {
+			outputLock.unlock();
+		}
+	}
+
+	@GuardedBy("outputLock")
+	private void setWriteInterestLocked(boolean value) {
+		if(writeInterest == value) {
+			return;
+		}
+		writeInterest = value;
+		final SelectionKey k = key;
+		if(k != null && k.isValid()) {
+			k.interestOps(interestOps());
+			k.selector().wakeup();
+		}
+	}
+
+	@GuardedBy("outputLock")
+	private int interestOps() {
+		return writeInterest ? (SelectionKey.OP_READ | SelectionKey.OP_WRITE) : (SelectionKey.OP_READ);
+	}
+
+	void close() {
+		synchronized(this) {
+			if(isClosed) {
+				return;
+			}
+			isClosed = true;
+		}
+		final SelectionKey k = key;
+		if(k != null) {
+			k.cancel();
+		}
+		engine.closeOutbound();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.fine("Error closing channel: "+ e.getMessage());
+		}
+		outputLock.lock();
+		try {
+			outputDrained.signalAll();
+		} finally {
+			outputLock.unlock();
+		}
+		handler.channelClosed();
+	}
+
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int remaining) {
+		if(buffer.remaining() >= remaining) {
+			return buffer;
+		}
+		final ByteBuffer larger = ByteBuffer.allocate(buffer.position() + remaining);
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	public String toString() {
+		return "NioCellChannel "+ channel.socket().getRemoteSocketAddress();
+	}
+}
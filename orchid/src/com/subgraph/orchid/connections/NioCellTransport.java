@@ -0,0 +1,152 @@
+package com.subgraph.orchid.connections;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLEngine;
+
+import com.subgraph.orchid.Cell;
+import com.subgraph.orchid.TorException;
+
+/**
+ * A non-blocking transport which multiplexes the TLS connections to relays over a small number of selector threads.
+ *
+ * Connections are established and the TLS handshake is performed in blocking mode by the thread opening the
+ * connection, after which the channel and its {@link SSLEngine} are registered here.  Incoming cells are parsed
+ * and handed to the {@link CellHandler} of the connection on the selector thread, so no thread is needed per
+ * connection.
+ */
+public class NioCellTransport {
+	private final static Logger logger = Logger.getLogger(NioCellTransport.class.getName());
+
+	interface CellHandler {
+		/* Called on a selector thread for every cell received */
+		void cellReceived(Cell cell);
+		/* Called once when the channel is closed, either locally or by the remote side */
+		void channelClosed();
+	}
+
+	private final SelectorLoop[] loops;
+	private final AtomicInteger nextLoop = new AtomicInteger();
+
+	public NioCellTransport() {
+		this(getDefaultLoopCount());
+	}
+
+	public NioCellTransport(int loopCount) {
+		if(loopCount < 1) {
+			throw new IllegalArgumentException();
+		}
+		loops = new SelectorLoop[loopCount];
+		for(int i = 0; i < loopCount; i++) {
+			loops[i] = new SelectorLoop("Orchid NIO transport "+ i);
+		}
+	}
+
+	private static int getDefaultLoopCount() {
+		return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+	}
+
+	/**
+	 * Take over a connected channel on which the TLS handshake has completed.  The channel is switched to
+	 * non-blocking mode.
+	 *
+	 * @param pendingNetworkData Data already read from the channel but not yet unwrapped by the engine.
+	 * @param pendingApplicationData Data already unwrapped by the engine but not yet consumed.
+	 */
+	NioCellChannel register(SocketChannel channel, SSLEngine engine, ByteBuffer pendingNetworkData, ByteBuffer pendingApplicationData, CellHandler handler) throws IOException {
+		final SelectorLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+		channel.configureBlocking(false);
+		final NioCellChannel cellChannel = new NioCellChannel(channel, engine, handler);
+		cellChannel.addPendingData(pendingNetworkData, pendingApplicationData);
+		loop.register(cellChannel);
+		return cellChannel;
+	}
+
+	public void close() {
+		for(SelectorLoop loop: loops) {
+			loop.close();
+		}
+	}
+
+	private static class SelectorLoop implements Runnable {
+		private final Selector selector;
+		private final Queue<NioCellChannel> newChannels = new ConcurrentLinkedQueue<NioCellChannel>();
+		private final Thread thread;
+		private volatile boolean isClosed;
+
+		SelectorLoop(String name) {
+			try {
+				selector = Selector.open();
+			} catch (IOException e) {
+				throw new TorException(e);
+			}
+			thread = new Thread(this, name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void register(NioCellChannel channel) {
+			newChannels.add(channel);
+			selector.wakeup();
+		}
+
+		void close() {
+			isClosed = true;
+			selector.wakeup();
+		}
+
+		public void run() {
+			try {
+				while(!isClosed) {
+					registerNewChannels();
+					selector.select();
+					final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while(it.hasNext()) {
+						final SelectionKey key = it.next();
+						it.remove();
+						((NioCellChannel) key.attachment()).handleKey(key);
+					}
+				}
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Error in selector loop: "+ e.getMessage(), e);
+			} catch (ClosedSelectorException e) {
+				logger.fine("Selector closed");
+			} finally {
+				closeAll();
+			}
+		}
+
+		private void registerNewChannels() {
+			NioCellChannel channel;
+			while((channel = newChannels.poll()) != null) {
+				channel.registerWith(selector);
+			}
+		}
+
+		private void closeAll() {
+			for(SelectionKey key: selector.keys()) {
+				((NioCellChannel) key.attachment()).close();
+			}
+			NioCellChannel channel;
+			while((channel = newChannels.poll()) != null) {
+				channel.close();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				logger.warning("Error closing selector: "+ e.getMessage());
+			}
+		}
+	}
+}
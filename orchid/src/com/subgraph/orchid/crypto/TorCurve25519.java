@@ -0,0 +1,363 @@
+package com.subgraph.orchid.crypto;
+
+/**
+ * X25519 (RFC 7748) scalar multiplication used by the ntor handshake.
+ *
+ * Field elements are ten signed limbs in radix 2^25.5 (alternately 26 and 25 bits), as in the ref10
+ * implementation.  Limb products are accumulated in 64 bit longs and only reduced once per multiplication, and
+ * the Montgomery ladder swaps with masks rather than branches, so the sequence of operations does not depend
+ * on the secret scalar.
+ *
+ * {@link Curve25519} computes the same function with 8 bit limbs and is kept as the reference implementation.
+ */
+public class TorCurve25519 {
+	public final static int KEY_LEN = 32;
+
+	private final static int LIMBS = 10;
+	private final static int A24 = 121665;
+	private final static byte[] BASE_POINT = new byte[KEY_LEN];
+
+	static {
+		BASE_POINT[0] = 9;
+	}
+
+	/**
+	 * Compute the public key for <code>scalar</code> into <code>out</code>.
+	 */
+	public static void scalarMultBase(byte[] out, byte[] scalar) {
+		scalarMult(out, scalar, BASE_POINT);
+	}
+
+	/**
+	 * Compute the X25519 function of <code>scalar</code> and the u-coordinate <code>point</code> into <code>out</code>.
+	 * The scalar is clamped as described in RFC 7748 and the most significant bit of the point is ignored.
+	 */
+	public static void scalarMult(byte[] out, byte[] scalar, byte[] point) {
+		final byte[] e = new byte[KEY_LEN];
+		System.arraycopy(scalar, 0, e, 0, KEY_LEN);
+		e[0] &= 248;
+		e[31] &= 127;
+		e[31] |= 64;
+
+		final int[] x1 = new int[LIMBS];
+		final int[] x2 = new int[LIMBS];
+		final int[] z2 = new int[LIMBS];
+		final int[] x3 = new int[LIMBS];
+		final int[] z3 = new int[LIMBS];
+		final int[] a = new int[LIMBS];
+		final int[] aa = new int[LIMBS];
+		final int[] b = new int[LIMBS];
+		final int[] bb = new int[LIMBS];
+		final int[] c = new int[LIMBS];
+		final int[] d = new int[LIMBS];
+		final int[] t = new int[LIMBS];
+
+		fromBytes(x1, point);
+		one(x2);
+		copy(x3, x1);
+		one(z3);
+
+		int swap = 0;
+		for(int pos = 254; pos >= 0; pos--) {
+			final int bit = (e[pos >>> 3] >>> (pos & 7)) & 1;
+			swap ^= bit;
+			conditionalSwap(x2, x3, swap);
+			conditionalSwap(z2, z3, swap);
+			swap = bit;
+
+			add(a, x2, z2);
+			sub(b, x2, z2);
+			add(c, x3, z3);
+			sub(d, x3, z3);
+			mul(d, d, a);          /* DA */
+			mul(c, c, b);          /* CB */
+			square(aa, a);
+			square(bb, b);
+			add(x3, d, c);
+			square(x3, x3);
+			sub(z3, d, c);
+			square(z3, z3);
+			mul(z3, z3, x1);
+			mul(x2, aa, bb);
+			sub(t, aa, bb);        /* E */
+			mulA24(z2, t);
+			add(z2, z2, aa);
+			mul(z2, z2, t);
+		}
+		conditionalSwap(x2, x3, swap);
+		conditionalSwap(z2, z3, swap);
+
+		invert(z2, z2);
+		mul(x2, x2, z2);
+		toBytes(out, x2);
+	}
+
+	private static void one(int[] h) {
+		h[0] = 1;
+		for(int i = 1; i < LIMBS; i++) {
+			h[i] = 0;
+		}
+	}
+
+	private static void copy(int[] h, int[] f) {
+		System.arraycopy(f, 0, h, 0, LIMBS);
+	}
+
+	private static void add(int[] h, int[] f, int[] g) {
+		for(int i = 0; i < LIMBS; i++) {
+			h[i] = f[i] + g[i];
+		}
+	}
+
+	private static void sub(int[] h, int[] f, int[] g) {
+		for(int i = 0; i < LIMBS; i++) {
+			h[i] = f[i] - g[i];
+		}
+	}
+
+	/* Swap f and g if b is 1, leave them if b is 0, without branching on b */
+	private static void conditionalSwap(int[] f, int[] g, int b) {
+		final int mask = -b;
+		for(int i = 0; i < LIMBS; i++) {
+			final int x = mask & (f[i] ^ g[i]);
+			f[i] ^= x;
+			g[i] ^= x;
+		}
+	}
+
+	/* h = f * g, h may be the same array as f or g */
+	static void mul(int[] h, int[] f, int[] g) {
+		final long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4];
+		final long f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+		final long g0 = g[0], g1 = g[1], g2 = g[2], g3 = g[3], g4 = g[4];
+		final long g5 = g[5], g6 = g[6], g7 = g[7], g8 = g[8], g9 = g[9];
+		final long f1_2 = 2 * f1;
+		final long f3_2 = 2 * f3;
+		final long f5_2 = 2 * f5;
+		final long f7_2 = 2 * f7;
+		final long f9_2 = 2 * f9;
+		final long g1_19 = 19 * g1;
+		final long g2_19 = 19 * g2;
+		final long g3_19 = 19 * g3;
+		final long g4_19 = 19 * g4;
+		final long g5_19 = 19 * g5;
+		final long g6_19 = 19 * g6;
+		final long g7_19 = 19 * g7;
+		final long g8_19 = 19 * g8;
+		final long g9_19 = 19 * g9;
+		long h0 = f0 * g0 + f1_2 * g9_19 + f2 * g8_19 + f3_2 * g7_19 + f4 * g6_19 + f5_2 * g5_19 + f6 * g4_19 +
+				f7_2 * g3_19 + f8 * g2_19 + f9_2 * g1_19;
+		long h1 = f0 * g1 + f1 * g0 + f2 * g9_19 + f3 * g8_19 + f4 * g7_19 + f5 * g6_19 + f6 * g5_19 + f7 * g4_19 +
+				f8 * g3_19 + f9 * g2_19;
+		long h2 = f0 * g2 + f1_2 * g1 + f2 * g0 + f3_2 * g9_19 + f4 * g8_19 + f5_2 * g7_19 + f6 * g6_19 + f7_2 * g5_19 +
+				f8 * g4_19 + f9_2 * g3_19;
+		long h3 = f0 * g3 + f1 * g2 + f2 * g1 + f3 * g0 + f4 * g9_19 + f5 * g8_19 + f6 * g7_19 + f7 * g6_19 + f8 * g5_19 +
+				f9 * g4_19;
+		long h4 = f0 * g4 + f1_2 * g3 + f2 * g2 + f3_2 * g1 + f4 * g0 + f5_2 * g9_19 + f6 * g8_19 + f7_2 * g7_19 +
+				f8 * g6_19 + f9_2 * g5_19;
+		long h5 = f0 * g5 + f1 * g4 + f2 * g3 + f3 * g2 + f4 * g1 + f5 * g0 + f6 * g9_19 + f7 * g8_19 + f8 * g7_19 +
+				f9 * g6_19;
+		long h6 = f0 * g6 + f1_2 * g5 + f2 * g4 + f3_2 * g3 + f4 * g2 + f5_2 * g1 + f6 * g0 + f7_2 * g9_19 + f8 * g8_19 +
+				f9_2 * g7_19;
+		long h7 = f0 * g7 + f1 * g6 + f2 * g5 + f3 * g4 + f4 * g3 + f5 * g2 + f6 * g1 + f7 * g0 + f8 * g9_19 + f9 * g8_19;
+		long h8 = f0 * g8 + f1_2 * g7 + f2 * g6 + f3_2 * g5 + f4 * g4 + f5_2 * g3 + f6 * g2 + f7_2 * g1 + f8 * g0 +
+				f9_2 * g9_19;
+		long h9 = f0 * g9 + f1 * g8 + f2 * g7 + f3 * g6 + f4 * g5 + f5 * g4 + f6 * g3 + f7 * g2 + f8 * g1 + f9 * g0;
+		carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+	}
+
+	/* h = f * f, h may be the same array as f */
+	static void square(int[] h, int[] f) {
+		final long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4];
+		final long f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+		final long f1_2 = 2 * f1;
+		final long f2_2 = 2 * f2;
+		final long f3_2 = 2 * f3;
+		final long f3_4 = 4 * f3;
+		final long f4_2 = 2 * f4;
+		final long f5_2 = 2 * f5;
+		final long f5_4 = 4 * f5;
+		final long f5_38 = 38 * f5;
+		final long f6_2 = 2 * f6;
+		final long f6_19 = 19 * f6;
+		final long f6_38 = 38 * f6;
+		final long f7_2 = 2 * f7;
+		final long f7_4 = 4 * f7;
+		final long f7_38 = 38 * f7;
+		final long f7_76 = 76 * f7;
+		final long f8_2 = 2 * f8;
+		final long f8_19 = 19 * f8;
+		final long f8_38 = 38 * f8;
+		final long f9_2 = 2 * f9;
+		final long f9_38 = 38 * f9;
+		final long f9_76 = 76 * f9;
+		long h0 = f0 * f0 + f1 * f9_76 + f2 * f8_38 + f3 * f7_76 + f4 * f6_38 + f5 * f5_38;
+		long h1 = f0 * f1_2 + f2 * f9_38 + f3 * f8_38 + f4 * f7_38 + f5 * f6_38;
+		long h2 = f0 * f2_2 + f1 * f1_2 + f3 * f9_76 + f4 * f8_38 + f5 * f7_76 + f6 * f6_19;
+		long h3 = f0 * f3_2 + f1 * f2_2 + f4 * f9_38 + f5 * f8_38 + f6 * f7_38;
+		long h4 = f0 * f4_2 + f1 * f3_4 + f2 * f2 + f5 * f9_76 + f6 * f8_38 + f7 * f7_38;
+		long h5 = f0 * f5_2 + f1 * f4_2 + f2 * f3_2 + f6 * f9_38 + f7 * f8_38;
+		long h6 = f0 * f6_2 + f1 * f5_4 + f2 * f4_2 + f3 * f3_2 + f7 * f9_76 + f8 * f8_19;
+		long h7 = f0 * f7_2 + f1 * f6_2 + f2 * f5_2 + f3 * f4_2 + f8 * f9_38;
+		long h8 = f0 * f8_2 + f1 * f7_4 + f2 * f6_2 + f3 * f5_4 + f4 * f4 + f9 * f9_38;
+		long h9 = f0 * f9_2 + f1 * f8_2 + f2 * f7_2 + f3 * f6_2 + f4 * f5_2;
+		carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+	}
+
+	/* h = f * 121665 */
+	private static void mulA24(int[] h, int[] f) {
+		carry(h, (long) f[0] * A24, (long) f[1] * A24, (long) f[2] * A24, (long) f[3] * A24, (long) f[4] * A24,
+				(long) f[5] * A24, (long) f[6] * A24, (long) f[7] * A24, (long) f[8] * A24, (long) f[9] * A24);
+	}
+
+	/* Reduce the 64 bit limbs of a product to 26 and 25 bits and store them in h */
+	private static void carry(int[] h, long h0, long h1, long h2, long h3, long h4, long h5, long h6, long h7, long h8, long h9) {
+		long carry;
+		carry = (h0 + (1L << 25)) >> 26; h1 += carry; h0 -= carry << 26;
+		carry = (h4 + (1L << 25)) >> 26; h5 += carry; h4 -= carry << 26;
+		carry = (h1 + (1L << 24)) >> 25; h2 += carry; h1 -= carry << 25;
+		carry = (h5 + (1L << 24)) >> 25; h6 += carry; h5 -= carry << 25;
+		carry = (h2 + (1L << 25)) >> 26; h3 += carry; h2 -= carry << 26;
+		carry = (h6 + (1L << 25)) >> 26; h7 += carry; h6 -= carry << 26;
+		carry = (h3 + (1L << 24)) >> 25; h4 += carry; h3 -= carry << 25;
+		carry = (h7 + (1L << 24)) >> 25; h8 += carry; h7 -= carry << 25;
+		carry = (h4 + (1L << 25)) >> 26; h5 += carry; h4 -= carry << 26;
+		carry = (h8 + (1L << 25)) >> 26; h9 += carry; h8 -= carry << 26;
+		carry = (h9 + (1L << 24)) >> 25; h0 += carry * 19; h9 -= carry << 25;
+		carry = (h0 + (1L << 25)) >> 26; h1 += carry; h0 -= carry << 26;
+		h[0] = (int) h0;
+		h[1] = (int) h1;
+		h[2] = (int) h2;
+		h[3] = (int) h3;
+		h[4] = (int) h4;
+		h[5] = (int) h5;
+		h[6] = (int) h6;
+		h[7] = (int) h7;
+		h[8] = (int) h8;
+		h[9] = (int) h9;
+	}
+
+	/* h = z^(p - 2) = 1 / z, with the addition chain from ref10 */
+	private static void invert(int[] h, int[] z) {
+		final int[] t0 = new int[LIMBS];
+		final int[] t1 = new int[LIMBS];
+		final int[] t2 = new int[LIMBS];
+		final int[] t3 = new int[LIMBS];
+		square(t0, z);
+		square(t1, t0);
+		square(t1, t1);
+		mul(t1, z, t1);
+		mul(t0, t0, t1);
+		square(t2, t0);
+		mul(t1, t1, t2);
+		squareTimes(t2, t1, 5);
+		mul(t1, t2, t1);
+		squareTimes(t2, t1, 10);
+		mul(t2, t2, t1);
+		squareTimes(t3, t2, 20);
+		mul(t2, t3, t2);
+		squareTimes(t2, t2, 10);
+		mul(t1, t2, t1);
+		squareTimes(t2, t1, 50);
+		mul(t2, t2, t1);
+		squareTimes(t3, t2, 100);
+		mul(t2, t3, t2);
+		squareTimes(t2, t2, 50);
+		mul(t1, t2, t1);
+		squareTimes(t1, t1, 5);
+		mul(h, t1, t0);
+	}
+
+	private static void squareTimes(int[] h, int[] f, int n) {
+		square(h, f);
+		for(int i = 1; i < n; i++) {
+			square(h, h);
+		}
+	}
+
+	private static long load3(byte[] in, int offset) {
+		return (in[offset] & 0xFF) | ((in[offset + 1] & 0xFF) << 8) | ((in[offset + 2] & 0xFF) << 16);
+	}
+
+	private static long load4(byte[] in, int offset) {
+		return load3(in, offset) | ((long) (in[offset + 3] & 0xFF) << 24);
+	}
+
+	private static void fromBytes(int[] h, byte[] s) {
+		final long h0 = load4(s, 0);
+		final long h1 = load3(s, 4) << 6;
+		final long h2 = load3(s, 7) << 5;
+		final long h3 = load3(s, 10) << 3;
+		final long h4 = load3(s, 13) << 2;
+		final long h5 = load4(s, 16);
+		final long h6 = load3(s, 20) << 7;
+		final long h7 = load3(s, 23) << 5;
+		final long h8 = load3(s, 26) << 4;
+		final long h9 = (load3(s, 29) & 0x7FFFFF) << 2;
+		carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+	}
+
+	/* Store the fully reduced value of h */
+	private static void toBytes(byte[] s, int[] f) {
+		int h0 = f[0], h1 = f[1], h2 = f[2], h3 = f[3], h4 = f[4];
+		int h5 = f[5], h6 = f[6], h7 = f[7], h8 = f[8], h9 = f[9];
+		/* q is 1 if h >= p, 0 otherwise */
+		int q = (19 * h9 + (1 << 24)) >> 25;
+		q = (h0 + q) >> 26;
+		q = (h1 + q) >> 25;
+		q = (h2 + q) >> 26;
+		q = (h3 + q) >> 25;
+		q = (h4 + q) >> 26;
+		q = (h5 + q) >> 25;
+		q = (h6 + q) >> 26;
+		q = (h7 + q) >> 25;
+		q = (h8 + q) >> 26;
+		q = (h9 + q) >> 25;
+
+		h0 += 19 * q;
+		int carry;
+		carry = h0 >> 26; h1 += carry; h0 -= carry << 26;
+		carry = h1 >> 25; h2 += carry; h1 -= carry << 25;
+		carry = h2 >> 26; h3 += carry; h2 -= carry << 26;
+		carry = h3 >> 25; h4 += carry; h3 -= carry << 25;
+		carry = h4 >> 26; h5 += carry; h4 -= carry << 26;
+		carry = h5 >> 25; h6 += carry; h5 -= carry << 25;
+		carry = h6 >> 26; h7 += carry; h6 -= carry << 26;
+		carry = h7 >> 25; h8 += carry; h7 -= carry << 25;
+		carry = h8 >> 26; h9 += carry; h8 -= carry << 26;
+		carry = h9 >> 25; h9 -= carry << 25;
+
+		s[0] = (byte) h0;
+		s[1] = (byte) (h0 >> 8);
+		s[2] = (byte) (h0 >> 16);
+		s[3] = (byte) ((h0 >> 24) | (h1 << 2));
+		s[4] = (byte) (h1 >> 6);
+		s[5] = (byte) (h1 >> 14);
+		s[6] = (byte) ((h1 >> 22) | (h2 << 3));
+		s[7] = (byte) (h2 >> 5);
+		s[8] = (byte) (h2 >> 13);
+		s[9] = (byte) ((h2 >> 21) | (h3 << 5));
+		s[10] = (byte) (h3 >> 3);
+		s[11] = (byte) (h3 >> 11);
+		s[12] = (byte) ((h3 >> 19) | (h4 << 6));
+		s[13] = (byte) (h4 >> 2);
+		s[14] = (byte) (h4 >> 10);
+		s[15] = (byte) (h4 >> 18);
+		s[16] = (byte) h5;
+		s[17] = (byte) (h5 >> 8);
+		s[18] = (byte) (h5 >> 16);
+		s[19] = (byte) ((h5 >> 24) | (h6 << 1));
+		s[20] = (byte) (h6 >> 7);
+		s[21] = (byte) (h6 >> 15);
+		s[22] = (byte) ((h6 >> 23) | (h7 << 3));
+		s[23] = (byte) (h7 >> 5);
+		s[24] = (byte) (h7 >> 13);
+		s[25] = (byte) ((h7 >> 21) | (h8 << 4));
+		s[26] = (byte) (h8 >> 4);
+		s[27] = (byte) (h8 >> 12);
+		s[28] = (byte) ((h8 >> 20) | (h9 << 6));
+		s[29] = (byte) (h9 >> 2);
+		s[30] = (byte) (h9 >> 10);
+		s[31] = (byte) (h9 >> 18);
+	}
+}
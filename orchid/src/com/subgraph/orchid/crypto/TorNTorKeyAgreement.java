@@ -61,7 +61,7 @@ public class TorNTorKeyAgreement implements TorKeyAgreement {
 	
 	byte[] getPublicKeyForPrivate(byte[] secretKey) {
 		final byte[] pub = new byte[32];
-		Curve25519.crypto_scalarmult_base(pub, secretKey);
+		TorCurve25519.scalarMultBase(pub, secretKey);
 		return pub;
 	}
 	
@@ -119,7 +119,7 @@ public class TorNTorKeyAgreement implements TorKeyAgreement {
 	
 	private byte[] scalarMult(byte[] peerValue) {
 		final byte[] out = new byte[CURVE25519_OUTPUT_LEN];
-		Curve25519.crypto_scalarmult(out, secretKey_x, peerValue);
+		TorCurve25519.scalarMult(out, secretKey_x, peerValue);
 		isBad |= isAllZero(out);
 		return out;
 	}
@@ -30,9 +30,11 @@ public class TorRFC5869KeyDerivation {
 	public ByteBuffer deriveKeys(int length) {
 		int round = 1;
 		final ByteBuffer bb = makeBuffer(length);
+		/* doFinal() resets the Mac, so one instance serves every round */
+		final Mac mac = createMacInstance();
 		byte[] macOutput = null;
 		while(bb.hasRemaining()) {
-			macOutput = expandRound(round, macOutput);
+			macOutput = expandRound(mac, round, macOutput);
 			if(macOutput.length > bb.remaining()) {
 				bb.put(macOutput, 0, bb.remaining());
 			} else {
@@ -44,7 +46,7 @@ public class TorRFC5869KeyDerivation {
 		return bb;
 	}
 	
-	private byte[] expandRound(int round, byte[] priorMac) {
+	private byte[] expandRound(Mac mac, int round, byte[] priorMac) {
 		final ByteBuffer bb;
 		if(round == 1) {
 			bb = makeBuffer(M_EXPAND_BYTES.length + 1);
@@ -55,7 +57,6 @@ public class TorRFC5869KeyDerivation {
 		bb.put(M_EXPAND_BYTES);
 		bb.put((byte) round);
 
-		final Mac mac = createMacInstance();
 		return mac.doFinal(bb.array());
 	}
 	
@@ -0,0 +1,234 @@
+package com.subgraph.orchid.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.subgraph.orchid.TorException;
+
+/**
+ * A SHA-1 running digest for the relay cells of a circuit hop.
+ *
+ * The digest is computed here, without allocating after the instance is created.  The state can be saved before
+ * adding a cell and restored if the cell turns out not to belong to this hop, without hashing the cell again.
+ *
+ * {@link #createWithPlatformDigest()} uses the platform SHA-1 implementation instead, if it can be cloned.  Saving
+ * the state and reading the digest value then each clone the platform digest, so it is only faster when the
+ * platform compression function outweighs two allocations per cell.
+ *
+ * Instances are not thread safe.
+ */
+public class TorRunningDigest {
+	private final static int BLOCK_LEN = 64;
+
+	/* Platform digest, or null if the digest is computed by this class */
+	private MessageDigest digest;
+	private MessageDigest savedDigest;
+
+	private final int[] state;
+	private final byte[] block;
+	private int blockLength;
+	private long byteCount;
+
+	private final int[] savedState;
+	private final byte[] savedBlock;
+	private int savedBlockLength;
+	private long savedByteCount;
+
+	private final int[] w;
+	private final int[] finalState;
+	private final byte[] finalBlock;
+
+	public TorRunningDigest() {
+		this(false);
+	}
+
+	/**
+	 * Return a running digest which uses the platform SHA-1 implementation if it supports cloning, or computes the
+	 * digest itself otherwise.
+	 */
+	public static TorRunningDigest createWithPlatformDigest() {
+		return new TorRunningDigest(true);
+	}
+
+	TorRunningDigest(boolean usePlatformDigest) {
+		digest = (usePlatformDigest) ? createCloneableDigest() : null;
+		if(digest != null) {
+			state = savedState = w = finalState = null;
+			block = savedBlock = finalBlock = null;
+			return;
+		}
+		state = new int[5];
+		block = new byte[BLOCK_LEN];
+		savedState = new int[5];
+		savedBlock = new byte[BLOCK_LEN];
+		w = new int[80];
+		finalState = new int[5];
+		finalBlock = new byte[BLOCK_LEN];
+		state[0] = 0x67452301;
+		state[1] = 0xEFCDAB89;
+		state[2] = 0x98BADCFE;
+		state[3] = 0x10325476;
+		state[4] = 0xC3D2E1F0;
+	}
+
+	private static MessageDigest createCloneableDigest() {
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.clone();
+			return md;
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (CloneNotSupportedException e) {
+			return null;
+		}
+	}
+
+	private static MessageDigest cloneDigest(MessageDigest md) {
+		try {
+			return (MessageDigest) md.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new TorException(e);
+		}
+	}
+
+	/** Return <tt>true</tt> if the platform SHA-1 implementation computes the digest. */
+	boolean isPlatformDigest() {
+		return digest != null;
+	}
+
+	public void update(byte[] input) {
+		update(input, 0, input.length);
+	}
+
+	public void update(byte[] input, int offset, int length) {
+		if(digest != null) {
+			digest.update(input, offset, length);
+			return;
+		}
+		byteCount += length;
+		if(blockLength > 0) {
+			final int n = Math.min(length, BLOCK_LEN - blockLength);
+			System.arraycopy(input, offset, block, blockLength, n);
+			blockLength += n;
+			offset += n;
+			length -= n;
+			if(blockLength < BLOCK_LEN) {
+				return;
+			}
+			compress(state, block, 0);
+			blockLength = 0;
+		}
+		while(length >= BLOCK_LEN) {
+			compress(state, input, offset);
+			offset += BLOCK_LEN;
+			length -= BLOCK_LEN;
+		}
+		System.arraycopy(input, offset, block, 0, length);
+		blockLength = length;
+	}
+
+	/**
+	 * Save the current state, replacing any previously saved state.
+	 */
+	public void saveState() {
+		if(digest != null) {
+			savedDigest = cloneDigest(digest);
+			return;
+		}
+		System.arraycopy(state, 0, savedState, 0, state.length);
+		System.arraycopy(block, 0, savedBlock, 0, blockLength);
+		savedBlockLength = blockLength;
+		savedByteCount = byteCount;
+	}
+
+	/**
+	 * Return to the state at the most recent call to {@link #saveState()}.
+	 */
+	public void restoreState() {
+		if(digest != null) {
+			if(savedDigest != null) {
+				digest = cloneDigest(savedDigest);
+			}
+			return;
+		}
+		System.arraycopy(savedState, 0, state, 0, state.length);
+		System.arraycopy(savedBlock, 0, block, 0, savedBlockLength);
+		blockLength = savedBlockLength;
+		byteCount = savedByteCount;
+	}
+
+	/**
+	 * Write the digest of all data added so far into <code>output</code> at <code>offset</code> without changing
+	 * the running state.  Fewer than <code>TOR_DIGEST_SIZE</code> bytes are written if <code>length</code> is smaller.
+	 */
+	public void getDigest(byte[] output, int offset, int length) {
+		if(digest != null) {
+			final byte[] value = cloneDigest(digest).digest();
+			System.arraycopy(value, 0, output, offset, Math.min(length, value.length));
+			return;
+		}
+		System.arraycopy(state, 0, finalState, 0, state.length);
+		System.arraycopy(block, 0, finalBlock, 0, blockLength);
+		int n = blockLength;
+		finalBlock[n++] = (byte) 0x80;
+		if(n > BLOCK_LEN - 8) {
+			while(n < BLOCK_LEN) {
+				finalBlock[n++] = 0;
+			}
+			compress(finalState, finalBlock, 0);
+			n = 0;
+		}
+		while(n < BLOCK_LEN - 8) {
+			finalBlock[n++] = 0;
+		}
+		final long bitCount = byteCount << 3;
+		for(int i = 0; i < 8; i++) {
+			finalBlock[BLOCK_LEN - 1 - i] = (byte) (bitCount >>> (8 * i));
+		}
+		compress(finalState, finalBlock, 0);
+
+		final int len = Math.min(length, TorMessageDigest.TOR_DIGEST_SIZE);
+		for(int i = 0; i < len; i++) {
+			output[offset + i] = (byte) (finalState[i >> 2] >>> (24 - 8 * (i & 3)));
+		}
+	}
+
+	public byte[] getDigestBytes() {
+		final byte[] digest = new byte[TorMessageDigest.TOR_DIGEST_SIZE];
+		getDigest(digest, 0, digest.length);
+		return digest;
+	}
+
+	private void compress(int[] h, byte[] data, int offset) {
+		for(int i = 0; i < 16; i++) {
+			final int j = offset + (i << 2);
+			w[i] = (data[j] << 24) | ((data[j + 1] & 0xFF) << 16) | ((data[j + 2] & 0xFF) << 8) | (data[j + 3] & 0xFF);
+		}
+		for(int i = 16; i < 80; i++) {
+			w[i] = Integer.rotateLeft(w[i - 3] ^ w[i - 8] ^ w[i - 14] ^ w[i - 16], 1);
+		}
+		int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4];
+		int t;
+		for(int i = 0; i < 20; i++) {
+			t = Integer.rotateLeft(a, 5) + ((b & c) | (~b & d)) + e + w[i] + 0x5A827999;
+			e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+		}
+		for(int i = 20; i < 40; i++) {
+			t = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + w[i] + 0x6ED9EBA1;
+			e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+		}
+		for(int i = 40; i < 60; i++) {
+			t = Integer.rotateLeft(a, 5) + ((b & c) | (b & d) | (c & d)) + e + w[i] + 0x8F1BBCDC;
+			e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+		}
+		for(int i = 60; i < 80; i++) {
+			t = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + w[i] + 0xCA62C1D6;
+			e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+		}
+		h[0] += a;
+		h[1] += b;
+		h[2] += c;
+		h[3] += d;
+		h[4] += e;
+	}
+}
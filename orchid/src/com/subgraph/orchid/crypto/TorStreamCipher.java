@@ -5,6 +5,7 @@ import java.security.GeneralSecurityException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import com.subgraph.orchid.TorException;
@@ -25,11 +26,23 @@ public class TorStreamCipher {
 		return new TorStreamCipher(keyBytes, iv);
 	}
 
+	/* Always uses the AES/ECB fallback, for testing it against AES/CTR */
+	static TorStreamCipher createFallbackFromKeyBytesWithIV(byte[] keyBytes, byte[] iv) {
+		return new TorStreamCipher(keyBytes, iv, false);
+	}
+
 	private static final int BLOCK_SIZE = 16;
-	private final Cipher cipher;
+	/* Keystream blocks generated per call to the ECB cipher when AES/CTR is not available, enough for a cell payload */
+	private static final int KEYSTREAM_BLOCKS = 32;
+
+	/* AES/CTR cipher, null if the provider does not support it */
+	private final Cipher ctrCipher;
+	/* Fallback: AES/ECB over a buffer of consecutive counter blocks */
+	private final Cipher ecbCipher;
 	private final byte[] counter;
-	private final byte[] counterOut;
-	/* Next byte of keystream in counterOut */
+	private final byte[] counterBlocks;
+	private final byte[] keystream;
+	/* Next byte of keystream in keystream buffer */
 	private int keystreamPointer = -1;
 	private final SecretKeySpec key;
 	
@@ -39,14 +52,25 @@ public class TorStreamCipher {
 	}
 	
 	private TorStreamCipher(byte[] keyBytes, byte[] iv) {
+		this(keyBytes, iv, true);
+	}
+
+	private TorStreamCipher(byte[] keyBytes, byte[] iv, boolean allowCounterMode) {
 		key = keyBytesToSecretKey(keyBytes);
-		cipher = createCipher(key);
 		counter = new byte[BLOCK_SIZE];
-		counterOut = new byte[BLOCK_SIZE];
-		
 		if(iv != null) {
 			applyIV(iv);
 		}
+		ctrCipher = allowCounterMode ? createCounterModeCipher(key, counter) : null;
+		if(ctrCipher == null) {
+			ecbCipher = createCipher(key);
+			counterBlocks = new byte[BLOCK_SIZE * KEYSTREAM_BLOCKS];
+			keystream = new byte[BLOCK_SIZE * KEYSTREAM_BLOCKS];
+		} else {
+			ecbCipher = null;
+			counterBlocks = null;
+			keystream = null;
+		}
 	}
 	
 	private void applyIV(byte[] iv) {
@@ -61,8 +85,29 @@ public class TorStreamCipher {
 	}
 	
 	public synchronized void encrypt(byte[] data, int offset, int length) {
-		for(int i = 0; i < length; i++) 
-			data[i + offset] ^= nextKeystreamByte();
+		if(ctrCipher != null) {
+			encryptCounterMode(data, offset, length);
+			return;
+		}
+		int i = 0;
+		while(i < length) {
+			if(keystreamPointer == -1 || keystreamPointer >= keystream.length)
+				refillKeystream();
+			final int n = Math.min(length - i, keystream.length - keystreamPointer);
+			for(int j = 0; j < n; j++) 
+				data[offset + i + j] ^= keystream[keystreamPointer + j];
+			keystreamPointer += n;
+			i += n;
+		}
+	}
+	
+	private void encryptCounterMode(byte[] data, int offset, int length) {
+		try {
+			/* The JDK cipher keeps the unused part of the last keystream block between calls */
+			ctrCipher.update(data, offset, length, data, offset);
+		} catch (GeneralSecurityException e) {
+			throw new TorException(e);
+		}
 	}
 	
 	public byte[] getKeyBytes() {
@@ -73,6 +118,16 @@ public class TorStreamCipher {
 		return new SecretKeySpec(keyBytes, "AES");
 	}
 	
+	private static Cipher createCounterModeCipher(SecretKeySpec keySpec, byte[] iv) {
+		try {
+			final Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+			cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+			return cipher;
+		} catch (GeneralSecurityException e) {
+			return null;
+		}
+	}
+	
 	private static Cipher createCipher(SecretKeySpec keySpec) {
 		try {
 			final Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
@@ -93,23 +148,17 @@ public class TorStreamCipher {
 		} 
 	}
 	
-	private byte nextKeystreamByte() {
-		if(keystreamPointer == -1 || (keystreamPointer >= BLOCK_SIZE))
-			updateCounter();
-		return counterOut[keystreamPointer++];
-	}
-	private void updateCounter() {
-		encryptCounter();
-		incrementCounter();
-		keystreamPointer = 0;
-	}
-	
-	private void encryptCounter() {
+	private void refillKeystream() {
+		for(int i = 0; i < KEYSTREAM_BLOCKS; i++) {
+			System.arraycopy(counter, 0, counterBlocks, i * BLOCK_SIZE, BLOCK_SIZE);
+			incrementCounter();
+		}
 		try {
-			cipher.doFinal(counter, 0, BLOCK_SIZE, counterOut, 0);
+			ecbCipher.doFinal(counterBlocks, 0, counterBlocks.length, keystream, 0);
 		} catch (GeneralSecurityException e) {
 			throw new TorException(e);
 		}
+		keystreamPointer = 0;
 	}
 	
 	private void incrementCounter() {
@@ -17,6 +17,12 @@ import com.subgraph.orchid.directory.parsing.DocumentParser;
 import com.subgraph.orchid.directory.parsing.DocumentParsingResult;
 import com.subgraph.orchid.misc.GuardedBy;
 
+/*
+ * The cache and journal files are parsed in full when they are loaded. Parsing each descriptor only when it is first
+ * looked up would not save anything: every RouterImpl looks up its descriptor when it is created, loading a consensus
+ * stamps the last listed time on the descriptor of every router status, and path selection reads the keys and exit
+ * policies of nearly all routers.
+ */
 public abstract class DescriptorCache <T extends Descriptor> {
 	private final static Logger logger = Logger.getLogger(DescriptorCache.class.getName());
 	
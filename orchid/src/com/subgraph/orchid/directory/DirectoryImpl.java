@@ -62,6 +62,7 @@ public class DirectoryImpl implements Directory {
 	
 	private ConsensusDocument currentConsensus;
 	private ConsensusDocument consensusWaitingForCertificates;
+	private int consensusGeneration;
 
 	public DirectoryImpl(TorConfig config, DirectoryStore customDirectoryStore) {
 		store = (customDirectoryStore == null) ? (new DirectoryStoreImpl(config)) : (customDirectoryStore);
@@ -309,13 +310,16 @@ public class DirectoryImpl implements Directory {
 			requiredCertificates.addAll(consensus.getRequiredCertificates());
 		
 		}
-		final Map<HexDigest, RouterImpl> oldRouterByIdentity = new HashMap<HexDigest, RouterImpl>(routersByIdentity);
-
-		clearAll();
+		// Routers are updated in place rather than rebuilding the map from a copy: every router listed in this
+		// consensus is stamped with a new generation and the ones left with an older generation are removed.
+		consensusGeneration += 1;
+		routersByNickname.clear();
+		directoryCaches.clear();
 
 		for(RouterStatus status: consensus.getRouterStatusEntries()) {
 			if(status.hasFlag("Running") && status.hasFlag("Valid")) {
-				final RouterImpl router = updateOrCreateRouter(status, oldRouterByIdentity);
+				final RouterImpl router = updateOrCreateRouter(status, routersByIdentity);
+				router.consensusGeneration = consensusGeneration;
 				addRouter(router);
 				classifyRouter(router);
 			}
@@ -324,6 +328,7 @@ public class DirectoryImpl implements Directory {
 				d.setLastListed(consensus.getValidAfterTime().getTime());
 			}
 		}
+		removeUnlistedRouters();
 		
 		logger.fine("Loaded "+ routersByIdentity.size() +" routers from consensus document");
 		currentConsensus = consensus;
@@ -360,10 +365,15 @@ public class DirectoryImpl implements Directory {
 		return router;
 	}
 
-	private void clearAll() {
-		routersByIdentity.clear();
-		routersByNickname.clear();
-		directoryCaches.clear();
+	private void removeUnlistedRouters() {
+		synchronized(routersByIdentity) {
+			final Iterator<RouterImpl> it = routersByIdentity.values().iterator();
+			while(it.hasNext()) {
+				if(it.next().consensusGeneration != consensusGeneration) {
+					it.remove();
+				}
+			}
+		}
 	}
 
 	private void classifyRouter(RouterImpl router) {
@@ -383,7 +393,9 @@ public class DirectoryImpl implements Directory {
 	}
 
 	private void addRouter(RouterImpl router) {
-		routersByIdentity.put(router.getIdentityHash(), router);
+		synchronized(routersByIdentity) {
+			routersByIdentity.put(router.getIdentityHash(), router);
+		}
 		addRouterByNickname(router);
 	}
 
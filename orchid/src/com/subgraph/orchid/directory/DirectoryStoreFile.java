@@ -20,6 +20,7 @@ public class DirectoryStoreFile {
 	private final static Logger logger = Logger.getLogger(DirectoryStoreFile.class.getName());
 	private final static ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
 	private final static TorRandom random = new TorRandom();
+	private final static boolean isWindows = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
 	
 	private final TorConfig config;
 	private final String cacheFilename;
@@ -103,13 +104,35 @@ public class DirectoryStoreFile {
 		}
 		
 		try {
-			return readAllFromChannel(openFile.getChannel());
+			return mapOrReadChannel(openFile.getChannel());
 		} catch (IOException e) {
 			logger.warning("I/O error reading cache file "+ cacheFilename + " : "+ e);
 			return EMPTY_BUFFER;
 		}
 	}
 	
+	/*
+	 * The cache files are mapped read-only rather than copied into a buffer, so that only the pages actually touched
+	 * while parsing are read and they stay in the page cache rather than on the heap. New contents are always written
+	 * to a temporary file and renamed over the cache file, or appended past the end of it, so a mapping is never
+	 * truncated underneath the parsers. Windows refuses to delete or rename a mapped file, so it gets a copy.
+	 */
+	private ByteBuffer mapOrReadChannel(FileChannel channel) throws IOException {
+		final long size = channel.size();
+		if(size == 0) {
+			return EMPTY_BUFFER;
+		}
+		if(isWindows || size > Integer.MAX_VALUE) {
+			return readAllFromChannel(channel);
+		}
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} catch (IOException e) {
+			logger.fine("Failed to map cache file "+ cacheFilename +", reading instead : "+ e);
+			return readAllFromChannel(channel);
+		}
+	}
+
 	private ByteBuffer readAllFromChannel(FileChannel channel) throws IOException {
 		channel.position(0);
 		final ByteBuffer buffer = createBufferForChannel(channel);
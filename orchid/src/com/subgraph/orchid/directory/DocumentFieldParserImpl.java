@@ -2,8 +2,10 @@ package com.subgraph.orchid.directory;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.TimeZone;
@@ -30,7 +32,14 @@ public class DocumentFieldParserImpl implements DocumentFieldParser {
 	private final static String END_TAG = "-----END";
 	private final static String TAG_DELIMITER = "-----";
 	private final static String DEFAULT_DELIMITER = " ";
+	private final static Charset LINE_CHARSET = Charset.forName("ISO-8859-1");
+	private final static byte[] NEWLINE = { '\n' };
+	private final static ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
 	private final ByteBuffer inputBuffer;
+	/* Bytes of the line most recently read from inputBuffer, '\r' characters removed */
+	private byte[] lineBytes = new byte[256];
+	private int lineLength;
+	private String currentLine;
 	private final SimpleDateFormat dateFormat;
 	private String delimiter = DEFAULT_DELIMITER;
 	private String currentKeyword;
@@ -46,6 +55,14 @@ public class DocumentFieldParserImpl implements DocumentFieldParser {
 
 	private DocumentParsingHandler callbackHandler;
 
+	/**
+	 * Create a parser which does not read a document, but is only used to parse keyword lines passed to
+	 * {@link #loadLine(String)}.
+	 */
+	public DocumentFieldParserImpl() {
+		this(EMPTY_BUFFER.duplicate());
+	}
+
 	public DocumentFieldParserImpl(ByteBuffer buffer) {
 		buffer.rewind();
 		this.inputBuffer = buffer;
@@ -294,6 +311,21 @@ public class DocumentFieldParserImpl implements DocumentFieldParser {
 		return currentKeyword;
 	}
 
+	public String getCurrentLine() {
+		return currentLine;
+	}
+
+	public boolean loadLine(String line) {
+		return processLine(line);
+	}
+
+	public DocumentFieldParser createLineParser() {
+		final DocumentFieldParserImpl parser = new DocumentFieldParserImpl();
+		parser.delimiter = delimiter;
+		parser.recognizeOpt = recognizeOpt;
+		return parser;
+	}
+
 	public void processDocument() {
 		if(callbackHandler == null) 
 			throw new TorException("DocumentFieldParser#processDocument() called with null callbackHandler");
@@ -367,29 +399,57 @@ public class DocumentFieldParserImpl implements DocumentFieldParser {
 		if(!inputBuffer.hasRemaining()) {
 			return null;
 		}
-		final StringBuilder sb = new StringBuilder();
+		lineLength = 0;
 		while(inputBuffer.hasRemaining()) {
-			char c = (char) (inputBuffer.get() & 0xFF);
-			if(c == '\n') {
-				return sb.toString();
-			} else if(c != '\r') {
-				sb.append(c);
+			final byte b = inputBuffer.get();
+			if(b == '\n') {
+				break;
+			} else if(b != '\r') {
+				if(lineLength == lineBytes.length) {
+					lineBytes = Arrays.copyOf(lineBytes, lineBytes.length * 2);
+				}
+				lineBytes[lineLength++] = b;
 			}
 		}
-		return sb.toString();
+		return new String(lineBytes, 0, lineLength, LINE_CHARSET);
 	}
 
+	/* The digests are updated from the bytes of the line rather than encoding the line again */
 	private void updateCurrentSignature(String line) {
 		if(!isProcessingSignedEntity)
 			return;
 		if(signatureIgnoreToken != null && line.startsWith(signatureIgnoreToken))
 			return;
-		signatureDigest.update(line + "\n");
-		signatureDigest256.update(line + "\n");
+		signatureDigest.update(lineBytes, 0, lineLength);
+		signatureDigest.update(NEWLINE);
+		signatureDigest256.update(lineBytes, 0, lineLength);
+		signatureDigest256.update(NEWLINE);
+	}
+
+	private List<String> splitLine(String line) {
+		if(delimiter.length() != 1) {
+			return Arrays.asList(line.split(delimiter));
+		}
+		/* Same result as String.split() with a single character delimiter, without the regex machinery */
+		final char c = delimiter.charAt(0);
+		final List<String> items = new ArrayList<String>(8);
+		int start = 0;
+		int idx;
+		while((idx = line.indexOf(c, start)) != -1) {
+			items.add(line.substring(start, idx));
+			start = idx + 1;
+		}
+		items.add(line.substring(start));
+		int size = items.size();
+		while(size > 1 && items.get(size - 1).length() == 0) {
+			items.remove(--size);
+		}
+		return items;
 	}
 
 	private boolean processLine(String line) {
-		final List<String> lineItems = Arrays.asList(line.split(delimiter));
+		currentLine = line;
+		final List<String> lineItems = splitLine(line);
 		if(lineItems.size() == 0 || lineItems.get(0).length() == 0) {
 			// XXX warn
 			return false;
@@ -1,6 +1,7 @@
 package com.subgraph.orchid.directory;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
 
 import com.subgraph.orchid.ConsensusDocument;
 import com.subgraph.orchid.KeyCertificate;
@@ -11,10 +12,13 @@ import com.subgraph.orchid.directory.consensus.ConsensusDocumentParser;
 import com.subgraph.orchid.directory.parsing.DocumentFieldParser;
 import com.subgraph.orchid.directory.parsing.DocumentParser;
 import com.subgraph.orchid.directory.parsing.DocumentParserFactory;
+import com.subgraph.orchid.directory.parsing.DocumentParsingExecutor;
+import com.subgraph.orchid.directory.parsing.ParallelDocumentParser;
 import com.subgraph.orchid.directory.router.RouterDescriptorParser;
 import com.subgraph.orchid.directory.router.RouterMicrodescriptorParser;
 
 public class DocumentParserFactoryImpl implements DocumentParserFactory {
+	private final static String MICRODESCRIPTOR_START = "onion-key";
 	
 	public DocumentParser<KeyCertificate> createKeyCertificateParser(ByteBuffer buffer) {
 		return new KeyCertificateParser(new DocumentFieldParserImpl(buffer));
@@ -26,11 +30,25 @@ public class DocumentParserFactoryImpl implements DocumentParserFactory {
 
 	public DocumentParser<RouterMicrodescriptor> createRouterMicrodescriptorParser(ByteBuffer buffer) {
 		buffer.rewind();
+		final ExecutorService executor = DocumentParsingExecutor.getExecutor();
+		if(executor == null) {
+			return createSingleRouterMicrodescriptorParser(buffer);
+		}
+		final int chunkCount = Runtime.getRuntime().availableProcessors();
+		return new ParallelDocumentParser<RouterMicrodescriptor>(buffer, MICRODESCRIPTOR_START, executor, chunkCount) {
+			@Override
+			protected DocumentParser<RouterMicrodescriptor> createChunkParser(ByteBuffer chunk) {
+				return createSingleRouterMicrodescriptorParser(chunk);
+			}
+		};
+	}
+
+	private DocumentParser<RouterMicrodescriptor> createSingleRouterMicrodescriptorParser(ByteBuffer buffer) {
 		DocumentFieldParser dfp = new DocumentFieldParserImpl(buffer);
 		return new RouterMicrodescriptorParser(dfp);
 	}
 
 	public DocumentParser<ConsensusDocument> createConsensusDocumentParser(ByteBuffer buffer) {
-		return new ConsensusDocumentParser(new DocumentFieldParserImpl(buffer));
+		return new ConsensusDocumentParser(new DocumentFieldParserImpl(buffer), DocumentParsingExecutor.getExecutor());
 	}
 }
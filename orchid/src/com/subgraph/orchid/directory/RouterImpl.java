@@ -26,6 +26,9 @@ public class RouterImpl implements Router {
 	
 	private volatile String cachedCountryCode;
 	
+	/* Generation of the last consensus which listed this router as usable, see DirectoryImpl.addConsensusDocument() */
+	int consensusGeneration;
+	
 	protected RouterImpl(Directory directory, RouterStatus status) {
 		this.directory = directory;
 		this.identityHash = status.getIdentity();
@@ -8,6 +8,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import com.subgraph.orchid.ConsensusDocument;
@@ -15,12 +19,14 @@ import com.subgraph.orchid.DirectoryServer;
 import com.subgraph.orchid.KeyCertificate;
 import com.subgraph.orchid.RouterStatus;
 import com.subgraph.orchid.Tor;
+import com.subgraph.orchid.TorException;
 import com.subgraph.orchid.VoteAuthorityEntry;
 import com.subgraph.orchid.crypto.TorPublicKey;
 import com.subgraph.orchid.crypto.TorSignature.DigestAlgorithm;
 import com.subgraph.orchid.data.HexDigest;
 import com.subgraph.orchid.data.Timestamp;
 import com.subgraph.orchid.directory.TrustedAuthorities;
+import com.subgraph.orchid.directory.parsing.DocumentParsingExecutor;
 
 public class ConsensusDocumentImpl implements ConsensusDocument {
 	
@@ -40,7 +46,8 @@ public class ConsensusDocumentImpl implements ConsensusDocument {
 	
 	private final static String USE_NTOR_HANDSHAKE_PARAM = "UseNTorHandshake";
 	
-	private Set<RequiredCertificate> requiredCertificates = new HashSet<RequiredCertificate>();
+	/* Synchronized since authority signatures may be verified in parallel */
+	private Set<RequiredCertificate> requiredCertificates = Collections.synchronizedSet(new HashSet<RequiredCertificate>());
 	
 	
 	private int consensusMethod;
@@ -203,8 +210,8 @@ public class ConsensusDocumentImpl implements ConsensusDocument {
 		final int v3Count = TrustedAuthorities.getInstance().getV3AuthorityServerCount();
 		final int required = (v3Count / 2) + 1;
 		
-		for(VoteAuthorityEntry entry: voteAuthorityEntries.values()) {
-			switch(verifySingleAuthority(entry)) {
+		for(SignatureStatus status: verifyAllAuthorities()) {
+			switch(status) {
 			case STATUS_FAILED:
 				break;
 			case STATUS_NEED_CERTS:
@@ -228,6 +235,39 @@ public class ConsensusDocumentImpl implements ConsensusDocument {
 		}
 	}
 
+	private List<SignatureStatus> verifyAllAuthorities() {
+		final List<SignatureStatus> results = new ArrayList<SignatureStatus>();
+		final ExecutorService executor = DocumentParsingExecutor.getExecutor();
+		if(executor == null || voteAuthorityEntries.size() < 2) {
+			for(VoteAuthorityEntry entry: voteAuthorityEntries.values()) {
+				results.add(verifySingleAuthority(entry));
+			}
+			return results;
+		}
+		final List<Future<SignatureStatus>> futures = new ArrayList<Future<SignatureStatus>>();
+		for(final VoteAuthorityEntry entry: voteAuthorityEntries.values()) {
+			futures.add(executor.submit(new Callable<SignatureStatus>() {
+				public SignatureStatus call() {
+					return verifySingleAuthority(entry);
+				}
+			}));
+		}
+		try {
+			for(Future<SignatureStatus> f: futures) {
+				results.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TorException("Interrupted while verifying consensus signatures");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new TorException(e.getCause());
+		}
+		return results;
+	}
+
 	private SignatureStatus verifySingleAuthority(VoteAuthorityEntry authority) {
 		
 		boolean certsNeeded = false;
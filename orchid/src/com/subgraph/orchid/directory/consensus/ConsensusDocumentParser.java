@@ -1,5 +1,7 @@
 package com.subgraph.orchid.directory.consensus;
 
+import java.util.concurrent.ExecutorService;
+
 import com.subgraph.orchid.ConsensusDocument;
 import com.subgraph.orchid.TorParsingException;
 import com.subgraph.orchid.directory.parsing.BasicDocumentParsingResult;
@@ -28,13 +30,20 @@ public class ConsensusDocumentParser implements DocumentParser<ConsensusDocument
 	private DocumentParsingResultHandler<ConsensusDocument> resultHandler;
 	
 	public ConsensusDocumentParser(DocumentFieldParser fieldParser) {
+		this(fieldParser, null);
+	}
+	
+	/**
+	 * @param executor If not <tt>null</tt>, router status entries are parsed in batches on this executor.
+	 */
+	public ConsensusDocumentParser(DocumentFieldParser fieldParser, ExecutorService executor) {
 		this.fieldParser = fieldParser;
 		initializeParser();
 		
 		document = new ConsensusDocumentImpl();
 		preambleParser = new PreambleSectionParser(fieldParser, document);
 		authorityParser = new AuthoritySectionParser(fieldParser, document);
-		routerStatusParser = new RouterStatusSectionParser(fieldParser, document);
+		routerStatusParser = new RouterStatusSectionParser(fieldParser, document, executor);
 		footerParser = new FooterSectionParser(fieldParser, document);
 	}
 	
@@ -67,6 +76,7 @@ public class ConsensusDocumentParser implements DocumentParser<ConsensusDocument
 		return new DocumentParsingHandler() {
 
 			public void endOfDocument() {
+				routerStatusParser.finishEntries();
 				document.setRawDocumentData(fieldParser.getRawDocument());
 				resultHandler.documentParsed(document);
 				fieldParser.logDebug("Finished parsing status document.");				
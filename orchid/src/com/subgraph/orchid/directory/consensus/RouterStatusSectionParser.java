@@ -1,22 +1,64 @@
 package com.subgraph.orchid.directory.consensus;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import com.subgraph.orchid.ConsensusDocument.ConsensusFlavor;
+import com.subgraph.orchid.TorException;
 import com.subgraph.orchid.TorParsingException;
 import com.subgraph.orchid.crypto.TorMessageDigest;
 import com.subgraph.orchid.data.HexDigest;
 import com.subgraph.orchid.directory.consensus.ConsensusDocumentParser.DocumentSection;
 import com.subgraph.orchid.directory.parsing.DocumentFieldParser;
 
+/*
+ * When an executor is provided, the lines of the section are only collected here and batches of
+ * BATCH_SIZE entries are parsed on the executor.  The results are added to the document in order
+ * by finishEntries().  The signature digests still cover every line, since the lines are read
+ * by the document field parser as usual.
+ */
 public class RouterStatusSectionParser extends ConsensusDocumentSectionParser {
+	private final static int BATCH_SIZE = 500;
 
 	private RouterStatusImpl currentEntry = null;
 	
+	private final ExecutorService executor;
+	private final List<Future<List<RouterStatusImpl>>> pendingBatches;
+	private List<String> currentBatch;
+	private int currentBatchEntryCount;
+	
+	/* Only used by the parser for a single batch */
+	private final List<RouterStatusImpl> batchEntries;
+	
 	RouterStatusSectionParser(DocumentFieldParser parser, ConsensusDocumentImpl document) {
+		this(parser, document, (ExecutorService) null);
+	}
+	
+	RouterStatusSectionParser(DocumentFieldParser parser, ConsensusDocumentImpl document, ExecutorService executor) {
 		super(parser, document);
+		this.executor = executor;
+		this.pendingBatches = new ArrayList<Future<List<RouterStatusImpl>>>();
+		this.currentBatch = new ArrayList<String>();
+		this.batchEntries = null;
+	}
+	
+	private RouterStatusSectionParser(DocumentFieldParser lineParser, ConsensusDocumentImpl document, List<RouterStatusImpl> batchEntries) {
+		super(lineParser, document);
+		this.executor = null;
+		this.pendingBatches = null;
+		this.batchEntries = batchEntries;
 	}
 	
 	@Override
 	void parseLine(DocumentKeyword keyword) {
+		if(executor != null) {
+			addLineToBatch(keyword);
+			return;
+		}
 		if(!keyword.equals(DocumentKeyword.R))
 			assertCurrentEntry();
 		switch(keyword) {
@@ -50,10 +92,80 @@ public class RouterStatusSectionParser extends ConsensusDocumentSectionParser {
 	
 	private void addCurrentEntry() {
 		assertCurrentEntry();
-		document.addRouterStatusEntry(currentEntry);
+		if(batchEntries != null) {
+			batchEntries.add(currentEntry);
+		} else {
+			document.addRouterStatusEntry(currentEntry);
+		}
 		currentEntry = null;
 	}
 	
+	private void addLineToBatch(DocumentKeyword keyword) {
+		if(keyword.equals(DocumentKeyword.R)) {
+			if(currentBatchEntryCount == BATCH_SIZE) {
+				submitCurrentBatch(false);
+			}
+			currentBatchEntryCount += 1;
+		}
+		currentBatch.add(fieldParser.getCurrentLine());
+	}
+	
+	private void submitCurrentBatch(final boolean isLastBatch) {
+		final List<String> lines = currentBatch;
+		final DocumentFieldParser lineParser = fieldParser.createLineParser();
+		currentBatch = new ArrayList<String>();
+		currentBatchEntryCount = 0;
+		pendingBatches.add(executor.submit(new Callable<List<RouterStatusImpl>>() {
+			public List<RouterStatusImpl> call() {
+				return parseBatch(lineParser, lines, isLastBatch);
+			}
+		}));
+	}
+	
+	private List<RouterStatusImpl> parseBatch(DocumentFieldParser lineParser, List<String> lines, boolean isLastBatch) {
+		final List<RouterStatusImpl> entries = new ArrayList<RouterStatusImpl>();
+		final RouterStatusSectionParser batchParser = new RouterStatusSectionParser(lineParser, document, entries);
+		for(String line: lines) {
+			lineParser.loadLine(line);
+			batchParser.parseLine(DocumentKeyword.findKeyword(lineParser.getCurrentKeyword(), getSection()));
+		}
+		// The next batch starts with an 'r' line, which would have found this entry unterminated
+		if(!isLastBatch && batchParser.currentEntry != null) {
+			throw new TorParsingException("Unterminated router status entry.");
+		}
+		return entries;
+	}
+	
+	/**
+	 * Wait for the batches submitted to the executor and add their entries to the document in order.
+	 * Does nothing when entries are parsed as they are read.
+	 */
+	void finishEntries() {
+		if(executor == null || pendingBatches.isEmpty() && currentBatch.isEmpty()) {
+			return;
+		}
+		if(!currentBatch.isEmpty()) {
+			submitCurrentBatch(true);
+		}
+		try {
+			for(Future<List<RouterStatusImpl>> batch: pendingBatches) {
+				for(RouterStatusImpl entry: batch.get()) {
+					document.addRouterStatusEntry(entry);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TorParsingException("Interrupted while parsing router status entries");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof TorParsingException) {
+				throw (TorParsingException) e.getCause();
+			}
+			throw new TorException(e.getCause());
+		} finally {
+			pendingBatches.clear();
+		}
+	}
+	
 	private void parseFirstLine() {
 		if(currentEntry != null)
 			throw new TorParsingException("Unterminated router status entry.");
@@ -222,7 +222,32 @@ public interface DocumentFieldParser {
 	 * @return The keyword token of the current keyword line.
 	 */
 	String getCurrentKeyword();
-	
+
+	/**
+	 * Return the full text of the current keyword line.
+	 *
+	 * @return The current keyword line.
+	 */
+	String getCurrentLine();
+
+	/**
+	 * Make <tt>line</tt> the current keyword line without reading anything from the document, so
+	 * that the arguments of a line saved with {@link #getCurrentLine()} can be parsed later.
+	 *
+	 * @param line The keyword line to parse.
+	 * @return <tt>true</tt> if the line contains a keyword.
+	 */
+	boolean loadLine(String line);
+
+	/**
+	 * Create a new parser with the same delimiter and 'opt' settings as this one, which does not
+	 * read a document and is only used with {@link #loadLine(String)}.  The new parser may be
+	 * used on a different thread than this parser.
+	 *
+	 * @return A new parser for keyword lines.
+	 */
+	DocumentFieldParser createLineParser();
+
 	/**
 	 * Return all lines from the current document as a single String.
 	 * 
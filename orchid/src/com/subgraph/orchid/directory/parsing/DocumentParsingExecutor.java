@@ -0,0 +1,29 @@
+package com.subgraph.orchid.directory.parsing;
+
+import java.util.concurrent.ExecutorService;
+
+import com.subgraph.orchid.Threading;
+
+/**
+ * The pool of threads shared by parsers which split large documents, such as the consensus and
+ * microdescriptor batches, into pieces which are parsed in parallel.
+ */
+public class DocumentParsingExecutor {
+	private final static int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+	
+	private static ExecutorService executor;
+	
+	/**
+	 * Return the shared parsing executor, or <tt>null</tt> if only a single processor is available
+	 * and documents should be parsed sequentially on the calling thread.
+	 */
+	public static synchronized ExecutorService getExecutor() {
+		if(THREAD_COUNT < 2) {
+			return null;
+		}
+		if(executor == null) {
+			executor = Threading.newFixedPool("Orchid document parser", THREAD_COUNT);
+		}
+		return executor;
+	}
+}
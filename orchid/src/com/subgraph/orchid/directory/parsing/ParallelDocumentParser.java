@@ -0,0 +1,162 @@
+package com.subgraph.orchid.directory.parsing;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.subgraph.orchid.Tor;
+import com.subgraph.orchid.TorException;
+
+/**
+ * Parses a buffer holding a sequence of documents, such as a batch of microdescriptors, by splitting it into
+ * chunks at lines starting a new document and parsing each chunk on an executor.  Results are passed to the
+ * result handler in the order of the documents in the buffer, on the thread which calls <code>parse()</code>.
+ */
+public abstract class ParallelDocumentParser<T> implements DocumentParser<T> {
+	private final static int MINIMUM_CHUNK_SIZE = 64 * 1024;
+
+	private final ByteBuffer buffer;
+	private final byte[] documentStart;
+	private final ExecutorService executor;
+	private final int maximumChunkCount;
+
+	/**
+	 * @param buffer The buffer to parse.
+	 * @param documentStartLine The first line of every document in the buffer.
+	 * @param executor The executor on which chunks are parsed.
+	 * @param maximumChunkCount Maximum number of chunks to split the buffer into.
+	 */
+	protected ParallelDocumentParser(ByteBuffer buffer, String documentStartLine, ExecutorService executor, int maximumChunkCount) {
+		this.buffer = buffer;
+		this.documentStart = (documentStartLine + "\n").getBytes(Tor.getDefaultCharset());
+		this.executor = executor;
+		this.maximumChunkCount = maximumChunkCount;
+	}
+
+	/**
+	 * Create the parser for a single chunk of the buffer.
+	 */
+	protected abstract DocumentParser<T> createChunkParser(ByteBuffer chunk);
+
+	public boolean parse(DocumentParsingResultHandler<T> resultHandler) {
+		final List<ByteBuffer> chunks = splitBuffer();
+		if(chunks.size() == 1) {
+			return createChunkParser(chunks.get(0)).parse(resultHandler);
+		}
+		final List<Future<RecordedResult<T>>> futures = new ArrayList<Future<RecordedResult<T>>>();
+		for(final ByteBuffer chunk: chunks) {
+			futures.add(executor.submit(new Callable<RecordedResult<T>>() {
+				public RecordedResult<T> call() {
+					final RecordedResult<T> result = new RecordedResult<T>();
+					createChunkParser(chunk).parse(result);
+					return result;
+				}
+			}));
+		}
+		try {
+			for(Future<RecordedResult<T>> f: futures) {
+				if(!f.get().replay(resultHandler)) {
+					return false;
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			resultHandler.parsingError("Interrupted while parsing documents");
+			return false;
+		} catch (ExecutionException e) {
+			throw new TorException(e.getCause());
+		}
+	}
+
+	public DocumentParsingResult<T> parse() {
+		final BasicDocumentParsingResult<T> result = new BasicDocumentParsingResult<T>();
+		parse(result);
+		return result;
+	}
+
+	private List<ByteBuffer> splitBuffer() {
+		final ByteBuffer b = buffer.duplicate();
+		b.rewind();
+		final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		final int chunkCount = Math.min(maximumChunkCount, b.limit() / MINIMUM_CHUNK_SIZE);
+		if(chunkCount < 2) {
+			chunks.add(b);
+			return chunks;
+		}
+		final int chunkSize = b.limit() / chunkCount;
+		int start = 0;
+		while(start < b.limit()) {
+			final int end = findDocumentStart(b, start + chunkSize);
+			chunks.add(slice(b, start, end));
+			start = end;
+		}
+		return chunks;
+	}
+
+	/* Return the offset of the first line equal to documentStart at or after offset, or the limit of the buffer */
+	private int findDocumentStart(ByteBuffer b, int offset) {
+		for(int i = offset; i + documentStart.length <= b.limit(); i++) {
+			if(b.get(i - 1) == '\n' && matchesDocumentStart(b, i)) {
+				return i;
+			}
+		}
+		return b.limit();
+	}
+
+	private boolean matchesDocumentStart(ByteBuffer b, int offset) {
+		for(int i = 0; i < documentStart.length; i++) {
+			if(b.get(offset + i) != documentStart[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static ByteBuffer slice(ByteBuffer b, int start, int end) {
+		final ByteBuffer d = b.duplicate();
+		d.limit(end);
+		d.position(start);
+		return d.slice();
+	}
+
+	/* Records the results for one chunk so they can be passed on in order */
+	private static class RecordedResult<T> implements DocumentParsingResultHandler<T> {
+		private final List<T> documents = new ArrayList<T>();
+		private final List<String> invalidMessages = new ArrayList<String>();
+		private String errorMessage;
+
+		public void documentParsed(T document) {
+			documents.add(document);
+			invalidMessages.add(null);
+		}
+
+		public void documentInvalid(T document, String message) {
+			documents.add(document);
+			invalidMessages.add(message);
+		}
+
+		public void parsingError(String message) {
+			errorMessage = message;
+		}
+
+		boolean replay(DocumentParsingResultHandler<T> handler) {
+			for(int i = 0; i < documents.size(); i++) {
+				if(invalidMessages.get(i) == null) {
+					handler.documentParsed(documents.get(i));
+				} else {
+					handler.documentInvalid(documents.get(i), invalidMessages.get(i));
+				}
+			}
+			if(errorMessage != null) {
+				handler.parsingError(errorMessage);
+				return false;
+			}
+			return true;
+		}
+	}
+}
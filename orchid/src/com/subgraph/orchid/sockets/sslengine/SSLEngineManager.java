@@ -74,6 +74,25 @@ public class SSLEngineManager {
 		return peerApplicationBuffer;
 	}
 
+	/* Network data received from the peer but not yet unwrapped, ready for reading */
+	ByteBuffer copyPendingNetworkData() {
+		return copyPending(peerNetworkBuffer);
+	}
+
+	/* Application data unwrapped but not yet read, ready for reading */
+	ByteBuffer copyPendingApplicationData() {
+		return copyPending(peerApplicationBuffer);
+	}
+
+	private static ByteBuffer copyPending(ByteBuffer buffer) {
+		final ByteBuffer dup = buffer.duplicate();
+		dup.flip();
+		final ByteBuffer copy = ByteBuffer.allocate(dup.remaining());
+		copy.put(dup);
+		copy.flip();
+		return copy;
+	}
+
 	
 	int write() throws IOException {
 		logger.fine("write()");
@@ -126,42 +145,44 @@ public class SSLEngineManager {
 			return -1;
 		}
 		
-		final int n = networkReadBuffer(peerNetworkBuffer);
-		if(n == -1) {
-			return -1;
-		}
 		final int p = peerApplicationBuffer.position();
-		
-		peerNetworkBuffer.flip();
-		final SSLEngineResult result = engine.unwrap(peerNetworkBuffer, peerApplicationBuffer);
-		peerNetworkBuffer.compact();
-		if(logger.isLoggable(Level.FINE)) {
-			logResult(result);
-		}
-		
-		switch(result.getStatus()) {
-		case BUFFER_OVERFLOW:
-			throw new BufferOverflowException();
-			
-		case BUFFER_UNDERFLOW:
-			return 0; // <-- illegal return according to invariant
-			
-		case CLOSED:
-			input.close();
-			break;
-		case OK:
-			break;
-		default:
-			break;
-		}
+		// Records may already have been read from the network along with the end of the handshake, only block
+		// on the network once they have all been unwrapped.
+		boolean needNetworkData = peerNetworkBuffer.position() == 0;
+		while(peerApplicationBuffer.position() == p) {
+			if(needNetworkData && networkReadBuffer(peerNetworkBuffer) == -1) {
+				return -1;
+			}
+			peerNetworkBuffer.flip();
+			final SSLEngineResult result = engine.unwrap(peerNetworkBuffer, peerApplicationBuffer);
+			peerNetworkBuffer.compact();
+			if(logger.isLoggable(Level.FINE)) {
+				logResult(result);
+			}
 
-		runHandshake();
-		
-		if(n == -1) { // <-- can't happen
-			engine.closeInbound();
-		}
-		if(engine.isInboundDone()) {
-			return -1;
+			switch(result.getStatus()) {
+			case BUFFER_OVERFLOW:
+				throw new BufferOverflowException();
+
+			case BUFFER_UNDERFLOW:
+				needNetworkData = true;
+				break;
+
+			case CLOSED:
+				input.close();
+				break;
+			case OK:
+				needNetworkData = peerNetworkBuffer.position() == 0;
+				break;
+			default:
+				break;
+			}
+
+			runHandshake();
+
+			if(engine.isInboundDone()) {
+				return -1;
+			}
 		}
 		return peerApplicationBuffer.position() - p;
 	}
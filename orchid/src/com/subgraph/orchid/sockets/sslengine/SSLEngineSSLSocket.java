@@ -7,6 +7,7 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -39,6 +40,28 @@ public class SSLEngineSSLSocket extends SSLSocket implements HandshakeCallbackHa
 		return engine;
 	}
 
+	/**
+	 * Return the engine backing this socket, so that after the handshake the connection can be taken over by a
+	 * non-blocking transport.  The socket streams must not be used once that has been done.
+	 */
+	public SSLEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Return a copy of the data which was received from the network but not yet passed to the engine.
+	 */
+	public ByteBuffer getPendingNetworkData() {
+		return manager.copyPendingNetworkData();
+	}
+
+	/**
+	 * Return a copy of the data which was decrypted by the engine but not yet read from the input stream.
+	 */
+	public ByteBuffer getPendingApplicationData() {
+		return manager.copyPendingApplicationData();
+	}
+
 	@Override
 	public String[] getSupportedCipherSuites() {
 		return engine.getSupportedCipherSuites();
@@ -0,0 +1,101 @@
+package com.subgraph.orchid.circuits;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.subgraph.orchid.Router;
+import com.subgraph.orchid.circuits.CircuitCreationTask.ExitCircuitLauncher;
+import com.subgraph.orchid.data.exitpolicy.ExitTarget;
+
+public class CircuitCreationTaskTest {
+
+	private static class TestLauncher implements ExitCircuitLauncher {
+		private final LinkedList<Router> routers;
+		private final List<List<ExitTarget>> launched = new ArrayList<List<ExitTarget>>();
+
+		TestLauncher(Router... routers) {
+			this.routers = new LinkedList<Router>(Arrays.asList(routers));
+		}
+
+		public Router launchCircuitForTargets(List<ExitTarget> targets) {
+			launched.add(new ArrayList<ExitTarget>(targets));
+			return routers.poll();
+		}
+	}
+
+	private Router createRouterAcceptingPorts(int... ports) {
+		final Router router = createMock(Router.class);
+		for(int p: new int[] { 22, 80, 443 }) {
+			boolean accepts = false;
+			for(int port: ports) {
+				accepts |= (port == p);
+			}
+			expect(router.exitPolicyAccepts(p)).andReturn(accepts).anyTimes();
+		}
+		replay(router);
+		return router;
+	}
+
+	private static List<ExitTarget> targets(ExitTarget... targets) {
+		return new ArrayList<ExitTarget>(Arrays.asList(targets));
+	}
+
+	@Test
+	public void testLaunchesCircuitsUntilTargetsHandled() {
+		final ExitTarget http = new PredictedPortTarget(80);
+		final ExitTarget https = new PredictedPortTarget(443);
+		final List<ExitTarget> exitTargets = targets(http, http, https);
+		final TestLauncher launcher = new TestLauncher(createRouterAcceptingPorts(80), createRouterAcceptingPorts(80, 443));
+
+		assertEquals(2, CircuitCreationTask.launchCircuitsForTargets(exitTargets, 5, launcher));
+		assertTrue(exitTargets.isEmpty());
+		/* A circuit takes one entry for a predicted port, since the port is listed once for every circuit needed */
+		assertEquals(targets(http, http, https), launcher.launched.get(0));
+		assertEquals(targets(http, https), launcher.launched.get(1));
+	}
+
+	@Test
+	public void testStopsWhenNoCircuitsAvailable() {
+		final ExitTarget http = new PredictedPortTarget(80);
+		final List<ExitTarget> exitTargets = targets(http, http, http);
+		final Router router = createRouterAcceptingPorts(80);
+		final TestLauncher launcher = new TestLauncher(router, router, router);
+
+		assertEquals(2, CircuitCreationTask.launchCircuitsForTargets(exitTargets, 2, launcher));
+		assertEquals(targets(http), exitTargets);
+		assertEquals(0, CircuitCreationTask.launchCircuitsForTargets(exitTargets, 0, launcher));
+		assertEquals(2, launcher.launched.size());
+	}
+
+	@Test
+	public void testStopsWhenNoExitRouter() {
+		final List<ExitTarget> exitTargets = targets(new PredictedPortTarget(80));
+		final TestLauncher launcher = new TestLauncher();
+
+		assertEquals(0, CircuitCreationTask.launchCircuitsForTargets(exitTargets, 5, launcher));
+		assertEquals(1, exitTargets.size());
+		assertEquals(1, launcher.launched.size());
+	}
+
+	@Test
+	public void testStopsWhenCircuitHandlesNoTarget() {
+		final ExitTarget ssh = new PredictedPortTarget(22);
+		final List<ExitTarget> exitTargets = targets(ssh);
+		final TestLauncher launcher = new TestLauncher(createRouterAcceptingPorts(80), createRouterAcceptingPorts(22));
+
+		assertEquals(1, CircuitCreationTask.launchCircuitsForTargets(exitTargets, 5, launcher));
+		assertSame(ssh, exitTargets.get(0));
+		assertEquals(1, launcher.launched.size());
+	}
+}
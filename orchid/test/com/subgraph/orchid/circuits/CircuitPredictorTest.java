@@ -0,0 +1,84 @@
+package com.subgraph.orchid.circuits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitPredictorTest {
+	private final static int PORT = 443;
+	private final static long MINUTE = 60 * 1000;
+
+	private CircuitPredictor predictor;
+	private long now;
+
+	@Before
+	public void setup() {
+		predictor = new CircuitPredictor();
+		now = System.currentTimeMillis();
+	}
+
+	private void addRequests(int count, long time) {
+		for(int i = 0; i < count; i++) {
+			predictor.addExitPortRequest(PORT, time);
+		}
+	}
+
+	@Test
+	public void testDefaultPredictions() {
+		final Set<Integer> ports = predictor.getPredictedPorts();
+		assertTrue(ports.contains(80));
+		assertFalse(ports.contains(0));
+		assertTrue(predictor.isInternalPredicted());
+		assertEquals(0, predictor.getPredictedCircuitCount(PORT, 8, now));
+	}
+
+	@Test
+	public void testCountFromRecentRequests() {
+		addRequests(1, now);
+		assertEquals(2, predictor.getPredictedCircuitCount(PORT, 8, now));
+		addRequests(8, now);
+		/* 9 requests, 4 per circuit */
+		assertEquals(3, predictor.getPredictedCircuitCount(PORT, 8, now));
+		addRequests(11, now);
+		assertEquals(5, predictor.getPredictedCircuitCount(PORT, 8, now));
+		assertEquals(3, predictor.getPredictedCircuitCount(PORT, 3, now));
+	}
+
+	@Test
+	public void testRequestsDecay() {
+		addRequests(20, now);
+		assertEquals(5, predictor.getPredictedCircuitCount(PORT, 8, now));
+		/* 20 * e^-0.5 = 12.1 */
+		assertEquals(4, predictor.getPredictedCircuitCount(PORT, 8, now + MINUTE / 2));
+		/* 20 * e^-1 = 7.4 */
+		assertEquals(2, predictor.getPredictedCircuitCount(PORT, 8, now + MINUTE));
+		/* Never below the minimum while the port is predicted */
+		assertEquals(2, predictor.getPredictedCircuitCount(PORT, 8, now + 30 * MINUTE));
+	}
+
+	@Test
+	public void testDecayedRequestsAccumulate() {
+		addRequests(12, now);
+		addRequests(12, now + MINUTE);
+		/* 12 * e^-1 + 12 = 16.4, rather than 24 without decay */
+		assertEquals(5, predictor.getPredictedCircuitCount(PORT, 8, now + MINUTE));
+	}
+
+	@Test
+	public void testStreamOpenStatistics() {
+		assertEquals(0, predictor.getAverageStreamOpenMilliseconds());
+		predictor.recordStreamOpened(100);
+		assertEquals(100, predictor.getRecentStreamOpenMilliseconds());
+		predictor.recordStreamOpened(200);
+		assertEquals(2, predictor.getStreamsOpenedCount());
+		assertEquals(150, predictor.getAverageStreamOpenMilliseconds());
+		/* 100 + 0.2 * (200 - 100) */
+		assertEquals(120, predictor.getRecentStreamOpenMilliseconds());
+		assertEquals(200, predictor.getMaximumStreamOpenMilliseconds());
+	}
+}
@@ -44,6 +44,8 @@ public class TorInputStreamTest {
 		expectLastCall().times(2);
 		expect(cell.getRelayCommand()).andReturn(RelayCell.RELAY_DATA);
 		expect(cell.getPayloadBuffer()).andReturn(ByteBuffer.wrap(data));
+		cell.release();
+		expectLastCall();
 		replay(cell);
 		return cell;
 	}
@@ -51,6 +53,23 @@ public class TorInputStreamTest {
 	private static RelayCell createEndCell() {
 		final RelayCell cell = createMock("endCell", RelayCell.class);
 		expect(cell.getRelayCommand()).andReturn(RelayCell.RELAY_END);
+		cell.release();
+		expectLastCall();
+		replay(cell);
+		return cell;
+	}
+
+	/* A cell which may be queried any number of times but must be released exactly once */
+	private static RelayCell createReleasedOnceCell(int relayCommand, byte[] data) {
+		final RelayCell cell = createMock("releasedOnceCell", RelayCell.class);
+		expect(cell.cellBytesRemaining()).andReturn(data.length);
+		expectLastCall().anyTimes();
+		expect(cell.getRelayCommand()).andReturn(relayCommand);
+		expectLastCall().anyTimes();
+		expect(cell.getPayloadBuffer()).andReturn(ByteBuffer.wrap(data));
+		expectLastCall().anyTimes();
+		cell.release();
+		expectLastCall().once();
 		replay(cell);
 		return cell;
 	}
@@ -181,4 +200,51 @@ public class TorInputStreamTest {
 		testOOB("(off + len) > b.length must throw OOB", 16, 8, 9);
 		testOOB("(off + len) < 0 must throw OOB", 16, Integer.MAX_VALUE, 10);
 	}
+
+	@Test(timeout=100)
+	public void testCellsReleasedWhenRead() throws IOException {
+		final RelayCell data1 = createReleasedOnceCell(RelayCell.RELAY_DATA, new byte[] { 1, 2 });
+		final RelayCell data2 = createReleasedOnceCell(RelayCell.RELAY_DATA, new byte[] { 3 });
+		final RelayCell end = createReleasedOnceCell(RelayCell.RELAY_END, new byte[0]);
+		inputStream.addInputCell(data1);
+		inputStream.addInputCell(data2);
+		inputStream.addEndCell(end);
+
+		assertEquals(1, inputStream.read());
+		assertEquals(2, inputStream.read());
+		assertEquals(3, inputStream.read());
+		/* data1 has been consumed, data2 is still being read from */
+		verify(data1);
+		assertEquals(-1, inputStream.read());
+		verify(data2, end);
+
+		/* Closing must not release any of them a second time */
+		inputStream.close();
+		verify(data1, data2, end);
+	}
+
+	@Test(timeout=100)
+	public void testCellsReleasedOnClose() throws IOException {
+		final RelayCell current = createReleasedOnceCell(RelayCell.RELAY_DATA, new byte[] { 1, 2 });
+		final RelayCell queued = createReleasedOnceCell(RelayCell.RELAY_DATA, new byte[] { 3 });
+		final RelayCell end = createReleasedOnceCell(RelayCell.RELAY_END, new byte[0]);
+		inputStream.addInputCell(current);
+		inputStream.addInputCell(queued);
+		inputStream.addEndCell(end);
+		assertEquals(1, inputStream.read());
+
+		inputStream.close();
+		verify(current, queued, end);
+		inputStream.close();
+	}
+
+	@Test
+	public void testCellsReleasedAfterClose() {
+		inputStream.close();
+		final RelayCell data = createReleasedOnceCell(RelayCell.RELAY_DATA, new byte[] { 1 });
+		final RelayCell end = createReleasedOnceCell(RelayCell.RELAY_END, new byte[0]);
+		inputStream.addInputCell(data);
+		inputStream.addEndCell(end);
+		verify(data, end);
+	}
 }
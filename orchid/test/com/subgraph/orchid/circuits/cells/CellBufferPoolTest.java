@@ -0,0 +1,116 @@
+package com.subgraph.orchid.circuits.cells;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.subgraph.orchid.Cell;
+import com.subgraph.orchid.RelayCell;
+
+public class CellBufferPoolTest {
+
+	private static ByteBuffer createRelayDataCellBytes(int circuitId, byte[] payload) {
+		final ByteBuffer buffer = ByteBuffer.allocate(Cell.CELL_LEN);
+		buffer.putShort((short) circuitId);
+		buffer.put((byte) Cell.RELAY);
+		buffer.put((byte) RelayCell.RELAY_DATA);
+		buffer.putShort((short) 0);			// Recognized
+		buffer.putShort((short) 1);			// StreamID
+		buffer.putInt(0);					// Digest
+		buffer.putShort((short) payload.length);
+		buffer.put(payload);
+		buffer.rewind();
+		return buffer;
+	}
+
+	private static RelayCell readRelayCell(CellBufferPool pool, int circuitId, byte[] payload) {
+		final Cell cell = CellImpl.readFromBuffer(createRelayDataCellBytes(circuitId, payload), pool);
+		return RelayCellImpl.createFromCell(null, cell);
+	}
+
+	private static byte[] payload(RelayCell cell) {
+		final ByteBuffer buffer = cell.getPayloadBuffer();
+		final byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void testRecycledBufferIsReused() {
+		final CellBufferPool pool = new CellBufferPool(4);
+		final byte[] buffer = pool.allocate();
+		assertEquals(Cell.CELL_LEN, buffer.length);
+		assertEquals(1, pool.getAllocatedBufferCount());
+		buffer[0] = 1;
+		pool.recycle(buffer);
+		assertEquals(1, pool.getPooledBufferCount());
+
+		final byte[] zeroed = pool.allocateZeroed();
+		assertSame(buffer, zeroed);
+		assertEquals(0, zeroed[0]);
+		assertEquals(0, pool.getPooledBufferCount());
+		assertEquals(1, pool.getReusedBufferCount());
+		assertNotSame(buffer, pool.allocate());
+		assertEquals(2, pool.getAllocatedBufferCount());
+	}
+
+	@Test
+	public void testPoolIsBounded() {
+		final CellBufferPool pool = new CellBufferPool(2);
+		for(int i = 0; i < 3; i++) {
+			pool.recycle(new byte[Cell.CELL_LEN]);
+		}
+		pool.recycle(new byte[10]);
+		assertEquals(2, pool.getPooledBufferCount());
+	}
+
+	@Test
+	public void testReleasedOnce() {
+		final CellBufferPool pool = new CellBufferPool(4);
+		final RelayCell cell = new RelayCellImpl(null, 1, 1, RelayCell.RELAY_DATA, pool);
+		cell.release();
+		cell.release();
+		assertEquals(1, pool.getPooledBufferCount());
+		assertSame(cell.getCellBytes(), pool.allocate());
+		/* A second release must not have put the same array in the pool twice */
+		assertNotSame(cell.getCellBytes(), pool.allocate());
+	}
+
+	@Test
+	public void testUnpooledCellNotRecycled() {
+		final CellBufferPool pool = new CellBufferPool(4);
+		final RelayCell cell = new RelayCellImpl(null, 1, 1, RelayCell.RELAY_DATA);
+		cell.release();
+		assertEquals(0, pool.getPooledBufferCount());
+	}
+
+	@Test
+	public void testRelayCellOwnsSharedBuffer() {
+		final CellBufferPool pool = new CellBufferPool(4);
+		final Cell cell = CellImpl.readFromBuffer(createRelayDataCellBytes(1, new byte[] { 1, 2, 3 }), pool);
+		final RelayCell relayCell = RelayCellImpl.createFromCell(null, cell);
+		assertSame(cell.getCellBytes(), relayCell.getCellBytes());
+
+		/* The relay cell now owns the array, releasing the cell it was created from must not recycle it */
+		cell.release();
+		assertEquals(0, pool.getPooledBufferCount());
+
+		/* A cell read for another circuit while the relay cell is still in use gets a different array */
+		final RelayCell other = readRelayCell(pool, 2, new byte[] { 4, 5, 6 });
+		assertNotSame(relayCell.getCellBytes(), other.getCellBytes());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, payload(relayCell));
+
+		relayCell.release();
+		relayCell.release();
+		assertEquals(1, pool.getPooledBufferCount());
+		final RelayCell reused = readRelayCell(pool, 3, new byte[] { 7 });
+		assertSame(relayCell.getCellBytes(), reused.getCellBytes());
+		assertEquals(0, pool.getPooledBufferCount());
+		assertArrayEquals(new byte[] { 4, 5, 6 }, payload(other));
+	}
+}
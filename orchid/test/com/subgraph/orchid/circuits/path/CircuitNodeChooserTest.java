@@ -0,0 +1,191 @@
+package com.subgraph.orchid.circuits.path;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.subgraph.orchid.ConsensusDocument;
+import com.subgraph.orchid.Descriptor;
+import com.subgraph.orchid.Directory;
+import com.subgraph.orchid.Router;
+import com.subgraph.orchid.TorConfig;
+import com.subgraph.orchid.circuits.path.CircuitNodeChooser.WeightRule;
+
+public class CircuitNodeChooserTest {
+	private final static int SAMPLES = 40000;
+	private final static double TOLERANCE = 0.015;
+	private final static String[] WEIGHT_TAGS = { "Wee", "Wem", "Wed", "Weg", "Wmg", "Wmm", "Wme", "Wmd", "Wgb", "Wmb", "Web", "Wdb" };
+	private final static int[] WEIGHT_VALUES = { 10000, 3000, 6000, 0, 4000, 10000, 1000, 2000, 10000, 10000, 5000, 10000 };
+
+	private final static RouterFilter ACCEPT_ALL = new RouterFilter() {
+		public boolean filter(Router router) {
+			return true;
+		}
+	};
+
+	private TorConfig config;
+	private Descriptor descriptor;
+
+	@Before
+	public void setup() {
+		config = createMock(TorConfig.class);
+		expect(config.getExcludeNodes()).andReturn(null).anyTimes();
+		expect(config.getExcludeExitNodes()).andReturn(null).anyTimes();
+		expect(config.getEntryNodes()).andReturn(null).anyTimes();
+		expect(config.getExitNodes()).andReturn(null).anyTimes();
+		descriptor = createMock(Descriptor.class);
+		replay(config, descriptor);
+	}
+
+	private Router createRouter(String name, int bandwidth, boolean isExit, boolean isGuard, int dirPort) {
+		final Router router = createMock(name, Router.class);
+		expect(router.isRunning()).andReturn(true).anyTimes();
+		expect(router.isValid()).andReturn(true).anyTimes();
+		expect(router.isHibernating()).andReturn(false).anyTimes();
+		expect(router.getCurrentDescriptor()).andReturn(descriptor).anyTimes();
+		expect(router.getEstimatedBandwidth()).andReturn(bandwidth).anyTimes();
+		expect(router.isExit()).andReturn(isExit).anyTimes();
+		expect(router.isBadExit()).andReturn(false).anyTimes();
+		expect(router.isPossibleGuard()).andReturn(isGuard).anyTimes();
+		expect(router.getDirectoryPort()).andReturn(dirPort).anyTimes();
+		replay(router);
+		return router;
+	}
+
+	private List<Router> createExitRouters() {
+		return Arrays.asList(
+				createRouter("exit", 100, true, false, 0),
+				createRouter("exitWithDir", 200, true, false, 9030),
+				createRouter("guardExit", 300, true, true, 0),
+				createRouter("middle", 400, false, false, 0),
+				createRouter("guard", 500, false, true, 0));
+	}
+
+	private ConsensusDocument createConsensus() {
+		final ConsensusDocument consensus = createMock(ConsensusDocument.class);
+		expect(consensus.getWeightScaleParameter()).andReturn(10000).anyTimes();
+		for(int i = 0; i < WEIGHT_TAGS.length; i++) {
+			expect(consensus.getBandwidthWeight(WEIGHT_TAGS[i])).andReturn(WEIGHT_VALUES[i]).anyTimes();
+		}
+		replay(consensus);
+		return consensus;
+	}
+
+	private CircuitNodeChooser createChooser(ConsensusDocument consensus, List<Router> routers) {
+		final Directory directory = createMock(Directory.class);
+		expect(directory.getCurrentConsensusDocument()).andReturn(consensus).anyTimes();
+		expect(directory.getAllRouters()).andReturn(routers).anyTimes();
+		replay(directory);
+		return new CircuitNodeChooser(config, directory);
+	}
+
+	/* Expected choice of each router in proportion to the weighted bandwidth used by chooseNodeByBandwidthWeights() */
+	private static double[] expectedProportions(ConsensusDocument consensus, WeightRule rule, List<Router> routers) {
+		final CircuitNodeChooserWeightParameters wp = CircuitNodeChooserWeightParameters.create(consensus, rule);
+		assertTrue(wp.isValid());
+		final double[] proportions = new double[routers.size()];
+		double total = 0;
+		for(int i = 0; i < proportions.length; i++) {
+			proportions[i] = wp.calculateWeightedBandwidth(routers.get(i));
+			total += proportions[i];
+		}
+		for(int i = 0; i < proportions.length; i++) {
+			proportions[i] /= total;
+		}
+		return proportions;
+	}
+
+	private static void assertProportions(double[] expected, List<Router> routers, int[] counts) {
+		for(int i = 0; i < counts.length; i++) {
+			assertEquals(routers.get(i).toString(), expected[i], (double) counts[i] / SAMPLES, TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testTableMatchesBandwidthWeights() {
+		final ConsensusDocument consensus = createConsensus();
+		final List<Router> routers = createExitRouters();
+		final CircuitNodeChooser chooser = createChooser(consensus, routers);
+		final double[] expected = expectedProportions(consensus, WeightRule.WEIGHT_FOR_EXIT, routers);
+
+		final int[] fromTable = new int[routers.size()];
+		final int[] fromList = new int[routers.size()];
+		for(int i = 0; i < SAMPLES; i++) {
+			fromTable[routers.indexOf(chooser.chooseRandomNode(WeightRule.WEIGHT_FOR_EXIT, ACCEPT_ALL))] += 1;
+			fromList[routers.indexOf(chooser.chooseExitNode(routers))] += 1;
+		}
+		assertProportions(expected, routers, fromTable);
+		assertProportions(expected, routers, fromList);
+	}
+
+	@Test
+	public void testFilteredTableMatchesBandwidthWeights() {
+		final ConsensusDocument consensus = createConsensus();
+		final List<Router> routers = createExitRouters();
+		final CircuitNodeChooser chooser = createChooser(consensus, routers);
+		final List<Router> accepted = Arrays.asList(routers.get(0), routers.get(3));
+		final double[] expected = expectedProportions(consensus, WeightRule.WEIGHT_FOR_MID, accepted);
+
+		final int[] counts = new int[accepted.size()];
+		for(int i = 0; i < SAMPLES; i++) {
+			final Router r = chooser.chooseRandomNode(WeightRule.WEIGHT_FOR_MID, new RouterFilter() {
+				public boolean filter(Router router) {
+					return accepted.contains(router);
+				}
+			});
+			counts[accepted.indexOf(r)] += 1;
+		}
+		assertProportions(expected, accepted, counts);
+	}
+
+	@Test
+	public void testFallbackAfterTableRejections() {
+		final List<Router> routers = new ArrayList<Router>();
+		for(int i = 0; i < 10; i++) {
+			routers.add(createRouter("fast"+ i, 1000000000, false, false, 0));
+		}
+		/* Never drawn from the table next to the fast routers */
+		final Router slow = createRouter("slow", 0, false, false, 0);
+		routers.add(slow);
+		final CircuitNodeChooser chooser = createChooser(createConsensus(), routers);
+
+		final int[] filterCalls = new int[1];
+		final Router r = chooser.chooseRandomNode(WeightRule.WEIGHT_FOR_MID, new RouterFilter() {
+			public boolean filter(Router router) {
+				filterCalls[0] += 1;
+				return router == slow;
+			}
+		});
+		assertSame(slow, r);
+		/* Every table draw was rejected, then each router was examined once */
+		assertEquals(64 + routers.size(), filterCalls[0]);
+	}
+
+	@Test
+	public void testTablesRebuiltOnConsensusChange() {
+		final List<Router> oldRouters = createExitRouters();
+		final List<Router> newRouters = createExitRouters();
+		final Directory directory = createMock(Directory.class);
+		expect(directory.getCurrentConsensusDocument()).andReturn(createConsensus()).times(1);
+		expect(directory.getAllRouters()).andReturn(oldRouters).times(1);
+		expect(directory.getCurrentConsensusDocument()).andReturn(createConsensus()).anyTimes();
+		expect(directory.getAllRouters()).andReturn(newRouters).anyTimes();
+		replay(directory);
+		final CircuitNodeChooser chooser = new CircuitNodeChooser(config, directory);
+
+		assertTrue(oldRouters.contains(chooser.chooseRandomNode(WeightRule.WEIGHT_FOR_MID, ACCEPT_ALL)));
+		for(int i = 0; i < 1000; i++) {
+			assertTrue(newRouters.contains(chooser.chooseRandomNode(WeightRule.WEIGHT_FOR_MID, ACCEPT_ALL)));
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.subgraph.orchid.circuits.path;
+
+import static org.easymock.EasyMock.createMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.subgraph.orchid.Router;
+import com.subgraph.orchid.crypto.TorRandom;
+
+public class WeightedRouterTableTest {
+	private final static int SAMPLES = 40000;
+	private final static double TOLERANCE = 0.015;
+
+	private final TorRandom random = new TorRandom();
+
+	private static List<Router> createRouters(int count) {
+		final List<Router> routers = new ArrayList<Router>();
+		for(int i = 0; i < count; i++) {
+			routers.add(createMock("router"+ i, Router.class));
+		}
+		return routers;
+	}
+
+	private int[] sample(WeightedRouterTable table, List<Router> routers) {
+		final int[] counts = new int[routers.size()];
+		for(int i = 0; i < SAMPLES; i++) {
+			counts[routers.indexOf(table.chooseRandomRouter(random))] += 1;
+		}
+		return counts;
+	}
+
+	private static void assertProportions(double[] expected, int[] counts) {
+		double total = 0;
+		for(double e: expected) {
+			total += e;
+		}
+		for(int i = 0; i < counts.length; i++) {
+			assertEquals("router "+ i, expected[i] / total, (double) counts[i] / SAMPLES, TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testProportionalToWeights() {
+		final List<Router> routers = createRouters(5);
+		final double[] weights = { 1.0, 2.0, 3.0, 4.0, 10.0 };
+		final WeightedRouterTable table = new WeightedRouterTable(routers, weights);
+		assertEquals(5, table.getRouterCount());
+		assertProportions(weights, sample(table, routers));
+	}
+
+	@Test
+	public void testLargeWeights() {
+		final List<Router> routers = createRouters(3);
+		final double[] weights = { 1e15, 3e15, 0.5 };
+		final int[] counts = sample(new WeightedRouterTable(routers, weights), routers);
+		assertProportions(weights, counts);
+		assertEquals(0, counts[2]);
+	}
+
+	@Test
+	public void testZeroWeightNeverChosen() {
+		final List<Router> routers = createRouters(3);
+		final WeightedRouterTable table = new WeightedRouterTable(routers, new double[] { 0.0, 7.0, 0.0 });
+		for(int i = 0; i < 1000; i++) {
+			assertSame(routers.get(1), table.chooseRandomRouter(random));
+		}
+	}
+
+	@Test
+	public void testUniformWhenWeightsZero() {
+		final List<Router> routers = createRouters(4);
+		final WeightedRouterTable table = new WeightedRouterTable(routers, new double[4]);
+		assertProportions(new double[] { 1, 1, 1, 1 }, sample(table, routers));
+	}
+
+	@Test
+	public void testEmptyTable() {
+		final WeightedRouterTable table = new WeightedRouterTable(Collections.<Router>emptyList(), new double[0]);
+		assertEquals(0, table.getRouterCount());
+		assertNull(table.chooseRandomRouter(random));
+	}
+}
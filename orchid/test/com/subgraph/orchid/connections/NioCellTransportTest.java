@@ -0,0 +1,300 @@
+package com.subgraph.orchid.connections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.KeyStore;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.subgraph.orchid.Cell;
+import com.subgraph.orchid.circuits.cells.CellImpl;
+import com.subgraph.orchid.crypto.TorRandom;
+import com.subgraph.orchid.sockets.sslengine.SSLEngineSSLSocket;
+
+/*
+ * Runs the TLS handshake on an SSLEngine backed socket against a local TLS server, then hands the channel over to the
+ * NIO transport the way ConnectionImpl does and exchanges cells in both directions.
+ */
+public class NioCellTransportTest {
+	private final static String PREAMBLE = "preamble";
+	private final static int TIMEOUT_SECONDS = 10;
+
+	/* JKS keystore holding a self-signed RSA key for the server, password "password" */
+	private final static String SERVER_KEYSTORE =
+		"/u3+7QAAAAIAAAABAAAAAQAIbG9vcGJhY2sAAAGhUSJirQAABQIwggT+MA4GCisGAQQBKgIRAQEFAASCBOq4kYRth3o9FCH7" +
+		"0XQbBCmpRSE/pS31rRA4dsE43Y+t+qrG4q5Q1uLljDg5LZGDM54ltZHVN6xC1BBijhO/mn1LwszR2Xy4jIyTWNXHRVzvX5Zf" +
+		"d7yL/dimnRTUcNb8e7plKqQVNlNBYFYhCi98ynm7Lnks4bn5uVWcOVZBEEnulryaPD+zF33RqVmQJcoZWZKHwYgzG4pO4650" +
+		"zF87+cJ/cykJhGWZZ3U4DB/pxwNc1pUz3G+VlG2Od4XjqYtaRjJELMxA9n/dO50VH8w3NRIirDAA4EovAzLz3Dp8PKE4n94Z" +
+		"/LREvX/YL441TIH91fZqOleljSgP7EPEJeFar2zOz3UME9FRICwrNOEppToLM+nD36HJIk6/6lrqfEE0PeujEZmPsRKEr4YL" +
+		"oXb8QaqFuMbDSQ4ohaLWfPpKR9Mu95njs54KzdPx8i/zo/yT7VzaEyvvCARysiWK0XuzzWHvTKD5J9og4LYFfj5FXsY0uYD4" +
+		"ApEvhTwFHtDPIxSqkfvuc9du1q67enQOzZfiQHyFUFLSDlGvOBBmueuQWFTopSOwzy0gvexeD73a8/zMbxyiNeOUShg4tmbz" +
+		"Dz+z4aTiNOrRU6NcsE42o73r8tZ569ff49YFNndIkLJUzFYPxcA+yylibXU4WtkZa2qvAJaqNCeuA+mgZyGj3CJpmDzIVlQo" +
+		"8v3j9EqPIFNcK/WrjQizu4XYM1oSACt0taCyxuXSl1x+D2Gyhe70BhcEKyLWOlOp/VuePgf2Apr7KYsnn2FfDvAKikiH6KOX" +
+		"or4Lwr5HKy/IQpkjme1pZuhABs37j9OiWkHPmUE6HFciLJL+S3IGWLvDfjIWL/P+JDEIAN1N8tX5rvgRPsJ4auiaZExpKTwK" +
+		"1zHmkREjGe1O+/W1MbUTm5iidE+7Z2nN+zHWxVPpMpL7Xe8+i5OKNtvHJK+KGmJ/yL3eTzHbagc+m3U/I/23lvPIfKN/wA8j" +
+		"1XBEKpLrrtgZQ2BoD0Xro/vnmiyrvR+q+AQbfZ1otTRkeFseQTn+yNgYIlB7/7PJYsxICFz1CcF8brV0L2w3cKPkHHNpbqFi" +
+		"X3QNRghX8o/RVdij/x0PDM2cmfzS+HO6ubCBmi+4dUs1us7q46OkK2zZEKZjwJ3lApIc7TMUiiu8lmDEOZcNUBiuZCmCo9Rs" +
+		"PVBIN7OH2xTw8cJXmKhqgqT+3L8JCSXG2Nofn3spR21e+cOZdmgfzFCS5RYR6rlly3W7Mc9jg5sn5c2S1uwvXiy5Pt4sID4g" +
+		"URPJ58boPXpfkOp+kq8NNPZmqPddZDKQz94OC9XXAt9mzdb1k62p3QQdIWnpvdbA5t95fTPdJl9+ZrAvl9klVw+JjrbiLWZE" +
+		"AaFCLdqNIxih0rKxr3fuU/v7FPmhBMwJmAm2Fu/1aqALplobAtCv4R7mRm0XLoT/GG9KpnMDp4GkK437NMeeuknvNJKN4C7d" +
+		"Vs8ubaMOVggXBdAJ0NX1R2u1sQBzj+fSIToCYtanhvNIpShljvr8tHrPKbjNkHia9uIDEd0RKSQ+F8/TjQZycBwNbeNID9Ov" +
+		"SrA/1u8xtZ6S43xbEFsl3b1YRedkWqdB+MAZ/YQpu8tc7XN756sxw1ZRTza3sKLMWfWnAFBZ+gDIIn0TM/ppy+9dr9VX+IZL" +
+		"i3Kv8sdWOHZ+Uiq+TxghgjUQQYQfztwTAAAAAQAFWC41MDkAAALdMIIC2TCCAcGgAwIBAgIEYDn6WDANBgkqhkiG9w0BAQsF" +
+		"ADAcMRowGAYDVQQDExF3d3cubG9vcGJhY2sudGVzdDAgFw0yNjEwMTgyMjI5MzBaGA8yMTI2MDkyNDIyMjkzMFowHDEaMBgG" +
+		"A1UEAxMRd3d3Lmxvb3BiYWNrLnRlc3QwggEiMA0GCSqGSIb3DQEBAQUAA4IBDwAwggEKAoIBAQCCN6A+G/xL18xR7pco0CTQ" +
+		"YYGr6vFL/fF/FzZ1+Jq6Yh8/vE2dapbjmy4Bg0/9cbfWKbyy6O1LL47KoRErjbzfegyTcdNIloiqx/3329xH97xvT65UnAr8" +
+		"dKrtPE3vAIYG8StmHY2omPPGcDOhqAxdiNVanTIlmVM9M/IhVuWUnhuKqU74mnb1uv/Ylj6L7ayGIZwQdAA6mgEOtlkKoYPr" +
+		"BA3L5E89qYW5y49w49AMGZ8cLvrOIKSLJvy2ruIcdZt3aLHhiIT03TJMOpt7XRUXVAqakPCu9Qd6fVP+teD8DcCsNR/qwjod" +
+		"wGRp++rhj4mS9xnCo5f2MYPKOCS1z09DAgMBAAGjITAfMB0GA1UdDgQWBBSvZzkfHqkt5QVy5H58ejk/rmlycTANBgkqhkiG" +
+		"9w0BAQsFAAOCAQEAPgBO3HSqegI3cT5tg+qCaJaru0rf7bpxES33JFuboh9vEqHafjPtFrboas3YE70zisJErPRVDW7Wcj1g" +
+		"yaW6GRhXEdRhl5rYvyiE12AZkZxDK0qpMj+21VUu5yOSgzSGvnhw59EjgCkBH1qvVPliGwq/KLxlPEyHR0j9sR+1BZUfP8sw" +
+		"Sz/XtZ/6l5QRt+jvKVjmsQvy0mentQzUGPtk1TTfUKH0RUmcvRr2b1dh4HcTshmwd/K0CuCnp3dNdE0PjTR1Hda/MhrZEnZS" +
+		"Yx0949LVWIi7B/RjAUjcojXVnMVl4LP5LQKjdQzFmu08mRYH3cNwF7bJF51avgDxWs/BIT/Zss5+mffb+g9+gQ6q2HD4jcg9";
+
+	private final BlockingQueue<Cell> receivedCells = new LinkedBlockingQueue<Cell>();
+	private final CountDownLatch channelClosed = new CountDownLatch(1);
+	private final CountDownLatch serverMayContinue = new CountDownLatch(1);
+	private final TorRandom random = new TorRandom();
+
+	private SSLServerSocket serverSocket;
+	private NioCellTransport transport;
+	private SocketChannel channel;
+	private SSLSocket serverConnection;
+
+	@Before
+	public void before() throws Exception {
+		final KeyStore keyStore = KeyStore.getInstance("JKS");
+		final char[] password = "password".toCharArray();
+		keyStore.load(new ByteArrayInputStream(decodeBase64(SERVER_KEYSTORE)), password);
+		final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keyStore, password);
+		final SSLContext context = SSLContext.getInstance("TLS");
+		context.init(kmf.getKeyManagers(), null, null);
+		serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		serverSocket.setEnabledCipherSuites(ConnectionSocketFactory.V1_CIPHERS_ONLY);
+		transport = new NioCellTransport(1);
+	}
+
+	@After
+	public void after() throws Exception {
+		serverMayContinue.countDown();
+		if(channel != null) {
+			channel.close();
+		}
+		if(serverConnection != null) {
+			serverConnection.close();
+		}
+		serverSocket.close();
+		transport.close();
+	}
+
+	private static byte[] decodeBase64(String s) {
+		final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		final ByteBuffer out = ByteBuffer.allocate(s.length() * 3 / 4);
+		int bits = 0;
+		int value = 0;
+		for(char c: s.toCharArray()) {
+			final int n = alphabet.indexOf(c);
+			if(n < 0) {
+				continue;
+			}
+			value = (value << 6) | n;
+			bits += 6;
+			if(bits >= 8) {
+				bits -= 8;
+				out.put((byte) (value >> bits));
+			}
+		}
+		out.flip();
+		final byte[] bytes = new byte[out.remaining()];
+		out.get(bytes);
+		return bytes;
+	}
+
+	private Cell createCell(int circuitId, int payloadLength) {
+		final Cell cell = CellImpl.createCell(circuitId, Cell.RELAY);
+		cell.putByteArray(random.getBytes(payloadLength));
+		return cell;
+	}
+
+	private static void assertCellEquals(Cell expected, Cell actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getCircuitId(), actual.getCircuitId());
+		assertEquals(expected.getCommand(), actual.getCommand());
+		assertArrayEquals(expected.getCellBytes(), actual.getCellBytes());
+	}
+
+	private static byte[] concatenate(byte[]... arrays) {
+		int length = 0;
+		for(byte[] a: arrays) {
+			length += a.length;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		for(byte[] a: arrays) {
+			buffer.put(a);
+		}
+		return buffer.array();
+	}
+
+	private NioCellTransport.CellHandler createHandler() {
+		return new NioCellTransport.CellHandler() {
+			public void cellReceived(Cell cell) {
+				receivedCells.add(cell);
+			}
+
+			public void channelClosed() {
+				channelClosed.countDown();
+			}
+		};
+	}
+
+	/* Accept one connection and send the preamble and the first cells in a single record as soon as the handshake completes */
+	private Thread startServer(final byte[] firstData) {
+		final Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					serverConnection = (SSLSocket) serverSocket.accept();
+					serverConnection.startHandshake();
+					final OutputStream output = serverConnection.getOutputStream();
+					output.write(firstData);
+					output.flush();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	private SSLEngineSSLSocket connect() throws Exception {
+		channel = SocketChannel.open();
+		channel.socket().connect(new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort()));
+		final SSLEngineSSLSocket engineSocket = new ConnectionSocketFactory().createEngineSocket(channel.socket());
+		engineSocket.startHandshake();
+		return engineSocket;
+	}
+
+	private static byte[] readPreamble(SSLEngineSSLSocket engineSocket) throws Exception {
+		final byte[] preamble = new byte[PREAMBLE.length()];
+		new DataInputStream(engineSocket.getInputStream()).readFully(preamble);
+		return preamble;
+	}
+
+	private static byte[] readCellBytes(InputStream input) throws Exception {
+		final byte[] bytes = new byte[Cell.CELL_LEN];
+		new DataInputStream(input).readFully(bytes);
+		return bytes;
+	}
+
+	@Test(timeout=30000)
+	public void testHandshakeThenExchangeCells() throws Exception {
+		final Cell first = createCell(1, 100);
+		final Cell second = createCell(2, Cell.CELL_PAYLOAD_LEN);
+		final Thread server = startServer(concatenate(PREAMBLE.getBytes("US-ASCII"), first.getCellBytes(), second.getCellBytes()));
+		final SSLEngineSSLSocket engineSocket = connect();
+
+		/* Read only the preamble, so the cells which arrived with it are left unread in the engine socket */
+		assertArrayEquals(PREAMBLE.getBytes("US-ASCII"), readPreamble(engineSocket));
+		server.join();
+		final ByteBuffer pendingNetwork = engineSocket.getPendingNetworkData();
+		final ByteBuffer pendingApplication = engineSocket.getPendingApplicationData();
+		assertEquals(2 * Cell.CELL_LEN, pendingApplication.remaining());
+		/* Copies, the socket still holds the data */
+		assertEquals(2 * Cell.CELL_LEN, engineSocket.getPendingApplicationData().remaining());
+		assertEquals(pendingNetwork.remaining(), engineSocket.getPendingNetworkData().remaining());
+
+		final NioCellChannel cellChannel = transport.register(channel, engineSocket.getEngine(), pendingNetwork, pendingApplication, createHandler());
+		assertCellEquals(first, receivedCells.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertCellEquals(second, receivedCells.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		/* Cells sent after registration are read by the selector thread */
+		final OutputStream serverOutput = serverConnection.getOutputStream();
+		final Cell[] fromServer = new Cell[50];
+		for(int i = 0; i < fromServer.length; i++) {
+			fromServer[i] = createCell(i, Cell.CELL_PAYLOAD_LEN);
+			serverOutput.write(fromServer[i].getCellBytes());
+		}
+		serverOutput.flush();
+		for(Cell expected: fromServer) {
+			assertCellEquals(expected, receivedCells.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		}
+
+		/* Cells sent from the client are wrapped and written by the sending thread */
+		final InputStream serverInput = serverConnection.getInputStream();
+		for(int i = 0; i < 50; i++) {
+			final Cell cell = createCell(i, Cell.CELL_PAYLOAD_LEN);
+			cellChannel.sendCell(cell);
+			assertArrayEquals(cell.getCellBytes(), readCellBytes(serverInput));
+		}
+		assertEquals(1, channelClosed.getCount());
+		assertFalse(cellChannel.isClosed());
+
+		/* Remote close is noticed by the selector thread */
+		serverConnection.close();
+		assertTrue(channelClosed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertTrue(cellChannel.isClosed());
+		assertTrue(receivedCells.isEmpty());
+	}
+
+	@Test(timeout=30000)
+	public void testLargeOutputIsQueuedAndDrained() throws Exception {
+		final Thread server = startServer(PREAMBLE.getBytes("US-ASCII"));
+		final SSLEngineSSLSocket engineSocket = connect();
+		assertArrayEquals(PREAMBLE.getBytes("US-ASCII"), readPreamble(engineSocket));
+		server.join();
+		final NioCellChannel cellChannel = transport.register(channel, engineSocket.getEngine(), engineSocket.getPendingNetworkData(),
+				engineSocket.getPendingApplicationData(), createHandler());
+
+		/* More than the socket buffers hold, so the selector thread has to finish writing while the server reads */
+		final int count = 4000;
+		final Cell[] cells = new Cell[count];
+		for(int i = 0; i < count; i++) {
+			cells[i] = createCell(i & 0xFFFF, Cell.CELL_PAYLOAD_LEN);
+		}
+		final Thread sender = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for(Cell cell: cells) {
+						cellChannel.sendCell(cell);
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		sender.start();
+		final InputStream serverInput = serverConnection.getInputStream();
+		for(int i = 0; i < count; i++) {
+			assertArrayEquals(cells[i].getCellBytes(), readCellBytes(serverInput));
+		}
+		sender.join();
+
+		cellChannel.close();
+		assertTrue(channelClosed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(-1, serverInput.read());
+	}
+}
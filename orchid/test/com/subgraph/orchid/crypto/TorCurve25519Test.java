@@ -0,0 +1,63 @@
+package com.subgraph.orchid.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.subgraph.orchid.encoders.Hex;
+
+public class TorCurve25519Test {
+
+	private static byte[] scalarMult(String scalar, String point) {
+		final byte[] out = new byte[TorCurve25519.KEY_LEN];
+		TorCurve25519.scalarMult(out, Hex.decode(scalar), Hex.decode(point));
+		return out;
+	}
+
+	/* Test vectors from RFC 7748 section 5.2 */
+	@Test
+	public void testVectors() {
+		assertArrayEquals(Hex.decode("c3da55379de9c6908e94ea4df28d084f32eccf03491c71f754b4075577a28552"),
+				scalarMult("a546e36bf0527c9d3b16154b82465edd62144c0ac1fc5a18506a2244ba449ac4",
+						"e6db6867583030db3594c1a424b15f7c726624ec26b3353b10a903a6d0ab1c4c"));
+		assertArrayEquals(Hex.decode("95cbde9476e8907d7aade45cb4b873f88b595a68799fa152e6f8f7647aac7957"),
+				scalarMult("4b66e9d4d1b4673c5ad22691957d6af5c11b6421e0ea01d42ca4169e7918ba0d",
+						"e5210f12786811d3f4b7959d0538ae2c31dbe7106fc03c3efc4cd549c715a493"));
+	}
+
+	@Test
+	public void testIterated() {
+		byte[] k = Hex.decode("0900000000000000000000000000000000000000000000000000000000000000");
+		byte[] u = k.clone();
+		for(int i = 0; i < 1000; i++) {
+			final byte[] r = new byte[TorCurve25519.KEY_LEN];
+			TorCurve25519.scalarMult(r, k, u);
+			u = k;
+			k = r;
+		}
+		assertArrayEquals(Hex.decode("684cf59ba83309552800ef566f2f4d3c1c3887c49360e3875f2eb94d99532c51"), k);
+	}
+
+	@Test
+	public void testMatchesReference() {
+		final Random random = new Random(1);
+		final byte[] scalar = new byte[32];
+		final byte[] point = new byte[32];
+		final byte[] expected = new byte[32];
+		final byte[] actual = new byte[32];
+		for(int i = 0; i < 200; i++) {
+			random.nextBytes(scalar);
+			random.nextBytes(point);
+			point[31] &= 127;
+			Curve25519.crypto_scalarmult(expected, scalar, point);
+			TorCurve25519.scalarMult(actual, scalar, point);
+			assertArrayEquals(expected, actual);
+
+			Curve25519.crypto_scalarmult_base(expected, scalar);
+			TorCurve25519.scalarMultBase(actual, scalar);
+			assertArrayEquals(expected, actual);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.subgraph.orchid.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TorRunningDigestTest {
+	
+	private static byte[] sha1(byte[] data, int length) throws Exception {
+		final MessageDigest md = MessageDigest.getInstance("SHA-1");
+		md.update(data, 0, length);
+		return md.digest();
+	}
+
+	@Test
+	public void testPlatformDigestChosen() {
+		assertFalse(new TorRunningDigest().isPlatformDigest());
+		assertTrue(TorRunningDigest.createWithPlatformDigest().isPlatformDigest());
+	}
+
+	@Test
+	public void testMatchesMessageDigest() throws Exception {
+		testMatchesMessageDigest(true);
+		testMatchesMessageDigest(false);
+	}
+
+	private void testMatchesMessageDigest(boolean usePlatformDigest) throws Exception {
+		final Random random = new Random(1);
+		final byte[] data = new byte[2000];
+		random.nextBytes(data);
+		for(int length = 0; length < 300; length++) {
+			final TorRunningDigest digest = new TorRunningDigest(usePlatformDigest);
+			digest.update(data, 0, length);
+			assertArrayEquals(sha1(data, length), digest.getDigestBytes());
+		}
+	}
+
+	@Test
+	public void testRunningDigestOverCells() throws Exception {
+		testRunningDigestOverCells(true);
+		testRunningDigestOverCells(false);
+	}
+
+	private void testRunningDigestOverCells(boolean usePlatformDigest) throws Exception {
+		final Random random = new Random(2);
+		final byte[] data = new byte[509 * 10];
+		random.nextBytes(data);
+		final TorRunningDigest digest = new TorRunningDigest(usePlatformDigest);
+		for(int i = 0; i < 10; i++) {
+			digest.update(data, i * 509, 509);
+			assertArrayEquals(sha1(data, (i + 1) * 509), digest.getDigestBytes());
+		}
+	}
+
+	@Test
+	public void testRestoreState() throws Exception {
+		testRestoreState(true);
+		testRestoreState(false);
+	}
+
+	private void testRestoreState(boolean usePlatformDigest) throws Exception {
+		final Random random = new Random(3);
+		final byte[] data = new byte[1100];
+		random.nextBytes(data);
+		final TorRunningDigest digest = new TorRunningDigest(usePlatformDigest);
+		digest.update(data, 0, 100);
+		digest.saveState();
+		digest.update(data, 500, 509);
+		digest.restoreState();
+		digest.update(data, 100, 400);
+		assertArrayEquals(sha1(data, 500), digest.getDigestBytes());
+
+		/* A restored cell can be followed by another cell which is kept */
+		digest.saveState();
+		digest.update(data, 0, 509);
+		digest.restoreState();
+		digest.saveState();
+		digest.update(data, 500, 509);
+		assertArrayEquals(sha1(data, 1009), digest.getDigestBytes());
+	}
+
+	@Test
+	public void testShortDigest() throws Exception {
+		final byte[] data = new byte[100];
+		new Random(4).nextBytes(data);
+		for(boolean usePlatformDigest: new boolean[] { true, false }) {
+			final TorRunningDigest digest = new TorRunningDigest(usePlatformDigest);
+			digest.update(data);
+			final byte[] output = new byte[6];
+			digest.getDigest(output, 2, 4);
+			final byte[] expected = new byte[6];
+			System.arraycopy(sha1(data, data.length), 0, expected, 2, 4);
+			assertArrayEquals(expected, output);
+		}
+	}
+}
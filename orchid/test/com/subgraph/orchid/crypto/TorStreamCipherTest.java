@@ -0,0 +1,146 @@
+package com.subgraph.orchid.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class TorStreamCipherTest {
+	private static final int[] CHUNKS = { 1, 15, 16, 17, 509, 3, 498, 32, 7, 1024, 2 };
+
+	/* NIST SP 800-38A, F.5.1 CTR-AES128.Encrypt */
+	private static final String NIST_KEY = "2b7e151628aed2a6abf7158809cf4f3c";
+	private static final String NIST_COUNTER = "f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff";
+	private static final String NIST_PLAINTEXT =
+			"6bc1bee22e409f96e93d7e117393172a" +
+			"ae2d8a571e03ac9c9eb76fac45af8e51" +
+			"30c81c46a35ce411e5fbc1191a0a52ef" +
+			"f69f2445df4f9b17ad2b417be66c3710";
+	private static final String NIST_CIPHERTEXT =
+			"874d6191b620e3261bef6864990db6ce" +
+			"9806f66b7970fdff8617187bb9fffdff" +
+			"5ae4df3edbd5d35e5b4f09020db03eab" +
+			"1e031dda2fbe03d1792170a0f3009cee";
+
+	private static byte[] hex(String s) {
+		final byte[] bytes = new byte[s.length() / 2];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+		}
+		return bytes;
+	}
+
+	/* The keystream as TorStreamCipher used to produce it: one AES block per 16 bytes, consumed a byte at a time */
+	private static byte[] byteAtATimeEncrypt(byte[] key, byte[] iv, byte[] data) throws Exception {
+		final Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+		final byte[] counter = iv.clone();
+		final byte[] counterOut = new byte[16];
+		final byte[] out = data.clone();
+		int keystreamPointer = 16;
+		for(int i = 0; i < out.length; i++) {
+			if(keystreamPointer == 16) {
+				cipher.doFinal(counter, 0, 16, counterOut, 0);
+				int carry = 1;
+				for(int j = counter.length - 1; j >= 0; j--) {
+					final int x = (counter[j] & 0xff) + carry;
+					carry = (x > 0xff) ? 1 : 0;
+					counter[j] = (byte) x;
+				}
+				keystreamPointer = 0;
+			}
+			out[i] ^= counterOut[keystreamPointer++];
+		}
+		return out;
+	}
+
+	private static byte[] randomBytes(Random random, int length) {
+		final byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private static void encryptInChunks(TorStreamCipher cipher, byte[] data, int[] chunks) {
+		int offset = 0;
+		int i = 0;
+		while(offset < data.length) {
+			final int n = Math.min(chunks[i++ % chunks.length], data.length - offset);
+			cipher.encrypt(data, offset, n);
+			offset += n;
+		}
+	}
+
+	private static void assertSameKeystream(byte[] key, byte[] iv, int[] ctrChunks, int[] ecbChunks) {
+		final byte[] plaintext = randomBytes(new Random(3), 10000);
+		final byte[] ctr = plaintext.clone();
+		final byte[] ecb = plaintext.clone();
+		encryptInChunks(TorStreamCipher.createFromKeyBytesWithIV(key, iv), ctr, ctrChunks);
+		encryptInChunks(TorStreamCipher.createFallbackFromKeyBytesWithIV(key, iv), ecb, ecbChunks);
+		assertFalse(Arrays.equals(plaintext, ctr));
+		assertArrayEquals(ecb, ctr);
+	}
+
+	@Test
+	public void testCounterModeMatchesFallback() {
+		final Random random = new Random(1);
+		assertSameKeystream(randomBytes(random, 16), new byte[16], CHUNKS, CHUNKS);
+	}
+
+	@Test
+	public void testUnalignedOffsets() {
+		final Random random = new Random(2);
+		final int[] reversed = new int[CHUNKS.length];
+		for(int i = 0; i < CHUNKS.length; i++) {
+			reversed[i] = CHUNKS[CHUNKS.length - 1 - i];
+		}
+		/* Splitting the data differently must not change the keystream */
+		assertSameKeystream(randomBytes(random, 16), randomBytes(random, 16), CHUNKS, reversed);
+		assertSameKeystream(randomBytes(random, 16), randomBytes(random, 16), new int[] { 1 }, new int[] { 509 });
+	}
+
+	@Test
+	public void testCounterCarry() {
+		final byte[] iv = new byte[16];
+		Arrays.fill(iv, 8, 16, (byte) 0xff);
+		iv[15] = (byte) 0xf0;
+		assertSameKeystream(randomBytes(new Random(4), 16), iv, CHUNKS, new int[] { 13 });
+	}
+
+	@Test
+	public void testNistVector() {
+		final byte[] key = hex(NIST_KEY);
+		final byte[] counter = hex(NIST_COUNTER);
+		for(int[] chunks : new int[][] { { 64 }, { 1 }, { 5, 16, 11 } }) {
+			final byte[] ctr = hex(NIST_PLAINTEXT);
+			final byte[] ecb = hex(NIST_PLAINTEXT);
+			encryptInChunks(TorStreamCipher.createFromKeyBytesWithIV(key, counter), ctr, chunks);
+			encryptInChunks(TorStreamCipher.createFallbackFromKeyBytesWithIV(key, counter), ecb, chunks);
+			assertArrayEquals(hex(NIST_CIPHERTEXT), ctr);
+			assertArrayEquals(hex(NIST_CIPHERTEXT), ecb);
+		}
+	}
+
+	@Test
+	public void testMatchesByteAtATimeKeystream() throws Exception {
+		final Random random = new Random(5);
+		final byte[] key = randomBytes(random, 16);
+		final byte[] iv = new byte[16];
+		/* Starts close to wrapping the low 64 bits, so the carry into the high half is covered too */
+		Arrays.fill(iv, 8, 16, (byte) 0xff);
+		iv[15] = (byte) 0x80;
+		final byte[] plaintext = randomBytes(random, 10000);
+		final byte[] expected = byteAtATimeEncrypt(key, iv, plaintext);
+		final byte[] ctr = plaintext.clone();
+		final byte[] ecb = plaintext.clone();
+		encryptInChunks(TorStreamCipher.createFromKeyBytesWithIV(key, iv), ctr, CHUNKS);
+		encryptInChunks(TorStreamCipher.createFallbackFromKeyBytesWithIV(key, iv), ecb, CHUNKS);
+		assertArrayEquals(expected, ctr);
+		assertArrayEquals(expected, ecb);
+	}
+}
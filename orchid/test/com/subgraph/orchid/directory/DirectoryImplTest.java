@@ -0,0 +1,175 @@
+package com.subgraph.orchid.directory;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.subgraph.orchid.ConsensusDocument;
+import com.subgraph.orchid.ConsensusDocument.ConsensusFlavor;
+import com.subgraph.orchid.ConsensusDocument.RequiredCertificate;
+import com.subgraph.orchid.ConsensusDocument.SignatureStatus;
+import com.subgraph.orchid.Document;
+import com.subgraph.orchid.DirectoryStore;
+import com.subgraph.orchid.Router;
+import com.subgraph.orchid.RouterStatus;
+import com.subgraph.orchid.Tor;
+import com.subgraph.orchid.data.HexDigest;
+import com.subgraph.orchid.data.IPv4Address;
+import com.subgraph.orchid.data.Timestamp;
+import com.subgraph.orchid.data.exitpolicy.ExitPorts;
+
+public class DirectoryImplTest {
+
+	private static class TestRouterStatus implements RouterStatus {
+		private final String nickname;
+		private final HexDigest identity;
+		private final Set<String> flags;
+
+		TestRouterStatus(String nickname, int id, String... flags) {
+			final byte[] identityBytes = new byte[20];
+			identityBytes[0] = (byte) id;
+			this.nickname = nickname;
+			this.identity = HexDigest.createFromDigestBytes(identityBytes);
+			this.flags = new HashSet<String>(Arrays.asList(flags));
+		}
+
+		public String getNickname() { return nickname; }
+		public HexDigest getIdentity() { return identity; }
+		public HexDigest getDescriptorDigest() { return null; }
+		public HexDigest getMicrodescriptorDigest() { return null; }
+		public Timestamp getPublicationTime() { return new Timestamp(new Date()); }
+		public IPv4Address getAddress() { return IPv4Address.createFromString("10.0.0.1"); }
+		public int getRouterPort() { return 9001; }
+		public boolean isDirectory() { return false; }
+		public int getDirectoryPort() { return 0; }
+		public boolean hasFlag(String flag) { return flags.contains(flag); }
+		public String getVersion() { return "Tor 0.2.4.21"; }
+		public boolean hasBandwidth() { return false; }
+		public int getEstimatedBandwidth() { return 0; }
+		public int getMeasuredBandwidth() { return 0; }
+		public ExitPorts getExitPorts() { return ExitPorts.createRejectExitPorts("1-65535"); }
+	}
+
+	private static class EmptyDirectoryStore implements DirectoryStore {
+		public ByteBuffer loadCacheFile(CacheFile cacheFile) { return ByteBuffer.allocate(0); }
+		public void writeData(CacheFile cacheFile, ByteBuffer data) {}
+		public void writeDocument(CacheFile cacheFile, Document document) {}
+		public void writeDocumentList(CacheFile cacheFile, List<? extends Document> documents) {}
+		public void appendDocumentList(CacheFile cacheFile, List<? extends Document> documents) {}
+		public void removeCacheFile(CacheFile cacheFile) {}
+		public void removeAllCacheFiles() {}
+	}
+
+	private DirectoryImpl directory;
+	private long validAfter = System.currentTimeMillis();
+
+	@Before
+	public void before() {
+		directory = new DirectoryImpl(Tor.createConfig(), new EmptyDirectoryStore());
+		directory.loadFromStore();
+	}
+
+	@After
+	public void after() {
+		directory.close();
+	}
+
+	private ConsensusDocument createConsensus(RouterStatus... statuses) {
+		final ConsensusDocument consensus = createMock("consensus", ConsensusDocument.class);
+		expect(consensus.getValidAfterTime()).andReturn(new Timestamp(new Date(validAfter++)));
+		expectLastCall().anyTimes();
+		expect(consensus.verifySignatures()).andReturn(SignatureStatus.STATUS_VERIFIED);
+		expectLastCall().anyTimes();
+		expect(consensus.getRequiredCertificates()).andReturn(Collections.<RequiredCertificate>emptySet());
+		expectLastCall().anyTimes();
+		expect(consensus.getRouterStatusEntries()).andReturn(Arrays.asList(statuses));
+		expectLastCall().anyTimes();
+		expect(consensus.getFlavor()).andReturn(ConsensusFlavor.MICRODESC);
+		expectLastCall().anyTimes();
+		replay(consensus);
+		return consensus;
+	}
+
+	private List<String> getRouterNames() {
+		final List<String> names = new ArrayList<String>();
+		for(Router r: directory.getAllRouters()) {
+			names.add(r.getNickname());
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	@Test
+	public void testRoutersUpdatedInPlace() {
+		final TestRouterStatus a1 = new TestRouterStatus("a", 1, "Running", "Valid");
+		final TestRouterStatus b1 = new TestRouterStatus("b", 2, "Running", "Valid");
+		directory.addConsensusDocument(createConsensus(a1, b1), true);
+		assertEquals(Arrays.asList("a", "b"), getRouterNames());
+		final RouterImpl a = (RouterImpl) directory.getRouterByIdentity(a1.getIdentity());
+		assertEquals(1, a.consensusGeneration);
+
+		final TestRouterStatus a2 = new TestRouterStatus("a", 1, "Running", "Valid", "Fast");
+		final TestRouterStatus b2 = new TestRouterStatus("b", 2, "Running", "Valid");
+		directory.addConsensusDocument(createConsensus(a2, b2), true);
+		assertSame(a, directory.getRouterByIdentity(a1.getIdentity()));
+		assertEquals(2, a.consensusGeneration);
+		assertEquals(2, ((RouterImpl) directory.getRouterByIdentity(b2.getIdentity())).consensusGeneration);
+		assertTrue(a.hasFlag("Fast"));
+		assertSame(a, directory.getRouterByName("a"));
+	}
+
+	@Test
+	public void testUnlistedRoutersRemoved() {
+		final TestRouterStatus a = new TestRouterStatus("a", 1, "Running", "Valid");
+		final TestRouterStatus b = new TestRouterStatus("b", 2, "Running", "Valid");
+		final TestRouterStatus c = new TestRouterStatus("c", 3, "Running", "Valid");
+		directory.addConsensusDocument(createConsensus(a, b, c), true);
+		assertEquals(Arrays.asList("a", "b", "c"), getRouterNames());
+
+		/* b is dropped from the consensus, c is listed but no longer running, d is new */
+		final TestRouterStatus cStopped = new TestRouterStatus("c", 3, "Valid");
+		final TestRouterStatus d = new TestRouterStatus("d", 4, "Running", "Valid");
+		directory.addConsensusDocument(createConsensus(a, cStopped, d), true);
+		assertEquals(Arrays.asList("a", "d"), getRouterNames());
+		assertNull(directory.getRouterByIdentity(b.getIdentity()));
+		assertNull(directory.getRouterByIdentity(c.getIdentity()));
+		assertNull(directory.getRouterByName("b"));
+		assertNull(directory.getRouterByName("c"));
+		assertNotNull(directory.getRouterByName("d"));
+
+		/* A router which comes back is created again */
+		directory.addConsensusDocument(createConsensus(a, b), true);
+		assertEquals(Arrays.asList("a", "b"), getRouterNames());
+		assertEquals(3, ((RouterImpl) directory.getRouterByIdentity(b.getIdentity())).consensusGeneration);
+	}
+
+	@Test
+	public void testOlderConsensusIgnored() {
+		final TestRouterStatus a = new TestRouterStatus("a", 1, "Running", "Valid");
+		final TestRouterStatus b = new TestRouterStatus("b", 2, "Running", "Valid");
+		final ConsensusDocument older = createConsensus(a);
+		directory.addConsensusDocument(createConsensus(b), true);
+		directory.addConsensusDocument(older, true);
+		assertEquals(Arrays.asList("b"), getRouterNames());
+		assertEquals(1, ((RouterImpl) directory.getRouterByIdentity(b.getIdentity())).consensusGeneration);
+	}
+}
@@ -0,0 +1,226 @@
+package com.subgraph.orchid.directory.consensus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.subgraph.orchid.ConsensusDocument;
+import com.subgraph.orchid.RouterStatus;
+import com.subgraph.orchid.Tor;
+import com.subgraph.orchid.directory.DocumentFieldParserImpl;
+import com.subgraph.orchid.directory.parsing.DocumentParsingResult;
+import com.subgraph.orchid.encoders.Base64;
+import com.subgraph.orchid.encoders.Hex;
+
+/*
+ * Parses the same consensus with router status entries parsed as they are read and in batches on an executor, and
+ * checks that both produce the same document.  The consensus is generated in the format of the live network (dir-spec
+ * section 3.4.1), with enough entries for several batches.
+ */
+public class ConsensusDocumentParserTest {
+	private final static String[] FLAGS = { "Authority", "BadExit", "Exit", "Fast", "Guard", "HSDir", "Named", "Running", "Stable", "Unnamed", "V2Dir", "Valid" };
+	private final static String[] VERSIONS = { "Tor 0.2.4.21", "Tor 0.2.4.22", "Tor 0.2.5.4-alpha", "Tor 0.2.3.25" };
+	private final static int[] PORTS = { 1, 21, 22, 25, 53, 80, 110, 119, 143, 443, 465, 563, 587, 706, 993, 995, 1194, 5222, 6667, 8080, 9001, 65535 };
+	private final static int ROUTER_COUNT = 2345;
+
+	private ExecutorService executor;
+
+	@Before
+	public void before() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void after() {
+		executor.shutdown();
+	}
+
+	private static String base64(byte[] data) {
+		final String s = new String(Base64.encode(data), Tor.getDefaultCharset());
+		return s.replace("=", "");
+	}
+
+	private static String hex(byte[] data) {
+		return new String(Hex.encode(data), Tor.getDefaultCharset()).toUpperCase();
+	}
+
+	private static byte[] randomBytes(Random random, int length) {
+		final byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private static String createConsensus(boolean microdesc, int routerCount) {
+		final Random random = new Random(routerCount);
+		final StringBuilder sb = new StringBuilder();
+		sb.append(microdesc ? "network-status-version 3 microdesc\n" : "network-status-version 3\n");
+		sb.append("vote-status consensus\n");
+		sb.append("consensus-method 17\n");
+		sb.append("valid-after 2014-05-01 12:00:00\n");
+		sb.append("fresh-until 2014-05-01 13:00:00\n");
+		sb.append("valid-until 2014-05-01 15:00:00\n");
+		sb.append("voting-delay 300 300\n");
+		sb.append("client-versions 0.2.3.25,0.2.4.21,0.2.4.22,0.2.5.4-alpha\n");
+		sb.append("server-versions 0.2.3.25,0.2.4.21,0.2.4.22,0.2.5.4-alpha\n");
+		sb.append("known-flags");
+		for(String flag: FLAGS) {
+			sb.append(" ").append(flag);
+		}
+		sb.append("\n");
+		sb.append("params CircuitPriorityHalflifeMsec=30000 NumDirectoryGuards=3 UseOptimisticData=1 bwauthpid=1\n");
+		final String[] authorities = new String[3];
+		for(int i = 0; i < authorities.length; i++) {
+			authorities[i] = hex(randomBytes(random, 20));
+			sb.append("dir-source auth").append(i).append(" ").append(authorities[i])
+				.append(" 86.59.21.").append(38 + i).append(" 86.59.21.").append(38 + i).append(" 80 443\n");
+			sb.append("contact Authority operator ").append(i).append(" <auth").append(i).append("@example.org>\n");
+			sb.append("vote-digest ").append(hex(randomBytes(random, 20))).append("\n");
+		}
+		for(int i = 0; i < routerCount; i++) {
+			sb.append("r relay").append(i).append(" ").append(base64(randomBytes(random, 20))).append(" ");
+			if(!microdesc) {
+				sb.append(base64(randomBytes(random, 20))).append(" ");
+			}
+			sb.append(String.format("2014-05-01 %02d:%02d:%02d ", random.nextInt(12), random.nextInt(60), random.nextInt(60)));
+			sb.append(random.nextInt(223) + 1).append(".").append(random.nextInt(256)).append(".")
+				.append(random.nextInt(256)).append(".").append(random.nextInt(256)).append(" ");
+			sb.append(random.nextBoolean() ? 9001 : 443).append(" ").append(random.nextBoolean() ? 9030 : 0).append("\n");
+			if(random.nextInt(4) == 0) {
+				sb.append("a [2001:db8::").append(Integer.toHexString(i)).append("]:9001\n");
+			}
+			if(microdesc) {
+				sb.append("m ").append(base64(randomBytes(random, 32))).append("\n");
+			}
+			sb.append("s");
+			for(String flag: FLAGS) {
+				if(flag.equals("Running") || flag.equals("Valid") || random.nextInt(3) == 0) {
+					sb.append(" ").append(flag);
+				}
+			}
+			sb.append("\n");
+			sb.append("v ").append(VERSIONS[random.nextInt(VERSIONS.length)]).append("\n");
+			sb.append("w Bandwidth=").append(random.nextInt(100000));
+			if(random.nextBoolean()) {
+				sb.append(" Measured=").append(random.nextInt(100000));
+			} else {
+				sb.append(" Unmeasured=1");
+			}
+			sb.append("\n");
+			if(!microdesc) {
+				if(random.nextInt(3) == 0) {
+					sb.append("p accept 20-23,43,53,79-81,88,110,143,194,220,389,443,464-465,543-544,563,587,636,706,749,873,902-904,981,989-995,1194,1220,1293,1500,1533,1677,1723,1755,1863,2082-2083,2086-2087,2095-2096,2102-2104,3128,3389,3690,4321,4643,5050,5190,5222-5223,5228,5900,6660-6669,6679,6697,8000,8008,8074,8080,8087-8088,8332-8333,8443,8888,9418,9999-10000,11371,12350,19294,19638,23456,33033,64738\n");
+				} else if(random.nextBoolean()) {
+					sb.append("p accept 80,443\n");
+				} else {
+					sb.append("p reject 1-65535\n");
+				}
+			}
+		}
+		sb.append("directory-footer\n");
+		sb.append("bandwidth-weights Wbd=1005 Wbe=0 Wbg=4188 Wbm=10000 Wdb=10000 Web=10000 Wed=7984 Wee=10000 Weg=7984 Wem=10000 Wgb=10000 Wgd=1005 Wgg=5812 Wgm=5812 Wmb=10000 Wmd=1005 Wme=0 Wmg=4188 Wmm=10000\n");
+		for(String authority: authorities) {
+			sb.append("directory-signature ");
+			if(microdesc) {
+				sb.append("sha256 ");
+			}
+			sb.append(authority).append(" ").append(hex(randomBytes(random, 20))).append("\n");
+			sb.append("-----BEGIN SIGNATURE-----\n");
+			final String signature = new String(Base64.encode(randomBytes(random, 128)), Tor.getDefaultCharset());
+			for(int j = 0; j < signature.length(); j += 64) {
+				sb.append(signature.substring(j, Math.min(signature.length(), j + 64))).append("\n");
+			}
+			sb.append("-----END SIGNATURE-----\n");
+		}
+		return sb.toString();
+	}
+
+	private static DocumentParsingResult<ConsensusDocument> parse(String consensus, ExecutorService executor) {
+		final ByteBuffer buffer = ByteBuffer.wrap(consensus.getBytes(Tor.getDefaultCharset()));
+		return new ConsensusDocumentParser(new DocumentFieldParserImpl(buffer), executor).parse();
+	}
+
+	private static String describe(RouterStatus rs) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(rs.getNickname()).append(" ").append(rs.getIdentity()).append(" ").append(rs.getDescriptorDigest());
+		sb.append(" ").append(rs.getMicrodescriptorDigest()).append(" ").append(rs.getPublicationTime().getDate().getTime());
+		sb.append(" ").append(rs.getAddress()).append(":").append(rs.getRouterPort()).append(":").append(rs.getDirectoryPort());
+		sb.append(" ").append(rs.isDirectory());
+		for(String flag: FLAGS) {
+			if(rs.hasFlag(flag)) {
+				sb.append(" ").append(flag);
+			}
+		}
+		sb.append(" [").append(rs.getVersion()).append("] ").append(rs.hasBandwidth()).append(" ").append(rs.getEstimatedBandwidth());
+		sb.append(" ").append(rs.getMeasuredBandwidth());
+		if(rs.getExitPorts() != null) {
+			sb.append(" ").append(rs.getExitPorts().areAcceptPorts()).append(" ");
+			for(int port: PORTS) {
+				sb.append(rs.getExitPorts().acceptsPort(port) ? "+" : "-");
+			}
+		}
+		return sb.toString();
+	}
+
+	private static List<String> describeEntries(ConsensusDocument consensus) {
+		final List<String> entries = new ArrayList<String>();
+		for(RouterStatus rs: consensus.getRouterStatusEntries()) {
+			entries.add(describe(rs));
+		}
+		return entries;
+	}
+
+	private void assertParallelMatchesSequential(boolean microdesc) {
+		final String text = createConsensus(microdesc, ROUTER_COUNT);
+		final DocumentParsingResult<ConsensusDocument> sequential = parse(text, null);
+		final DocumentParsingResult<ConsensusDocument> parallel = parse(text, executor);
+		assertTrue(sequential.getMessage(), sequential.isOkay());
+		assertTrue(parallel.getMessage(), parallel.isOkay());
+		final ConsensusDocument expected = sequential.getDocument();
+		final ConsensusDocument actual = parallel.getDocument();
+
+		assertEquals(ROUTER_COUNT, expected.getRouterStatusEntries().size());
+		assertEquals(describeEntries(expected), describeEntries(actual));
+		assertEquals(expected.getFlavor(), actual.getFlavor());
+		assertEquals(expected.getValidAfterTime().getDate(), actual.getValidAfterTime().getDate());
+		assertEquals(expected.getSigningHash(), actual.getSigningHash());
+		assertEquals(expected.getSigningHash256(), actual.getSigningHash256());
+		assertEquals(expected.getRawDocumentData(), actual.getRawDocumentData());
+		assertEquals(text, actual.getRawDocumentData());
+	}
+
+	@Test
+	public void testParallelMatchesSequentialMicrodescConsensus() {
+		assertParallelMatchesSequential(true);
+	}
+
+	@Test
+	public void testParallelMatchesSequentialConsensus() {
+		assertParallelMatchesSequential(false);
+	}
+
+	@Test
+	public void testUnterminatedEntryAtBatchBoundary() {
+		/* Remove the last line of the 500th entry, so the entry ends where the first batch does */
+		final String text = createConsensus(true, ROUTER_COUNT);
+		final int nextEntry = text.indexOf("\nr relay500 ");
+		final int lastLine = text.lastIndexOf("\nw ", nextEntry);
+		final String broken = text.substring(0, lastLine) + text.substring(nextEntry);
+
+		final DocumentParsingResult<ConsensusDocument> sequential = parse(broken, null);
+		final DocumentParsingResult<ConsensusDocument> parallel = parse(broken, executor);
+		assertFalse(sequential.isOkay());
+		assertFalse(parallel.isOkay());
+		assertEquals(sequential.getMessage(), parallel.getMessage());
+	}
+}
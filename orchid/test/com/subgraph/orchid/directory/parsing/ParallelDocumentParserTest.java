@@ -0,0 +1,143 @@
+package com.subgraph.orchid.directory.parsing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.subgraph.orchid.RouterMicrodescriptor;
+import com.subgraph.orchid.Tor;
+import com.subgraph.orchid.crypto.RSAKeyEncoder;
+import com.subgraph.orchid.directory.DocumentFieldParserImpl;
+import com.subgraph.orchid.directory.router.RouterMicrodescriptorParser;
+import com.subgraph.orchid.encoders.Base64;
+
+public class ParallelDocumentParserTest {
+	private final static int[] PORTS = { 1, 22, 25, 53, 80, 443, 993, 6667, 8080, 65535 };
+
+	private ExecutorService executor;
+
+	@Before
+	public void before() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void after() {
+		executor.shutdown();
+	}
+
+	private static String wrapBase64(byte[] data) {
+		final String s = new String(Base64.encode(data), Tor.getDefaultCharset());
+		final StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < s.length(); i += 64) {
+			sb.append(s.substring(i, Math.min(s.length(), i + 64))).append("\n");
+		}
+		return sb.toString();
+	}
+
+	/* Microdescriptors in the format served by directory caches, about 300 bytes each */
+	private static String createMicrodescriptors(int count) throws Exception {
+		final Random random = new Random(count);
+		final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(1024);
+		final RSAKeyEncoder encoder = new RSAKeyEncoder();
+		final String[] onionKeys = new String[4];
+		for(int i = 0; i < onionKeys.length; i++) {
+			final RSAPublicKey key = (RSAPublicKey) generator.generateKeyPair().getPublic();
+			onionKeys[i] = "-----BEGIN RSA PUBLIC KEY-----\n"+ wrapBase64(encoder.getPKCS1Encoded(key)) +"-----END RSA PUBLIC KEY-----\n";
+		}
+		final StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < count; i++) {
+			sb.append("onion-key\n").append(onionKeys[random.nextInt(onionKeys.length)]);
+			final byte[] ntorKey = new byte[32];
+			random.nextBytes(ntorKey);
+			sb.append("ntor-onion-key ").append(new String(Base64.encode(ntorKey), Tor.getDefaultCharset())).append("\n");
+			if(random.nextInt(4) == 0) {
+				sb.append("a [2001:db8::").append(Integer.toHexString(i)).append("]:9001\n");
+			}
+			if(random.nextInt(3) == 0) {
+				sb.append("family relay").append(i + 1).append(" $").append(String.format("%040X", i)).append("\n");
+			}
+			switch(random.nextInt(3)) {
+			case 0:
+				sb.append("p accept 20-23,43,53,79-81,88,110,143,194,220,443,464-465,543-544,563,587,993,995,6660-6669\n");
+				break;
+			case 1:
+				sb.append("p accept 80,443\n");
+				break;
+			default:
+				sb.append("p reject 1-65535\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	private DocumentParser<RouterMicrodescriptor> createParser(ByteBuffer buffer, int chunkCount) {
+		return new ParallelDocumentParser<RouterMicrodescriptor>(buffer, "onion-key", executor, chunkCount) {
+			@Override
+			protected DocumentParser<RouterMicrodescriptor> createChunkParser(ByteBuffer chunk) {
+				return new RouterMicrodescriptorParser(new DocumentFieldParserImpl(chunk));
+			}
+		};
+	}
+
+	private static String describe(RouterMicrodescriptor md) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(md.getDescriptorDigest()).append(" ").append(md.getFamilyMembers()).append(" ");
+		for(int port: PORTS) {
+			sb.append(md.exitPolicyAccepts(port) ? "+" : "-");
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testParallelMatchesSequential() throws Exception {
+		final String text = createMicrodescriptors(3000);
+		final byte[] bytes = text.getBytes(Tor.getDefaultCharset());
+		final DocumentParsingResult<RouterMicrodescriptor> sequential =
+				new RouterMicrodescriptorParser(new DocumentFieldParserImpl(ByteBuffer.wrap(bytes))).parse();
+		final DocumentParsingResult<RouterMicrodescriptor> parallel = createParser(ByteBuffer.wrap(bytes), 7).parse();
+		assertTrue(sequential.getMessage(), sequential.isOkay());
+		assertTrue(parallel.getMessage(), parallel.isOkay());
+
+		final List<RouterMicrodescriptor> expected = sequential.getParsedDocuments();
+		final List<RouterMicrodescriptor> actual = parallel.getParsedDocuments();
+		assertEquals(3000, expected.size());
+		assertEquals(expected.size(), actual.size());
+		final StringBuilder raw = new StringBuilder();
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(describe(expected.get(i)), describe(actual.get(i)));
+			assertEquals(expected.get(i).getRawDocumentData(), actual.get(i).getRawDocumentData());
+			assertArrayEquals(expected.get(i).getNTorOnionKey(), actual.get(i).getNTorOnionKey());
+			assertEquals(expected.get(i).getOnionKey().getFingerprint(), actual.get(i).getOnionKey().getFingerprint());
+			raw.append(actual.get(i).getRawDocumentData());
+		}
+		/* Every byte of the buffer ends up in exactly one document */
+		assertEquals(text, raw.toString());
+	}
+
+	@Test
+	public void testSmallBufferIsNotSplit() throws Exception {
+		final String text = createMicrodescriptors(10);
+		final List<String> digests = new ArrayList<String>();
+		final DocumentParsingResult<RouterMicrodescriptor> result = createParser(ByteBuffer.wrap(text.getBytes(Tor.getDefaultCharset())), 7).parse();
+		assertTrue(result.isOkay());
+		for(RouterMicrodescriptor md: result.getParsedDocuments()) {
+			digests.add(md.getDescriptorDigest().toString());
+		}
+		assertEquals(10, digests.size());
+	}
+}
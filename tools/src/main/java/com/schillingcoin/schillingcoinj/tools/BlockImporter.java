@@ -4,13 +4,19 @@ import com.schillingcoin.schillingcoinj.core.*;
 import com.schillingcoin.schillingcoinj.params.MainNetParams;
 import com.schillingcoin.schillingcoinj.store.*;
 import com.schillingcoin.schillingcoinj.utils.BlockFileLoader;
+import com.schillingcoin.schillingcoinj.utils.ParallelBlockFileLoader;
 import com.google.common.base.Preconditions;
 
 import java.io.File;
 import java.io.IOException;
 
-/** Very thin wrapper around {@link com.schillingcoin.schillingcoinj.utils.BlockFileLoader} */
+/**
+ * Thin wrapper around {@link com.schillingcoin.schillingcoinj.utils.ParallelBlockFileLoader}, which parses blocks on all
+ * processors while they are connected to the chain on the main thread.
+ */
 public class BlockImporter {
+    private static final long PROGRESS_INTERVAL_MILLIS = 10000;
+
     public static void main(String[] args) throws BlockStoreException, VerificationException, PrunedException, IOException {
         System.out.println("USAGE: BlockImporter prod (Mem|SPV) validHashStore [blockStore]");
         System.out.println("       blockStore is required unless type is Mem or MemFull");
@@ -36,9 +42,20 @@ public class BlockImporter {
         ValidHashStore validHashStore = new ValidHashStore(new File(args[2]));
         AbstractBlockChain chain = new BlockChain(params, store, validHashStore);
         
-        BlockFileLoader loader = new BlockFileLoader(params, BlockFileLoader.getReferenceClientBlockFileList());
+        ParallelBlockFileLoader loader = new ParallelBlockFileLoader(params, BlockFileLoader.getReferenceClientBlockFileList());
         
-        for (Block block : loader)
-            chain.add(block);
+        long lastReport = System.currentTimeMillis();
+        try {
+            for (Block block : loader) {
+                chain.add(block);
+                if (System.currentTimeMillis() - lastReport >= PROGRESS_INTERVAL_MILLIS) {
+                    lastReport = System.currentTimeMillis();
+                    System.out.println("Height " + chain.getBestChainHeight() + ": " + loader.getStats());
+                }
+            }
+        } finally {
+            loader.close();
+        }
+        System.out.println("Done, height " + chain.getBestChainHeight() + ": " + loader.getStats());
     }
 }
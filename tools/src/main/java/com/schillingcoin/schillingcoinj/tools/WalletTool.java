@@ -32,6 +32,9 @@ import com.schillingcoin.schillingcoinj.store.*;
 import com.schillingcoin.schillingcoinj.uri.SchillingcoinURI;
 import com.schillingcoin.schillingcoinj.uri.SchillingcoinURIParseException;
 import com.schillingcoin.schillingcoinj.utils.BriefLogFormatter;
+import com.schillingcoin.schillingcoinj.utils.Metrics;
+import com.schillingcoin.schillingcoinj.utils.MetricsMBean;
+import com.schillingcoin.schillingcoinj.utils.Threading;
 import com.schillingcoin.schillingcoinj.wallet.DeterministicSeed;
 import com.schillingcoin.schillingcoinj.wallet.DeterministicUpgradeRequiredException;
 import com.schillingcoin.schillingcoinj.wallet.DeterministicUpgradeRequiresPassword;
@@ -194,6 +197,7 @@ public class WalletTool {
         parser.accepts("help");
         parser.accepts("force");
         parser.accepts("debuglog");
+        parser.accepts("metrics");
         OptionSpec<String> walletFileName = parser.accepts("wallet").withRequiredArg().defaultsTo("wallet");
         seedFlag = parser.accepts("seed").withRequiredArg();
         watchFlag = parser.accepts("watchkey").withRequiredArg();
@@ -254,6 +258,18 @@ public class WalletTool {
             java.util.logging.Logger logger = LogManager.getLogManager().getLogger("");
             logger.setLevel(Level.SEVERE);
         }
+        if (options.has("metrics")) {
+            // Before anything is loaded, as some metrics are set up when objects are created.
+            Metrics.setEnabled(true);
+            Threading.setLockProfiling(true);
+            MetricsMBean.register();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    System.out.print(Metrics.dump());
+                }
+            });
+        }
         switch (netFlag.value(options)) {
             case PROD:
                 params = MainNetParams.get();